@@ -84,6 +84,12 @@
       <xsl:apply-templates select="xalan:nodeset($pms)/*"/>
     </pipes-main-statement>
     <source-main-statement><xsl:call-template name="source-main-statement"/></source-main-statement>
+    <source-coordinator-statement>
+      <xsl:call-template name="source-main-statement">
+        <xsl:with-param name="partitioned" select="'y'"/>
+      </xsl:call-template>
+    </source-coordinator-statement>
+    <source-partition-statement><xsl:call-template name="source-partition-statement"/></source-partition-statement>
   </xsl:copy>
 </xsl:template>
 
@@ -181,6 +187,7 @@
 </xsl:template>
 
 <xsl:template name="source-main-statement">
+  <xsl:param name="partitioned" select="'n'"/>
   <block><array>
     <set-var>
       <string><xsl:value-of select="$error-var"/></string>
@@ -200,17 +207,16 @@
             </xsl:call-template>
 
             <xsl:call-template name="test-break-var"/> <!-- just in case because var-query tests break var -->
-            <target-buffer>
-              <string><xsl:value-of select="$target-db-name"/></string>
-              <string><xsl:value-of select="$target-profile-object-name"/></string>
-              <string><xsl:value-of select="$records-buffer-limit-var"/></string>
-              <string><xsl:value-of select="$bytes-buffer-limit-var"/></string>
-              <string><xsl:value-of select="$system-params/@target-portion-var"/></string>
-              <string><xsl:value-of select="$portion-size-var"/></string>
-              <xsl:call-template name="call-source-statement">
-                <xsl:with-param name="stmt-name" select="'main'"/>
-              </xsl:call-template>
-            </target-buffer>
+            <xsl:choose>
+              <xsl:when test="$partitioned = 'y'">
+                <xsl:call-template name="call-script">
+                  <xsl:with-param name="script-name" select="'partitions'"/>
+                </xsl:call-template>
+              </xsl:when>
+              <xsl:otherwise>
+                <xsl:call-template name="source-target-buffer"/>
+              </xsl:otherwise>
+            </xsl:choose>
             <xsl:call-template name="call-target-stmt">
               <xsl:with-param name="stmt-name" select="'after'"/>
             </xsl:call-template>
@@ -233,6 +239,43 @@
   </array></block>
 </xsl:template>
 
+<!-- statement of one part of partitioned rule: before/after are executed by coordinator -->
+<xsl:template name="source-partition-statement">
+  <block><array>
+    <set-var>
+      <string><xsl:value-of select="$error-var"/></string>
+      <null-string/>
+    </set-var>
+    <catch>
+      <block>
+        <string><xsl:value-of select="$top-label"/></string>
+        <array>
+          <xsl:call-template name="test-break-var"/>
+          <xsl:call-template name="source-target-buffer"/>
+        </array>
+      </block>
+      <nothing/>
+      <true/>
+      <not><true/></not>
+      <string><xsl:value-of select="$error-var"/></string>
+    </catch>
+  </array></block>
+</xsl:template>
+
+<xsl:template name="source-target-buffer">
+  <target-buffer>
+    <string><xsl:value-of select="$target-db-name"/></string>
+    <string><xsl:value-of select="$target-profile-object-name"/></string>
+    <string><xsl:value-of select="$records-buffer-limit-var"/></string>
+    <string><xsl:value-of select="$bytes-buffer-limit-var"/></string>
+    <string><xsl:value-of select="$system-params/@target-portion-var"/></string>
+    <string><xsl:value-of select="$portion-size-var"/></string>
+    <xsl:call-template name="call-source-statement">
+      <xsl:with-param name="stmt-name" select="'main'"/>
+    </xsl:call-template>
+  </target-buffer>
+</xsl:template>
+
 <xsl:template name="check-max-portion-size">
 <xsl:if test="portion[1]/@max-portion-size">
   <if>
@@ -333,6 +376,23 @@
         <xsl:otherwise>false</xsl:otherwise>
       </xsl:choose>      
     </boolean>
+    <boolean>
+      <xsl:choose>
+        <xsl:when test="data-query/@typed-row = 'yes'">true</xsl:when>
+        <xsl:otherwise>false</xsl:otherwise>
+      </xsl:choose>
+    </boolean>
+    <xsl:if test="$add-sync-specifics = 'y' and batch-lookup">
+      <int>
+        <xsl:choose>
+          <xsl:when test="data-query/@batch-size"><xsl:value-of select="data-query/@batch-size"/></xsl:when>
+          <xsl:otherwise>500</xsl:otherwise>
+        </xsl:choose>
+      </int>
+      <list>
+        <xsl:apply-templates select="batch-lookup"/>
+      </list>
+    </xsl:if>
   </rs-loop>
 
   <xsl:if test="$portion = 'y'">
@@ -582,6 +642,13 @@
         <xsl:apply-templates select="node()|@*"/>
       </xsl:element>
     </xsl:when>
+    <xsl:when test="@type='batch'">
+      <batch-operation>
+        <xsl:call-template name="target-db-name-helper"/>
+        <template><string><xsl:value-of select="."/></string></template>
+        <string><xsl:value-of select="@params"/></string>
+      </batch-operation>
+    </xsl:when>
     <xsl:otherwise>
       <operation>
         <xsl:call-template name="target-db-name-helper"/>
@@ -612,6 +679,7 @@
         <xsl:call-template name="source-db-name-helper"/>
         <string><xsl:value-of select="$terminate-if-rs-name"/></string>
         <template><string><xsl:value-of select="."/></string></template>
+        <xsl:call-template name="lookup-cache"/>
       </from-db>
       <string-const><string><xsl:value-of select="@value"/></string></string-const>
     </comp-two-expr>
@@ -619,6 +687,17 @@
   </if>
 </xsl:template>
 
+<xsl:template name="lookup-cache">
+  <xsl:if test="@*[starts-with(name(), 'cache-')]">
+    <lookup-cache>
+      <node><xsl:copy-of select="@*[starts-with(name(), 'cache-') and name() != 'cache-key']"/></node>
+      <xsl:if test="@cache-key">
+        <template><string><xsl:value-of select="@cache-key"/></string></template>
+      </xsl:if>
+    </lookup-cache>
+  </xsl:if>
+</xsl:template>
+
 <xsl:template match="var-query">
     <xsl:choose>
       <xsl:when test="param">
@@ -632,6 +711,7 @@
           <xsl:if test="@prefix">
             <template><string><xsl:value-of select="@prefix"/></string></template>
           </xsl:if>
+          <xsl:call-template name="lookup-cache"/>
         </map-var-query>
       </xsl:when>
       <xsl:otherwise>
@@ -641,12 +721,47 @@
           <xsl:if test="@prefix">
             <template><string><xsl:value-of select="@prefix"/></string></template>
           </xsl:if>
+          <xsl:call-template name="lookup-cache"/>
         </var-query>
       </xsl:otherwise>
     </xsl:choose>
     <xsl:call-template name="test-break-var"/>
 </xsl:template>
 
+<xsl:template match="batch-lookup">
+  <batch-lookup>
+    <template><xsl:call-template name="source-db-name-helper"/></template>
+    <template><string><xsl:value-of select="."/></string></template>
+    <template><string><xsl:value-of select="@key"/></string></template>
+    <xsl:choose>
+      <xsl:when test="@prefix">
+        <template><string><xsl:value-of select="@prefix"/></string></template>
+      </xsl:when>
+      <xsl:otherwise>
+        <null-string/>
+      </xsl:otherwise>
+    </xsl:choose>
+    <string>
+      <xsl:choose>
+        <xsl:when test="@keys-var"><xsl:value-of select="@keys-var"/></xsl:when>
+        <xsl:otherwise>$lookup-keys</xsl:otherwise>
+      </xsl:choose>
+    </string>
+    <int>
+      <xsl:choose>
+        <xsl:when test="@max-keys"><xsl:value-of select="@max-keys"/></xsl:when>
+        <xsl:otherwise>500</xsl:otherwise>
+      </xsl:choose>
+    </int>
+    <boolean>
+      <xsl:choose>
+        <xsl:when test="@quote-keys = 'no'">false</xsl:when>
+        <xsl:otherwise>true</xsl:otherwise>
+      </xsl:choose>
+    </boolean>
+  </batch-lookup>
+</xsl:template>
+
 <xsl:template match="query-xml">
     <xsl:variable name="record-tag">
       <template><string>
@@ -737,6 +852,47 @@
   </rs-loop>
 </xsl:template>
 
+<xsl:template match="stored-result-set-loop">
+  <stored-rs-loop>
+    <template><xsl:call-template name="source-db-name-helper"/></template>
+    <string><xsl:value-of select="@rs-name"/></string>
+    <xsl:choose>
+      <xsl:when test="query">
+        <template><string><xsl:value-of select="query"/></string></template>
+      </xsl:when>
+      <xsl:otherwise>
+        <null-string/>
+      </xsl:otherwise>
+    </xsl:choose>
+    <int>
+      <xsl:choose>
+        <xsl:when test="@memory-rows"><xsl:value-of select="@memory-rows"/></xsl:when>
+        <xsl:otherwise>10000</xsl:otherwise>
+      </xsl:choose>
+    </int>
+    <xsl:call-template name="block-helper">
+      <xsl:with-param name="block-content" select="execute"/>
+    </xsl:call-template>
+    <xsl:choose>
+      <xsl:when test="@count-var-name">
+        <string><xsl:value-of select="@count-var-name"/></string>
+      </xsl:when>
+      <xsl:otherwise>
+        <string null="yes"/>
+      </xsl:otherwise>
+    </xsl:choose>
+    <xsl:choose>
+      <xsl:when test="@prefix">
+        <template><string><xsl:value-of select="@prefix"/></string></template>
+      </xsl:when>
+      <xsl:otherwise>
+        <null-string/>
+      </xsl:otherwise>
+    </xsl:choose>
+  </stored-rs-loop>
+  <xsl:call-template name="test-break-var"/>
+</xsl:template>
+
 <xsl:template match="set-template">
   <set-template>
     <string><xsl:value-of select="@name"/></string>
@@ -753,6 +909,19 @@
   <xsl:call-template name="test-break-var"/>
 </xsl:template>
 
+<xsl:template match="queue-put">
+  <local-queue-put>
+    <template><string><xsl:value-of select="@queue"/></string></template>
+    <xsl:call-template name="value-reaper"/>
+    <string>
+      <xsl:choose>
+        <xsl:when test="@timeout"><xsl:value-of select="@timeout"/></xsl:when>
+        <xsl:otherwise>60s</xsl:otherwise>
+      </xsl:choose>
+    </string>
+  </local-queue-put>
+</xsl:template>
+
 <xsl:template match="log-message">
   <log-message>
     <string>
@@ -50,15 +50,22 @@ import ru.rd.courier.manager.message.CourierInfoMessage;
 import ru.rd.courier.manager.message.ProcessResult;
 import ru.rd.courier.schedule.*;
 import ru.rd.courier.scripting.*;
+import ru.rd.courier.scripting.dataaccess.LocalQueue;
+import ru.rd.courier.scripting.dataaccess.streamed.StreamCache;
 import ru.rd.courier.scripting.statements.ObjectStatementCaller;
 import ru.rd.courier.utils.*;
 import ru.rd.courier.datalinks.*;
 import ru.rd.pool.*;
 import ru.rd.pool.jdbc.ConnectionPool;
+import ru.rd.pool2.BlockingObjectPool;
 import ru.rd.pool2.DefaultObjectPool2;
 import ru.rd.pool2.ObjectPool2;
+import ru.rd.scheduling.LatenessStat;
+import ru.rd.scheduling.TimingWheel;
 import ru.rd.scheduling.leveled.*;
 import ru.rd.thread.ThreadFactory;
+import ru.rd.thread.VirtualThreads;
+import ru.rd.thread.WorkExecutor;
 import ru.rd.thread.WorkThread;
 import ru.rd.utils.Disposable;
 import ru.rd.utils.SafeSystemRunnable;
@@ -93,6 +100,8 @@ public final class Application implements CourierContext, ProcedureProvider {
     private ResourceProvider m_sysres;
     private LogProvider m_logProvider;
     private ScriptStatement m_stdSourceStmt;
+    private ScriptStatement m_coordinatorSourceStmt;
+    private ScriptStatement m_partitionSourceStmt;
     private ScriptStatement m_stdPipesStmt;
     private ScriptStatement m_commonStmt;
     private ScriptContext m_commonContext;
@@ -108,6 +117,7 @@ public final class Application implements CourierContext, ProcedureProvider {
     private Map<String, Pipeline> m_pipes = new HashMap<String, Pipeline>();
     private StartStopListenerSet m_scheduler = null;
     private ObjectPoolIntf m_threadPool = null;
+    private final Map<String, WorkExecutor> m_workExecutors = new LinkedHashMap<String, WorkExecutor>();
     private Timer m_timer = null;
     private Collection<CourierListener> m_listeners = new LinkedList<CourierListener>();
     private CountDownLatch m_stopSignal;
@@ -147,6 +157,11 @@ public final class Application implements CourierContext, ProcedureProvider {
 
     private static final String c_PoolLoggerName = "pool";
 
+    public static final String c_TransferThreadGroup = "transfer";
+    public static final String c_SystemDbThreadGroup = "system-db";
+    public static final String c_HelperThreadGroup = "helper";
+    public static final String c_SchedulerThreadGroup = "scheduler";
+
     private static final String c_initState = "INIT";
     private static final String c_stoppedState = "STOPPED";
     private static final String c_startingState = "STARTING";
@@ -285,9 +300,32 @@ public final class Application implements CourierContext, ProcedureProvider {
         return m_threadPool;
     }
 
-    public Timer getTimer() {
+    /**
+     * @return executor of the thread group or null if the group is not
+     * configured and the common thread pool is to be used
+     */
+    public WorkExecutor getWorkExecutor(String name) {
+        return m_workExecutors.get(name);
+    }
+
+    public synchronized Timer getTimer() {
         if (m_timer == null) {
-            m_timer = new Timer("CourierMainTimer");
+            if (m_params != null && StringHelper.boolParam(m_params, "timing-wheel", false)) {
+                WorkExecutor executor = m_workExecutors.get(c_SchedulerThreadGroup);
+                if (executor == null) {
+                    executor = new WorkExecutor(
+                        m_logProvider.getLogger(c_PoolLoggerName), c_SchedulerThreadGroup,
+                        8, 10000, 60*1000
+                    );
+                    m_workExecutors.put(c_SchedulerThreadGroup, executor);
+                }
+                m_timer = new TimingWheel(
+                    m_logger, "CourierMainTimer",
+                    StringHelper.timeParam(m_params, "timing-wheel-tick", 10), executor
+                );
+            } else {
+                m_timer = new Timer("CourierMainTimer");
+            }
         }
         return m_timer;
     }
@@ -304,6 +342,14 @@ public final class Application implements CourierContext, ProcedureProvider {
         return m_stdSourceStmt;
     }
 
+    public ScriptStatement getSourceCoordinatorStatement() {
+        return m_coordinatorSourceStmt;
+    }
+
+    public ScriptStatement getSourcePartitionStatement() {
+        return m_partitionSourceStmt;
+    }
+
     public ScriptStatement getPipesTopStatement() {
         return m_stdPipesStmt;
     }
@@ -574,15 +620,22 @@ public final class Application implements CourierContext, ProcedureProvider {
 
         m_params = new Properties();
         m_params.putAll(DomHelper.getAttrParams(root));
+        PreparedTemplate.setCompiledByDefault(DomHelper.getBoolYesNo(root, "compiled-templates", false));
 
         Node sysRoot = sysConfDoc.getDocumentElement();
-        initSystemServices(sysRoot);
+        initSystemServices(sysRoot, root);
 
         initSchedules(root);
 
         m_stdSourceStmt = getStmtFactory().getStatement(
             DomHelper.getChild(root, "source-main-statement").getFirstChild(), null
         );
+        m_coordinatorSourceStmt = getStmtFactory().getStatement(
+            DomHelper.getChild(root, "source-coordinator-statement").getFirstChild(), null
+        );
+        m_partitionSourceStmt = getStmtFactory().getStatement(
+            DomHelper.getChild(root, "source-partition-statement").getFirstChild(), null
+        );
 
         m_stdPipesStmt = getStmtFactory().getStatement(
             DomHelper.getChild(root, "pipes-main-statement").getFirstChild(), null
@@ -793,6 +846,8 @@ public final class Application implements CourierContext, ProcedureProvider {
                     ObjectPoolIntf pool = poolEntry.getValue();
                     if (pool instanceof ObjectPool) {
                         ((ObjectPool)pool).setMaxCapacity(mcap);
+                    } else if (pool instanceof BlockingObjectPool) {
+                        ((BlockingObjectPool)pool).setMaxCapacity(mcap);
                     } else {
                         ((ObjectPool2)pool).setMaxCapacity(mcap);
                     }
@@ -1035,6 +1090,21 @@ public final class Application implements CourierContext, ProcedureProvider {
                 out.println();
             }
 
+            if (!m_workExecutors.isEmpty()) {
+                out.println("\nThread groups:");
+                for (WorkExecutor executor: m_workExecutors.values()) {
+                    out.println("  " + executor.getStateDesc());
+                }
+            }
+
+            if (m_timer instanceof TimingWheel) {
+                out.println("\nTiming wheel:");
+                out.println("  " + ((TimingWheel)m_timer).getStateDesc());
+            }
+
+            out.println("\nLaunchers lateness:");
+            out.print(LatenessStat.getNamedStatsDesc());
+
             out.println("\nAll threads:");
             out.println(
                 ErrorHelper.stackTracesToString(
@@ -1043,6 +1113,23 @@ public final class Application implements CourierContext, ProcedureProvider {
             );
 
             if (needToClose) out.close();
+        } else if (cmd.equals("caches")) {
+            System.out.println("Lookup caches:");
+            System.out.print(LookupCache.getCachesDesc());
+            System.out.println("Stream source caches: " + StreamCache.getStatDesc());
+        } else if (cmd.equals("queues")) {
+            System.out.println("Local queues:");
+            System.out.print(LocalQueue.getQueuesDesc());
+        } else if (cmd.equals("queue-put")) {
+            String queue = p.shiftWordOrBracketedString('\'');
+            p.skipBlanks();
+            try {
+                if (!LocalQueue.getQueue(queue).put(p.endSubstr(), 0)) {
+                    m_logger.warning("Local queue '" + queue + "' is full");
+                }
+            } catch (InterruptedException e) {
+                m_logger.warning(e);
+            }
         } else if (cmd.equals("pools")) {
             PrintStream out;
             boolean needToClose;
@@ -1171,6 +1258,8 @@ public final class Application implements CourierContext, ProcedureProvider {
             }
 
             MockDatabase.closeGlobalDatabase();
+            LookupCache.removeCaches();
+            LocalQueue.closeQueues();
 
             m_logger.debug("Data sources stopped");
 
@@ -1184,9 +1273,20 @@ public final class Application implements CourierContext, ProcedureProvider {
                 m_rtTimer.cancel();
             }
 
+            if (m_timer instanceof TimingWheel) {
+                try { m_timer.cancel(); }
+                catch(Throwable e) { m_logger.warning(e); }
+            }
+
+            for (WorkExecutor executor: m_workExecutors.values()) {
+                try { executor.close(2000); }
+                catch(Throwable e) { m_logger.warning(e); }
+            }
+
             if (m_threadPool != null) {
                 try {
                     if (m_threadPool instanceof ObjectPool2) ((ObjectPool2)m_threadPool).setCloseTimeout(2000);
+                    if (m_threadPool instanceof BlockingObjectPool) ((BlockingObjectPool)m_threadPool).setCloseTimeout(2000);
                     m_threadPool.close();
                 } catch(Throwable e) { m_logger.warning(e); }
             }
@@ -1309,25 +1409,37 @@ public final class Application implements CourierContext, ProcedureProvider {
         }
     }
 
-    private void initSystemServices(Node root) throws Exception {
+    private void initSystemServices(Node root, Node userRoot) throws Exception {
         m_params.putAll(DomHelper.getAttrParams(root));
         m_params.setProperty("host", InetAddress.getLocalHost().getHostName());
+        // thread groups are needed by the timer which system services use
+        initWorkExecutors(userRoot);
 
         m_scriptParams = DomHelper.getAttrParams(DomHelper.getChild(root, "scripting"));
 
-        DefaultObjectPool2 threadPool = new DefaultObjectPool2(
-            m_logProvider.getLogger(c_PoolLoggerName),
-            "CourierThreadPool",
-            new ThreadFactory(
-                m_logger, Thread.currentThread().getThreadGroup(),
-                "Courier", StringHelper.boolParam(m_params, "com-enabled", false)
-            )
+        ThreadFactory threadFactory = new ThreadFactory(
+            m_logger, Thread.currentThread().getThreadGroup(),
+            "Courier", StringHelper.boolParam(m_params, "com-enabled", false)
         );
-        threadPool.setTimer(new Timer("ThreadPoolTimer"));
-        threadPool.setCapacityPars(1, 1, -1, -1);
-        threadPool.setShrinkPars(5*60*1000, 4, 5*60*1000);
-        threadPool.setCheckPars(-1);
-        m_threadPool = threadPool;
+        if (StringHelper.boolParam(m_params, "blocking-thread-pool", false)) {
+            BlockingObjectPool threadPool = new BlockingObjectPool(
+                m_logProvider.getLogger(c_PoolLoggerName), "CourierThreadPool", threadFactory
+            );
+            threadPool.setTimer(new Timer("ThreadPoolTimer"));
+            threadPool.setCapacityPars(1, -1, -1);
+            threadPool.setShrinkPars(5*60*1000, 4, 5*60*1000);
+            threadPool.setCheckPars(-1);
+            m_threadPool = threadPool;
+        } else {
+            DefaultObjectPool2 threadPool = new DefaultObjectPool2(
+                m_logProvider.getLogger(c_PoolLoggerName), "CourierThreadPool", threadFactory
+            );
+            threadPool.setTimer(new Timer("ThreadPoolTimer"));
+            threadPool.setCapacityPars(1, 1, -1, -1);
+            threadPool.setShrinkPars(5*60*1000, 4, 5*60*1000);
+            threadPool.setCheckPars(-1);
+            m_threadPool = threadPool;
+        }
         m_threadPool.start();
 
         m_stmtFactory = new XmlStatementFactory(parseSysXml("StatementFactoryConf.xml"), null);
@@ -1437,7 +1549,8 @@ public final class Application implements CourierContext, ProcedureProvider {
     ) throws PoolException {
         return ConfHelper.asynchPoolFromXmlEx(
             poolLogger, threadPool, getTimer(), poolName, n,
-            new JdbcSourceFactory(poolLogger, n, name, appProps, driverInfos, m_aprovider), isPool2
+            new JdbcSourceFactory(poolLogger, n, name, appProps, driverInfos, m_aprovider),
+            isPool2, m_blockingPools
         );
     }
 
@@ -1496,6 +1609,7 @@ public final class Application implements CourierContext, ProcedureProvider {
 
     private boolean m_skipUnusedDb;
     private boolean m_checkUsedDb;
+    private boolean m_blockingPools = false;
 
     private static final String s_datalinksPackage = "ru.rd.courier.datalinks";
     private Class getDbClass(Element n) throws ClassNotFoundException {
@@ -1558,7 +1672,7 @@ public final class Application implements CourierContext, ProcedureProvider {
 
             return ConfHelper.asynchPoolFromXmlEx(
                 m_logProvider.getLogger(c_PoolLoggerName), getThreadPool(), getTimer(),
-                pname, n, pof, isPool2
+                pname, n, pof, isPool2, m_blockingPools
             );
         }
     }
@@ -1573,6 +1687,49 @@ public final class Application implements CourierContext, ProcedureProvider {
         return dbCounters;
     }
 
+    private void initWorkExecutors(final Node root) {
+        final CourierLogger logger = m_logProvider.getLogger(c_PoolLoggerName);
+        final boolean virtualDef = StringHelper.boolParam(m_params, "virtual-threads", false);
+        final Node conf = DomHelper.getChild(root, "thread-groups", false);
+        if (conf != null) {
+            for (Node n: DomHelper.getChildrenByTagName(conf, "group", false)) {
+                String name = DomHelper.getNodeAttr(n, "name");
+                if (m_workExecutors.containsKey(name)) {
+                    throw new CourierException("Thread group '" + name + "' already exists");
+                }
+                WorkExecutor executor;
+                if (DomHelper.getBoolYesNo(n, "virtual", virtualDef) && isVirtualThreadsSupported()) {
+                    executor = new WorkExecutor(logger, name);
+                } else {
+                    executor = new WorkExecutor(
+                        logger, name,
+                        DomHelper.getIntNodeAttr(n, "max-threads", 10),
+                        DomHelper.getIntNodeAttr(n, "queue-size", 1000),
+                        DomHelper.getTimeNodeAttr(n, "keep-alive", 60*1000, "s")
+                    );
+                }
+                m_workExecutors.put(name, executor);
+            }
+        }
+
+        if (virtualDef && isVirtualThreadsSupported()) {
+            for (String name: new String[] {c_TransferThreadGroup, c_HelperThreadGroup}) {
+                if (!m_workExecutors.containsKey(name)) {
+                    m_workExecutors.put(name, new WorkExecutor(logger, name));
+                }
+            }
+        }
+    }
+
+    private boolean isVirtualThreadsSupported() {
+        if (VirtualThreads.isSupported()) return true;
+        m_logger.warning(
+            "Virtual threads are not supported by JVM " + System.getProperty("java.version") +
+            ": platform threads are used"
+        );
+        return false;
+    }
+
     private void initDbProfiles(final Node ds) throws Exception {
         DriverManager.setLoginTimeout(DomHelper.getIntNodeAttr(ds, "jdbc-login-timeout-sec", 30));
 
@@ -1580,6 +1737,7 @@ public final class Application implements CourierContext, ProcedureProvider {
         Set<String> unusedDbs = new HashSet<String>();
 
         boolean isPool2 = DomHelper.getBoolYesNo(ds, "enable-pool2", false);
+        m_blockingPools = DomHelper.getBoolYesNo(ds, "enable-blocking-pool", false);
 
         for (Node cn = ds.getFirstChild(); cn != null; cn = cn.getNextSibling()) {
             if (cn.getNodeType() == Node.ELEMENT_NODE) {
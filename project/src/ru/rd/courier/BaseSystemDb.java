@@ -71,6 +71,23 @@ public abstract class BaseSystemDb implements SystemDb {
         }
     }
 
+    protected BaseSystemDb(
+        final CourierLogger msgh, final DateFormat dateFormat,
+        final int syncInterval, final Timer timer
+    ) throws CourierException {
+        m_dateFormat = dateFormat;
+        m_appl = null;
+        m_logger = msgh;
+        if (timer == null) {
+            m_timer = new Timer("SystemDbTimer");
+            m_cancelTimer = true;
+        } else {
+            m_timer = timer;
+            m_cancelTimer = false;
+        }
+        setSyncInterval(syncInterval);
+    }
+
     private synchronized void setSyncInterval(final int syncInterval) throws CourierException {
         m_syncInterval = syncInterval;
         if (m_syncTask != null) { stop(); start(); }
@@ -39,6 +39,7 @@ import ru.rd.courier.scripting.XmlStatementFactory;
 import ru.rd.courier.datalinks.AccountProvider;
 import ru.rd.pool.ObjectPoolIntf;
 import ru.rd.pool.PooledObjectHolder;
+import ru.rd.thread.WorkExecutor;
 
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
@@ -59,6 +60,7 @@ public interface CourierContext {
     Pipeline getPipeline(String name) throws CourierException;
     XmlStatementFactory getStmtFactory();
     ObjectPoolIntf getThreadPool();
+    WorkExecutor getWorkExecutor(String name);
     Document parseXmlFile(File f)
         throws ParserConfigurationException, IOException, SAXException;
     void start();
@@ -75,6 +77,8 @@ public interface CourierContext {
     Timer getTimer();
     SystemDb getSystemDb();
     ScriptStatement getSourceTopStatement();
+    ScriptStatement getSourceCoordinatorStatement();
+    ScriptStatement getSourcePartitionStatement();
     ScriptStatement getPipesTopStatement();
     ScriptStatement getPipesScript();
     AbstractContext getCommonContext();
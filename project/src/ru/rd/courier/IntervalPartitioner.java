@@ -0,0 +1,120 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier;
+
+import java.math.BigInteger;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Splits interval (from, to] of integer ('i'), hex ('b') or date ('d')
+ * interval value into equal sub-intervals.
+ */
+public class IntervalPartitioner {
+    /**
+     * @return ascending upper bounds of at most count sub-intervals. The
+     * first sub-interval starts after from, the last one ends with to.
+     * Empty list if to is not greater than from.
+     */
+    public static List<String> split(
+        char type, String from, String to, int count, DateFormat dateFormat
+    ) {
+        if (count < 1) throw new IllegalArgumentException("Partitions count must be > 0");
+        List<String> ret = new ArrayList<String>(count);
+        if (from == null || from.length() == 0) {
+            ret.add(to);
+            return ret;
+        }
+        switch (type) {
+            case 'i': {
+                BigInteger bfrom = new BigInteger(from.trim());
+                BigInteger bto = new BigInteger(to.trim());
+                for (BigInteger b: splitBig(bfrom, bto, count)) ret.add(b.toString());
+                break;
+            }
+            case 'b': {
+                BigInteger bfrom = new BigInteger(from, 16);
+                BigInteger bto = new BigInteger(to, 16);
+                boolean upper = !to.equals(to.toLowerCase());
+                for (BigInteger b: splitBig(bfrom, bto, count)) {
+                    ret.add(formatHex(b, to.length(), upper));
+                }
+                break;
+            }
+            case 'd': {
+                long dfrom, dto;
+                try {
+                    dfrom = dateFormat.parse(from).getTime();
+                    dto = dateFormat.parse(to).getTime();
+                } catch (ParseException e) {
+                    throw new CourierException(e);
+                }
+                List<BigInteger> bounds = splitBig(
+                    BigInteger.valueOf(dfrom), BigInteger.valueOf(dto), count
+                );
+                for (int i = 0; i < bounds.size(); i++) {
+                    // the last bound is the original value to keep its precision
+                    ret.add(
+                        i == bounds.size() - 1 ? to :
+                        dateFormat.format(new Date(bounds.get(i).longValue()))
+                    );
+                }
+                break;
+            }
+            default:
+                throw new CourierException("Interval type '" + type + "' cannot be partitioned");
+        }
+        return ret;
+    }
+
+    private static List<BigInteger> splitBig(BigInteger from, BigInteger to, int count) {
+        List<BigInteger> ret = new ArrayList<BigInteger>(count);
+        BigInteger size = to.subtract(from);
+        if (size.signum() <= 0) return ret;
+        BigInteger bcount = BigInteger.valueOf(count);
+        if (size.compareTo(bcount) < 0) bcount = size;
+        for (int i = 1; i <= bcount.intValue(); i++) {
+            ret.add(from.add(size.multiply(BigInteger.valueOf(i)).divide(bcount)));
+        }
+        return ret;
+    }
+
+    private static String formatHex(BigInteger value, int width, boolean upper) {
+        String ret = value.toString(16);
+        if (upper) ret = ret.toUpperCase();
+        StringBuilder sb = new StringBuilder(width);
+        for (int i = ret.length(); i < width; i++) sb.append('0');
+        return sb.append(ret).toString();
+    }
+}
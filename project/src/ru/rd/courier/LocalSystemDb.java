@@ -38,11 +38,21 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import ru.rd.courier.logging.CourierLogger;
 import ru.rd.courier.utils.DomHelper;
+import ru.rd.courier.utils.JournalStorage;
+import ru.rd.courier.utils.RecordJournal;
 import ru.rd.courier.utils.Storage;
 import ru.rd.courier.utils.FileStorage;
+import ru.rd.scheduling.WheelTask;
+import ru.rd.thread.WorkExecutor;
 
 import java.io.*;
+import java.text.DateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LocalSystemDb extends BaseSystemDb {
     private TimerTask m_storeStateTask;
@@ -51,7 +61,14 @@ public class LocalSystemDb extends BaseSystemDb {
     private static final String c_storageFileName = "system-db.xml";
     private static final String c_IntervalValueAttr = "interval-value";
     private static final String c_CheckPointIntervalAttr = "checkpoint-interval";
-
+    private static final String c_JournalSeqAttr = "journal-seq";
+    // journal records appended since the last snapshot that cause compaction
+    private static final int c_compactRecords = 1000;
+
+    /**
+     * Pipeline bookkeeping. Rules, working count, variables and waiting processes
+     * are guarded by the PipeInfo monitor, so that unrelated pipelines never contend.
+     */
     public static class PipeInfo {
         public String m_code;
         public String m_desc;
@@ -63,10 +80,11 @@ public class LocalSystemDb extends BaseSystemDb {
         private String m_intervalValue;
         private String m_pipeValue;
 
-        public long m_checkTime;
+        public volatile long m_checkTime;
         public int m_inWorkCount;
 
         public Map<String, RuleInfo> m_rules = new HashMap<String, RuleInfo>();
+        private final Map<Integer, ProcessInfo> m_waitProcs = new LinkedHashMap<Integer, ProcessInfo>();
 
         public PipeInfo(
             String code, String desc, int checkpointInterval, char markType,
@@ -140,6 +158,11 @@ public class LocalSystemDb extends BaseSystemDb {
             if (p != null) m_pipeValue = p;
         }
 
+        public void restoreVars(String intervalValue, String pipeValue) {
+            m_intervalValue = intervalValue;
+            m_pipeValue = pipeValue;
+        }
+
         public void addRule(RuleInfo r) {
             m_rules.put(r.m_name, r);
         }
@@ -148,6 +171,7 @@ public class LocalSystemDb extends BaseSystemDb {
             return m_rules.get(name);
         }
 
+
         public void baseProcessAlive() {
             m_checkTime = System.currentTimeMillis();
         }
@@ -245,7 +269,7 @@ public class LocalSystemDb extends BaseSystemDb {
         public final TransferRequest m_request;
         public PipeInfo m_pipe;
         public RuleInfo m_rule;
-        public boolean m_break = false;
+        public volatile boolean m_break = false;
 
         public ProcessInfo(
             CourierLogger logger, SystemDb sysDb, Timer timer,
@@ -292,14 +316,16 @@ public class LocalSystemDb extends BaseSystemDb {
                 m_request.getResultHandler().transferFinished(result);
             }
 
-            if (!m_stopping) {
-                pipe.m_inWorkCount--;
+            synchronized (pipe) {
+                if (!m_stopping) {
+                    pipe.m_inWorkCount--;
 
-                pipe.setVarsIfPossible(
-                    result.hasVar(TransferProcess.c_intervalValueVarName) ? result.getVar(TransferProcess.c_intervalValueVarName): null,
-                    result.getVar(TransferProcess.c_PipeValueVarName),
-                    (Integer)result.getObject(TransferProcess.c_FailCountObjectName)
-                );
+                    pipe.setVarsIfPossible(
+                        result.hasVar(TransferProcess.c_intervalValueVarName) ? result.getVar(TransferProcess.c_intervalValueVarName): null,
+                        result.getVar(TransferProcess.c_PipeValueVarName),
+                        (Integer)result.getObject(TransferProcess.c_FailCountObjectName)
+                    );
+                }
             }
 
             if ((getSupervisor() != null) && !limitsExceeded()) {
@@ -310,8 +336,8 @@ public class LocalSystemDb extends BaseSystemDb {
                         " in " + timeOut + " milliseconds"
                     );
                     m_timer.schedule(
-                        new TimerTask() {
-                            public void run() {
+                        new WheelTask() {
+                            protected void execute() {
                                 try {
                                     getRequest().incRelaunchCount();
                                     m_sysDb.registerProcessRequest(getRequest());
@@ -350,8 +376,36 @@ public class LocalSystemDb extends BaseSystemDb {
         }
     }
 
-    private class SyncTask extends TimerTask {
-        public void run() {
+    private final AtomicBoolean m_syncPending = new AtomicBoolean(false);
+
+    private class SyncTask extends WheelTask {
+        protected void execute() {
+            WorkExecutor executor = (
+                m_appl == null ? null : m_appl.getWorkExecutor(Application.c_SystemDbThreadGroup)
+            );
+            if (executor == null) {
+                sync();
+                return;
+            }
+            // timer thread is not held by sync; the next tick is skipped while it runs
+            if (!m_syncPending.compareAndSet(false, true)) return;
+            boolean launched = executor.tryLaunchWork(
+                new Runnable() {
+                    public void run() {
+                        try { sync(); }
+                        finally { m_syncPending.set(false); }
+                    }
+
+                    public String toString() {
+                        return "system database sync";
+                    }
+                },
+                null
+            );
+            if (!launched) m_syncPending.set(false);
+        }
+
+        private void sync() {
             try {
                 syncDatabase();
             } catch(Throwable e) {
@@ -360,20 +414,26 @@ public class LocalSystemDb extends BaseSystemDb {
         }
     }
 
-    private class StoreStateTask extends TimerTask {
-        public void run() {
+    private class StoreStateTask extends WheelTask {
+        protected void execute() {
             try {
-                storeState();
+                storeChanges();
             } catch(Throwable e) {
                 m_logger.error(e);
             }
         }
     }
 
-    private Map<String, PipeInfo> m_pipes = new HashMap<String, PipeInfo>();
-    private int lastId = 1;
-    private Map<Integer, ProcessInfo> m_waitProcs = new HashMap<Integer, ProcessInfo>();
-    private Map<Integer, ProcessInfo> m_workProcs = new HashMap<Integer, ProcessInfo>();
+    private final ConcurrentMap<String, PipeInfo> m_pipes = new ConcurrentHashMap<String, PipeInfo>();
+    private final AtomicInteger m_lastId = new AtomicInteger(1);
+    private final ConcurrentMap<Integer, ProcessInfo> m_workProcs = new ConcurrentHashMap<Integer, ProcessInfo>();
+    // pipes having waiting processes, changed holding the pipe monitor
+    private final Set<PipeInfo> m_waitPipes = Collections.newSetFromMap(new ConcurrentHashMap<PipeInfo, Boolean>());
+    private final Object m_storeLock = new Object();
+    // journal state guarded by m_storeLock
+    private OutputStream m_journal = null;
+    private long m_journalSeq = 0;
+    private int m_journalRecords = 0;
 
     public LocalSystemDb(
         final Application appl, final CourierLogger msgh,
@@ -385,53 +445,101 @@ public class LocalSystemDb extends BaseSystemDb {
         setStorage(new FileStorage(appl.getAppFile(sdbFile == null ? c_storageFileName : sdbFile)));
     }
 
+    /**
+     * Creates database not bound to application. Subclasses launch processes
+     * overriding pipeline access methods.
+     */
+    protected LocalSystemDb(
+        final CourierLogger msgh, final DateFormat dateFormat, final int syncInterval,
+        final Timer timer, final Storage storage, final String encoding
+    ) throws CourierException {
+        super(msgh, dateFormat, syncInterval, timer);
+        m_encoding = encoding;
+        setStorage(storage);
+    }
+
     private void releaseBrokenProcesses() throws CourierException {
         for (PipeInfo pipe: m_pipes.values()) {
-            if (pipe.m_checkpointInterval <= 0) continue;
-            long criticalTime = pipe.m_checkTime + pipe.m_checkpointInterval * 1000;
-            long curTime = System.currentTimeMillis();
+            synchronized (pipe) {
+                releaseBrokenProcesses(pipe);
+            }
+        }
+    }
 
-            //m_logger.debug("Pipe " + pipe.m_code + "curTime = " + curTime + " criticalTime = " + criticalTime);
+    private void releaseBrokenProcesses(PipeInfo pipe) throws CourierException {
+        if (pipe.m_checkpointInterval <= 0) return;
+        long criticalTime = pipe.m_checkTime + pipe.m_checkpointInterval * 1000;
+        long curTime = System.currentTimeMillis();
 
-            if ((pipe.m_inWorkCount > 0) && (curTime > criticalTime)) {
-                m_logger.error(
-                    "Pipeline " + pipe.m_code + " has not registered progress for more than " +
-                    pipe.m_checkpointInterval + " seconds" +
-                    " and all its working processes will be stopped"
-                );
+        //m_logger.debug("Pipe " + pipe.m_code + "curTime = " + curTime + " criticalTime = " + criticalTime);
 
-                for (ProcessInfo proc: m_workProcs.values()) {
-                    if (proc.m_pipe.m_code.equals(pipe.m_code)) {
-                        proc.m_stopping = true;
-                    }
-                }
+        if ((pipe.m_inWorkCount > 0) && (curTime > criticalTime)) {
+            m_logger.error(
+                "Pipeline " + pipe.m_code + " has not registered progress for more than " +
+                pipe.m_checkpointInterval + " seconds" +
+                " and all its working processes will be stopped"
+            );
 
-                if (m_appl.hasPipeline(pipe.m_code)) {
-                    m_appl.getPipeline(pipe.m_code).stopActiveProcesses();
+            for (ProcessInfo proc: m_workProcs.values()) {
+                if (proc.m_pipe == pipe) {
+                    proc.m_stopping = true;
                 }
+            }
 
-                pipe.m_inWorkCount = 0;
+            if (m_appl.hasPipeline(pipe.m_code)) {
+                m_appl.getPipeline(pipe.m_code).stopActiveProcesses();
             }
+
+            pipe.m_inWorkCount = 0;
         }
     }
 
-    private void launchProcess(ProcessInfo proc) throws CourierException {
+    /**
+     * @return false if the process was rejected because the transfer
+     * thread group queue is full and has to stay waiting
+     */
+    private boolean launchProcess(ProcessInfo proc) throws CourierException {
         final PipeInfo pipe = proc.m_pipe;
-        final Pipeline pl = m_appl.getPipeline(pipe.m_code);
-        if (pl == null) {
+        if (!hasPipeline(pipe)) {
             m_logger.warning(
                 "Trying to start process: Pipeline '" + pipe.m_code +
                 "' not found"
             );
         } else {
-            proc.onStart();
             m_workProcs.put(proc.m_id, proc);
-            TransferProcess tp = pl.launchProcess(proc.m_id, proc.getRequest(), pipe);
-            if (tp != null) {
+            final boolean launched;
+            try {
+                launched = launchPipelineProcess(proc);
+            } catch (RejectedExecutionException e) {
+                m_workProcs.remove(proc.m_id);
+                m_logger.debug(e.getMessage());
+                return false;
+            }
+            if (launched) {
+                // rejected process stays waiting so it is started only here
+                proc.onStart();
                 pipe.m_inWorkCount++;
                 pipe.baseProcessAlive();
             }
         }
+        return true;
+    }
+
+    protected boolean hasPipeline(PipeInfo pipe) {
+        return m_appl.getPipeline(pipe.m_code) != null;
+    }
+
+    protected boolean isPipelineRunning(PipeInfo pipe) {
+        return m_appl.getPipeline(pipe.m_code).isRunning();
+    }
+
+    /**
+     * Called holding the pipe monitor
+     * @return true if the process has been launched
+     */
+    protected boolean launchPipelineProcess(ProcessInfo proc) throws CourierException {
+        final Pipeline pl = m_appl.getPipeline(proc.m_pipe.m_code);
+        return pl.launchProcess(proc.m_id, proc.getRequest(), proc.m_pipe) != null;
     }
 
     private boolean rejectLaunch(RuleInfo rule) {
@@ -444,20 +552,39 @@ public class LocalSystemDb extends BaseSystemDb {
     }
 
     private void launchWaitingProcesses() throws CourierException {
-        for (Iterator<ProcessInfo> it = m_waitProcs.values().iterator(); it.hasNext(); ) {
-            ProcessInfo proc = it.next();
-            if (!rejectLaunch(proc.m_rule)) {
-                try {
-                    launchProcess(proc);
-                } finally {
-                    it.remove();
+        for (PipeInfo pipe: m_waitPipes) {
+            synchronized (pipe) {
+                launchWaitingProcesses(pipe);
+            }
+        }
+    }
+
+    private void launchWaitingProcesses(PipeInfo pipe) throws CourierException {
+        try {
+            for (Iterator<ProcessInfo> it = pipe.m_waitProcs.values().iterator(); it.hasNext(); ) {
+                ProcessInfo proc = it.next();
+                if (!rejectLaunch(proc.m_rule)) {
+                    boolean launched = true;
+                    try {
+                        launched = launchProcess(proc);
+                    } finally {
+                        if (launched) it.remove();
+                    }
+                    // the queue is full so other processes of the pipe wait as well
+                    if (!launched) break;
                 }
             }
+        } finally {
+            if (pipe.m_waitProcs.isEmpty()) m_waitPipes.remove(pipe);
         }
     }
 
-    public synchronized void clearPipeVars(String pipeName) {
-        m_pipes.get(pipeName).clearVars();
+    public void clearPipeVars(String pipeName) {
+        PipeInfo pipe = m_pipes.get(pipeName);
+        synchronized (pipe) {
+            pipe.clearVars();
+        }
+        if (getJournalStorage() != null) journalPipe(pipe);
     }
 
     private void stopBrokenProcesses() throws CourierException {
@@ -489,24 +616,70 @@ public class LocalSystemDb extends BaseSystemDb {
         try { stopBrokenProcesses(); }
         catch (Exception e) { m_logger.error(e); }
 
-        m_appl.syncProgress();
+        if (m_appl != null) m_appl.syncProgress();
+    }
+
+    protected void storeState() throws CourierException {
+        synchronized (m_storeLock) {
+            innerStoreState();
+        }
+    }
+
+    /**
+     * With journal storage only compacts the journal when it has grown,
+     * otherwise stores the whole state.
+     */
+    private void storeChanges() throws CourierException {
+        if (getJournalStorage() == null) {
+            storeState();
+            return;
+        }
+        synchronized (m_storeLock) {
+            if (m_journalRecords >= c_compactRecords) innerStoreState();
+        }
     }
 
-    protected synchronized void storeState() throws CourierException {
+    private void innerStoreState() throws CourierException {
         if (!m_started) return;
+        writeSnapshot();
+    }
+
+    private void writeSnapshot() throws CourierException {
         Document doc = new DocumentImpl();
         Element e = doc.createElement("system-db");
-        for (PipeInfo pipe: m_pipes.values()) pipe.toXml(e);
+        JournalStorage journal = getJournalStorage();
+        if (journal != null) e.setAttribute(c_JournalSeqAttr, Long.toString(m_journalSeq));
+        for (PipeInfo pipe: m_pipes.values()) {
+            synchronized (pipe) {
+                pipe.toXml(e);
+            }
+        }
         doc.appendChild(e);
 
         OutputFormat format = new OutputFormat(doc, m_encoding, true);
         XMLSerializer serializer;
-        Writer out = null;
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
         try {
-            out = new OutputStreamWriter(getStorage().getStoreStream());
-            serializer = new XMLSerializer(out, format);
+            Writer w = new OutputStreamWriter(data);
+            serializer = new XMLSerializer(w, format);
             serializer.asDOMSerializer();
             serializer.serialize(doc);
+            w.flush();
+        } catch (Exception e1) {
+            throw new CourierException(e1);
+        }
+
+        OutputStream out = null;
+        try {
+            out = getStorage().getStoreStream();
+            data.writeTo(out);
+            out.close();
+            out = null;
+            if (journal != null) {
+                closeJournal();
+                journal.clearJournal();
+                m_journalRecords = 0;
+            }
         } catch (Exception e1) {
             throw new CourierException(e1);
         } finally {
@@ -517,31 +690,152 @@ public class LocalSystemDb extends BaseSystemDb {
         //m_logger.debug("Local system courier database stored to: " + out.getAbsolutePath());
     }
 
+    /**
+     * Appends current pipeline variables to the journal. Records are
+     * numbered so that records already included into the snapshot are
+     * skipped when the journal is replayed.
+     */
+    private void journalPipe(PipeInfo pipe) throws CourierException {
+        synchronized (m_storeLock) {
+            if (!m_started) return;
+            try {
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(data);
+                out.writeLong(m_journalSeq + 1);
+                synchronized (pipe) {
+                    writeString(out, pipe.m_code);
+                    writeString(out, pipe.getIntervalValue());
+                    writeString(out, pipe.getPipeValue());
+                }
+                out.flush();
+                if (m_journal == null) m_journal = getJournalStorage().getJournalStream();
+                RecordJournal.append(m_journal, data.toByteArray());
+                m_journalSeq++;
+                m_journalRecords++;
+            } catch (Exception e) {
+                // records appended after a damaged one are not replayed
+                closeJournal();
+                m_journalRecords = c_compactRecords;
+                throw new CourierException(e);
+            }
+        }
+    }
+
+    private void closeJournal() {
+        if (m_journal == null) return;
+        try {
+            m_journal.close();
+        } catch (Exception e) {
+            m_logger.warning(e);
+        }
+        m_journal = null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] b = value.getBytes("UTF-8");
+            out.writeInt(b.length);
+            out.write(b);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) return null;
+        byte[] b = new byte[size];
+        in.readFully(b);
+        return new String(b, "UTF-8");
+    }
+
     protected synchronized void restoreState() throws CourierException {
         //if (!m_started) return;
         Storage storage = getStorage();
         m_logger.debug("Restoring local system database state from : " + storage);
+        long snapshotSeq = restoreSnapshot(storage);
+        JournalStorage journal = getJournalStorage();
+        if (journal == null) return;
+        synchronized (m_storeLock) {
+            m_journalSeq = snapshotSeq;
+            try {
+                if (replayJournal(journal, snapshotSeq)) writeSnapshot();
+            } catch (Exception e) {
+                m_logger.warning(e);
+            }
+        }
+    }
+
+    /**
+     * @return number of the last journal record included into the snapshot
+     */
+    private long restoreSnapshot(Storage storage) {
+        long ret = 0;
+        InputStream in = null;
         try {
-            InputStream in = storage.getRestoreStream();
-            if (in == null) return;
-            Document conf = m_appl.parseXml(in);
-            if (conf == null) return;
+            in = storage.getRestoreStream();
+            if (in == null) return ret;
+            Document conf = DomHelper.parseStream(in);
+            if (conf == null) return ret;
+            String seq = DomHelper.getNodeAttr(conf.getDocumentElement(), c_JournalSeqAttr, false);
+            if (seq != null) ret = Long.parseLong(seq);
             Element[] pipes = DomHelper.getChildrenByTagName(
                 conf.getDocumentElement(), "pipe", false
             );
-            if (pipes == null) return;
+            if (pipes == null) return ret;
             for (Element pipe : pipes) {
                 PipeInfo pi = m_pipes.get(
                         DomHelper.getNodeAttr(pipe, PipeInfo.c_codeAttr)
                 );
                 if (pi != null) {
-                    pi.restoreState(pipe);
+                    synchronized (pi) {
+                        pi.restoreState(pipe);
+                    }
                     m_logger.debug("Pipeline '" + pi.toString() + "' state restored");
                 }
             }
         } catch (Exception e) {
             m_logger.warning(e);
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (Exception e) { m_logger.warning(e); }
+        }
+        return ret;
+    }
+
+    /**
+     * Applies journal records made after the snapshot. Reading stops at
+     * a record torn by a crash.
+     * @return true if the journal exists
+     */
+    private boolean replayJournal(JournalStorage storage, long snapshotSeq) throws Exception {
+        InputStream in = storage.getJournalRestoreStream();
+        if (in == null) return false;
+        List<byte[]> records;
+        try {
+            records = RecordJournal.read(in);
+        } finally {
+            in.close();
+        }
+        int count = 0;
+        for (byte[] record: records) {
+            DataInputStream rin = new DataInputStream(new ByteArrayInputStream(record));
+            long seq = rin.readLong();
+            if (seq > m_journalSeq) m_journalSeq = seq;
+            if (seq <= snapshotSeq) continue;
+            PipeInfo pi = m_pipes.get(readString(rin));
+            String intervalValue = readString(rin);
+            String pipeValue = readString(rin);
+            if (pi != null) {
+                synchronized (pi) {
+                    pi.restoreVars(intervalValue, pipeValue);
+                }
+                count++;
+            }
         }
+        m_logger.debug("Replayed " + count + " of " + records.size() + " system database journal records");
+        return true;
     }
 
     protected TimerTask getTask() {
@@ -552,8 +846,15 @@ public class LocalSystemDb extends BaseSystemDb {
         return m_storage;
     }
 
+    private JournalStorage getJournalStorage() {
+        return m_storage instanceof JournalStorage ? (JournalStorage)m_storage : null;
+    }
+
     public void setStorage(Storage factory) {
-        m_storage = factory;
+        synchronized (m_storeLock) {
+            closeJournal();
+            m_storage = factory;
+        }
     }
 
     public synchronized void start() throws CourierException {
@@ -575,27 +876,29 @@ public class LocalSystemDb extends BaseSystemDb {
         return m_started;
     }
 
-    public synchronized void registerPipeline(
+    public void registerPipeline(
         String code, String desc, int status,
         int checkpointInterval, char markType,
         int maxWorkCount
     ) throws CourierException {
         if (!m_pipes.containsKey(code)) {
-            m_pipes.put(
+            m_pipes.putIfAbsent(
                 code,
                 new PipeInfo(code, desc, checkpointInterval, markType, maxWorkCount)
             );
         }
     }
 
-    public synchronized void registerSourceRule(
+    public void registerSourceRule(
         String pipeName, String name, String desc, String type
     ) throws CourierException {
         PipeInfo pipe = m_pipes.get(pipeName);
-        pipe.addRule(new RuleInfo(pipe, name, desc, type));
+        synchronized (pipe) {
+            pipe.addRule(new RuleInfo(pipe, name, desc, type));
+        }
     }
 
-    public synchronized boolean registerProcessRequest(TransferRequest request) throws CourierException {
+    public boolean registerProcessRequest(TransferRequest request) throws CourierException {
         String pipeName = request.getPipeName();
         String ruleName = request.getRuleName();
 
@@ -603,40 +906,44 @@ public class LocalSystemDb extends BaseSystemDb {
         if (pipe == null) {
             throw new CourierException("Pipeline " + pipeName + " not found");
         }
-        if (pipe.maxWorkingExceeded()) return false;
-        final Pipeline pl = m_appl.getPipeline(pipe.m_code);
-        if (!pl.isRunning()) return false;
+        synchronized (pipe) {
+            if (pipe.maxWorkingExceeded()) return false;
+            if (!isPipelineRunning(pipe)) return false;
 
-        for (ProcessInfo processInfo : m_waitProcs.values()) {
-            final RuleInfo rule = processInfo.m_rule;
-            if (
-                processInfo.m_pipe.m_code.equals(pipeName) &&
-                (rule != null &&
+            for (ProcessInfo processInfo : pipe.m_waitProcs.values()) {
+                final RuleInfo rule = processInfo.m_rule;
+                if (
+                    rule != null &&
                     (ruleName != null && rule.m_name.equals(ruleName)) &&
                     rule.isSingleThreaded()
-                 )
-            ) return false;
-        }
-        ProcessInfo proc = new ProcessInfo(
-            m_logger, this, m_timer, lastId, request, pipe, pipe.getRule(ruleName)
-        );
-        lastId++;
-        m_waitProcs.put(proc.m_id, proc);
-        launchWaitingProcesses();
+                ) return false;
+            }
+            ProcessInfo proc = new ProcessInfo(
+                m_logger, this, m_timer, m_lastId.getAndIncrement(),
+                request, pipe, pipe.getRule(ruleName)
+            );
+            pipe.m_waitProcs.put(proc.m_id, proc);
+            m_waitPipes.add(pipe);
+            launchWaitingProcesses(pipe);
+        }
         //m_timer.schedule(new SyncTask(), 0);
         return true;
     }
 
-    public synchronized void processFinished(TransferProcess process)
+    public void processFinished(TransferProcess process)
     throws CourierException {
         ProcessInfo proc = m_workProcs.remove(process.getId());
         if (proc != null) {
             proc.finished(process.getResults());
-            if (proc.m_rule != null && proc.m_rule.isSingleThreaded()) storeState();
+            if (getJournalStorage() != null) {
+                journalPipe(proc.m_pipe);
+            } else if (proc.m_rule != null && proc.m_rule.isSingleThreaded()) {
+                storeState();
+            }
         }
     }
 
-    public synchronized void processProgress(
+    public void processProgress(
         Integer dbId, int recordCount, int errorCount, boolean movedSinceLastCall
     ) throws CourierException {
         ProcessInfo proc = m_workProcs.get(dbId);
@@ -650,16 +957,14 @@ public class LocalSystemDb extends BaseSystemDb {
         }
     }
 
-    public synchronized void addWarnings(List<ProcessWarnings> warnings) throws CourierException {
+    public void addWarnings(List<ProcessWarnings> warnings) throws CourierException {
         for (ProcessWarnings pw : warnings) {
             ProcessInfo proc = m_workProcs.get(pw.m_id);
             proc.addWarnings(pw.m_warnings);
         }
     }
 
-    public synchronized void checkWaitingProcess() {
-        if (!m_waitProcs.isEmpty()) {
-            launchWaitingProcesses();
-        }
+    public void checkWaitingProcess() {
+        launchWaitingProcesses();
     }
 }
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier;
+
+import ru.rd.courier.logging.CourierLogger;
+import ru.rd.courier.scripting.AbstractContext;
+import ru.rd.courier.scripting.Context;
+import ru.rd.courier.scripting.MapStatementsProvider;
+import ru.rd.courier.scripting.PreparedTemplate;
+import ru.rd.courier.scripting.ScriptExpression;
+import ru.rd.courier.scripting.ScriptStatement;
+import ru.rd.courier.scripting.expressions.string.Const;
+import ru.rd.thread.PoolExecutor;
+import ru.rd.thread.WorkExecutor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process of partitioned source rule. Instead of transferring data itself
+ * it requests upper bound of the interval, splits the interval and
+ * transfers every part by separate concurrent process with its own source
+ * and target connections. No more parts than pipeline max-working-count
+ * run at once and the source connection of this process is released
+ * before they start. Rule and target before/after statements are
+ * executed once by this process around all parts. Interval value advances
+ * to the end of the last part that succeeded together with all parts
+ * before it.
+ */
+public class PartitionedScriptProcess extends StdScriptProcess {
+    public static final String c_intervalEndVarName = "$IntervalEnd";
+    public static final String c_partitionVarName = "$Partition";
+    public static final String c_partitionsScriptName = "partitions";
+
+    private final CourierLogger m_parentLogger;
+    private final Pipeline m_pipe;
+    private final TransferRequest m_request;
+    private final Integer m_failCount;
+    private final String m_pipeValue;
+    private final Map<String, ScriptExpression> m_pars;
+    private final SourceRule m_rule;
+    private final List<Partition> m_parts = new ArrayList<Partition>();
+    private int m_startedCount = 0;
+    private int m_finishedCount = 0;
+    private boolean m_stopped = false;
+
+    /**
+     * Process transferring one part of the interval. It executes the rule
+     * main statement only, pipeline scripts and before/after statements are
+     * executed by the parent process. Variables set by the parent are
+     * inherited unless the part has its own ones.
+     */
+    private static class PartitionProcess extends StdScriptProcess {
+        public PartitionProcess(
+            CourierLogger logger, Pipeline pipe, Integer dbId, TransferRequest request,
+            Integer failCount, String intervalValue, String intervalEnd, int partition,
+            String pipeValue, Map<String, ScriptExpression> pars, Context parentCtx
+        ) {
+            super(logger, pipe, dbId, request, failCount, new Const(intervalValue), pipeValue, pars);
+            setTopStatement(pipe.getCourier().getSourcePartitionStatement());
+            for (String name: parentCtx.getVarKeySet()) {
+                if (!m_ctx.hasVar(name)) m_ctx.setVar(name, parentCtx.getVar(name));
+            }
+            m_ctx.setVar(c_intervalEndVarName, intervalEnd);
+            m_ctx.setVar(c_partitionVarName, Integer.toString(partition));
+        }
+    }
+
+    private class Partition implements Runnable {
+        private final int m_number;
+        private final String m_from;
+        private final String m_to;
+        private final PartitionProcess m_process;
+        private boolean m_finished = false;
+
+        public Partition(int number, String from, String to, Context ctx) {
+            m_number = number;
+            m_from = from;
+            m_to = to;
+            m_process = new PartitionProcess(
+                m_parentLogger, m_pipe, getId(), m_request, m_failCount,
+                from, to, number, m_pipeValue, m_pars, ctx
+            );
+        }
+
+        public void run() {
+            try {
+                m_process.start();
+            } finally {
+                synchronized(PartitionedScriptProcess.this) {
+                    m_finished = true;
+                    m_finishedCount++;
+                    PartitionedScriptProcess.this.notifyAll();
+                }
+            }
+        }
+
+        public String toString() {
+            return "partition " + m_number + " (" + m_from + ", " + m_to + "] of process " + getId();
+        }
+    }
+
+    private class Coordinator implements ScriptStatement {
+        public void start(Context ctx) throws CourierException {}
+        public void finish(Context ctx) throws CourierException {}
+
+        public void exec(Context ctx) throws CourierException {
+            final String from = ctx.getVar(c_intervalValueVarName);
+            final String to = requestIntervalEnd(ctx);
+            if (to == null || to.length() == 0) return;
+            List<String> bounds = IntervalPartitioner.split(
+                m_pipe.getMarkType(), from, to, m_rule.getPartitions(), ctx.getDateFormat()
+            );
+            if (bounds.isEmpty()) return;
+
+            synchronized(PartitionedScriptProcess.this) {
+                if (m_stopped) return;
+                String lower = from;
+                for (String upper: bounds) {
+                    m_parts.add(new Partition(m_parts.size() + 1, lower, upper, ctx));
+                    lower = upper;
+                }
+            }
+            ctx.info("Interval (" + from + ", " + to + "] is split into " + bounds.size() + " partitions");
+            // parts allocate their own source connections
+            m_ctx.removePooledObject(m_pipe.getScriptParam("source-db-name"));
+            try {
+                runPartitions();
+            } finally {
+                collectResults(ctx);
+            }
+        }
+
+        private String requestIntervalEnd(Context ctx) throws CourierException {
+            final String sql = new PreparedTemplate(m_rule.getPartitionRangeQuery()).calculate(ctx);
+            final ResultSet rs = AbstractContext.createResultSet(
+                ctx, m_pipe.getScriptParam("source-db-name"), sql
+            );
+            try {
+                if (!rs.next()) return null;
+                if (m_pipe.getMarkType() == 'd') {
+                    java.sql.Timestamp ret = rs.getTimestamp(1);
+                    return ret == null ? null : ctx.getDateFormat().format(ret);
+                }
+                return rs.getString(1);
+            } catch (SQLException e) {
+                throw new CourierException(e);
+            } finally {
+                AbstractContext.closeResultSet(ctx, rs);
+            }
+        }
+
+        private void collectResults(Context ctx) throws CourierException {
+            String intervalValue = null;
+            int recordCount = 0;
+            boolean failed = false;
+            for (Partition part: m_parts) {
+                // not started because of stop
+                if (!part.m_finished) break;
+                PartitionProcess proc = part.m_process;
+                recordCount += Math.max(proc.getRecordCount(), 0);
+                if (proc.getErrorCount() > 0) {
+                    ctx.addError(part + " failed: " + proc.getErrorText());
+                    if (!failed) {
+                        // this partition is committed up to its own interval value
+                        intervalValue = proc.getIntervalValue();
+                        failed = true;
+                    }
+                } else if (!failed) {
+                    intervalValue = part.m_to;
+                }
+            }
+            ctx.setVar(c_recordCountVarName, Integer.toString(recordCount));
+            if (intervalValue != null) {
+                ctx.setVar(c_intervalValueVarName, intervalValue);
+                ctx.setVar(c_intervalValueCacheVarName, intervalValue);
+            }
+        }
+    }
+
+    public PartitionedScriptProcess(
+        CourierLogger logger,
+        Pipeline pipe,
+        Integer dbId,
+        TransferRequest request,
+        Integer failCount,
+        ScriptExpression intervalValue,
+        String pipeValue,
+        Map<String, ScriptExpression> pars
+    ) throws CourierException {
+        super(logger, pipe, dbId, request, failCount, intervalValue, pipeValue, pars);
+        m_parentLogger = logger;
+        m_pipe = pipe;
+        m_request = request;
+        m_failCount = failCount;
+        m_pipeValue = pipeValue;
+        m_pars = pars;
+        m_rule = pipe.getSourceProfile().getSourceRule(request.getRuleName());
+        MapStatementsProvider scripts = (MapStatementsProvider)m_ctx.getObject(c_ScriptsObjectName);
+        scripts.addStatement(c_stdScriptName, pipe.getCourier().getSourceCoordinatorStatement());
+        scripts.addStatement(c_partitionsScriptName, new Coordinator());
+    }
+
+    /**
+     * Runs parts in the transfer thread group like other transfer processes.
+     * This process itself occupies a thread of the group, so a part is run
+     * in this thread when no idle thread of the group can take it, and the
+     * parts still queued when this process waits are taken back and run
+     * here too. If a part fails to launch the rest are not launched, but
+     * the launched ones are waited for anyway.
+     */
+    private void runPartitions() {
+        final int maxWorkCount = m_pipe.getMaxWorkCount();
+        final WorkExecutor executor = m_pipe.getWorkExecutor(Application.c_TransferThreadGroup);
+        final PoolExecutor pe = (executor == null) ? new PoolExecutor(m_pipe.getCourier().getThreadPool()) : null;
+        final List<Partition> queued = new LinkedList<Partition>();
+        RuntimeException launchError = null;
+        try {
+            for (Partition part: m_parts) {
+                if (!waitPartSlot(executor, queued, maxWorkCount)) break;
+                if (executor == null) {
+                    try {
+                        pe.exec(part);
+                    } catch (RuntimeException e) {
+                        synchronized(this) {
+                            m_startedCount--;
+                        }
+                        launchError = e;
+                        break;
+                    }
+                } else if (executor.tryLaunchIdleWork(part, null)) {
+                    queued.add(part);
+                } else {
+                    part.run();
+                }
+            }
+            while (true) {
+                Partition part = takeQueuedPart(executor, queued);
+                if (part == null) break;
+                runTakenPart(part);
+            }
+            synchronized(this) {
+                while (m_finishedCount < m_startedCount) wait();
+            }
+        } catch (InterruptedException e) {
+            throw new CourierException(e);
+        }
+        if (launchError != null) throw launchError;
+    }
+
+    /**
+     * Waits until max-working-count allows one more part and counts it
+     * started. Queued parts are taken back and run while waiting.
+     * @return false if the process has been stopped
+     */
+    private boolean waitPartSlot(
+        WorkExecutor executor, List<Partition> queued, int maxWorkCount
+    ) throws InterruptedException {
+        while (true) {
+            synchronized(this) {
+                if (m_stopped) return false;
+                if (maxWorkCount <= 0 || m_startedCount - m_finishedCount < maxWorkCount) {
+                    m_startedCount++;
+                    return true;
+                }
+            }
+            Partition part = takeQueuedPart(executor, queued);
+            if (part != null) {
+                runTakenPart(part);
+                continue;
+            }
+            synchronized(this) {
+                while (!m_stopped && m_startedCount - m_finishedCount >= maxWorkCount) wait();
+            }
+        }
+    }
+
+    /**
+     * @return launched part no thread of the group has started yet
+     */
+    private Partition takeQueuedPart(WorkExecutor executor, List<Partition> queued) {
+        while (!queued.isEmpty()) {
+            Partition part = queued.remove(0);
+            if (executor.cancelWork(part)) return part;
+        }
+        return null;
+    }
+
+    private void runTakenPart(Partition part) {
+        synchronized(this) {
+            if (m_stopped) {
+                m_startedCount--;
+                notifyAll();
+                return;
+            }
+        }
+        part.run();
+    }
+
+    public void stop() throws CourierException {
+        super.stop();
+        List<Partition> parts;
+        synchronized(this) {
+            m_stopped = true;
+            notifyAll();
+            parts = new ArrayList<Partition>(m_parts);
+        }
+        for (Partition part: parts) {
+            try { part.m_process.stop(); }
+            catch (Exception e) { m_logger.warning(e); }
+        }
+    }
+
+    public String getSourceDesc() {
+        return super.getSourceDesc() + " partitions = " + m_rule.getPartitions();
+    }
+}
@@ -42,6 +42,7 @@ import ru.rd.courier.scripting.PreparedTemplate;
 import ru.rd.courier.scripting.ScriptExpression;
 import ru.rd.courier.scripting.ScriptStatement;
 import ru.rd.courier.scripting.dataaccess.JmsSource;
+import ru.rd.courier.scripting.dataaccess.LocalQueueSource;
 import ru.rd.courier.scripting.expressions.string.Const;
 import ru.rd.courier.scripting.expressions.string.Null;
 import ru.rd.courier.utils.DomHelper;
@@ -55,13 +56,16 @@ import ru.rd.scheduling.leveled.*;
 import ru.rd.scheduling.leveled.launchers.PeriodicLauncher;
 import ru.rd.thread.FreeListener;
 import ru.rd.thread.PoolExecutor;
+import ru.rd.thread.WorkExecutor;
 import ru.rd.thread.WorkThread;
 import ru.rd.utils.StatedObject;
 import ru.rd.utils.StatedObjectExtendable;
 
+import java.io.IOException;
 import java.sql.ResultSet;
 import java.text.DateFormat;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 public class Pipeline extends StatedObjectExtendable implements FullPipeline {
@@ -328,8 +332,9 @@ public class Pipeline extends StatedObjectExtendable implements FullPipeline {
                 initRtSource();
             }
 
+            // source initializers above move conf to child elements
+            conf = rconf;
             m_maxWorkCount = getUpInt("max-working-count", 0);
-
             int cpIntervalFromConfig = getUpInt("checkpoint-interval", -1);
 
             int cpIntervalFromProfiles = Math.max(
@@ -400,8 +405,26 @@ public class Pipeline extends StatedObjectExtendable implements FullPipeline {
                     );
                 }
             };
+            StringListHandler lh = new StringListHandler() {
+                public boolean handle(List<String> data, TransferResultListener resultHandler) {
+                    return registerProcess(
+                        null, stmt, null,
+                        new AsyncProcessFactory(new StringBufferListResultSet(null, "RtField", data)),
+                        resultHandler
+                    );
+                }
+            };
             if (type.equals("jms")) {
-                rts = new JmsSource(m_logger, m_appl.getThreadPool(), getRealTimeSourceTimer(), conf, sh);
+                rts = new JmsSource(m_logger, m_appl.getThreadPool(), getRealTimeSourceTimer(), conf, sh, lh);
+            } else if (type.equals("local-queue")) {
+                try {
+                    rts = new LocalQueueSource(
+                        m_logger, getRealTimeSourceTimer(), conf,
+                        m_appl.getAppFile(getAttr("dir")), sh, lh
+                    );
+                } catch (IOException e) {
+                    throw new CourierException(e);
+                }
             } else {
                 throw new RuntimeException("Invalid RtSource type '" + type + "'");
             }
@@ -701,6 +724,10 @@ public class Pipeline extends StatedObjectExtendable implements FullPipeline {
         return m_markType;
     }
 
+    public int getMaxWorkCount() {
+        return m_maxWorkCount;
+    }
+
     public SourceProfile getSourceProfile() throws CourierException {
         return m_appl.getSourceProfile(m_sourceProfileName);
     }
@@ -752,25 +779,49 @@ public class Pipeline extends StatedObjectExtendable implements FullPipeline {
     private class ProcessExecutor extends StatedObject implements Runnable, FreeListener {
         private final TransferProcess m_process;
         private final ObjectPoolIntf m_threadPool;
-        private WorkThread m_thread;
+        private final WorkExecutor m_executor;
+        private volatile Thread m_thread;
 
-        public ProcessExecutor(final TransferProcess process, final ObjectPoolIntf threadPool) {
+        public ProcessExecutor(
+            final TransferProcess process, final ObjectPoolIntf threadPool, final WorkExecutor executor
+        ) {
             super(Pipeline.this.m_logger, false);
             m_process = process;
             m_threadPool = threadPool;
+            m_executor = executor;
             m_thread = null;
         }
 
-        public void start() {
+        /**
+         * Called holding the pipeline lock and the system db pipe monitor,
+         * so a work is not waited for a place in the thread group queue
+         * @return false if the thread group queue is full
+         */
+        public boolean start() {
+            if (m_executor != null) {
+                synchronized(lock) {
+                    if (!m_executor.tryLaunchWork(this, this)) return false;
+                    setState(c_stateStarted);
+                }
+                return true;
+            }
             WorkThread thread = (WorkThread)m_threadPool.getObject();
             synchronized(lock) {
                 m_thread = thread;
-                m_thread.launchWork(this, this);
+                thread.launchWork(this, this);
                 setState(c_stateStarted);
             }
+            return true;
+        }
+
+        private String threadStackTrace() {
+            Thread thread = m_thread;
+            if (thread == null) return "process has not got a thread yet";
+            return ErrorHelper.stackTraceToString(thread.getStackTrace());
         }
 
         public void run() {
+            if (m_executor != null) m_thread = Thread.currentThread();
             for (CourierListener l: m_appl.getListeners()) {
                 try { l.processStarted(Pipeline.this, m_process); }
                 catch (Exception e) { m_logger.warning(e); }
@@ -795,7 +846,7 @@ public class Pipeline extends StatedObjectExtendable implements FullPipeline {
                             m_logger.info(
                                 "Trying to stop process " + m_process.getId()
                                 + "; state: " + m_process.getCurrentStateDesc()
-                                + "\n" + ErrorHelper.stackTraceToString(m_thread.getStackTrace())
+                                + "\n" + threadStackTrace()
                             );
 
                             m_process.stop();
@@ -819,10 +870,11 @@ public class Pipeline extends StatedObjectExtendable implements FullPipeline {
                 m_logger.info(
                     "Trying to interrupt process " + m_process.getId()
                     + "; state: " + m_process.getCurrentStateDesc()
-                    + "\n" + ErrorHelper.stackTraceToString(m_thread.getStackTrace())
+                    + "\n" + threadStackTrace()
                 );
 
-                m_thread.interrupt();
+                Thread thread = m_thread;
+                if (thread != null) thread.interrupt();
 
                 try { waitState(c_stateStopped, 10000); }
                 catch (Exception e) { m_logger.warning(e); }
@@ -832,13 +884,15 @@ public class Pipeline extends StatedObjectExtendable implements FullPipeline {
                 m_logger.warning(
                     "Interrupt has not helped to stop process " + m_process.getId()
                     + "; state: " + m_process.getCurrentStateDesc()
-                    + "\n" + ErrorHelper.stackTraceToString(m_thread.getStackTrace())
+                    + "\n" + threadStackTrace()
                 );
 
                 // is potentially not to return so may be implemented as timeout-ed
                 try { m_process.close(); }
                 catch (Exception e) { m_logger.warning(e); }
 
+                // the hung worker must not hold a place in the thread group
+                if (m_executor != null) m_executor.abandonWork(this);
                 innerFree();
             }
         }
@@ -863,8 +917,10 @@ public class Pipeline extends StatedObjectExtendable implements FullPipeline {
                 catch (Exception e) { m_logger.warning(e); }
             }
 
-            try { m_threadPool.releaseObject(m_thread); }
-            catch (Throwable e) { m_logger.error(e); }
+            if (m_executor == null) {
+                try { m_threadPool.releaseObject(m_thread); }
+                catch (Throwable e) { m_logger.error(e); }
+            }
 
             try { checkStoppedState(); }
             catch (Throwable e) { m_logger.error(e); }
@@ -979,9 +1035,19 @@ public class Pipeline extends StatedObjectExtendable implements FullPipeline {
                 request, dynPipe.getFailCount(),
                 intervalValueExp, pipeValue
             );
-            ProcessExecutor pe = new ProcessExecutor(tp, m_appl.getThreadPool());
+            ProcessExecutor pe = new ProcessExecutor(
+                tp, m_appl.getThreadPool(), m_appl.getWorkExecutor(Application.c_TransferThreadGroup)
+            );
             m_activeProcs.put(dbId, pe);
-            pe.start();
+            if (!pe.start()) {
+                m_activeProcs.remove(dbId);
+                try { tp.close(); }
+                catch (Exception e) { m_logger.warning(e); }
+                throw new RejectedExecutionException(
+                    "Pipeline '" + m_name + "': " + Application.c_TransferThreadGroup +
+                    " thread group queue is full"
+                );
+            }
             return tp;
         }
     }
@@ -1006,6 +1072,13 @@ public class Pipeline extends StatedObjectExtendable implements FullPipeline {
             Integer id, TransferRequest request,
             Integer failCount, ScriptExpression intervalValue, String pipeValue
         ) {
+            SourceProfile sp = pipe.getSourceProfile();
+            SourceRule rule = sp == null ? null : sp.getSourceRule(request.getRuleName());
+            if (rule != null && rule.isPartitioned()) {
+                return new PartitionedScriptProcess(
+                    logger, pipe, id, request, failCount, intervalValue, pipeValue, m_pars
+                );
+            }
             return new StdScriptProcess(
                 logger, pipe, id, request, failCount, intervalValue, pipeValue, m_pars
             );
@@ -1090,6 +1163,10 @@ public class Pipeline extends StatedObjectExtendable implements FullPipeline {
         return m_appl;
     }
 
+    public WorkExecutor getWorkExecutor(String name) {
+        return m_appl == null ? null : m_appl.getWorkExecutor(name);
+    }
+
     public String getBaseRuleName() {
         return m_baseRuleName;
     }
@@ -61,6 +61,8 @@ public class SourceRule {
     private Integer m_ignoreErrorCount;
     private String m_intervalCol;
     private String m_intervalStep;
+    private int m_partitions;
+    private String m_partitionRangeQuery;
     private Map<String, ScriptStatement> m_statements = new HashMap<String, ScriptStatement>();
     private final String m_targetProfileObjectName;
     private final Set<String> m_sourceLinks;
@@ -228,6 +230,15 @@ public class SourceRule {
         m_type = DomHelper.getNodeAttr(conf, "type");
         m_intervalStep = DomHelper.getNodeAttr(conf, "interval-step");
         m_intervalCol = DomHelper.getNodeAttr(conf, "interval-column", false);
+        m_partitions = DomHelper.getIntNodeAttr(conf, "partitions", 0);
+        m_partitionRangeQuery = DomHelper.getNodeValue(
+            DomHelper.getChild(conf, "partition-range-query", false)
+        );
+        if (m_partitions > 1 && m_partitionRangeQuery.trim().length() == 0) {
+            throw new CourierException(
+                "Rule '" + getName() + "' with partitions requires partition-range-query"
+            );
+        }
         Node stmtsConf = DomHelper.getChild(conf, "statements");
         for (String stmtName: new String[]{
             TargetScriptProcess.c_SourcePluginMainName,
@@ -316,6 +327,25 @@ public class SourceRule {
         return m_intervalStep;
     }
 
+    /**
+     * @return true if the rule interval is split into partitions
+     * transferred by concurrent processes
+     */
+    public boolean isPartitioned() {
+        return m_partitions > 1;
+    }
+
+    public int getPartitions() {
+        return m_partitions;
+    }
+
+    /**
+     * @return template of the request returning upper bound of the interval
+     */
+    public String getPartitionRangeQuery() {
+        return m_partitionRangeQuery;
+    }
+
     public boolean isMainType() {
         return (m_type.equals(c_FreshType) || m_type.equals(c_AllType));
     }
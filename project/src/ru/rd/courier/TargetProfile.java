@@ -37,6 +37,7 @@ import ru.rd.courier.scripting.*;
 import ru.rd.courier.scripting.expressions.string.Const;
 import ru.rd.courier.scripting.statements.Nothing;
 import ru.rd.courier.utils.DomHelper;
+import ru.rd.pool.ObjectPoolIntf;
 
 import java.util.*;
 
@@ -48,6 +49,7 @@ public class TargetProfile implements PortionFormatterProvider, StatementProvide
     private int m_waitTimeout;
     private int m_recLimit;
     private int m_bytesLimit;
+    private int m_pipelineQueueSize;
     private final Set<String> m_sourceLinks;
     private final Set<String> m_targetLinks;
 
@@ -72,6 +74,7 @@ public class TargetProfile implements PortionFormatterProvider, StatementProvide
 
         m_recLimit = -1;
         m_bytesLimit = -1;
+        m_pipelineQueueSize = 0;
         e = DomHelper.getChild(p, "portion", false);
         if (e != null) {
             String attrName;
@@ -83,6 +86,10 @@ public class TargetProfile implements PortionFormatterProvider, StatementProvide
             if (e.hasAttribute(attrName)) {
                 m_bytesLimit = Integer.parseInt(e.getAttribute(attrName));
             }
+            attrName = "pipeline-queue";
+            if (e.hasAttribute(attrName)) {
+                m_pipelineQueueSize = Integer.parseInt(e.getAttribute(attrName));
+            }
             Element be = DomHelper.getChild(e, "before", false);
             if (be != null) {
                 m_beforePortion = new PreparedTemplate(DomHelper.getNodeValue(be));
@@ -197,9 +204,13 @@ public class TargetProfile implements PortionFormatterProvider, StatementProvide
     }
 
     public PortionFormatter getPortionFormatter(final Context ctx) {
-        return new PortionFormatter() {
+        return new SeparatedPortionFormatter() {
             Context m_ctx = ctx;
 
+            public String getRecordSeparator() {
+                return "\n";
+            }
+
             public String format(List<String> portion) {
                 StringBuffer sb = new StringBuffer(portion.size());
                 Iterator it = portion.iterator();
@@ -230,6 +241,14 @@ public class TargetProfile implements PortionFormatterProvider, StatementProvide
         return m_afterPortionScript;
     }
 
+    public int getPipelineQueueSize() {
+        return m_pipelineQueueSize;
+    }
+
+    public ObjectPoolIntf getThreadPool() {
+        return getApplication().getThreadPool();
+    }
+
     public Set<String> getSourceLinks() {
         return m_sourceLinks;
     }
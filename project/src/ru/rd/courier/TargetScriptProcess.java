@@ -258,7 +258,8 @@ public abstract class TargetScriptProcess implements TransferProcess, TransferPr
         m_targetWaitTimeout = pipe.getTargetWaitTimeout();
 
         m_warnBuffer = new AsyncBuffer<ProcessWarnings>(
-            m_logger, applContext.getThreadPool(), 1,
+            m_logger, applContext.getThreadPool(),
+            pipe.getWorkExecutor(Application.c_SystemDbThreadGroup), 1,
             applContext.getTimer(), 0,
             new AsyncBuffer.Receiver<ProcessWarnings>() {
                 public void handleData(List<ProcessWarnings> dataPart) {
@@ -424,6 +425,10 @@ public abstract class TargetScriptProcess implements TransferProcess, TransferPr
         return m_topStmt;
     }
 
+    protected final void setTopStatement(ScriptStatement stmt) {
+        m_topStmt = stmt;
+    }
+
     protected final String processResolveSourceAlias(String dbName) {
         final String defSource = getPipeline().getDefaultSourceName();
         if (dbName.equals(defSource)) return m_defaultSourceDbName;
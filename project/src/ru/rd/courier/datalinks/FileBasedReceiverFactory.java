@@ -50,6 +50,7 @@ public abstract class FileBasedReceiverFactory extends ReceiverFactory {
     protected String m_dir;
     protected String m_dateFormat;
     protected boolean m_fileNameAtFirstLine;
+    protected boolean m_streaming = false;
 
     public FileBasedReceiverFactory(
         CourierLogger logger,
@@ -101,6 +102,7 @@ public abstract class FileBasedReceiverFactory extends ReceiverFactory {
         m_dir = DomHelper.getNodeAttr(conf, "dir", "");
         if (m_dir.length() > 0 && !m_dir.endsWith("/")) m_dir += "/";
         m_fileNameAtFirstLine = DomHelper.getBoolYesNo(conf, "filename-at-first-line");
+        m_streaming = DomHelper.getBoolYesNo(conf, "streaming", false);
         m_dateFormat = DomHelper.getNodeAttr(conf, "date-format", false);
         if(!m_fileNameAtFirstLine) {
             if (m_prefix == null) {
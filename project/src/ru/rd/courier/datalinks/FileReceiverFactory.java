@@ -67,11 +67,13 @@ public class FileReceiverFactory extends FileBasedReceiverFactory {
     }
 
     public Object getObject(ObjectPoolIntf pool) {
-        return new FileReceiver(
+        FileReceiver fr = new FileReceiver(
             m_logger, m_encoding, m_overwrite, m_overwriteWarning, m_append,
             m_prefix, m_postfix, m_dir, m_fileNameAtFirstLine, m_dateFormat,
             m_syncMkdir
         );
+        fr.setStreaming(m_streaming);
+        return fr;
     }
 
     public boolean checkObject(Object o) {
@@ -208,6 +208,7 @@ public class FtpSourceFactory extends FileBasedReceiverFactory implements HostPr
             if (m_listParserFactory != null) {
                 src.setListParser(m_listParserFactory.createListParser());
             }
+            src.setStreaming(m_streaming);
             return src;
         } catch (CourierException e) {
             throw new RuntimeException(e);
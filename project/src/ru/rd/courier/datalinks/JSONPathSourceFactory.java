@@ -50,12 +50,14 @@ public class JSONPathSourceFactory extends ReceiverFactory {
     private final String m_recordSelector;
     private final List<JSONPathSource.ColumnSelectInfo> m_cols;
     private final String m_encoding;
+    private final boolean m_streaming;
 
     public JSONPathSourceFactory(
         CourierLogger logger, ObjectPoolIntf threadPool, Node conf
     ) {
         super(logger, threadPool);
         m_recordSelector = DomHelper.getChildValue(conf, "records-path");
+        m_streaming = DomHelper.getBoolYesNo(DomHelper.getChild(conf, "records-path"), "streaming", false);
         m_encoding = DomHelper.getNodeAttr(conf, "encoding", null);
         m_cols = new LinkedList<JSONPathSource.ColumnSelectInfo>();
 
@@ -73,6 +75,7 @@ public class JSONPathSourceFactory extends ReceiverFactory {
     public final JSONPathSource createSource() {
         JSONPathSource r = new JSONPathSource(m_logger, m_recordSelector, m_cols);
         r.setEncoding(m_encoding);
+        r.setStreaming(m_streaming);
         return r;
     }
 }
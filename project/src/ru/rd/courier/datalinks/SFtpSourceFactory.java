@@ -95,11 +95,13 @@ public class SFtpSourceFactory extends FileBasedReceiverFactory {
     }
 
     public Object getObject(ObjectPoolIntf pool) throws Exception {
-        return new SFtpSource(
+        SFtpSource src = new SFtpSource(
             m_logger, m_encoding, m_overwrite, m_overwriteWarning,
             m_fileNameAtFirstLine, m_dir, m_prefix, m_postfix, m_dateFormat,
             m_host, m_port, m_username, m_password, m_parser
         );
+        src.setStreaming(m_streaming);
+        return src;
     }
 
     public boolean checkObject(Object o) {
@@ -39,8 +39,10 @@ import ru.rd.courier.utils.DomHelper;
 import ru.rd.courier.utils.LineReader;
 import ru.rd.courier.utils.StringHelper;
 import ru.rd.courier.utils.StringSimpleParser;
+import ru.rd.courier.Application;
 import ru.rd.courier.CourierContext;
 import ru.rd.pool.ObjectPoolIntf;
+import ru.rd.thread.WorkExecutor;
 
 import java.io.*;
 import java.util.Properties;
@@ -54,6 +56,9 @@ public class StreamSourceFactory extends ReceiverFactory {
     private final StreamConnectorFactory m_connectorFactory;
     private final StreamParserFactory m_parserFactory;
     private final boolean m_cacheData;
+    private final int m_cacheMemoryLimit;
+    private final File m_cacheDir;
+    private final WorkExecutor m_executor;
 
     private interface StreamConnectorFactory {
         StreamConnector createConnector();
@@ -64,6 +69,12 @@ public class StreamSourceFactory extends ReceiverFactory {
     ) {
         super(logger, ctx.getThreadPool());
         m_cacheData = DomHelper.getBoolYesNo(conf, "cache-data", true);
+        m_cacheMemoryLimit = DomHelper.getIntNodeAttr(
+            conf, "cache-memory-limit", StreamCache.c_defaultMemoryLimit
+        );
+        String cacheDir = DomHelper.getNodeAttr(conf, "cache-dir", null);
+        m_cacheDir = cacheDir == null ? null : ctx.getAppFile(cacheDir);
+        m_executor = ctx.getWorkExecutor(Application.c_HelperThreadGroup);
         m_connectorFactory = getStreamFactory(name, ctx, conf);
         final Node parserConf = DomHelper.getChild(conf, "parser", false);
         if (parserConf == null) {
@@ -200,6 +211,8 @@ public class StreamSourceFactory extends ReceiverFactory {
             return new JSONPathParserFactory(conf);
         } else if (type.equals("excel")) {
             return new ExcelParserFactory(conf);
+        } else if (type.equals("xlsx")) {
+            return new ExcelParserFactory(conf, true);
         } else if (type.equals("dbf")) {
             final String encoding = DomHelper.getNodeAttr(conf, "encoding", null);
             final boolean trim = !DomHelper.getBoolYesNo(conf, "cancel-trim", false);
@@ -348,11 +361,13 @@ public class StreamSourceFactory extends ReceiverFactory {
     }
 
     public Object getObject(ObjectPoolIntf pool) {
-        return new StreamSource(
-            m_logger, m_threadPool,
+        StreamSource ret = new StreamSource(
+            m_logger, m_threadPool, m_executor,
             m_connectorFactory.createConnector(),
             m_parserFactory.createParser(),
             m_cacheData
         );
+        ret.setCacheOptions(m_cacheMemoryLimit, m_cacheDir);
+        return ret;
     }
 }
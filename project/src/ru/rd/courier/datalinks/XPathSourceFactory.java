@@ -50,6 +50,7 @@ public class XPathSourceFactory extends ReceiverFactory {
     private final String m_recordSelector;
     private final List<XPathSource.ColumnSelectInfo> m_cols;
     private final String m_encoding;
+    private final boolean m_streaming;
     private final Map<String, String> m_nsPrefixes = new HashMap<String, String>();
 
     public XPathSourceFactory(
@@ -57,6 +58,7 @@ public class XPathSourceFactory extends ReceiverFactory {
     ) {
         super(logger, threadPool);
         m_recordSelector = DomHelper.getChildValue(conf, "records-path");
+        m_streaming = DomHelper.getBoolYesNo(DomHelper.getChild(conf, "records-path"), "streaming", false);
         m_encoding = DomHelper.getNodeAttr(conf, "encoding", null);
         m_cols = new LinkedList<XPathSource.ColumnSelectInfo>();
         Node nsn = DomHelper.getChild(conf, "namespaces", false);
@@ -85,6 +87,7 @@ public class XPathSourceFactory extends ReceiverFactory {
     public final XPathSource createSource() {
         XPathSource r = new XPathSource(m_logger, m_recordSelector, m_cols, m_nsPrefixes);
         r.setEncoding(m_encoding);
+        r.setStreaming(m_streaming);
         return r;
     }
 }
@@ -82,6 +82,15 @@ public abstract class IteratingResultSet extends EmptyResultSet {
         return relative(1);
     }
 
+    /**
+     * Resets position for result sets able to read their records again
+     */
+    protected void restart() {
+        m_curPos = 0;
+        m_finished = false;
+        m_wasNull = EMPTY_NULL;
+    }
+
     protected byte m_wasNull = EMPTY_NULL;
     protected static final byte EMPTY_NULL = -1;
     protected static final byte WAS_NULL = 0;
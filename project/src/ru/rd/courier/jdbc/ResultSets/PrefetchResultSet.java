@@ -0,0 +1,235 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.jdbc.ResultSets;
+
+import ru.rd.courier.jdbc.EmptyResultSet;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Window of records read ahead from the source result set. The window can
+ * be iterated several times. Values are read the same way as statements
+ * getting variables from records read them, column errors are thrown
+ * when the value is accessed.
+ */
+public class PrefetchResultSet extends EmptyResultSet {
+    private final ResultSet m_rs;
+    private final ResultSetMetaData m_md;
+    private final int[] m_types;
+    private final List<Object[]> m_rows = new ArrayList<Object[]>();
+    private boolean m_started = false;
+    private boolean m_sourceOnRow = false;
+    private int m_pos = -1;
+    private boolean m_wasNull = false;
+
+    public PrefetchResultSet(ResultSet rs) throws SQLException {
+        m_rs = rs;
+        m_md = rs.getMetaData();
+        m_types = new int[m_md.getColumnCount()];
+        for (int i = 0; i < m_types.length; i++) {
+            m_types[i] = m_md.getColumnType(i + 1);
+        }
+    }
+
+    /**
+     * Replaces the window with up to count next source records
+     * @return records count in the window
+     */
+    public int prefetch(int count) throws SQLException {
+        m_rows.clear();
+        m_pos = -1;
+        if (!m_started) {
+            m_sourceOnRow = m_rs.next();
+            m_started = true;
+        }
+        while (m_rows.size() < count && m_sourceOnRow) {
+            m_rows.add(readRow());
+            m_sourceOnRow = m_rs.next();
+        }
+        return m_rows.size();
+    }
+
+    private Object[] readRow() {
+        Object[] row = new Object[m_types.length];
+        for (int i = 0; i < m_types.length; i++) {
+            final int col = i + 1;
+            try {
+                switch (m_types[i]) {
+                    case Types.TIMESTAMP: row[i] = m_rs.getTimestamp(col); break;
+                    case Types.DATE: row[i] = m_rs.getDate(col); break;
+                    case Types.BLOB: row[i] = m_rs.getBytes(col); break;
+                    default: row[i] = m_rs.getString(col);
+                }
+            } catch (SQLException e) {
+                row[i] = e;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Positions before the first window record
+     */
+    public void rewind() {
+        m_pos = -1;
+    }
+
+    public int getWindowSize() {
+        return m_rows.size();
+    }
+
+    /**
+     * @return true if current record is the last one of the source
+     */
+    public boolean isSourceLast() {
+        return m_pos == m_rows.size() - 1 && !m_sourceOnRow;
+    }
+
+    public boolean next() throws SQLException {
+        if (m_pos >= m_rows.size()) return false;
+        m_pos++;
+        return m_pos < m_rows.size();
+    }
+
+    private Object getValue(int columnIndex) throws SQLException {
+        if (m_pos < 0 || m_pos >= m_rows.size()) {
+            throw new SQLException("Result set is not positioned on a record");
+        }
+        if (columnIndex < 1 || columnIndex > m_types.length) {
+            throw new SQLException("Invalid column index '" + columnIndex + "'");
+        }
+        Object v = m_rows.get(m_pos)[columnIndex - 1];
+        if (v instanceof SQLException) throw (SQLException)v;
+        m_wasNull = v == null;
+        return v;
+    }
+
+    public boolean wasNull() throws SQLException {
+        return m_wasNull;
+    }
+
+    public String getString(int columnIndex) throws SQLException {
+        Object v = getValue(columnIndex);
+        return v == null ? null : v.toString();
+    }
+
+    public Timestamp getTimestamp(int columnIndex) throws SQLException {
+        Object v = getValue(columnIndex);
+        if (v == null || v instanceof Timestamp) return (Timestamp)v;
+        if (v instanceof Date) return new Timestamp(((Date)v).getTime());
+        return Timestamp.valueOf((String)v);
+    }
+
+    public java.sql.Date getDate(int columnIndex) throws SQLException {
+        Object v = getValue(columnIndex);
+        if (v == null || v instanceof java.sql.Date) return (java.sql.Date)v;
+        if (v instanceof Date) return new java.sql.Date(((Date)v).getTime());
+        return java.sql.Date.valueOf((String)v);
+    }
+
+    public byte[] getBytes(int columnIndex) throws SQLException {
+        Object v = getValue(columnIndex);
+        if (v == null || v instanceof byte[]) return (byte[])v;
+        throw new SQLException("Column " + columnIndex + " is not binary");
+    }
+
+    public long getLong(int columnIndex) throws SQLException {
+        String v = getString(columnIndex);
+        if (v == null) return 0;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            return (long)getDouble(columnIndex);
+        }
+    }
+
+    public int getInt(int columnIndex) throws SQLException {
+        return (int)getLong(columnIndex);
+    }
+
+    public double getDouble(int columnIndex) throws SQLException {
+        String v = getString(columnIndex);
+        if (v == null) return 0;
+        try {
+            return Double.parseDouble(v.trim());
+        } catch (NumberFormatException e) {
+            throw new SQLException("Column " + columnIndex + " value '" + v + "' is not a number");
+        }
+    }
+
+    public Object getObject(int columnIndex) throws SQLException {
+        return getValue(columnIndex);
+    }
+
+    public int findColumn(String columnName) throws SQLException {
+        for (int i = 1; i <= m_types.length; i++) {
+            if (m_md.getColumnName(i).equalsIgnoreCase(columnName)) return i;
+        }
+        throw new SQLException("Result set does not contain column '" + columnName + "'");
+    }
+
+    public String getString(String columnName) throws SQLException {
+        return getString(findColumn(columnName));
+    }
+
+    public Timestamp getTimestamp(String columnName) throws SQLException {
+        return getTimestamp(findColumn(columnName));
+    }
+
+    public java.sql.Date getDate(String columnName) throws SQLException {
+        return getDate(findColumn(columnName));
+    }
+
+    public Object getObject(String columnName) throws SQLException {
+        return getObject(findColumn(columnName));
+    }
+
+    public ResultSetMetaData getMetaData() throws SQLException {
+        return m_md;
+    }
+
+    public Statement getStatement() throws SQLException {
+        return m_rs.getStatement();
+    }
+
+    public void close() throws SQLException {
+        m_rows.clear();
+        m_rs.close();
+    }
+}
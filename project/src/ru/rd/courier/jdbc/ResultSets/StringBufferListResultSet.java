@@ -35,6 +35,7 @@ import ru.rd.courier.jdbc.ResultSets.StringBufferedResultSet;
 
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -85,6 +86,24 @@ public class StringBufferListResultSet extends StringBufferedResultSet {
         );
     }
 
+    private static List<StringBuffer[]> columnToList(List<String> data) {
+        List<StringBuffer[]> ret = new ArrayList<StringBuffer[]>(data.size());
+        for (String s: data) {
+            ret.add(new StringBuffer[] {new StringBuffer(s)});
+        }
+        return ret;
+    }
+
+    public StringBufferListResultSet(
+        Statement stmt, String colName, List<String> data
+    ) {
+        this(
+            stmt,
+            new IterColumnInfo[] {new IterColumnInfo(colName)},
+            columnToList(data)
+        );
+    }
+
     protected boolean getRecord() throws SQLException {
         if (!m_dataIt.hasNext()) return false;
         m_data = m_dataIt.next();
@@ -111,6 +111,6 @@ public class CsvConnection extends FileConnection {
     protected ResultSet createResultSet(
         Logger logger, Statement stmt, ResultSetInfo rsInfo
     ) throws SQLException {
-        return new CsvStringResultSet(new CourierLoggerAdapter(m_logger), stmt, rsInfo);
+        return CsvStringResultSet.create(new CourierLoggerAdapter(m_logger), stmt, rsInfo);
     }
 }
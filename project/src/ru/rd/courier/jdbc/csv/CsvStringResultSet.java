@@ -37,6 +37,7 @@ import ru.rd.courier.logging.CourierLogger;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Map;
@@ -116,6 +117,21 @@ public class CsvStringResultSet extends StringBufferedResultSet {
         );
     }
 
+    /**
+     * Creates result set for the specified info. Lines split by
+     * {@link CsvLineParser} are read by {@link CsvTokenizerResultSet}.
+     */
+    public static ResultSet create(
+        CourierLogger logger, Statement stmt, ResultSetInfo rsInfo
+    ) throws SQLException {
+        if (rsInfo.m_parser instanceof CsvLineParser) {
+            return new CsvTokenizerResultSet(
+                logger, stmt, rsInfo, (CsvLineParser)rsInfo.m_parser
+            );
+        }
+        return new CsvStringResultSet(logger, stmt, rsInfo);
+    }
+
     protected boolean getRecord() throws SQLException {
         if (m_linesToRead == 0) return false;
         boolean res;
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.jdbc.csv;
+
+import ru.rd.courier.CourierException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * CSV reader scanning records directly in a reusable char buffer. Only
+ * field offsets are recorded while scanning, field strings are created by
+ * {@link #getField} when they are requested. Bracketed field may contain
+ * line feeds so one record may span several lines, doubled bracket inside
+ * bracketed field stands for the bracket itself. Single line records are
+ * split exactly as {@link CsvLineParser} does ('\r' chars are ignored).
+ */
+public class CsvTokenizer extends CsvLineSplitterInfo {
+    public static final int c_defaultBufferSize = 64*1024;
+
+    private static final byte c_quoted = 1;
+    private static final byte c_dirty = 2;
+
+    private final Reader m_reader;
+    private char[] m_buf;
+    private int m_len = 0;
+    private int m_pos = 0;
+    private boolean m_eof = false;
+
+    private int m_recStart = 0;
+    private int m_recEnd = 0;
+    private int m_lineCount;
+    private int m_fieldCount = 0;
+    private int[] m_starts = new int[16];
+    private int[] m_ends = new int[16];
+    private byte[] m_flags = new byte[16];
+
+    public CsvTokenizer(Reader reader, CsvLineSplitterInfo info, int bufferSize) {
+        super(info);
+        m_reader = reader;
+        m_buf = new char[bufferSize];
+    }
+
+    public CsvTokenizer(Reader reader, CsvLineSplitterInfo info) {
+        this(reader, info, c_defaultBufferSize);
+    }
+
+    /**
+     * Moves current record to the buffer beginning (growing the buffer if
+     * the record occupies all of it) and reads more data.
+     */
+    private boolean fill() throws IOException {
+        if (m_eof) return false;
+        int shift = m_recStart;
+        if (shift > 0) {
+            System.arraycopy(m_buf, shift, m_buf, 0, m_len - shift);
+            m_len -= shift;
+            m_pos -= shift;
+            m_recStart = 0;
+            for (int i = 0; i < m_fieldCount; i++) {
+                m_starts[i] -= shift;
+                m_ends[i] -= shift;
+            }
+        }
+        if (m_len == m_buf.length) {
+            char[] buf = new char[m_buf.length * 2];
+            System.arraycopy(m_buf, 0, buf, 0, m_len);
+            m_buf = buf;
+        }
+        int count = m_reader.read(m_buf, m_len, m_buf.length - m_len);
+        if (count < 0) {
+            m_eof = true;
+            return false;
+        }
+        m_len += count;
+        return true;
+    }
+
+    private boolean ensure(int count) throws IOException {
+        while (m_len - m_pos < count) {
+            if (!fill()) return false;
+        }
+        return true;
+    }
+
+    private void addField(int start, int end, byte flags) {
+        if (m_fieldCount == m_starts.length) {
+            int size = m_starts.length * 2;
+            int[] starts = new int[size];
+            System.arraycopy(m_starts, 0, starts, 0, m_fieldCount);
+            m_starts = starts;
+            int[] ends = new int[size];
+            System.arraycopy(m_ends, 0, ends, 0, m_fieldCount);
+            m_ends = ends;
+            byte[] fieldFlags = new byte[size];
+            System.arraycopy(m_flags, 0, fieldFlags, 0, m_fieldCount);
+            m_flags = fieldFlags;
+        }
+        m_starts[m_fieldCount] = start;
+        m_ends[m_fieldCount] = end;
+        m_flags[m_fieldCount] = flags;
+        m_fieldCount++;
+    }
+
+    private CourierException parseError(String message) {
+        m_recEnd = m_pos;
+        return new CourierException(
+            message + " at position " + (m_pos - m_recStart)
+            + " in '" + getRecordText() + "'"
+        );
+    }
+
+    /**
+     * Reads the next record.
+     * @return false if there is no more data
+     * @throws CourierException if record format is wrong
+     */
+    public boolean nextRecord() throws IOException {
+        m_fieldCount = 0;
+        m_lineCount = 0;
+        m_recStart = m_pos;
+        if (!ensure(1)) return false;
+
+        while (true) {
+            if (m_useBracket && m_buf[m_pos] == m_stringBracket) {
+                readBracketed();
+            } else {
+                readPlain();
+            }
+            if (ensure(1)) {
+                char c = m_buf[m_pos];
+                if (c == m_separator) {
+                    m_pos++;
+                    if (!ensure(1) || m_buf[m_pos] == '\n') {
+                        addField(m_pos, m_pos, (byte)0);
+                        break;
+                    }
+                    continue;
+                }
+            }
+            break;
+        }
+
+        m_recEnd = m_pos;
+        if (ensure(1)) m_pos++;
+        m_lineCount++;
+        return true;
+    }
+
+    private void readPlain() throws IOException {
+        int start = m_pos;
+        int crCount = 0;
+        while (true) {
+            final char[] buf = m_buf;
+            final int len = m_len;
+            final char sep = m_separator;
+            int pos = m_pos;
+            while (pos < len) {
+                char c = buf[pos];
+                if (c == sep || c == '\n') break;
+                if (c == '\r') crCount++;
+                pos++;
+            }
+            m_pos = pos;
+            if (pos < len) break;
+            int shift = m_recStart;
+            boolean more = fill();
+            start -= shift - m_recStart;
+            if (!more) break;
+        }
+        int end = m_pos;
+        byte flags = 0;
+        if (crCount > 0) {
+            if (crCount == 1 && m_buf[end - 1] == '\r') {
+                end--;
+            } else {
+                flags = c_dirty;
+            }
+        }
+        if (m_fieldCount == 0 && end - start == (flags == 0 ? 0 : crCount)
+            && (m_pos == m_len || m_buf[m_pos] == '\n'))
+        {
+            // empty line
+            return;
+        }
+        addField(start, end, flags);
+    }
+
+    private void readBracketed() throws IOException {
+        final char bracket = m_stringBracket;
+        m_pos++;
+        int start = m_pos;
+        byte flags = c_quoted;
+        while (true) {
+            int shift = m_recStart;
+            if (!ensure(1)) throw parseError("No closing bracket");
+            start -= shift - m_recStart;
+            char c = m_buf[m_pos];
+            if (c == bracket) {
+                shift = m_recStart;
+                boolean more = ensure(2);
+                start -= shift - m_recStart;
+                if (more && m_buf[m_pos + 1] == bracket) {
+                    flags |= c_dirty;
+                    m_pos += 2;
+                    continue;
+                }
+                break;
+            }
+            if (c == '\n') {
+                m_lineCount++;
+            } else if (c == '\r') {
+                flags |= c_dirty;
+            }
+            m_pos++;
+        }
+        addField(start, m_pos, flags);
+        m_pos++;
+
+        if (ensure(1) && m_buf[m_pos] == m_separator) return;
+        while (ensure(1)) {
+            char c = m_buf[m_pos];
+            if (c == '\n') return;
+            if (c != ' ' && c != '\t' && c != '\r') {
+                throw parseError("Field separator \"" + m_separator + "\" expected");
+            }
+            m_pos++;
+        }
+    }
+
+    /**
+     * @return number of lines the current record occupies
+     */
+    public int getLineCount() {
+        return m_lineCount;
+    }
+
+    public int getFieldCount() {
+        return m_fieldCount;
+    }
+
+    /**
+     * @return field value processed according to trim and null word settings
+     */
+    public String getField(int index) {
+        int start = m_starts[index];
+        int end = m_ends[index];
+        String ret;
+        if ((m_flags[index] & c_dirty) == 0) {
+            if (m_needToTrim) {
+                while (start < end && m_buf[start] <= ' ') start++;
+                while (end > start && m_buf[end - 1] <= ' ') end--;
+            }
+            if (m_nullWord != null && isNullWord(start, end)) return null;
+            ret = new String(m_buf, start, end - start);
+        } else {
+            boolean quoted = (m_flags[index] & c_quoted) != 0;
+            StringBuffer sb = new StringBuffer(end - start);
+            for (int i = start; i < end; i++) {
+                char c = m_buf[i];
+                if (c == '\r') continue;
+                sb.append(c);
+                if (quoted && c == m_stringBracket) i++;
+            }
+            ret = sb.toString();
+            if (m_needToTrim) ret = ret.trim();
+            if (m_nullWord != null && m_nullWord.equals(ret)) return null;
+        }
+        return ret;
+    }
+
+    private boolean isNullWord(int start, int end) {
+        if (end - start != m_nullWord.length()) return false;
+        for (int i = start; i < end; i++) {
+            if (m_buf[i] != m_nullWord.charAt(i - start)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return text of the current record without '\r' chars
+     */
+    public String getRecordText() {
+        StringBuffer sb = new StringBuffer(m_recEnd - m_recStart);
+        for (int i = m_recStart; i < m_recEnd; i++) {
+            if (m_buf[i] != '\r') sb.append(m_buf[i]);
+        }
+        return sb.toString();
+    }
+
+    public void close() throws IOException {
+        m_reader.close();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.jdbc.csv;
+
+import ru.rd.courier.jdbc.EmptyResultSetMetaData;
+import ru.rd.courier.jdbc.ResultSets.IteratingResultSet;
+import ru.rd.courier.logging.CourierLogger;
+
+import java.io.IOException;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Result set over {@link CsvTokenizer}. Field strings are created only
+ * for the columns actually read from the current record.
+ */
+public class CsvTokenizerResultSet extends IteratingResultSet {
+    private final CourierLogger m_logger;
+    private final CsvTokenizer m_tokenizer;
+    private final String[] m_names;
+    private final int[] m_sizes;
+    private final String[] m_values;
+    private final boolean[] m_loaded;
+    private final int m_colCount;
+    private int m_lineNum;
+    private int m_recLineNum;
+    private int m_linesToRead;
+    private final boolean m_addAbsentAsNull;
+    private final LineFilter m_filter;
+
+    private static final int c_colSize = 256;
+
+    public CsvTokenizerResultSet(
+        CourierLogger logger, Statement stmt,
+        ResultSetInfo rsInfo, CsvLineSplitterInfo splitInfo
+    ) {
+        super(stmt);
+        m_logger = logger;
+        m_tokenizer = new CsvTokenizer(rsInfo.m_reader, splitInfo);
+        m_colCount = rsInfo.m_cols.length;
+        m_lineNum = rsInfo.m_firstLineNum;
+        m_linesToRead = rsInfo.m_linesToRead;
+        m_addAbsentAsNull = rsInfo.m_addAbsentAsNull;
+        m_filter = rsInfo.m_filter instanceof FakeFilter ? null : rsInfo.m_filter;
+
+        Properties constFields = rsInfo.m_constFields;
+        int count = m_colCount + 1 + constFields.size();
+        m_names = new String[count];
+        m_sizes = new int[count];
+        m_values = new String[count];
+        m_loaded = new boolean[count];
+        for (int i = 0; i < m_colCount; i++) {
+            m_names[i] = rsInfo.m_cols[i];
+            m_sizes[i] = c_colSize;
+        }
+        m_names[m_colCount] = rsInfo.m_lineNumTitle;
+        m_sizes[m_colCount] = 32;
+        int i = m_colCount + 1;
+        for (Map.Entry<Object,Object> entry: constFields.entrySet()) {
+            String value = entry.getValue().toString();
+            m_names[i] = entry.getKey().toString();
+            m_sizes[i] = value.length();
+            m_values[i] = value;
+            i++;
+        }
+    }
+
+    private boolean readRecord() throws IOException {
+        if (m_linesToRead == 0) return false;
+        if (!m_tokenizer.nextRecord()) return false;
+        int lines = m_tokenizer.getLineCount();
+        if (m_linesToRead > 0) m_linesToRead = Math.max(m_linesToRead - lines, 0);
+        m_recLineNum = m_lineNum;
+        m_lineNum += lines;
+        return true;
+    }
+
+    private boolean skipCurrent() {
+        return m_filter != null && m_filter.skip(m_tokenizer.getRecordText());
+    }
+
+    protected boolean getRecord() throws SQLException {
+        try {
+            while (true) {
+                if (!readRecord()) return false;
+                if (!skipCurrent()) break;
+            }
+        } catch (IOException e) {
+            throw new SQLException(e.getMessage());
+        } catch (Exception e) {
+            m_logger.error("Parse error", e);
+            return false;
+        }
+
+        if (!m_addAbsentAsNull && m_tokenizer.getFieldCount() != m_colCount) {
+            m_logger.error(
+                "Line " + (m_recLineNum + 1)
+                + ": Wrong fields number (expected " + m_colCount
+                + " actually " + m_tokenizer.getFieldCount() + ") in "
+                + "'" + m_tokenizer.getRecordText() + "'"
+            );
+        }
+        Arrays.fill(m_loaded, 0, m_colCount + 1, false);
+        return true;
+    }
+
+    protected int skipRecords(int count) throws SQLException {
+        int i = 0;
+        try {
+            while (i < count && readRecord()) {
+                if (!skipCurrent()) i++;
+            }
+        } catch (IOException e) {
+            throw new SQLException(e.getMessage());
+        } catch (Exception e) {
+            m_logger.error("Parse error", e);
+        }
+        return i;
+    }
+
+    private String innerGetString(int index) {
+        if (index <= m_colCount && !m_loaded[index]) {
+            if (index == m_colCount) {
+                m_values[index] = Integer.toString(m_recLineNum);
+            } else if (index < m_tokenizer.getFieldCount()) {
+                m_values[index] = m_tokenizer.getField(index);
+            } else {
+                m_values[index] = null;
+            }
+            m_loaded[index] = true;
+        }
+        String ret = m_values[index];
+        m_wasNull = ret == null ? WAS_NULL : NOT_WAS_NULL;
+        return ret;
+    }
+
+    public String getString(int columnIndex) throws SQLException {
+        checkRecordRead();
+        if ((columnIndex < 1) || (columnIndex > m_names.length)) {
+            throw new SQLException("Invalid column index '" + columnIndex + "'");
+        }
+        return innerGetString(columnIndex - 1);
+    }
+
+    public String getString(String columnName) throws SQLException {
+        return getString(findColumn(columnName));
+    }
+
+    public int findColumn(String columnName) throws SQLException {
+        for (int i = 0; i < m_names.length; i++) {
+            if (m_names[i].equals(columnName)) return i + 1;
+        }
+        throw new SQLException(
+            "Result set does not contain column '" + columnName + "'");
+    }
+
+    public void close() throws SQLException {
+        try {
+            m_tokenizer.close();
+        } catch (IOException e) {
+            throw new SQLException("Failed to close reader: " + e.getMessage());
+        }
+    }
+
+    private class MetaData extends EmptyResultSetMetaData {
+        public int getColumnCount() throws SQLException {
+            return m_names.length;
+        }
+
+        public String getColumnName(int column) throws SQLException {
+            return m_names[column - 1];
+        }
+
+        public int getPrecision(int column) throws SQLException {
+            return m_sizes[column - 1];
+        }
+
+        public int getScale(int column) throws SQLException {
+            return 0;
+        }
+
+        public int getColumnType(int column) throws SQLException {
+            return java.sql.Types.VARCHAR;
+        }
+
+        public String getColumnTypeName(int column) throws SQLException {
+            return "VARCHAR";
+        }
+    }
+
+    public ResultSetMetaData getMetaData() throws SQLException {
+        return new MetaData();
+    }
+}
@@ -73,6 +73,10 @@ public abstract class FileConnection extends ConnectionSkeleton {
     private int m_sameFileReadCount;
     private String m_title;
     private long m_lastLength;
+    private Object m_fileKey;
+    private final LastLineChecker m_lastLineChecker = new LastLineChecker();
+    // its buffer is reused: chunk result set is read before the next request
+    private TailChunk m_lastChunk = null;
 
     public static final String c_dirParam = "DirName";
     public static final String c_filePrefixParam = "FilePrefix";
@@ -210,18 +214,6 @@ public abstract class FileConnection extends ConnectionSkeleton {
         ));
     }
 
-    private static Reader getReader(RandomAccessFile file, String charSet) throws IOException {
-        if (charSet == null) {
-            return new BufferedReader(new InputStreamReader(
-                new FileInputStream(file.getFD())
-            ));
-        } else {
-            return new BufferedReader(new InputStreamReader(
-                new FileInputStream(file.getFD()), charSet
-            ));
-        }
-    }
-
     private boolean hasMoreData() {
         if (m_curFile == null) return false;
         File f = getFile(m_curFile);
@@ -233,103 +225,20 @@ public abstract class FileConnection extends ConnectionSkeleton {
         return (m_curFile == null) || !m_curFile.equals(fileName);
     }
 
-    private class LineCounter {
-        private int m_linesCount;
-        private long m_startPos;
-        private long m_lastLineEndPos;
-
-        public LineCounter(
-            Reader r, final long startPos, boolean lastChunk
-        ) throws IOException {
-            if (r == null)
-                throw new IllegalArgumentException("Reader cannot be null");
-            init(r, startPos, lastChunk);
-        }
-
-        private String readLine(Reader r) throws IOException {
-            StringBuffer sb = new StringBuffer();
-            int d;
-            while (true) {
-                d = r.read();
-                if (d < 0 || d == 10 || d == 13) break;
-                sb.append((char)d);
+    private class LastLineChecker implements TailChunk.LastLineChecker {
+        public boolean isComplete(String lastLine) {
+            if ((m_filter != null) && m_filter.skip(lastLine)) return true;
+            String[] fields = null;
+            try {
+                fields = m_lineSplitter.parse(new StringBuffer(lastLine));
+            } catch (Exception e) {
+                m_logger.log(Level.WARNING, e.getMessage(), e);
             }
-            return sb.toString();
-        }
-
-        private void init(
-            Reader r, final long startPos, boolean lastChunk
-        ) throws IOException {
-            m_linesCount = 0;
-            m_lastLineEndPos = startPos;
-
-            long pos = startPos;
-            int d;
-
-            // skip end line chars
-            while (true) {
-                d = r.read();
-                if (d < 0) return;
-                pos++;
-                if ((d != 10) && (d != 13)) break;
-            }
-
-            m_startPos = pos - 1;
-            StringBuffer sb =  new StringBuffer();
-            long lastLineBegPos = m_startPos;
-            do {
-                d = r.read();
-                if (d < 0) break;
-                pos++;
-                if (d == 10) {
-                    m_linesCount++;
-                    lastLineBegPos = pos;
-                    sb.setLength(0);
-                } else if (d != 13) {
-                    sb.append((char)d);
-                }
-            } while(true);
-
-            m_lastLineEndPos = pos;
-            // check last line completeness
-            if (pos <= lastLineBegPos) return;
-
-            if (lastChunk) {
-                m_linesCount++;
-            } else {
-                String lastLine = sb.toString();
-                if ((m_filter == null) || !m_filter.skip(lastLine)) {
-                    String[] fields = null;
-                    try {
-                        fields = m_lineSplitter.parse(new StringBuffer(lastLine));
-                    } catch (Exception e) {
-                        m_logger.log(Level.WARNING, e.getMessage(), e);
-                    }
-                    if (
-                        !m_addAbsentAsNull &&
-                        ((fields == null) ||
-                            (fields.length < (m_cols.length - c_PseudoFieldsCount)))
-                    ) {
-                        m_lastLineEndPos = lastLineBegPos;
-                    } else {
-                        m_linesCount++;
-                    }
-                } else {
-                    m_linesCount++;
-                }
-            }
-        }
-
-        public int getLineCount() {
-            return m_linesCount;
-        }
-
-        public long getStartPos() {
-            return m_startPos;
-        }
-
-        public long getLastLinePos() {
-            return m_lastLineEndPos;
+            return !(
+                !m_addAbsentAsNull &&
+                ((fields == null) ||
+                    (fields.length < (m_cols.length - c_PseudoFieldsCount)))
+            );
         }
     }
 
@@ -348,13 +257,13 @@ public abstract class FileConnection extends ConnectionSkeleton {
         if (fileName == null) return;
         LineReader lr = new LineReader(getReader(f, m_charSet));
         try {
-            initFileFromLineReader(fileName, lr);
+            initFileFromLineReader(f, fileName, lr);
         } finally {
             lr.close();
         }
     }
 
-    private void initFileFromLineReader(String fileName, LineReader lr) throws IOException {
+    private void initFileFromLineReader(File f, String fileName, LineReader lr) throws IOException {
         StringBuffer sb = new StringBuffer();
         String title = null;
         if (m_headerRow > 1) {
@@ -367,7 +276,7 @@ public abstract class FileConnection extends ConnectionSkeleton {
             StringHelper.trimLFCR(sb);
             title = sb.toString();
         }
-        m_curPos = lr.getBytesRead();
+        m_curPos = TailChunk.getBytePosition(f, m_charSet, lr.getBytesRead());
         if (initColumns(lr)) setFileProps(fileName, title);
     }
 
@@ -379,6 +288,9 @@ public abstract class FileConnection extends ConnectionSkeleton {
         m_title = title;
         m_curLineNum = 1;
         m_curFile = fileName;
+        m_fileKey = fileName == null ? null : TailChunk.getFileKey(getFile(fileName));
+        // line carried by the last chunk belongs to the previous file
+        m_lastChunk = null;
     }
 
     private ResultSet getNextChunk(Statement stmt, boolean lastChunk)
@@ -392,37 +304,21 @@ public abstract class FileConnection extends ConnectionSkeleton {
         m_sameFileReadCount++;
         File f = getFile(m_curFile);
 
-        Reader r = new InputStreamReader(
-            new BufferedInputStream(new FileInputStream(f)), m_charSet
-        );
-        LineCounter lc;
-        int oldLineNum;
-        Properties constFields;
-        try {
-            long skipped = r.skip(m_curPos);
-            if (skipped < m_curPos) return null;
-
-
-            lc = new LineCounter(r, m_curPos, lastChunk);
-            m_curPos = lc.getLastLinePos();
-            oldLineNum = m_curLineNum;
-            m_curLineNum += lc.getLineCount();
-            constFields = new Properties();
-            if (m_title != null) {
-                constFields.put(m_titleVarName, m_title);
-            }
-        } finally {
-            r.close();
+        if (f.length() < m_curPos) return null;
+        TailChunk chunk = TailChunk.read(f, m_curPos, lastChunk, m_charSet, m_lastLineChecker, m_lastChunk);
+        m_lastChunk = chunk.isBufferReusable() ? chunk : null;
+        m_curPos = chunk.getEndPos();
+        int oldLineNum = m_curLineNum;
+        m_curLineNum += chunk.getLineCount();
+        Properties constFields = new Properties();
+        if (m_title != null) {
+            constFields.put(m_titleVarName, m_title);
         }
-        r = new InputStreamReader(
-            new BufferedInputStream(new FileInputStream(f)), m_charSet
-        );
-        r.skip(lc.getStartPos());
         return createResultSet(
             m_logger, stmt,
             new ResultSetInfo(
                 c_lineNumberTitle, m_cols,
-                lc.getLineCount(), r,
+                chunk.getLineCount(), chunk.getReader(),
                 m_lineSplitter,
                 oldLineNum, m_addAbsentAsNull, m_filter,
                 constFields
@@ -434,9 +330,16 @@ public abstract class FileConnection extends ConnectionSkeleton {
         Logger logger, Statement stmt, ResultSetInfo rsInfo
     ) throws SQLException;
 
-    private boolean fileExists(File f) {
-        f.getParentFile().list();
-        return f.exists();
+    private static boolean fileExists(File f) {
+        return f.isFile();
+    }
+
+    private boolean isFileReplaced() {
+        if (m_curFile == null) return false;
+        File f = getFile(m_curFile);
+        if (!fileExists(f)) return false;
+        Object key = TailChunk.getFileKey(f);
+        return (key != null && !key.equals(m_fileKey)) || f.length() < m_curPos;
     }
 
     private boolean needToChangeFile(String name) {
@@ -470,7 +373,7 @@ public abstract class FileConnection extends ConnectionSkeleton {
                 initName = newName;
             }
         } else {
-            if (rereadSameFile()) initName = m_curFile;
+            if (rereadSameFile() || isFileReplaced()) initName = m_curFile;
         }
 
         if (initName != null) initFile(initName);
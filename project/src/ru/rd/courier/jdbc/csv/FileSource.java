@@ -77,6 +77,10 @@ public abstract class FileSource extends TimedStringReceiver implements DataSour
     private long m_fileInitTime;
     private int m_sameFileReadCount;
     private String m_title;
+    private Object m_fileKey;
+    private final LastLineChecker m_lastLineChecker = new LastLineChecker();
+    // its buffer is reused: chunk result set is read before the next request
+    private TailChunk m_lastChunk = null;
 
     public static final String c_lineNumberTitle = "LineNumber";
 
@@ -177,18 +181,6 @@ public abstract class FileSource extends TimedStringReceiver implements DataSour
         ));
     }
 
-    private static Reader getReader(RandomAccessFile file, String charSet) throws IOException {
-        if (charSet == null) {
-            return new BufferedReader(new InputStreamReader(
-                new FileInputStream(file.getFD())
-            ));
-        } else {
-            return new BufferedReader(new InputStreamReader(
-                new FileInputStream(file.getFD()), charSet
-            ));
-        }
-    }
-
     private boolean hasMoreData() {
         if (m_curFile == null) return false;
         File f = getFile(m_curFile);
@@ -200,103 +192,20 @@ public abstract class FileSource extends TimedStringReceiver implements DataSour
         return (m_curFile == null) || !m_curFile.equals(fileName);
     }
 
-    private class LineCounter {
-        private int m_linesCount;
-        private long m_startPos;
-        private long m_lastLineEndPos;
-
-        public LineCounter(
-            File file, final long startPos, boolean lastChunk
-        ) throws IOException {
-            if (file == null)
-                throw new IllegalArgumentException("File cannot be null");
-            if (startPos > file.length()) {
-                throw new IllegalArgumentException(
-                    "Start pos = " + startPos +
-                    " > file length = " + file.length()
-                );
-            }
-
-            RandomAccessFile raf = new RandomAccessFile(file, "r");
+    private class LastLineChecker implements TailChunk.LastLineChecker {
+        public boolean isComplete(String lastLine) {
+            if ((m_filter != null) && m_filter.skip(lastLine)) return true;
+            String[] fields = null;
             try {
-                init(raf, startPos, lastChunk);
-            } finally {
-                raf.close();
-            }
-        }
-
-        private void init(
-            RandomAccessFile raf, final long startPos, boolean lastChunk
-        ) throws IOException {
-            m_linesCount = 0;
-            m_lastLineEndPos = startPos;
-
-            raf.seek(startPos);
-            InputStream is = new BufferedInputStream(new FileInputStream(raf.getFD()));
-            long pos = startPos;
-            int d;
-
-            // skip end line chars
-            while (true) {
-                d = is.read();
-                if (d < 0) return;
-                pos++;
-                if ((d != 10) && (d != 13)) break;
-            }
-
-            m_startPos = pos - 1;
-            long lastLineBegPos = m_startPos;
-            do {
-                d = is.read();
-                if (d < 0) break;
-                pos++;
-                if (d == 10) {
-                    m_linesCount++;
-                    lastLineBegPos = pos;
-                }
-            } while(true);
-
-            m_lastLineEndPos = pos;
-            // check last line completeness
-            if (pos <= lastLineBegPos) return;
-
-            if (lastChunk) {
-                m_linesCount++;
-            } else {
-                raf.seek(lastLineBegPos);
-                String lastLine = raf.readLine();
-                if ((m_filter == null) || !m_filter.skip(lastLine)) {
-                    String[] fields = null;
-                    try {
-                        fields = m_lineSplitter.parse(new StringBuffer(lastLine));
-                    } catch (Exception e) {
-                        m_logger.warning(e.getMessage(), e);
-                    }
-                    if (
-                        !m_addAbsentAsNull &&
-                        ((fields == null) ||
-                            (fields.length < (m_cols.length - c_PseudoFieldsCount)))
-                    ) {
-                        m_lastLineEndPos = lastLineBegPos;
-                    } else {
-                        m_linesCount++;
-                    }
-                } else {
-                    m_linesCount++;
-                }
+                fields = m_lineSplitter.parse(new StringBuffer(lastLine));
+            } catch (Exception e) {
+                m_logger.warning(e.getMessage(), e);
             }
-        }
-
-        public int getLineCount() {
-            return m_linesCount;
-        }
-
-        public long getStartPos() {
-            return m_startPos;
-        }
-
-        public long getLastLinePos() {
-            return m_lastLineEndPos;
+            return !(
+                !m_addAbsentAsNull &&
+                ((fields == null) ||
+                    (fields.length < (m_cols.length - c_PseudoFieldsCount)))
+            );
         }
     }
 
@@ -318,13 +227,13 @@ public abstract class FileSource extends TimedStringReceiver implements DataSour
         }
         LineReader lr = new LineReader(getReader(f));
         try {
-            initFileFromLineReader(fileName, lr);
+            initFileFromLineReader(f, fileName, lr);
         } finally {
             lr.close();
         }
     }
 
-    private void initFileFromLineReader(String fileName, LineReader lr) throws IOException {
+    private void initFileFromLineReader(File f, String fileName, LineReader lr) throws IOException {
         StringBuffer sb = new StringBuffer();
         String title = null;
         if (m_headerRow > 1) {
@@ -337,7 +246,7 @@ public abstract class FileSource extends TimedStringReceiver implements DataSour
             StringHelper.trimLFCR(sb);
             title = sb.toString();
         }
-        m_curPos = lr.getBytesRead();
+        m_curPos = TailChunk.getBytePosition(f, null, lr.getBytesRead());
         initColumns(lr);
         setFileProps(fileName, title);
     }
@@ -350,6 +259,9 @@ public abstract class FileSource extends TimedStringReceiver implements DataSour
         m_title = title;
         m_curLineNum = 1;
         m_curFile = fileName;
+        m_fileKey = fileName == null ? null : TailChunk.getFileKey(getFile(fileName));
+        // line carried by the last chunk belongs to the previous file
+        m_lastChunk = null;
     }
 
     private ResultSet getNextChunk(Statement stmt, boolean lastChunk)
@@ -362,22 +274,21 @@ public abstract class FileSource extends TimedStringReceiver implements DataSour
         m_sameFileReadCount++;
         if (!hasMoreData()) return null;
         File f = getFile(m_curFile);
-        LineCounter lc = new LineCounter(f, m_curPos, lastChunk);
-        RandomAccessFile raf = new RandomAccessFile(f, "r");
-        raf.seek(lc.getStartPos());
-        m_curPos = lc.getLastLinePos();
+        TailChunk chunk = TailChunk.read(f, m_curPos, lastChunk, m_charSet, m_lastLineChecker, m_lastChunk);
+        m_lastChunk = chunk.isBufferReusable() ? chunk : null;
+        m_curPos = chunk.getEndPos();
         int oldLineNum = m_curLineNum;
-        m_curLineNum += lc.getLineCount();
+        m_curLineNum += chunk.getLineCount();
         Properties constFields = new Properties();
         if (m_title != null) {
             constFields.put(m_titleVarName, m_title);
         }
 
-        return new CsvStringResultSet(
+        return CsvStringResultSet.create(
             m_logger, stmt,
             new ResultSetInfo(
                 c_lineNumberTitle, m_cols,
-                lc.getLineCount(), getReader(raf, m_charSet),
+                chunk.getLineCount(), chunk.getReader(),
                 m_lineSplitter,
                 oldLineNum, m_addAbsentAsNull, m_filter,
                 constFields
@@ -385,9 +296,16 @@ public abstract class FileSource extends TimedStringReceiver implements DataSour
         );
     }
 
-    private boolean fileExists(File f) {
-        f.getParentFile().list();
-        return f.exists();
+    private static boolean fileExists(File f) {
+        return f.isFile();
+    }
+
+    private boolean isFileReplaced() {
+        if (m_curFile == null) return false;
+        File f = getFile(m_curFile);
+        if (!fileExists(f)) return false;
+        Object key = TailChunk.getFileKey(f);
+        return (key != null && !key.equals(m_fileKey)) || f.length() < m_curPos;
     }
 
     private boolean needToChangeFile(String name) {
@@ -421,7 +339,7 @@ public abstract class FileSource extends TimedStringReceiver implements DataSour
                 initName = newName;
             }
         } else {
-            if (rereadSameFile()) initName = m_curFile;
+            if (rereadSameFile() || isFileReplaced()) initName = m_curFile;
         }
 
         if (initName != null) initFile(initName);
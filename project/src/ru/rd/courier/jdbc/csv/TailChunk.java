@@ -0,0 +1,374 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.jdbc.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.BufferedReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Complete lines appended to a growing file since the given position.
+ * Appended region is read once by positional channel reads into a heap
+ * buffer (reused from the previous chunk when large enough): line index is
+ * built scanning the buffer and the lines are parsed later from the same
+ * buffer. At most {@link #c_maxChunkSize} bytes are read per request unless
+ * a single line is longer. Not terminated last line stays in the buffer and
+ * the next read continues after it. File is not mapped, so it is closed
+ * right after reading and may be renamed or deleted by log rotation (mapped
+ * file can not be on Windows).
+ */
+public class TailChunk {
+    public static final int c_maxChunkSize = 4*1024*1024;
+    private static final int c_decodeBufferSize = 64*1024;
+    private static final int c_maxReusedBufferSize = 2*c_maxChunkSize;
+
+    public interface LastLineChecker {
+        /**
+         * @param line last line of the file not terminated by line feed
+         * @return whether the line is complete and may be read
+         */
+        boolean isComplete(String line);
+    }
+
+    private final ByteBuffer m_buffer;
+    private final ByteBuffer m_data;
+    private final long m_startPos;
+    private final long m_endPos;
+    private final long m_readPos;
+    private final int m_lineCount;
+    private final boolean m_truncated;
+    private final String m_charSet;
+
+    private TailChunk(
+        ByteBuffer buffer, ByteBuffer data, long startPos, long endPos, long readPos,
+        int lineCount, boolean truncated, String charSet
+    ) {
+        m_buffer = buffer;
+        m_data = data;
+        m_startPos = startPos;
+        m_endPos = endPos;
+        m_readPos = readPos;
+        m_lineCount = lineCount;
+        m_truncated = truncated;
+        m_charSet = charSet;
+    }
+
+    /**
+     * @param lastChunk whether file is not going to grow anymore so that last
+     * line not terminated by line feed is complete
+     * @param checker decides on last not terminated line if not lastChunk
+     * (if null such line is left for the next read)
+     */
+    public static TailChunk read(
+        File file, long fromPos, boolean lastChunk, String charSet, LastLineChecker checker
+    ) throws IOException {
+        return read(file, fromPos, lastChunk, charSet, checker, null);
+    }
+
+    /**
+     * @param previous chunk whose buffer is reused if large enough (its lines
+     * must have been read already) or null. If the chunk ended at
+     * <code>fromPos</code> its not terminated last line is taken from the
+     * buffer instead of reading it again.
+     */
+    public static TailChunk read(
+        File file, long fromPos, boolean lastChunk, String charSet,
+        LastLineChecker checker, TailChunk previous
+    ) throws IOException {
+        return read(file, fromPos, lastChunk, charSet, checker, previous, c_maxChunkSize);
+    }
+
+    static TailChunk read(
+        File file, long fromPos, boolean lastChunk, String charSet,
+        LastLineChecker checker, TailChunk previous, int chunkSize
+    ) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            long size = ch.size();
+            if (fromPos > size) {
+                throw new IllegalArgumentException(
+                    "Start pos = " + fromPos + " > file length = " + size
+                );
+            }
+            int carried = 0;
+            if (previous != null && previous.m_endPos == fromPos && previous.m_readPos <= size) {
+                carried = (int)(previous.m_readPos - previous.m_endPos);
+            }
+            long pos = fromPos + carried;
+            int length = carried + (int)Math.min(size - pos, chunkSize);
+            ByteBuffer buffer = previous == null ? null : previous.m_buffer;
+            if (buffer == null || buffer.capacity() < length) {
+                ByteBuffer newBuffer = ByteBuffer.allocate(length);
+                if (carried > 0) newBuffer.put(previous.getCarried());
+                buffer = newBuffer;
+            } else if (carried > 0) {
+                int carryPos = previous.m_buffer.limit() - carried;
+                buffer.position(carryPos);
+                buffer.compact();
+            } else {
+                buffer.clear();
+            }
+            buffer.limit(length);
+            int scanned = 0;
+            boolean eof = false;
+            while (true) {
+                while (buffer.hasRemaining()) {
+                    int count = ch.read(buffer, pos);
+                    if (count < 0) {
+                        eof = true;
+                        break;
+                    }
+                    pos += count;
+                }
+                if (eof || pos >= size || hasLineFeed(buffer, scanned)) break;
+                // line is longer than the chunk: read on up to its end
+                scanned = buffer.position();
+                ByteBuffer newBuffer = ByteBuffer.allocate(
+                    scanned + (int)Math.min(size - pos, chunkSize)
+                );
+                buffer.flip();
+                newBuffer.put(buffer);
+                buffer = newBuffer;
+            }
+            buffer.flip();
+            boolean truncated = !eof && pos < size;
+            return scan(buffer, fromPos, lastChunk && !truncated, truncated, charSet, checker);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static boolean hasLineFeed(ByteBuffer buffer, int from) {
+        for (int i = from; i < buffer.position(); i++) {
+            if (buffer.get(i) == 10) return true;
+        }
+        return false;
+    }
+
+    private ByteBuffer getCarried() {
+        ByteBuffer ret = m_buffer.duplicate();
+        ret.position(m_buffer.limit() - (int)(m_readPos - m_endPos));
+        return ret;
+    }
+
+    static TailChunk scan(
+        ByteBuffer data, long fromPos, boolean lastChunk, boolean truncated,
+        String charSet, LastLineChecker checker
+    ) {
+        int limit = data.limit();
+        long readPos = fromPos + limit;
+        int pos = 0;
+        // skip end line chars
+        while (pos < limit) {
+            byte b = data.get(pos);
+            if (b != 10 && b != 13) break;
+            pos++;
+        }
+        if (pos == limit) {
+            return new TailChunk(data, data.slice(), fromPos, fromPos, readPos, 0, truncated, charSet);
+        }
+
+        int start = pos;
+        int lastLineBeg = start;
+        int lineCount = 0;
+        for (; pos < limit; pos++) {
+            if (data.get(pos) == 10) {
+                lineCount++;
+                lastLineBeg = pos + 1;
+            }
+        }
+
+        int end = limit;
+        if (lastLineBeg < limit) {
+            boolean complete = lastChunk;
+            // line cut by the chunk size is not complete
+            if (!complete && !truncated && checker != null) {
+                int lineEnd = lastLineBeg;
+                while (lineEnd < limit && data.get(lineEnd) != 13) lineEnd++;
+                complete = checker.isComplete(decode(data, lastLineBeg, lineEnd, charSet));
+            }
+            if (complete) {
+                lineCount++;
+            } else {
+                end = lastLineBeg;
+            }
+        }
+        ByteBuffer lines = data.duplicate();
+        lines.position(start);
+        lines.limit(end);
+        return new TailChunk(
+            data, lines.slice(), fromPos + start, fromPos + end, readPos, lineCount, truncated, charSet
+        );
+    }
+
+    private static String decode(ByteBuffer data, int from, int to, String charSet) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = data.get(from + i);
+        Charset cs = charSet == null ? Charset.defaultCharset() : Charset.forName(charSet);
+        return new String(bytes, cs);
+    }
+
+    /**
+     * @return position of the first line
+     */
+    public long getStartPos() {
+        return m_startPos;
+    }
+
+    /**
+     * @return position to continue reading from
+     */
+    public long getEndPos() {
+        return m_endPos;
+    }
+
+    public int getLineCount() {
+        return m_lineCount;
+    }
+
+    /**
+     * @return whether the chunk was limited by {@link #c_maxChunkSize}
+     */
+    public boolean isTruncated() {
+        return m_truncated;
+    }
+
+    /**
+     * @return whether the chunk buffer is small enough to be kept
+     * for the next read, large buffers are better released
+     */
+    public boolean isBufferReusable() {
+        return m_buffer.capacity() <= c_maxReusedBufferSize;
+    }
+
+    /**
+     * @return reader of chunk lines decoded from the read buffer
+     */
+    public Reader getReader() throws IOException {
+        final ByteBuffer data = m_data.duplicate();
+        InputStream is = new InputStream() {
+            public int read() {
+                return data.hasRemaining() ? (data.get() & 0xff) : -1;
+            }
+
+            public int read(byte[] b, int off, int len) {
+                if (!data.hasRemaining()) return -1;
+                len = Math.min(len, data.remaining());
+                data.get(b, off, len);
+                return len;
+            }
+
+            public int available() {
+                return data.remaining();
+            }
+        };
+        return new BufferedReader(
+            m_charSet == null ? new InputStreamReader(is) : new InputStreamReader(is, m_charSet)
+        );
+    }
+
+    /**
+     * @return byte position after the first <code>charCount</code> characters
+     * of the file decoded with the char set
+     */
+    public static long getBytePosition(File file, String charSet, long charCount) throws IOException {
+        Charset cs = charSet == null ? Charset.defaultCharset() : Charset.forName(charSet);
+        CharsetDecoder decoder = cs.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            // one more char for the surrogate pair split by charCount
+            long size = Math.min(ch.size(), (long)Math.ceil((charCount + 1) * cs.newEncoder().maxBytesPerChar()));
+            ByteBuffer in = ByteBuffer.allocate((int)Math.min(size, c_decodeBufferSize));
+            CharBuffer out = CharBuffer.allocate(2);
+            long readPos = 0;
+            long decoded = 0;
+            while (true) {
+                while (in.hasRemaining() && readPos < size) {
+                    int count = ch.read(in, readPos);
+                    if (count < 0) {
+                        size = readPos;
+                        break;
+                    }
+                    readPos += count;
+                }
+                in.flip();
+                while (decoded < charCount && in.hasRemaining()) {
+                    out.clear();
+                    out.limit((int)Math.min(out.capacity(), charCount - decoded));
+                    CoderResult res = decoder.decode(in, out, false);
+                    if (out.position() == 0 && res.isOverflow()) {
+                        // surrogate pair can not be split between bytes
+                        out.limit(out.capacity());
+                        decoder.decode(in, out, false);
+                    }
+                    // incomplete char at the end of the buffer
+                    if (out.position() == 0) break;
+                    decoded += out.position();
+                }
+                if (decoded >= charCount || readPos >= size) return readPos - in.remaining();
+                in.compact();
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return file identity surviving renames (inode where supported),
+     * used to detect the file replaced by another one with the same name
+     */
+    public static Object getFileKey(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            Object key = attrs.fileKey();
+            return key == null ? attrs.creationTime() : key;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -47,6 +47,7 @@ public abstract class ColumnInfo {
     public int m_precision = 0;
     public int m_scale = 0;
     private int m_dataPosition;
+    private int m_recordOffset = 0;
     protected boolean m_wasNull;
 
     protected ColumnInfo(ColumnInfo obj) {
@@ -56,7 +57,7 @@ public abstract class ColumnInfo {
         m_allowsNull = obj.m_allowsNull;
         m_precision = obj.m_precision;
         m_scale = obj.m_scale;
-        setDataPosition(obj.getCustomDataPosition());
+        setDataPosition(obj.m_dataPosition);
     }
 
     protected ColumnInfo(
@@ -273,10 +274,24 @@ public abstract class ColumnInfo {
     }
 
     protected int getCustomDataPosition() {
-        return m_dataPosition + (m_allowsNull ? 1 : 0);
+        return m_recordOffset + m_dataPosition + (m_allowsNull ? 1 : 0);
     }
 
     protected int getDataPosition() {
+        return m_recordOffset + m_dataPosition;
+    }
+
+    /**
+     * @param recordOffset position of the current record in buffers passed to accessors
+     */
+    void setRecordOffset(int recordOffset) {
+        m_recordOffset = recordOffset;
+    }
+
+    /**
+     * @return column position inside record
+     */
+    int getRecordPosition() {
         return m_dataPosition;
     }
 
@@ -37,19 +37,12 @@ import ru.rd.courier.utils.DomHelper;
 
 import java.sql.Date;
 import java.sql.*;
-import java.util.*;
 
 public class DataBuffer extends EmptyResultSet {
     private RecordBuffer m_record = new RecordBuffer();
 
-    protected List<byte[]> m_data = new LinkedList<byte[]>();
+    private RecordArena m_data = new RecordArena(0);
     private int m_curPos = -1;
-    private ListIterator m_relMove = null;
-    private byte m_moveDirection = c_NoneMove;
-
-    private static final byte c_NoneMove = 0;
-    private static final byte c_ForwardMove = 1;
-    private static final byte c_BackwardMove = 2;
 
     public DataBuffer() {
         initMetaInfo();
@@ -64,13 +57,38 @@ public class DataBuffer extends EmptyResultSet {
         addColumn(ci, m_record.getColumnCount());
     }
 
+    /**
+     * Moves existing records to the arena of the new record size
+     * inserting initialized value of the new column
+     */
     private void initColumnData(int index) throws SQLException {
+        final boolean added = isAddedPosition();
+        RecordArena old = m_data;
+        m_data = new RecordArena(m_record.getRecordSize());
+        if (old.size() == 0) return;
+
         ColumnInfo ci = m_record.getColumn(index + 1);
-        for (byte[] data : m_data) ci.initCustomValue(data);
+        final int colPos = ci.getRecordPosition();
+        final int colSize = ci.getByteSize();
+        for (int i = 0; i < old.size(); i++) {
+            int ni = m_data.add();
+            byte[] data = m_data.getChunk(ni);
+            int offset = m_data.getOffset(ni);
+            byte[] oldData = old.getChunk(i);
+            int oldOffset = old.getOffset(i);
+            System.arraycopy(oldData, oldOffset, data, offset, colPos);
+            System.arraycopy(
+                oldData, oldOffset + colPos, data, offset + colPos + colSize,
+                old.getRecordSize() - colPos
+            );
+            setCurBuffer(data, offset);
+            ci.initCustomValue(data);
+        }
+        if (added) setAddedPosition();
+        else setPosition(m_curPos);
     }
 
     protected void init(Element[] cols) throws SQLException {
-        clearMoveCache();
         initMetaInfo();
         for (Element col : cols) {
             addColumn(ColumnInfo.getColumnInfo(col));
@@ -78,27 +96,35 @@ public class DataBuffer extends EmptyResultSet {
     }
 
     private boolean setPosition(int pos) {
-        clearMoveCache();
         if (pos < 0) {
             m_curPos = -1;
-            setCurBuffer(null);
+            setCurBuffer(null, 0);
         } else if (pos >= m_data.size()) {
             m_curPos = m_data.size();
-            setCurBuffer(null);
+            setCurBuffer(null, 0);
         } else {
             m_curPos = pos;
-            setCurBuffer(m_data.get(pos));
+            setCurBuffer(m_data.getChunk(pos), m_data.getOffset(pos));
         }
         return getCurBuffer() != null;
     }
 
-    public void clearMoveCache() {
-        m_relMove = null;
-        m_moveDirection = c_NoneMove;
+    /**
+     * @return true if the current record is the one just added by
+     * {@link #addRecord()}: it stays current while position is after last
+     */
+    private boolean isAddedPosition() {
+        return m_curPos == m_data.size() && getCurBuffer() != null;
     }
 
-    private void setCurBuffer(byte[] buffer) {
-        m_record.setCurBuffer(buffer);
+    private void setAddedPosition() {
+        final int last = m_data.size() - 1;
+        setCurBuffer(m_data.getChunk(last), m_data.getOffset(last));
+        m_curPos = m_data.size();
+    }
+
+    private void setCurBuffer(byte[] buffer, int offset) {
+        m_record.setCurBuffer(buffer, offset);
     }
 
     private byte[] getCurBuffer() {
@@ -106,12 +132,9 @@ public class DataBuffer extends EmptyResultSet {
     }
 
     public synchronized void addRecord() throws SQLException {
-        clearMoveCache();
-        byte[] buffer = m_record.createBuffer();
-        setCurBuffer(buffer);
+        m_data.add();
+        setAddedPosition();
         m_record.init();
-        m_data.add(buffer);
-        m_curPos = m_data.size();
     }
 
     private static final String c_FieldValue = "value";
@@ -148,15 +171,18 @@ public class DataBuffer extends EmptyResultSet {
         if ((index < 0) || (index >= m_data.size())) {
             throw new GenericSqlException(this, "Invalid index " + index);
         }
-        clearMoveCache();
+        final boolean added = isAddedPosition();
         m_data.remove(index);
-        if (index == m_curPos) setPosition(-1);
+        if (added) {
+            if (index == m_data.size()) setPosition(-1);
+            else setAddedPosition();
+        } else if (index == m_curPos) setPosition(-1);
+        else if (m_curPos >= 0) setPosition(index < m_curPos ? m_curPos - 1 : m_curPos);
     }
 
     private void initMetaInfo() {
-        clearMoveCache();
+        m_data = new RecordArena(m_record.getRecordSize());
         setPosition(-1);
-        m_data.clear();
     }
 
     public void importMetaInfo(DataBuffer db) {
@@ -172,20 +198,13 @@ public class DataBuffer extends EmptyResultSet {
         super.clone();
         DataBuffer ret = new DataBuffer();
         ret.m_record = (RecordBuffer)m_record.clone();
-        ret.m_data = new LinkedList<byte[]>(m_data);
-        ret.m_curPos = m_curPos;
-        ret.m_moveDirection = m_moveDirection;
-
-        if (m_relMove != null) {
-            ret.m_relMove = ret.m_data.listIterator(ret.m_curPos);
-        }
+        ret.m_data = m_data.copy();
+        ret.setPosition(m_curPos);
         return ret;
     }
 
     public void importRecord(byte[] buffer) {
-        byte[] bb = new byte[buffer.length];
-        System.arraycopy(buffer, 0, bb, 0, buffer.length);
-        m_data.add(bb);
+        m_data.add(buffer, 0);
     }
 
 
@@ -274,32 +293,7 @@ public class DataBuffer extends EmptyResultSet {
     }
 
     public boolean relative(int rows) throws SQLException {
-        boolean ret;
-        int pos = m_curPos + rows;
-
-        if ((pos < 0) || (pos >= m_data.size())) {
-            ret = setPosition(pos);
-        } else {
-            if (rows == 1) {
-                if (m_moveDirection != c_ForwardMove) {
-                    m_moveDirection = c_ForwardMove;
-                    m_relMove = m_data.listIterator(pos);
-                }
-                m_record.setCurBuffer((byte[])m_relMove.next());
-                m_curPos = pos;
-            } else if (rows == -1) {
-                if (m_moveDirection != c_BackwardMove) {
-                    m_moveDirection = c_BackwardMove;
-                    m_relMove = m_data.listIterator(pos);
-                }
-                m_record.setCurBuffer((byte[])m_relMove.previous());
-                m_curPos = pos;
-            } else {
-                setPosition(pos);
-            }
-            ret = true;
-        }
-        return ret;
+        return setPosition(m_curPos + rows);
     }
 
     public int findColumn(String columnName) throws SQLException {
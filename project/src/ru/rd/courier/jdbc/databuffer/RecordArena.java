@@ -0,0 +1,140 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.jdbc.databuffer;
+
+import java.util.Arrays;
+
+/**
+ * Stores fixed size records packed in large byte chunks. Record is
+ * addressed by its index: chunk is found by shift and record offset by mask,
+ * so there is no per record object and positioning does not depend on
+ * records count.
+ */
+class RecordArena {
+    private static final int c_chunkBytes = 64*1024;
+    private static final int c_firstChunkBytes = 1024;
+
+    private final int m_recordSize;
+    private final int m_chunkShift;
+    private final int m_chunkMask;
+    private byte[][] m_chunks = new byte[4][];
+    private int m_size = 0;
+
+    public RecordArena(int recordSize) {
+        m_recordSize = recordSize;
+        int shift = 0;
+        int recordsPerChunk = c_chunkBytes / Math.max(recordSize, 1);
+        while ((2 << shift) <= recordsPerChunk) shift++;
+        m_chunkShift = shift;
+        m_chunkMask = (1 << shift) - 1;
+    }
+
+    public int getRecordSize() {
+        return m_recordSize;
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public byte[] getChunk(int index) {
+        return m_chunks[index >> m_chunkShift];
+    }
+
+    public int getOffset(int index) {
+        return (index & m_chunkMask) * m_recordSize;
+    }
+
+    /**
+     * Appends zero filled record
+     * @return index of the new record
+     */
+    public int add() {
+        final int index = m_size;
+        final int chunk = index >> m_chunkShift;
+        final int end = getOffset(index) + m_recordSize;
+        if (chunk >= m_chunks.length) {
+            m_chunks = Arrays.copyOf(m_chunks, m_chunks.length * 2);
+        }
+        byte[] data = m_chunks[chunk];
+        if (data == null) {
+            // first chunk grows gradually as many buffers hold a few records
+            int size = (chunk == 0) ? Math.max(end, c_firstChunkBytes) : chunkBytes();
+            data = new byte[Math.min(size, chunkBytes())];
+            m_chunks[chunk] = data;
+        } else if (data.length < end) {
+            data = Arrays.copyOf(data, Math.min(Math.max(end, data.length * 2), chunkBytes()));
+            m_chunks[chunk] = data;
+        }
+        // slot may keep data of a removed record
+        Arrays.fill(data, end - m_recordSize, end, (byte)0);
+        m_size++;
+        return index;
+    }
+
+    private int chunkBytes() {
+        return (m_chunkMask + 1) * m_recordSize;
+    }
+
+    public int add(byte[] buffer, int offset) {
+        int index = add();
+        System.arraycopy(
+            buffer, offset, getChunk(index), getOffset(index),
+            Math.min(buffer.length - offset, m_recordSize)
+        );
+        return index;
+    }
+
+    public void remove(int index) {
+        if (index < 0 || index >= m_size) {
+            throw new IndexOutOfBoundsException("Invalid index " + index);
+        }
+        for (int i = index + 1; i < m_size; i++) {
+            System.arraycopy(getChunk(i), getOffset(i), getChunk(i - 1), getOffset(i - 1), m_recordSize);
+        }
+        m_size--;
+    }
+
+    public void clear() {
+        m_chunks = new byte[4][];
+        m_size = 0;
+    }
+
+    public RecordArena copy() {
+        RecordArena ret = new RecordArena(m_recordSize);
+        ret.m_chunks = new byte[m_chunks.length][];
+        for (int i = 0; i < m_chunks.length; i++) {
+            if (m_chunks[i] != null) ret.m_chunks[i] = m_chunks[i].clone();
+        }
+        ret.m_size = m_size;
+        return ret;
+    }
+}
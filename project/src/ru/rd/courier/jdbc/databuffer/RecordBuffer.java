@@ -50,6 +50,7 @@ public class RecordBuffer {
     protected List<ColumnInfo> m_columns = new ArrayList<ColumnInfo>();
     protected int m_recordSize;
     private byte[] m_curBuffer = null;
+    private int m_curOffset = 0;
     private boolean m_wasNull;
 
     public int getRecordSize() {
@@ -61,7 +62,7 @@ public class RecordBuffer {
         ColumnInfo ci;
         if (index > 0) {
             ci = m_columns.get(index - 1);
-            colPos = ci.getDataPosition() + ci.getByteSize();
+            colPos = ci.getRecordPosition() + ci.getByteSize();
         }
 
         for (Iterator it = m_columns.listIterator(index) ; it.hasNext(); ) {
@@ -77,6 +78,7 @@ public class RecordBuffer {
             throw new RuntimeException("Invalid column position");
         }
         m_columns.add(index, ci);
+        ci.setRecordOffset(m_curOffset);
         adjustDataPositions(index);
     }
 
@@ -104,7 +106,18 @@ public class RecordBuffer {
     }
 
     public void setCurBuffer(byte[] buffer) {
+        setCurBuffer(buffer, 0);
+    }
+
+    /**
+     * @param offset position of the current record in the buffer
+     */
+    public void setCurBuffer(byte[] buffer, int offset) {
         m_curBuffer = buffer;
+        if (offset != m_curOffset) {
+            m_curOffset = offset;
+            for (ColumnInfo ci : m_columns) ci.setRecordOffset(offset);
+        }
     }
 
     public byte[] getCurBuffer() {
@@ -119,7 +132,9 @@ public class RecordBuffer {
     public void importMetaInfo(RecordBuffer r) {
         initMetaInfo();
         for (ColumnInfo ci : r.m_columns) {
-            m_columns.add((ColumnInfo) ci.clone());
+            ColumnInfo nci = (ColumnInfo)ci.clone();
+            nci.setRecordOffset(m_curOffset);
+            m_columns.add(nci);
         }
         m_recordSize = r.m_recordSize;
     }
@@ -128,7 +143,7 @@ public class RecordBuffer {
         super.clone();
         RecordBuffer ret = new RecordBuffer();
         ret.importMetaInfo(this);
-        ret.m_curBuffer = m_curBuffer;
+        ret.setCurBuffer(m_curBuffer, m_curOffset);
         ret.m_wasNull = m_wasNull;
         return ret;
     }
@@ -32,6 +32,7 @@ package ru.rd.courier.jdbc.objbuffer;
 
 import java.sql.Date;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 
 /**
  * User: AStepochkin
@@ -75,6 +76,15 @@ public abstract class ColumnInfo {
         if (obj instanceof java.util.Date) {
             return new Date(((java.util.Date)obj).getTime());
         }
+        if (obj instanceof String) {
+            String str = ((String)obj).trim();
+            try {
+                if (str.length() <= 10) return Date.valueOf(str);
+                return new Date(Timestamp.valueOf(str).getTime());
+            } catch (IllegalArgumentException e) {
+                throw new SQLException("'" + str + "' cannot be converted to date");
+            }
+        }
         throw new SQLException("Cannot be converted to date");
     }
 
@@ -102,10 +102,7 @@ public abstract class ObjectsResultSet extends IteratingResultSet {
 
     public Object getObject(int columnIndex) {
         Object obj = m_data[columnIndex - 1];
-        if (obj == null) {
-            m_wasNull = true;
-            return null;
-        }
+        m_wasNull = (obj == null);
         return obj;
     }
 
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.jdbc.objbuffer;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores records of objects keeping first records in memory and writing
+ * the rest to a temporary file. Values are written with a type tag so
+ * integers, longs, booleans and strings are read back with their type.
+ * Records are read by the single cursor which can be rewound any number of times.
+ */
+public class RecordStore {
+    private final int m_columnCount;
+    private final int m_memoryRows;
+    private final File m_dir;
+    private final List<Object[]> m_memory = new ArrayList<Object[]>();
+    private int m_size = 0;
+
+    private File m_file = null;
+    private DataOutputStream m_out = null;
+    private DataInputStream m_in = null;
+    private int m_readPos = 0;
+    private boolean m_closed = false;
+
+    private static final Charset c_charset = Charset.forName("UTF-8");
+    private static final int c_bufferSize = 64*1024;
+
+    private static final byte c_null = 0;
+    private static final byte c_string = 1;
+    private static final byte c_int = 2;
+    private static final byte c_long = 3;
+    private static final byte c_boolean = 4;
+
+    /**
+     * @param memoryRows number of records kept in memory
+     * @param dir directory of the temporary file or null for the default one
+     */
+    public RecordStore(int columnCount, int memoryRows, File dir) {
+        m_columnCount = columnCount;
+        m_memoryRows = memoryRows;
+        m_dir = dir;
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public boolean isSpilled() {
+        return m_file != null;
+    }
+
+    public void add(Object[] record) throws IOException {
+        if (m_closed) throw new IllegalStateException("Record store closed");
+        if (m_in != null || m_readPos > 0) {
+            throw new IllegalStateException("Record store is being read");
+        }
+        if (record.length != m_columnCount) {
+            throw new IllegalArgumentException(
+                "Invalid record length " + record.length + " (should be " + m_columnCount + ")"
+            );
+        }
+        if (m_size < m_memoryRows) {
+            m_memory.add(record);
+        } else {
+            if (m_out == null) {
+                m_file = File.createTempFile("courier-rs", ".data", m_dir);
+                m_out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(m_file), c_bufferSize
+                ));
+            }
+            for (Object value: record) writeValue(m_out, value);
+        }
+        m_size++;
+    }
+
+    /**
+     * @return next record or null if all records have been read
+     */
+    public Object[] next() throws IOException {
+        if (m_closed) throw new IllegalStateException("Record store closed");
+        if (m_readPos >= m_size) return null;
+        Object[] ret;
+        if (m_readPos < m_memory.size()) {
+            ret = m_memory.get(m_readPos);
+        } else {
+            if (m_in == null) openInput();
+            ret = new Object[m_columnCount];
+            for (int i = 0; i < m_columnCount; i++) ret[i] = readValue(m_in);
+        }
+        m_readPos++;
+        return ret;
+    }
+
+    public void rewind() throws IOException {
+        closeInput();
+        m_readPos = 0;
+    }
+
+    private void openInput() throws IOException {
+        if (m_out != null) m_out.flush();
+        m_in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(m_file), c_bufferSize
+        ));
+    }
+
+    private void closeInput() throws IOException {
+        if (m_in != null) {
+            DataInputStream in = m_in;
+            m_in = null;
+            in.close();
+        }
+    }
+
+    /**
+     * Releases memory and deletes temporary file
+     */
+    public void close() throws IOException {
+        if (m_closed) return;
+        m_closed = true;
+        m_memory.clear();
+        try {
+            closeInput();
+        } finally {
+            try {
+                if (m_out != null) m_out.close();
+            } finally {
+                m_out = null;
+                if (m_file != null && !m_file.delete()) m_file.deleteOnExit();
+            }
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(c_null);
+        } else if (value instanceof String) {
+            byte[] bytes = ((String)value).getBytes(c_charset);
+            out.writeByte(c_string);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Integer) {
+            out.writeByte(c_int);
+            out.writeInt((Integer)value);
+        } else if (value instanceof Long) {
+            out.writeByte(c_long);
+            out.writeLong((Long)value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(c_boolean);
+            out.writeBoolean((Boolean)value);
+        } else {
+            writeValue(out, value.toString());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case c_null: return null;
+            case c_string: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, c_charset);
+            }
+            case c_int: return in.readInt();
+            case c_long: return in.readLong();
+            case c_boolean: return in.readBoolean();
+            default: throw new IOException("Invalid value tag " + tag);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.jdbc.objbuffer;
+
+import ru.rd.courier.jdbc.GenericSqlException;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+
+/**
+ * Result set over records copied from another result set into a
+ * {@link RecordStore}. Records exceeding memory limit are kept in a temporary
+ * file which is deleted on close. beforeFirst rewinds the result set so it
+ * can be read again without requesting the source.
+ */
+public class StoredResultSet extends ObjectsResultSet {
+    private final RecordStore m_store;
+
+    private static class StoredColumn extends ColumnInfo {
+        private final int m_type;
+        private final String m_typeName;
+
+        public StoredColumn(String name, int type, String typeName, int precision, int scale) {
+            super(name, precision, scale);
+            m_type = type;
+            m_typeName = typeName;
+        }
+
+        public int getType() {
+            return m_type;
+        }
+
+        public String getTypeName() {
+            return m_typeName;
+        }
+    }
+
+    public StoredResultSet(Statement stmt, ColumnInfo[] columns, RecordStore store) {
+        super(stmt, columns);
+        m_store = store;
+    }
+
+    /**
+     * Reads all records of the result set. The result set is not closed.
+     * @param memoryRows number of records kept in memory
+     * @param dir directory of the temporary file or null for the default one
+     */
+    public static StoredResultSet store(ResultSet rs, int memoryRows, File dir) throws SQLException {
+        final ResultSetMetaData md = rs.getMetaData();
+        final int count = md.getColumnCount();
+        final ColumnInfo[] columns = new ColumnInfo[count];
+        final int[] types = new int[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = md.getColumnType(i + 1);
+            columns[i] = new StoredColumn(
+                md.getColumnName(i + 1), types[i], md.getColumnTypeName(i + 1),
+                md.getPrecision(i + 1), md.getScale(i + 1)
+            );
+        }
+
+        final RecordStore store = new RecordStore(count, memoryRows, dir);
+        boolean ok = false;
+        try {
+            while (rs.next()) {
+                Object[] record = new Object[count];
+                for (int i = 0; i < count; i++) {
+                    record[i] = readValue(rs, i + 1, types, i);
+                }
+                store.add(record);
+            }
+            ok = true;
+        } catch (IOException e) {
+            throw new GenericSqlException(rs, e);
+        } finally {
+            if (!ok) {
+                try { store.close(); } catch (IOException e) { /* original error is more important */ }
+            }
+        }
+        return new StoredResultSet(null, columns, store);
+    }
+
+    /**
+     * Reads value with the getter of the column type. Floating point, decimal
+     * and date values are kept as strings to return the same text as the source.
+     * Column switches to strings if the source does not support its typed getter.
+     */
+    private static Object readValue(ResultSet rs, int index, int[] types, int i) throws SQLException {
+        Object ret;
+        try {
+            switch (types[i]) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                    ret = rs.getInt(index);
+                    break;
+                case Types.BIGINT:
+                    ret = rs.getLong(index);
+                    break;
+                case Types.BIT:
+                case Types.BOOLEAN:
+                    ret = rs.getBoolean(index);
+                    break;
+                default:
+                    return rs.getString(index);
+            }
+        } catch (UnsupportedOperationException e) {
+            types[i] = Types.VARCHAR;
+            return rs.getString(index);
+        }
+        return rs.wasNull() ? null : ret;
+    }
+
+    public boolean isSpilled() {
+        return m_store.isSpilled();
+    }
+
+    protected boolean getRecord() throws SQLException {
+        Object[] record;
+        try {
+            record = m_store.next();
+        } catch (IOException e) {
+            throw new GenericSqlException(this, e);
+        }
+        if (record == null) return false;
+        setData(record);
+        return true;
+    }
+
+    protected int skipRecords(int count) throws SQLException {
+        int i;
+        for (i = 0; i < count; i++) {
+            if (!getRecord()) break;
+        }
+        return i;
+    }
+
+    public void beforeFirst() throws SQLException {
+        try {
+            m_store.rewind();
+        } catch (IOException e) {
+            throw new GenericSqlException(this, e);
+        }
+        restart();
+        setData(null);
+    }
+
+    public Timestamp getTimestamp(int columnIndex) throws SQLException {
+        Object obj = getObject(columnIndex);
+        if (obj == null) return null;
+        if (obj instanceof Timestamp) return (Timestamp)obj;
+        if (obj instanceof java.util.Date) return new Timestamp(((java.util.Date)obj).getTime());
+        if (obj instanceof String) {
+            String str = ((String)obj).trim();
+            try {
+                if (str.length() <= 10) return new Timestamp(Date.valueOf(str).getTime());
+                return Timestamp.valueOf(str);
+            } catch (IllegalArgumentException e) {
+                throw new SQLException("'" + str + "' cannot be converted to timestamp");
+            }
+        }
+        throw new SQLException("Cannot be converted to timestamp");
+    }
+
+    public Timestamp getTimestamp(String columnName) throws SQLException {
+        return getTimestamp(findColumn(columnName));
+    }
+
+    public void close() throws SQLException {
+        try {
+            super.close();
+        } finally {
+            try {
+                m_store.close();
+            } catch (IOException e) {
+                throw new GenericSqlException(this, e);
+            }
+        }
+    }
+}
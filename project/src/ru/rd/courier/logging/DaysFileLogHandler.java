@@ -33,11 +33,14 @@ package ru.rd.courier.logging;
 import java.io.File;
 import java.io.OutputStream;
 import java.util.logging.ErrorManager;
+import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.StreamHandler;
 
 public class DaysFileLogHandler extends StreamHandler {
     private final DaysLogCleaner m_cleaner;
+    private long m_flushInterval = 0;
+    private long m_lastFlush = 0;
 
     public DaysFileLogHandler(
         File dir, String dateFormat, int days,
@@ -71,6 +74,14 @@ public class DaysFileLogHandler extends StreamHandler {
         return m_cleaner;
     }
 
+    /**
+     * @param flushInterval records below warning level are flushed not
+     * more often than this interval; 0 flushes every record
+     */
+    public synchronized void setFlushInterval(long flushInterval) {
+        m_flushInterval = flushInterval;
+    }
+
     public synchronized void publish(LogRecord record) {
         if (!isLoggable(record)) {
             return;
@@ -78,6 +89,16 @@ public class DaysFileLogHandler extends StreamHandler {
 
         m_cleaner.check();
         super.publish(record);
-        flush();
+        if (m_flushInterval <= 0 || record.getLevel().intValue() >= Level.WARNING.intValue()) {
+            flush();
+        } else {
+            long now = System.currentTimeMillis();
+            if (now - m_lastFlush >= m_flushInterval) flush();
+        }
+    }
+
+    public synchronized void flush() {
+        super.flush();
+        m_lastFlush = System.currentTimeMillis();
     }
 }
@@ -36,6 +36,7 @@ import ru.rd.courier.CourierContext;
 import ru.rd.courier.CourierException;
 import ru.rd.courier.logging.data.DataLogger;
 import ru.rd.courier.logging.data.DaysFileLog;
+import ru.rd.courier.logging.data.RingBufferDataLogger;
 import ru.rd.courier.utils.DomHelper;
 import ru.rd.courier.utils.StringHelper;
 import ru.rd.thread.Condition;
@@ -46,6 +47,8 @@ import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -61,6 +64,11 @@ public class LogProvider {
     private String m_pipesLogDateFormat;
     private int m_logStoreDays;
     private long m_logMaxSize = 0;
+    private boolean m_asyncDataLogging;
+    private int m_dataBufferSize;
+    private int m_dataFlushSize;
+    private long m_dataFlushInterval;
+    private Timer m_writerTimer = null;
 
     public abstract static class HandlerProvider {
         public Handler getHandler(Node n) throws CourierException {
@@ -130,6 +138,10 @@ public class LogProvider {
         m_logStoreDays = DomHelper.getIntNodeAttr(dn, "store-days");
         m_logMaxSize = DomHelper.getLongNodeAttr(dn, "max-size-megabytes", 100) * 1024 * 1024;
         m_deleteUnknownFiles = DomHelper.getBoolYesNo(dn, "delete-unknown-files", false);
+        m_asyncDataLogging = DomHelper.getBoolYesNo(dn, "async", false);
+        m_dataBufferSize = DomHelper.getIntNodeAttr(dn, "buffer-size-kb", 256) * 1024;
+        m_dataFlushSize = DomHelper.getIntNodeAttr(dn, "flush-size-kb", 64) * 1024;
+        m_dataFlushInterval = DomHelper.getTimeNodeAttr(dn, "flush-interval", 1000, "ms");
         initHandlerProviders(appl);
         m_rootLog = new LoggerAdapter(this, null, DomHelper.getChild(n, "logger"));
     }
@@ -146,7 +158,7 @@ public class LogProvider {
                     String prefix = prop == null ? "" : prop;
                     prop = params.getProperty("file-name-postfix");
                     String postfix = prop == null ? "" : prop;
-                    return new DaysFileLogHandler(
+                    final DaysFileLogHandler h = new DaysFileLogHandler(
                         getLogFile(params.getProperty("dir")),
                         params.getProperty("date-format"),
                         Integer.parseInt(params.getProperty("days")),
@@ -155,6 +167,19 @@ public class LogProvider {
                         true,
                         StringHelper.intParam(params, "max-size-megabytes", 100) * 1024 * 1024
                     );
+                    long flushInterval = StringHelper.timeParam(params, "flush-interval", 0);
+                    if (flushInterval > 0) {
+                        h.setFlushInterval(flushInterval);
+                        getWriterTimer().schedule(
+                            new TimerTask() {
+                                public void run() {
+                                    h.flush();
+                                }
+                            },
+                            flushInterval, flushInterval
+                        );
+                    }
+                    return h;
                 }
             }
         );
@@ -293,9 +318,22 @@ public class LogProvider {
             m_deleteUnknownFiles, true, m_logMaxSize
         );
 //        l = new AsyncDataLogger(this, l, getThreadPool(), getTimer(), 5000, 100, 1000000);
+        if (m_asyncDataLogging) {
+            l = new RingBufferDataLogger(
+                ConsoleCourierLogger.instance(), l, "cp1251",
+                m_dataBufferSize, m_dataFlushSize, getWriterTimer(), m_dataFlushInterval
+            );
+        }
         return l;
     }
 
+    private synchronized Timer getWriterTimer() {
+        if (m_writerTimer == null) {
+            m_writerTimer = new Timer("CourierLogWriter", true);
+        }
+        return m_writerTimer;
+    }
+
     private File getLogFile(String name) {
         if ((name == null) || name.equals("")) return m_logPath;
         return new File(m_logPath, name);
@@ -303,6 +341,12 @@ public class LogProvider {
 
     public void close() {
         m_rootLog.stop();
+        synchronized (this) {
+            if (m_writerTimer != null) {
+                m_writerTimer.cancel();
+                m_writerTimer = null;
+            }
+        }
     }
 
     public HandlerProvider getHandlerProvider(String name) {
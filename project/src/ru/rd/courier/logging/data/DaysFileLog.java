@@ -58,6 +58,7 @@ public class DaysFileLog extends AbstractDataLogger {
     ) {
         super(encoding);
         m_errLogger = errLogger;
+        m_buffered = buffered;
         m_cleaner = new DaysLogCleaner(
             new DaysLogCleaner.CleanLogHandler() {
                 public void setOutputStream(OutputStream stream) {
@@ -82,7 +83,7 @@ public class DaysFileLog extends AbstractDataLogger {
         }
     }
 
-    public void log(byte[] msg, int offset, int length) {
+    public synchronized void log(byte[] msg, int offset, int length) {
         if (m_output == null) throw new IllegalStateException("Log already closed");
         try {
             m_cleaner.check();
@@ -90,8 +91,8 @@ public class DaysFileLog extends AbstractDataLogger {
         } catch (IOException e) { reportError(e); }
     }
 
-    public void flush() {
-        if (m_output == null) new IllegalStateException("Log already closed");
+    public synchronized void flush() {
+        if (m_output == null) throw new IllegalStateException("Log already closed");
         try { m_output.flush(); }
         catch (IOException e) { reportError(e); }
     }
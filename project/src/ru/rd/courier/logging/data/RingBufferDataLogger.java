@@ -0,0 +1,173 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.logging.data;
+
+import ru.rd.courier.logging.CourierLogger;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Appends data into preallocated ring buffer and writes it to the target
+ * logger from the timer thread when the buffer fills up to flush size or
+ * flush interval expires. Logging thread writes itself only when the
+ * buffer is full. Flush writes the buffer synchronously and flushes the
+ * target even if the buffer is empty as large messages go to the target
+ * directly.
+ */
+public class RingBufferDataLogger extends AbstractDataLogger {
+    private final CourierLogger m_errLogger;
+    private final DataLogger m_target;
+    private final byte[] m_buffer;
+    private final int m_flushSize;
+    private final Timer m_timer;
+    private final TimerTask m_flusher;
+    private final Object m_writeLock = new Object();
+
+    private int m_head = 0;
+    private int m_size = 0;
+    private boolean m_writeScheduled = false;
+    private boolean m_closed = false;
+
+    public RingBufferDataLogger(
+        CourierLogger errLogger, DataLogger target, String encoding,
+        int bufferSize, int flushSize, Timer timer, long flushInterval
+    ) {
+        super(encoding);
+        if (bufferSize < 1) throw new IllegalArgumentException("Buffer size must be > 0");
+        m_errLogger = errLogger;
+        m_target = target;
+        m_buffer = new byte[bufferSize];
+        m_flushSize = flushSize > 0 && flushSize < bufferSize ? flushSize : bufferSize;
+        m_timer = timer;
+        if (flushInterval > 0) {
+            m_flusher = new TimerTask() {
+                public void run() {
+                    write();
+                }
+            };
+            m_timer.schedule(m_flusher, flushInterval, flushInterval);
+        } else {
+            m_flusher = null;
+        }
+    }
+
+    public void log(byte[] msg, int offset, int length) {
+        if (length > m_buffer.length) {
+            synchronized (m_writeLock) {
+                write();
+                m_target.log(msg, offset, length);
+            }
+            return;
+        }
+        while (true) {
+            synchronized (this) {
+                if (m_closed) throw new IllegalStateException("Log already closed");
+                if (m_buffer.length - m_size >= length) {
+                    int tail = (m_head + m_size) % m_buffer.length;
+                    int first = Math.min(length, m_buffer.length - tail);
+                    System.arraycopy(msg, offset, m_buffer, tail, first);
+                    if (first < length) {
+                        System.arraycopy(msg, offset + first, m_buffer, 0, length - first);
+                    }
+                    m_size += length;
+                    if (m_size >= m_flushSize) scheduleWrite_nl();
+                    return;
+                }
+            }
+            write();
+        }
+    }
+
+    private void scheduleWrite_nl() {
+        if (m_writeScheduled) return;
+        m_writeScheduled = true;
+        try {
+            m_timer.schedule(
+                new TimerTask() {
+                    public void run() {
+                        write();
+                    }
+                },
+                0
+            );
+        } catch (IllegalStateException e) {
+            // timer cancelled: the data is written by the next full buffer or flush
+            m_writeScheduled = false;
+        }
+    }
+
+    private void write() {
+        write(false);
+    }
+
+    private void write(boolean flushTarget) {
+        synchronized (m_writeLock) {
+            int head, size;
+            synchronized (this) {
+                m_writeScheduled = false;
+                head = m_head;
+                size = m_size;
+            }
+            if (size == 0 && !flushTarget) return;
+            // logging threads append beyond head + size only so the part is stable
+            try {
+                if (size > 0) {
+                    int first = Math.min(size, m_buffer.length - head);
+                    m_target.log(m_buffer, head, first);
+                    if (first < size) m_target.log(m_buffer, 0, size - first);
+                }
+                m_target.flush();
+            } catch (Throwable e) {
+                m_errLogger.error(e);
+            } finally {
+                synchronized (this) {
+                    m_head = (head + size) % m_buffer.length;
+                    m_size -= size;
+                }
+            }
+        }
+    }
+
+    public void flush() {
+        write(true);
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (m_closed) return;
+            m_closed = true;
+        }
+        if (m_flusher != null) m_flusher.cancel();
+        write();
+        m_target.close();
+    }
+}
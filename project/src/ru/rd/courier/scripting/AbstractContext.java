@@ -39,6 +39,7 @@ import java.sql.Statement;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class AbstractContext implements Context {
     private CourierLogger m_log = null;
@@ -51,8 +52,16 @@ public abstract class AbstractContext implements Context {
     private static final String c_active = "ACTIVE";
     private static final String c_notCleaned = "NOT_CLEANED";
 
+    private static final AtomicLong s_varsVersions = new AtomicLong();
+    // removed variables whose slots are kept before the slots are dropped
+    private static final int c_maxClearedSlots = 64;
+
     private Context m_parent = null;
-    private Map<String, ScriptExpression> m_vars = new HashMap<String, ScriptExpression>(); // variables
+    // taken from global counter so a change anywhere increases chain maximum
+    private long m_varsVersion = s_varsVersions.incrementAndGet();
+    private Map<String, VarSlot> m_vars = new HashMap<String, VarSlot>(); // variables
+    private int m_clearedSlotCount = 0;
+    private final Set<String> m_varNames = new DefinedVarNames();
     private Map<String, ResultSet> m_rs = new HashMap<String, ResultSet>();   // result sets
     private Map<String, Object> m_objs = new HashMap<String, Object>(); // objects
     private String m_breakLabel = null;
@@ -293,7 +302,8 @@ public abstract class AbstractContext implements Context {
     }
 
     public final boolean hasVar(final String name) {
-        return m_vars.containsKey(name) || (m_parent != null &&  m_parent.hasVar(name));
+        final VarSlot slot = m_vars.get(name);
+        return (slot != null && slot.isDefined()) || (m_parent != null &&  m_parent.hasVar(name));
     }
 
     public final String getVar(final String name) throws CourierException {
@@ -301,14 +311,40 @@ public abstract class AbstractContext implements Context {
     }
 
     public ScriptExpression getVarExpression(String name) {
-        if (m_vars.containsKey(name)) {
-            return m_vars.get(name);
+        final VarSlot slot = m_vars.get(name);
+        if (slot != null && slot.isDefined()) {
+            return slot.getValue();
         }
         else if (m_parent != null) return m_parent.getVarExpression(name);
         else throw new CourierException("Variable '" + name + "' does not exist");
     }
 
+    public VarSlot getVarSlot(String name) {
+        VarSlot slot = m_vars.get(name);
+        if (slot == null) {
+            slot = new VarSlot();
+            m_vars.put(name, slot);
+            m_varsVersion = s_varsVersions.incrementAndGet();
+        }
+        return slot;
+    }
+
+    public VarSlot findVarSlot(String name) {
+        final VarSlot slot = m_vars.get(name);
+        if (slot != null || m_parent == null) return slot;
+        return m_parent.findVarSlot(name);
+    }
+
+    public long getVarsVersion() {
+        if (m_parent == null) return m_varsVersion;
+        return Math.max(m_varsVersion, m_parent.getVarsVersion());
+    }
+
     public Date getDateVar(String name) throws CourierException {
+        ScriptExpression exp = getVarExpression(name);
+        if (exp instanceof TypedRow.Column) {
+            return ((TypedRow.Column)exp).getDate(this);
+        }
         try {
             return m_dateFormat.parse(getVar(name));
         } catch (ParseException e) {
@@ -318,18 +354,67 @@ public abstract class AbstractContext implements Context {
 
     public final void setVar(final String name, final String value) throws CourierException {
 	if(name == null) throw new CourierException("Unable to store variable with <NULL> name");
-        m_vars.put(
-            name,
+        getVarSlot(name).set(
             new ru.rd.courier.scripting.expressions.string.Const(value)
         );
     }
 
+    /**
+     * Names of defined variables. The set is not copied: it reflects
+     * variable changes and must not be iterated while variables of this
+     * context are added or removed.
+     */
+    private class DefinedVarNames extends AbstractSet<String> {
+        public Iterator<String> iterator() {
+            final Iterator<Map.Entry<String, VarSlot>> it = m_vars.entrySet().iterator();
+            return new Iterator<String>() {
+                private String m_next = findNext();
+
+                private String findNext() {
+                    while (it.hasNext()) {
+                        Map.Entry<String, VarSlot> e = it.next();
+                        if (e.getValue().isDefined()) return e.getKey();
+                    }
+                    return null;
+                }
+
+                public boolean hasNext() {
+                    return m_next != null;
+                }
+
+                public String next() {
+                    if (m_next == null) throw new NoSuchElementException();
+                    String ret = m_next;
+                    m_next = findNext();
+                    return ret;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        public int size() {
+            int ret = 0;
+            for (VarSlot slot: m_vars.values()) {
+                if (slot.isDefined()) ret++;
+            }
+            return ret;
+        }
+
+        public boolean contains(Object name) {
+            final VarSlot slot = m_vars.get(name);
+            return slot != null && slot.isDefined();
+        }
+    }
+
     public Set<String> getVarKeySet() {
-        return m_vars.keySet();
+        return m_varNames;
     }
 
     public void setVar(String name, ScriptExpression exp) {
-        m_vars.put(name, exp);
+        getVarSlot(name).set(exp);
     }
 
     public void setDateVar(String name, Date value) {
@@ -340,8 +425,31 @@ public abstract class AbstractContext implements Context {
         return m_dateFormat;
     }
 
+    /**
+     * Slot of the removed variable is kept for templates bound to it until
+     * many slots are cleared, then cleared slots are dropped and the vars
+     * version is changed so that bound templates resolve their slots again.
+     */
     public void removeVar(final String name) {
-        if (m_vars.containsKey(name)) m_vars.remove(name);
+        final VarSlot slot = m_vars.get(name);
+        if (slot == null || !slot.isDefined()) return;
+        slot.clear();
+        m_clearedSlotCount++;
+        if (m_clearedSlotCount > c_maxClearedSlots && m_clearedSlotCount * 2 > m_vars.size()) {
+            dropClearedSlots();
+        }
+    }
+
+    private void dropClearedSlots() {
+        m_clearedSlotCount = 0;
+        boolean dropped = false;
+        for (Iterator<VarSlot> it = m_vars.values().iterator(); it.hasNext(); ) {
+            if (!it.next().isDefined()) {
+                it.remove();
+                dropped = true;
+            }
+        }
+        if (dropped) m_varsVersion = s_varsVersions.incrementAndGet();
     }
 
     public boolean hasObject(final String name) {
@@ -549,6 +657,7 @@ public abstract class AbstractContext implements Context {
 
     public final void setParent(final Context ctx) {
         m_parent = ctx;
+        m_varsVersion = s_varsVersions.incrementAndGet();
     }
 
     private void closeConnections() {
@@ -112,6 +112,18 @@ public class ChildContext implements Context, ScriptStatement {
         return m_pCtx.getVarExpression(name);
     }
 
+    public VarSlot getVarSlot(String name) {
+        return m_pCtx.getVarSlot(name);
+    }
+
+    public VarSlot findVarSlot(String name) {
+        return m_pCtx.findVarSlot(name);
+    }
+
+    public long getVarsVersion() {
+        return m_pCtx.getVarsVersion();
+    }
+
     public String getVar(final String name) throws CourierException {
         return m_pCtx.getVar(name);
     }
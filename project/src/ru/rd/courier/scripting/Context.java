@@ -57,6 +57,17 @@ public interface Context extends StringContext, CourierLogger, TransferProcessRe
 
     Set<String> getVarKeySet();
     ScriptExpression getVarExpression(String name);
+    VarSlot getVarSlot(String name);
+    /**
+     * @return nearest existing slot of the variable in the context chain
+     * without creating one, null if there is no such slot
+     */
+    VarSlot findVarSlot(String name);
+    /**
+     * @return value that changes whenever a variable slot is added to or
+     * dropped from the context chain or the chain itself is changed
+     */
+    long getVarsVersion();
     void setVar(String name, ScriptExpression exp);
     Date getDateVar(String name) throws CourierException;
     void setDateVar(String name, Date value);
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded LRU cache of lookup results with optional time to live.
+ * Caches are registered by name so statements of different pipelines
+ * can share them.
+ */
+public class LookupCache {
+    private static final Map<String, LookupCache> s_caches = new LinkedHashMap<String, LookupCache>();
+
+    private final String m_name;
+    private final int m_maxSize;
+    private final long m_ttl;
+    private final LinkedHashMap<Object, CacheEntry> m_entries;
+    private long m_hits = 0;
+    private long m_misses = 0;
+    private long m_evictions = 0;
+    private long m_loadTime = -1;
+
+    private static class CacheEntry {
+        private final LookupRow m_row;
+        private final long m_time;
+
+        public CacheEntry(LookupRow row, long time) {
+            m_row = row;
+            m_time = time;
+        }
+    }
+
+    /**
+     * Returns registered cache creating it if it does not exist
+     */
+    public static LookupCache getCache(String name, int maxSize, long ttl) {
+        synchronized (s_caches) {
+            LookupCache cache = s_caches.get(name);
+            if (cache == null) {
+                cache = new LookupCache(name, maxSize, ttl);
+                s_caches.put(name, cache);
+            }
+            return cache;
+        }
+    }
+
+    public static void removeCaches() {
+        synchronized (s_caches) {
+            s_caches.clear();
+        }
+    }
+
+    public static String getCachesDesc() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (s_caches) {
+            for (LookupCache cache: s_caches.values()) {
+                sb.append("  ").append(cache.getStateDesc()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    public LookupCache(String name, int maxSize, long ttl) {
+        if (maxSize < 1) throw new IllegalArgumentException("Lookup cache size must be > 0");
+        m_name = name;
+        m_maxSize = maxSize;
+        m_ttl = ttl;
+        m_entries = new LinkedHashMap<Object, CacheEntry>(Math.min(maxSize, 1024), 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Object, CacheEntry> eldest) {
+                if (size() <= m_maxSize) return false;
+                m_evictions++;
+                return true;
+            }
+        };
+    }
+
+    private boolean expired(long time, long now) {
+        return m_ttl > 0 && now - time > m_ttl;
+    }
+
+    /**
+     * @return cached row or null if there is no valid one
+     */
+    public synchronized LookupRow get(Object key) {
+        CacheEntry e = m_entries.get(key);
+        if (e != null && expired(e.m_time, System.currentTimeMillis())) {
+            m_entries.remove(key);
+            e = null;
+        }
+        if (e == null) {
+            m_misses++;
+            return null;
+        }
+        m_hits++;
+        return e.m_row;
+    }
+
+    public synchronized void put(Object key, LookupRow row) {
+        m_entries.put(key, new CacheEntry(row, System.currentTimeMillis()));
+    }
+
+    /**
+     * Clears the cache if it has not been loaded yet or its last load has
+     * expired.
+     * @return true if the caller has to load the cache
+     */
+    public synchronized boolean startLoad() {
+        long now = System.currentTimeMillis();
+        if (m_loadTime >= 0 && !expired(m_loadTime, now)) return false;
+        m_entries.clear();
+        m_loadTime = now;
+        return true;
+    }
+
+    public synchronized void clear() {
+        m_entries.clear();
+        m_loadTime = -1;
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    public synchronized int size() {
+        return m_entries.size();
+    }
+
+    public synchronized long getHits() {
+        return m_hits;
+    }
+
+    public synchronized long getMisses() {
+        return m_misses;
+    }
+
+    public synchronized long getEvictions() {
+        return m_evictions;
+    }
+
+    public synchronized String getStateDesc() {
+        return
+            "'" + m_name + "': size = " + m_entries.size() + " of " + m_maxSize +
+            (m_ttl > 0 ? "; ttl = " + m_ttl + " ms" : "") +
+            "; hits = " + m_hits + "; misses = " + m_misses + "; evictions = " + m_evictions;
+    }
+}
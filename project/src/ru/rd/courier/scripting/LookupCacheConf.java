@@ -0,0 +1,146 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting;
+
+import ru.rd.courier.CourierException;
+import ru.rd.courier.TransferProcess;
+import ru.rd.courier.utils.DomHelper;
+import ru.rd.courier.utils.StringHelper;
+import org.w3c.dom.Node;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lookup cache declaration of var-query and from-db statements.
+ * Attributes:
+ * <ul>
+ * <li>cache-size - max cached results count</li>
+ * <li>cache-ttl - (optional) cached result lifetime</li>
+ * <li>cache-scope - (default "pipeline") "pipeline" or "courier"</li>
+ * <li>cache-name - (optional) courier scope caches with the same name are shared</li>
+ * <li>cache-preload - (optional) query loading the whole cache: the first column
+ * is the key and the rest are lookup result. Requires key expression.</li>
+ * </ul>
+ * Without key expression results are cached by data link name and request.
+ */
+public class LookupCacheConf {
+    private static final AtomicInteger s_counter = new AtomicInteger(0);
+
+    private final String m_name;
+    private final boolean m_pipelineScope;
+    private final int m_maxSize;
+    private final long m_ttl;
+    private final String m_preload;
+    private final ScriptExpression m_key;
+
+    public LookupCacheConf(Node conf, ScriptExpression key) {
+        String name = DomHelper.getNodeAttr(conf, "cache-name", false);
+        m_name = name == null ? "lookup-" + s_counter.incrementAndGet() : name;
+        String scope = DomHelper.getNodeAttr(conf, "cache-scope", "pipeline");
+        if (scope.equals("pipeline")) {
+            m_pipelineScope = true;
+        } else if (scope.equals("courier")) {
+            m_pipelineScope = false;
+        } else {
+            throw new CourierException("Unknown lookup cache scope '" + scope + "'");
+        }
+        m_maxSize = DomHelper.getIntNodeAttr(conf, "cache-size", 1000);
+        String ttl = DomHelper.getNodeAttr(conf, "cache-ttl", false);
+        m_ttl = ttl == null ? 0 : StringHelper.parseTime(ttl, "s");
+        m_preload = DomHelper.getNodeAttr(conf, "cache-preload", false);
+        m_key = key;
+        if (m_preload != null && m_key == null) {
+            throw new CourierException("Lookup cache '" + m_name + "': preload requires cache key");
+        }
+    }
+
+    public LookupCacheConf(Node conf) {
+        this(conf, null);
+    }
+
+    /**
+     * @param kind distinguishes caches of different statement types having
+     * the same name
+     */
+    public LookupCache getCache(Context ctx, String kind, String dbName, boolean typed) {
+        String name = kind + ":" + m_name;
+        if (m_pipelineScope && ctx.hasVar(TransferProcess.c_PipeNameVarName)) {
+            name += "@" + ctx.getVar(TransferProcess.c_PipeNameVarName);
+        }
+        LookupCache cache = LookupCache.getCache(name, m_maxSize, m_ttl);
+        if (m_preload != null && cache.startLoad()) {
+            try {
+                preload(ctx, cache, dbName, typed);
+            } catch (RuntimeException e) {
+                cache.clear();
+                throw e;
+            }
+        }
+        return cache;
+    }
+
+    private void preload(Context ctx, LookupCache cache, String dbName, boolean typed) {
+        ResultSet rs = AbstractContext.createResultSet(ctx, dbName, m_preload);
+        try {
+            int count = 0;
+            while (rs.next()) {
+                if (ctx.isCanceled()) return;
+                cache.put(rs.getString(1), LookupRow.read(rs, true, 2, typed));
+                count++;
+            }
+            ctx.debug("Lookup cache '" + cache.getName() + "' preloaded " + count + " records");
+        } catch (SQLException e) {
+            throw new CourierException(e);
+        } finally {
+            AbstractContext.closeResultSet(ctx, rs);
+        }
+    }
+
+    /**
+     * @param request rendered request used as key if there is no key expression
+     */
+    public Object getKey(Context ctx, String dbName, Object request) {
+        if (m_key != null) return m_key.calculate(ctx);
+        return dbName + '\n' + request;
+    }
+
+    /**
+     * Reads the first record of the result set
+     */
+    public static LookupRow readFirst(Context ctx, ResultSet rs, boolean typed) throws SQLException {
+        long begTime = System.currentTimeMillis();
+        boolean hasNext = rs.next();
+        ctx.addSourceTime(System.currentTimeMillis() - begTime);
+        return LookupRow.read(rs, hasNext, 1, typed);
+    }
+}
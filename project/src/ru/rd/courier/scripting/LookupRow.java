@@ -0,0 +1,118 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting;
+
+import ru.rd.utils.Base64;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Date;
+
+/**
+ * First record of lookup result detached from its result set
+ */
+public class LookupRow {
+    private final String[] m_names;
+    private final boolean[] m_dates;
+    private final Object[] m_values;
+
+    private LookupRow(String[] names, boolean[] dates, Object[] values) {
+        m_names = names;
+        m_dates = dates;
+        m_values = values;
+    }
+
+    /**
+     * @param hasRow false if result set is empty: all variables are null then
+     * @param typed dates are stored as dates and blobs as base64 strings
+     * the same way as var-query sets them, otherwise all values are strings
+     */
+    public static LookupRow read(
+        ResultSet rs, boolean hasRow, int fromColumn, boolean typed
+    ) throws SQLException {
+        final ResultSetMetaData md = rs.getMetaData();
+        final int count = Math.max(md.getColumnCount() - fromColumn + 1, 0);
+        final String[] names = new String[count];
+        final boolean[] dates = new boolean[count];
+        final Object[] values = hasRow ? new Object[count] : null;
+        for (int i = 0; i < count; i++) {
+            final int col = fromColumn + i;
+            names[i] = md.getColumnName(col);
+            int type = typed ? md.getColumnType(col) : Types.VARCHAR;
+            dates[i] = type == Types.TIMESTAMP || type == Types.DATE;
+            if (!hasRow) continue;
+            try {
+                switch (type) {
+                    case Types.TIMESTAMP: values[i] = rs.getTimestamp(col); break;
+                    case Types.DATE: values[i] = rs.getDate(col); break;
+                    case Types.BLOB: {
+                        values[i] = Base64.encodeBytes(rs.getBytes(col), Base64.DONT_BREAK_LINES);
+                        break;
+                    }
+                    default: values[i] = rs.getString(col);
+                }
+            } catch (SQLException e) {
+                throw new SQLException("Error getting column '" + names[i] + "': " + e.getMessage(), e);
+            }
+        }
+        return new LookupRow(names, dates, values);
+    }
+
+    public boolean hasRow() {
+        return m_values != null;
+    }
+
+    public int size() {
+        return m_names.length;
+    }
+
+    public String getString(int index) {
+        if (m_values == null || index >= m_values.length) return null;
+        Object v = m_values[index];
+        return v == null ? null : v.toString();
+    }
+
+    public void toVars(Context ctx, String prefix) {
+        for (int i = 0; i < m_names.length; i++) {
+            if (ctx.isCanceled()) return;
+            String fieldName = prefix == null ? m_names[i] : prefix + m_names[i];
+            if (m_values == null) {
+                ctx.setVar(fieldName, (String)null);
+            } else if (m_dates[i]) {
+                ctx.setDateVar(fieldName, (Date)m_values[i]);
+            } else {
+                ctx.setVar(fieldName, (String)m_values[i]);
+            }
+        }
+    }
+}
@@ -30,10 +30,19 @@
  */
 package ru.rd.courier.scripting;
 
+import ru.rd.pool.ObjectPoolIntf;
+
 public interface PortionFormatterProvider {
     PortionFormatter getPortionFormatter(final Context ctx);
     ScriptExpression getBeforePortion();
     ScriptExpression getAfterPortion();
     ScriptStatement getBeforePortionHandler();
     ScriptStatement getAfterPortionHandler();
+
+    /**
+     * @return max number of portions waiting for separate writer thread,
+     * 0 if portions are written by the process thread
+     */
+    int getPipelineQueueSize();
+    ObjectPoolIntf getThreadPool();
 }
@@ -36,6 +36,7 @@ import ru.rd.courier.utils.StringExpression;
 import ru.rd.courier.utils.StringSimpleParser;
 import ru.rd.courier.utils.templates.SimplePreparedTemplate;
 
+import java.lang.ref.WeakReference;
 import java.text.*;
 import java.util.*;
 import java.util.regex.Matcher;
@@ -47,9 +48,85 @@ public class PreparedTemplate implements ScriptExpression {
     private static final String m_endBrace = "]";
     private static final char c_funcMark = '!';
     private static final double c_bufRatio = 1.5;
+    private static final int c_maxKeptBufLength = 1024*1024;
+
+    private static volatile boolean s_compiledByDefault = false;
 
     private final int m_initBufLength;
     private final ScriptExpression[] m_strProvs;
+    private final String[] m_slotNames;
+    private final ThreadLocal<Binding> m_bindings;
+
+    /**
+     * Template part able to write its value directly into output buffer
+     * in compiled mode.
+     */
+    private interface CompiledPart {
+        void append(Context ctx, Binding b, StringBuilder out) throws CourierException;
+    }
+
+    /**
+     * Existing context variable slots of template variables. Slots are
+     * resolved along the context chain on the first calculation within
+     * the context and again after a variable slot was added to the chain.
+     */
+    private static final class Binding {
+        private WeakReference<Context> m_ctx = new WeakReference<Context>(null);
+        private long m_varsVersion = -1;
+        private final VarSlot[] m_slots;
+
+        public Binding(int size) {
+            m_slots = new VarSlot[size];
+        }
+    }
+
+    /**
+     * Output buffers of the current thread. Depth supports templates
+     * calculated while another template is being calculated.
+     */
+    private static final class Buffers {
+        private StringBuilder[] m_bufs = new StringBuilder[4];
+        private int m_depth = 0;
+
+        public StringBuilder acquire(int initLength) {
+            if (m_depth == m_bufs.length) {
+                StringBuilder[] bufs = new StringBuilder[m_bufs.length * 2];
+                System.arraycopy(m_bufs, 0, bufs, 0, m_bufs.length);
+                m_bufs = bufs;
+            }
+            StringBuilder ret = m_bufs[m_depth];
+            if (ret == null) {
+                ret = new StringBuilder(initLength);
+                m_bufs[m_depth] = ret;
+            } else {
+                ret.setLength(0);
+            }
+            m_depth++;
+            return ret;
+        }
+
+        public void release() {
+            m_depth--;
+            if (m_bufs[m_depth].capacity() > c_maxKeptBufLength) m_bufs[m_depth] = null;
+        }
+    }
+
+    private static final ThreadLocal<Buffers> s_buffers = new ThreadLocal<Buffers>() {
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    /**
+     * Sets mode of templates created with {@link #PreparedTemplate(String)}
+     */
+    public static void setCompiledByDefault(boolean compiled) {
+        s_compiledByDefault = compiled;
+    }
+
+    public static boolean isCompiledByDefault() {
+        return s_compiledByDefault;
+    }
 
     private static class Var implements ScriptExpression {
         private String m_varName;
@@ -84,7 +161,7 @@ public class PreparedTemplate implements ScriptExpression {
         }
     }
 
-    private static class NullFormatter implements ScriptExpression {
+    private static class NullFormatter implements ScriptExpression, CompiledPart {
         private final ScriptExpression m_exp;
 
         public NullFormatter(ScriptExpression exp) {
@@ -101,6 +178,25 @@ public class PreparedTemplate implements ScriptExpression {
         protected String format(String str, Context ctx) throws CourierException {
             return str;
         }
+
+        public final void append(Context ctx, Binding b, StringBuilder out) throws CourierException {
+            ScriptExpression exp = m_exp;
+            if (exp instanceof VarProvider) exp = ((VarProvider)exp).resolve(ctx, b);
+            appendValue(exp, ctx, out);
+        }
+
+        protected void appendValue(ScriptExpression exp, Context ctx, StringBuilder out) throws CourierException {
+            String v = exp.calculate(ctx);
+            if (v == null) {
+                out.append("NULL");
+            } else {
+                appendFormatted(v, ctx, out);
+            }
+        }
+
+        protected void appendFormatted(String str, Context ctx, StringBuilder out) throws CourierException {
+            out.append(format(str, ctx));
+        }
     }
 
     private static class ParameterizedFormatter extends NullFormatter {
@@ -126,10 +222,14 @@ public class PreparedTemplate implements ScriptExpression {
             super(exp);
         }
         protected String format(String str, Context ctx) {
-            StringBuffer buf = new StringBuffer();
+            StringBuilder buf = new StringBuilder(str.length() + 8);
             StringHelper.escapeSqlString(buf, str);
             return buf.toString();
         }
+
+        protected void appendFormatted(String str, Context ctx, StringBuilder out) {
+            StringHelper.escapeSqlString(out, str);
+        }
     }
 
     private static class BinaryTypeFormatter extends NullFormatter {
@@ -139,6 +239,10 @@ public class PreparedTemplate implements ScriptExpression {
         protected String format(String str, Context ctx) {
             return "0x" + str;
         }
+
+        protected void appendFormatted(String str, Context ctx, StringBuilder out) {
+            out.append("0x").append(str);
+        }
     }
 
     private static class DatetimeTypeFormatter extends NullFormatter {
@@ -148,10 +252,19 @@ public class PreparedTemplate implements ScriptExpression {
         protected String format(String str, Context ctx) {
             return "'" + str + "'";
         }
+
+        protected void appendFormatted(String str, Context ctx, StringBuilder out) {
+            out.append('\'').append(str).append('\'');
+        }
     }
 
     private static class DateFormatTypeFormatter extends ParameterizedFormatter {
-        private String m_toDateFormat;
+        private final String m_toDateFormat;
+        private final ThreadLocal<DateFormat> m_df = new ThreadLocal<DateFormat>() {
+            protected DateFormat initialValue() {
+                return new SimpleDateFormat(m_toDateFormat);
+            }
+        };
 
         public DateFormatTypeFormatter(ScriptExpression exp, String[] pars) {
             super(exp, pars, 1);
@@ -160,16 +273,32 @@ public class PreparedTemplate implements ScriptExpression {
 
         protected String format(String str, Context ctx) throws CourierException {
             try {
-                DateFormat df = new SimpleDateFormat(m_toDateFormat);
-                return df.format(ctx.getDateFormat().parse(str));
+                return m_df.get().format(ctx.getDateFormat().parse(str));
             } catch (ParseException e) {
                 throw new CourierException(e);
             }
         }
+
+        protected void appendValue(ScriptExpression exp, Context ctx, StringBuilder out) throws CourierException {
+            if (exp instanceof TypedRow.Column) {
+                TypedRow.Column col = (TypedRow.Column)exp;
+                if (col.getType() == TypedRow.c_typeDate) {
+                    if (col.isNull()) out.append("NULL");
+                    else out.append(m_df.get().format(col.getDate(ctx)));
+                    return;
+                }
+            }
+            super.appendValue(exp, ctx, out);
+        }
     }
 
     private static class NumericTypeFormatter extends ParameterizedFormatter {
-        DecimalFormat m_df;
+        private final DecimalFormat m_proto;
+        private final ThreadLocal<DecimalFormat> m_df = new ThreadLocal<DecimalFormat>() {
+            protected DecimalFormat initialValue() {
+                return (DecimalFormat)m_proto.clone();
+            }
+        };
 
         public NumericTypeFormatter(ScriptExpression exp, String[] pars) {
             super(exp, pars, 0);
@@ -181,13 +310,28 @@ public class PreparedTemplate implements ScriptExpression {
                 dfs.setGroupingSeparator(pars[3].charAt(0));
             }
             if (pars.length > 1) {
-                m_df = new DecimalFormat(pars[1], dfs);
+                m_proto = new DecimalFormat(pars[1], dfs);
+            } else {
+                m_proto = null;
             }
         }
 
         protected String format(String str, Context ctx) {
-            if (m_df == null) return str;
-            return m_df.format(new Double(str));
+            if (m_proto == null) return str;
+            return m_df.get().format(new Double(str));
+        }
+
+        protected void appendValue(ScriptExpression exp, Context ctx, StringBuilder out) throws CourierException {
+            if (m_proto != null && exp instanceof TypedRow.Column) {
+                TypedRow.Column col = (TypedRow.Column)exp;
+                int type = col.getType();
+                if (type == TypedRow.c_typeLong || type == TypedRow.c_typeDouble) {
+                    if (col.isNull()) out.append("NULL");
+                    else out.append(m_df.get().format(col.getDouble()));
+                    return;
+                }
+            }
+            super.appendValue(exp, ctx, out);
         }
     }
 
@@ -249,12 +393,20 @@ public class PreparedTemplate implements ScriptExpression {
         protected String format(String str, Context ctx) {
             return m_prefix + str + m_postfix;
         }
+
+        protected void appendFormatted(String str, Context ctx, StringBuilder out) {
+            out.append(m_prefix).append(str).append(m_postfix);
+        }
     }
 
-    private static class StringProvider implements ScriptExpression {
+    private static class StringProvider implements ScriptExpression, CompiledPart {
         private String m_str;
         public StringProvider(final String str) { m_str = str; }
         public String calculate(final Context ctx) { return m_str; }
+
+        public void append(Context ctx, Binding b, StringBuilder out) {
+            out.append(m_str);
+        }
     }
 
     private static class SimpleFunctionProvider implements ScriptExpression {
@@ -287,6 +439,11 @@ public class PreparedTemplate implements ScriptExpression {
 
     private static class NowProvider implements ScriptExpression {
         String m_format;
+        private final ThreadLocal<DateFormat> m_df = new ThreadLocal<DateFormat>() {
+            protected DateFormat initialValue() {
+                return new SimpleDateFormat(m_format);
+            }
+        };
 
         public NowProvider(final String str, PosHolder pos) throws CourierException {
             int p = pos.m_pos;
@@ -308,7 +465,7 @@ public class PreparedTemplate implements ScriptExpression {
             if (m_format == null) {
                 df = ctx.getDateFormat();
             } else {
-                df = new SimpleDateFormat(m_format);
+                df = m_df.get();
             }
             return df.format(new Date());
         }
@@ -339,6 +496,7 @@ public class PreparedTemplate implements ScriptExpression {
 
     private static class VarProvider implements ScriptExpression {
         private final String m_name;
+        private int m_slot = -1;
 
         public VarProvider(final String str, PosHolder pos) throws CourierException {
             int p = str.indexOf(m_endBrace, pos.m_pos);
@@ -350,6 +508,14 @@ public class PreparedTemplate implements ScriptExpression {
         public String calculate(final Context ctx) throws CourierException {
             return ctx.getVar(m_name);
         }
+
+        public ScriptExpression resolve(final Context ctx, Binding b) throws CourierException {
+            if (m_slot >= 0) {
+                VarSlot slot = b.m_slots[m_slot];
+                if (slot != null && slot.isDefined()) return slot.getValue();
+            }
+            return ctx.getVarExpression(m_name);
+        }
     }
 
     private static class SysVarProvider implements ScriptExpression {
@@ -784,10 +950,19 @@ public class PreparedTemplate implements ScriptExpression {
     }
 
     public PreparedTemplate(final String str) throws CourierException {
+        this(str, s_compiledByDefault);
+    }
+
+    /**
+     * @param compiled if true the template binds its variables to context slots
+     * once per context and writes parts into reusable buffer of the current thread
+     */
+    public PreparedTemplate(final String str, boolean compiled) throws CourierException {
         this(
             str, new PosHolder(0),
             false, // quoted
-            ' '   // whatever char you want because quoted is false
+            ' ',   // whatever char you want because quoted is false
+            compiled
         );
     }
 
@@ -853,9 +1028,17 @@ public class PreparedTemplate implements ScriptExpression {
     private PreparedTemplate(
         final String str, PosHolder pos,
         boolean quoted, char bracket
+    ) throws CourierException {
+        this(str, pos, quoted, bracket, false);
+    }
+
+    private PreparedTemplate(
+        final String str, PosHolder pos,
+        boolean quoted, char bracket, boolean compiled
     ) throws CourierException {
         m_initBufLength = (int)(c_bufRatio * str.length());
         final List<ScriptExpression> provs = new LinkedList<ScriptExpression>();
+        final List<String> slotNames = compiled ? new LinkedList<String>() : null;
         int p = pos.m_pos;
         int np;
         while (true) {
@@ -947,6 +1130,11 @@ public class PreparedTemplate implements ScriptExpression {
 
             p = pos.m_pos;
 
+            if (compiled && part instanceof VarProvider) {
+                ((VarProvider)part).m_slot = slotNames.size();
+                slotNames.add(((VarProvider)part).m_name);
+            }
+
             if (varType != null) {
                 if (varType.equals("string")) {
                     part = new StringTypeFormatter(part);
@@ -984,9 +1172,58 @@ public class PreparedTemplate implements ScriptExpression {
         }
         m_strProvs = (ScriptExpression[])provs.toArray(new ScriptExpression[provs.size()]);
         pos.m_pos = p;
+        if (compiled) {
+            m_slotNames = slotNames.toArray(new String[slotNames.size()]);
+            m_bindings = new ThreadLocal<Binding>() {
+                protected Binding initialValue() {
+                    return new Binding(m_slotNames.length);
+                }
+            };
+        } else {
+            m_slotNames = null;
+            m_bindings = null;
+        }
+    }
+
+    public boolean isCompiled() {
+        return m_bindings != null;
+    }
+
+    private Binding bind(final Context ctx) {
+        final Binding b = m_bindings.get();
+        final long version = ctx.getVarsVersion();
+        if (b.m_ctx.get() != ctx || b.m_varsVersion != version) {
+            for (int i = 0; i < m_slotNames.length; i++) {
+                b.m_slots[i] = ctx.findVarSlot(m_slotNames[i]);
+            }
+            b.m_ctx = new WeakReference<Context>(ctx);
+            b.m_varsVersion = version;
+        }
+        return b;
+    }
+
+    private String calculateCompiled(final Context ctx) throws CourierException {
+        final Binding b = bind(ctx);
+        final Buffers bufs = s_buffers.get();
+        final StringBuilder ret = bufs.acquire(m_initBufLength);
+        try {
+            for (ScriptExpression part: m_strProvs) {
+                if (part instanceof CompiledPart) {
+                    ((CompiledPart)part).append(ctx, b, ret);
+                } else {
+                    String str = part.calculate(ctx);
+                    if (str == null) return null;
+                    ret.append(str);
+                }
+            }
+            return ret.toString();
+        } finally {
+            bufs.release();
+        }
     }
 
     public String calculate(final Context ctx) throws CourierException {
+        if (m_bindings != null) return calculateCompiled(ctx);
         final StringBuffer ret = new StringBuffer(m_initBufLength);
         String str;
         for(int i = 0; i < m_strProvs.length; i++) {
@@ -74,6 +74,13 @@ public abstract class TimedDataReceiver implements DataReceiver, ReceiverTimeCou
         return m_time;
     }
 
+    /**
+     * Accounts target time spent outside process, flush and close
+     */
+    protected final void addTargetTime(long time) {
+        m_time += time;
+    }
+
     public final void close() throws CourierException {
         if (m_closed) return;
         
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting;
+
+import ru.rd.courier.CourierException;
+import ru.rd.utils.Base64;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reusable typed holder for the current record of a result set.
+ * Column metadata is resolved once, values of every fetched record
+ * are stored into per column slots and exposed to the context as
+ * {@link Column} expressions so no variable is created per record.
+ */
+public class TypedRow {
+    public static final int c_typeString = 0;
+    public static final int c_typeLong = 1;
+    public static final int c_typeDouble = 2;
+    public static final int c_typeFloat = 3;
+    public static final int c_typeDate = 4;
+    public static final int c_typeBinary = 5;
+
+    private final String[] m_colNames;
+    private final String[] m_fieldNames;
+    private final int[] m_sqlTypes;
+    private final int[] m_types;
+    private final Column[] m_columns;
+    private final Map<String, Column> m_byName;
+
+    private final boolean[] m_nulls;
+    private final long[] m_longs;
+    private final double[] m_doubles;
+    private final Date[] m_dates;
+    private final String[] m_strings;
+    private final int[] m_stringRows;
+    private final int[] m_doubleRows;
+    private int m_row = 0;
+
+    private Context m_boundCtx = null;
+    private long m_boundVersion;
+    private VarSlot[] m_slots = null;
+
+    public TypedRow(ResultSetMetaData md, String prefix) throws SQLException {
+        final int count = md.getColumnCount();
+        m_colNames = new String[count];
+        m_fieldNames = new String[count];
+        m_sqlTypes = new int[count];
+        m_types = new int[count];
+        m_columns = new Column[count];
+        m_byName = new HashMap<String, Column>(count * 2);
+        m_nulls = new boolean[count];
+        m_longs = new long[count];
+        m_doubles = new double[count];
+        m_dates = new Date[count];
+        m_strings = new String[count];
+        m_stringRows = new int[count];
+        m_doubleRows = new int[count];
+        for (int i = 0; i < count; i++) {
+            m_colNames[i] = md.getColumnName(i + 1);
+            m_fieldNames[i] = prefix == null ? m_colNames[i] : prefix + m_colNames[i];
+            m_sqlTypes[i] = md.getColumnType(i + 1);
+            m_types[i] = getSlotType(m_sqlTypes[i]);
+            m_columns[i] = new Column(i);
+            m_byName.put(m_fieldNames[i], m_columns[i]);
+            m_stringRows[i] = -1;
+            m_doubleRows[i] = -1;
+        }
+    }
+
+    private static int getSlotType(int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return c_typeLong;
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return c_typeDouble;
+            case Types.REAL:
+                return c_typeFloat;
+            case Types.TIMESTAMP:
+            case Types.DATE:
+                return c_typeDate;
+            case Types.BLOB:
+                return c_typeBinary;
+            default:
+                return c_typeString;
+        }
+    }
+
+    public int getColumnCount() {
+        return m_columns.length;
+    }
+
+    public String getColumnName(int index) {
+        return m_colNames[index];
+    }
+
+    public String getFieldName(int index) {
+        return m_fieldNames[index];
+    }
+
+    public int getSqlType(int index) {
+        return m_sqlTypes[index];
+    }
+
+    public Column getColumn(int index) {
+        return m_columns[index];
+    }
+
+    public Column getColumn(String fieldName) {
+        return m_byName.get(fieldName);
+    }
+
+    public int getRowNumber() {
+        return m_row;
+    }
+
+    /**
+     * Moves values of the current result set record into the slots
+     */
+    public void fetch(ResultSet rs, Context ctx, boolean errorAsNull) throws CourierException {
+        m_row++;
+        for (int i = 0; i < m_columns.length; i++) {
+            try {
+                fetchColumn(rs, i);
+            } catch (SQLException e) {
+                if (errorAsNull) {
+                    m_nulls[i] = true;
+                    ctx.error("Error getting column '" + m_colNames[i] + "'", e);
+                } else {
+                    throw new CourierException(
+                        "Error getting column '" + m_colNames[i] + "'", e);
+                }
+            }
+        }
+    }
+
+    private void fetchColumn(ResultSet rs, int i) throws SQLException {
+        final int col = i + 1;
+        switch (m_types[i]) {
+            case c_typeLong: {
+                m_longs[i] = rs.getLong(col);
+                m_nulls[i] = rs.wasNull();
+                break;
+            }
+            case c_typeDate: {
+                final Date d = m_sqlTypes[i] == Types.DATE ? rs.getDate(col) : rs.getTimestamp(col);
+                m_dates[i] = d;
+                m_nulls[i] = (d == null);
+                break;
+            }
+            case c_typeBinary: {
+                final byte[] b = rs.getBytes(col);
+                m_nulls[i] = (b == null);
+                m_strings[i] = m_nulls[i] ? null : Base64.encodeBytes(b, Base64.DONT_BREAK_LINES);
+                m_stringRows[i] = m_row;
+                break;
+            }
+            default: {
+                m_strings[i] = rs.getString(col);
+                m_nulls[i] = (m_strings[i] == null);
+                m_stringRows[i] = m_row;
+            }
+        }
+    }
+
+    /**
+     * Registers slot expressions under the field names. Variable slots are
+     * resolved once per context (and again when the context drops removed
+     * variables), subsequent records only check that a slot still refers to
+     * its column.
+     */
+    public void bind(Context ctx) {
+        if (m_boundCtx != ctx || m_boundVersion != ctx.getVarsVersion()) {
+            m_slots = new VarSlot[m_columns.length];
+            for (int i = 0; i < m_columns.length; i++) {
+                m_slots[i] = ctx.getVarSlot(m_fieldNames[i]);
+            }
+            m_boundCtx = ctx;
+            m_boundVersion = ctx.getVarsVersion();
+        }
+        for (int i = 0; i < m_columns.length; i++) {
+            if (m_slots[i].getValue() != m_columns[i]) m_slots[i].set(m_columns[i]);
+        }
+    }
+
+    public final class Column implements ScriptExpression {
+        private final int m_index;
+
+        private Column(int index) {
+            m_index = index;
+        }
+
+        public int getIndex() {
+            return m_index;
+        }
+
+        public int getType() {
+            return m_types[m_index];
+        }
+
+        public TypedRow getRow() {
+            return TypedRow.this;
+        }
+
+        public boolean isNull() {
+            return m_nulls[m_index];
+        }
+
+        public long getLong() {
+            if (m_types[m_index] == c_typeLong) return m_longs[m_index];
+            if (m_types[m_index] == c_typeDouble || m_types[m_index] == c_typeFloat) {
+                return (long)getDouble();
+            }
+            return isNull() ? 0 : Long.parseLong(m_strings[m_index].trim());
+        }
+
+        /**
+         * Floating point columns keep the driver string form and are
+         * parsed on first numeric access within the record.
+         */
+        public double getDouble() {
+            final int i = m_index;
+            if (m_types[i] == c_typeLong) return m_longs[i];
+            if (isNull()) return 0;
+            if (m_types[i] == c_typeDouble || m_types[i] == c_typeFloat) {
+                if (m_doubleRows[i] != m_row) {
+                    m_doubles[i] = Double.parseDouble(m_strings[i].trim());
+                    m_doubleRows[i] = m_row;
+                }
+                return m_doubles[i];
+            }
+            return Double.parseDouble(m_strings[i].trim());
+        }
+
+        public Date getDate(Context ctx) throws CourierException {
+            if (isNull()) return null;
+            if (m_types[m_index] == c_typeDate) return m_dates[m_index];
+            try {
+                return ctx.getDateFormat().parse(calculate(ctx));
+            } catch (ParseException e) {
+                throw new CourierException(e);
+            }
+        }
+
+        /**
+         * @return value as JDBC object (Long, Double, Float, Timestamp or String)
+         */
+        public Object getObject(Context ctx) throws CourierException {
+            if (isNull()) return null;
+            switch (m_types[m_index]) {
+                case c_typeLong: return m_longs[m_index];
+                case c_typeDouble: return getDouble();
+                case c_typeFloat: return (float)getDouble();
+                case c_typeDate: {
+                    final Date d = m_dates[m_index];
+                    if (d instanceof Timestamp) return d;
+                    return new Timestamp(d.getTime());
+                }
+                default: return calculate(ctx);
+            }
+        }
+
+        public String calculate(Context ctx) throws CourierException {
+            final int i = m_index;
+            if (m_nulls[i]) return null;
+            if (m_stringRows[i] != m_row) {
+                switch (m_types[i]) {
+                    case c_typeLong: m_strings[i] = Long.toString(m_longs[i]); break;
+                    case c_typeDate: m_strings[i] = ctx.getDateFormat().format(m_dates[i]); break;
+                }
+                m_stringRows[i] = m_row;
+            }
+            return m_strings[i];
+        }
+
+        public String toString() {
+            return m_fieldNames[m_index];
+        }
+    }
+}
@@ -32,6 +32,8 @@ package ru.rd.courier.scripting.dataaccess;
 
 import ru.rd.courier.CourierException;
 import ru.rd.courier.scripting.*;
+import ru.rd.courier.scripting.dataaccess.jdbc.BatchPortion;
+import ru.rd.courier.scripting.dataaccess.jdbc.BatchRow;
 import ru.rd.courier.scripting.dataaccess.jdbc.JdbcReceiver;
 
 import java.sql.Connection;
@@ -44,11 +46,14 @@ public class BufferedDataReceiver implements DataReceiver, JdbcReceiver, Receive
     private final int m_recordsLimit;
     private final PortionFormatter m_formatter;
     private final PortionSendListener m_portionSendListener;
+    private final boolean m_streaming;
 
     private boolean m_operationTriggered;
     private int m_charsCount;
     private int m_recordCount;
     private List<String> m_buf;
+    private List<BatchRow> m_batch;
+    private PortionStream m_stream = null;
     private boolean m_incRecordFlag;
 
     public BufferedDataReceiver(
@@ -73,6 +78,9 @@ public class BufferedDataReceiver implements DataReceiver, JdbcReceiver, Receive
         } else {
             m_portionSendListener = portionSendListener;
         }
+        m_streaming =
+            (dr instanceof StreamingReceiver) && ((StreamingReceiver)dr).isStreaming()
+            && (formatter instanceof SeparatedPortionFormatter);
         initBuffer();
         clear();
     }
@@ -85,6 +93,7 @@ public class BufferedDataReceiver implements DataReceiver, JdbcReceiver, Receive
 
     private void initBuffer() {
         m_buf = new LinkedList<String>();
+        m_batch = new LinkedList<BatchRow>();
         m_charsCount = 0;
         m_recordCount = 0;
     }
@@ -94,8 +103,38 @@ public class BufferedDataReceiver implements DataReceiver, JdbcReceiver, Receive
         m_buf.add(operation);
     }
 
+    private void addToBatch(final BatchRow row) {
+        m_charsCount += row.getLength();
+        m_batch.add(row);
+    }
+
+    /**
+     * Writes record straight to the receiver portion stream opening it if necessary
+     */
+    private void addToStream(final String operation) throws CourierException {
+        if (m_stream == null) {
+            m_stream = ((StreamingReceiver)getReceiver()).openPortion();
+            if (m_portionSendListener instanceof PortionStreamListener) {
+                ((PortionStreamListener)m_portionSendListener).opened(
+                    new PortionSendEvent(0, m_stream)
+                );
+            }
+        } else {
+            String sep = ((SeparatedPortionFormatter)m_formatter).getRecordSeparator();
+            m_charsCount += sep.length();
+            m_stream.write(sep);
+        }
+        m_charsCount += operation.length();
+        m_stream.write(operation);
+    }
+
     private void clearBuf() {
         m_buf.clear();
+        m_batch = new LinkedList<BatchRow>();
+        if (m_stream != null) {
+            m_stream.abort();
+            m_stream = null;
+        }
     }
 
     private String bufToString() throws CourierException {
@@ -129,22 +168,38 @@ public class BufferedDataReceiver implements DataReceiver, JdbcReceiver, Receive
     private boolean m_bufferCanceled = false;
 
     public List<LinkWarning> flush() throws CourierException {
-        PortionSendEvent e = new PortionSendEvent(
-            getBufRecordsCount(), bufToString()
-        );
+        return flushBuffer();
+    }
+
+    /**
+     * Sends buffered operations as one portion
+     */
+    protected final List<LinkWarning> flushBuffer() throws CourierException {
+        PortionSendEvent e;
+        if (m_stream == null) {
+            e = new PortionSendEvent(getBufRecordsCount(), bufToString());
+        } else {
+            e = new PortionSendEvent(getBufRecordsCount(), m_stream);
+        }
         List<LinkWarning> ret = null;
         try {
-            if (m_operationTriggered && (m_buf.size() > 0)) {
+            if (m_operationTriggered && (m_buf.size() > 0 || m_batch.size() > 0 || m_stream != null)) {
                 m_bufferCanceled = true;
                 try {
                     m_portionSendListener.before(e);
-                    ret = processData(e.getPortion());
-                    m_portionSendListener.after(e);
+                    if (m_stream != null) {
+                        ret = commitStream(e);
+                    } else if (m_batch.size() > 0) {
+                        // portion text templates are not applicable to batch rows
+                        ret = sendPortion(e, new BatchPortion(m_batch));
+                    } else {
+                        ret = sendPortion(e, e.getPortion());
+                    }
                 } finally {
                     m_bufferCanceled = false;
                 }
             } else if (m_incRecordFlag) {
-                m_portionSendListener.after(e);
+                ret = sendPortion(e, null);
             }
         } finally {
             clear();
@@ -161,34 +216,92 @@ public class BufferedDataReceiver implements DataReceiver, JdbcReceiver, Receive
         return ((ReceiverTimeCounter)getReceiver()).getTargetTime();
     }
 
-    private List<LinkWarning> processData(Object data) {
+    /**
+     * Passes operation to the underlying receiver
+     */
+    protected List<LinkWarning> processData(Object data) throws CourierException {
         return getReceiver().process(data);
     }
 
+    /**
+     * Passes portion to the underlying receiver and notifies portion listener
+     * @param data portion data or null if only records count was changed
+     */
+    protected List<LinkWarning> sendPortion(PortionSendEvent e, Object data) throws CourierException {
+        List<LinkWarning> ret = null;
+        if (data != null) ret = processData(data);
+        portionSent(e);
+        return ret;
+    }
+
+    /**
+     * Commits streamed portion in the calling thread as the records
+     * have already been written to the receiver
+     */
+    private List<LinkWarning> commitStream(PortionSendEvent e) throws CourierException {
+        List<LinkWarning> ret = m_stream.commit();
+        m_stream = null;
+        portionSent(e);
+        return ret;
+    }
+
+    protected final void portionSent(PortionSendEvent e) throws CourierException {
+        m_portionSendListener.after(e);
+    }
+
+    /**
+     * Notifies portion listener with the buffer canceled the same way as
+     * {@link #flushBuffer()} does so that listener operations are not buffered
+     */
+    protected final void canceledPortionSent(PortionSendEvent e) throws CourierException {
+        final boolean canceled = m_bufferCanceled;
+        m_bufferCanceled = true;
+        try {
+            portionSent(e);
+        } finally {
+            m_bufferCanceled = canceled;
+        }
+    }
+
     public List<LinkWarning> process(final Object operation) throws CourierException {
         if (operation instanceof String) {
             if (m_bufferCanceled) {
                 return processData(operation);
             } else {
+                List<LinkWarning> res = null;
+                if (m_batch.size() > 0) res = flushBuffer();
                 m_operationTriggered = true;
-                addToBuf((String)operation);
-                if (timeToAct()) return flush();
-                return null;
+                if (m_streaming) addToStream((String)operation);
+                else addToBuf((String)operation);
+                if (timeToAct()) return joinWarnings(res, flushBuffer());
+                return res;
             }
-        } else {
-            List<LinkWarning> res1 = flush();
-            List<LinkWarning> res2 = getReceiver().process(operation);
-            if (res2 != null) {
-                if (res1 != null) res2.addAll(res1);
-                return res2;
+        } else if (operation instanceof BatchRow) {
+            if (m_bufferCanceled) {
+                List<BatchRow> rows = new LinkedList<BatchRow>();
+                rows.add((BatchRow)operation);
+                return processData(new BatchPortion(rows));
             } else {
-                if (res1 == null) return null;
-                res1.addAll(res2);
-                return res1;
+                List<LinkWarning> res = null;
+                if (m_buf.size() > 0 || m_stream != null) res = flushBuffer();
+                m_operationTriggered = true;
+                addToBatch((BatchRow)operation);
+                if (timeToAct()) return joinWarnings(res, flushBuffer());
+                return res;
             }
+        } else {
+            List<LinkWarning> res1 = flushBuffer();
+            List<LinkWarning> res2 = processData(operation);
+            return joinWarnings(res2, res1);
         }
     }
 
+    protected static List<LinkWarning> joinWarnings(List<LinkWarning> res1, List<LinkWarning> res2) {
+        if (res1 == null) return res2;
+        if (res2 != null) res1.addAll(res2);
+        return res1;
+    }
+
     public void setTimeout(final int timeout) throws CourierException {
         getReceiver().setTimeout(timeout);
     }
@@ -207,7 +320,7 @@ public class BufferedDataReceiver implements DataReceiver, JdbcReceiver, Receive
         m_incRecordFlag = true;
         m_recordCount++;
         if ((m_recordsLimit > 0) && (m_recordCount >= m_recordsLimit)) {
-            return flush();
+            return flushBuffer();
         } else {
             return null;
         }
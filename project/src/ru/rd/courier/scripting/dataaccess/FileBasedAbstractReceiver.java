@@ -35,7 +35,11 @@ import ru.rd.courier.logging.CourierLogger;
 import ru.rd.courier.scripting.TimedStringReceiver;
 import ru.rd.courier.scripting.LinkWarning;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.List;
@@ -45,7 +49,7 @@ import java.util.List;
  * Date: 20.01.2005
  * Time: 20:41:39
  */
-public abstract class FileBasedAbstractReceiver extends TimedStringReceiver {
+public abstract class FileBasedAbstractReceiver extends TimedStringReceiver implements StreamingReceiver {
     protected final CourierLogger m_logger;
     protected final String m_encoding;
     protected boolean m_overwrite;
@@ -55,6 +59,9 @@ public abstract class FileBasedAbstractReceiver extends TimedStringReceiver {
     protected final String m_dir;
     protected final boolean m_fileNameAtFirstLine;
     protected final DateFormat m_dateFormat;
+    private boolean m_streaming = false;
+
+    private static final String c_tempPostfix = ".tmp";
 
     protected FileBasedAbstractReceiver(
         CourierLogger logger, String encoding,
@@ -85,6 +92,136 @@ public abstract class FileBasedAbstractReceiver extends TimedStringReceiver {
 
     protected abstract void storeData(String fileName, String inputData) throws CourierException, IOException;
 
+    /**
+     * Opens stream writing to the specified file. Closing the stream
+     * must complete the transfer.
+     */
+    protected abstract OutputStream openTarget(String fileName) throws CourierException, IOException;
+    protected abstract void renameTarget(String fromName, String toName) throws CourierException, IOException;
+    protected abstract void deleteTarget(String fileName) throws CourierException, IOException;
+
+    /**
+     * @return false if streamed portion should be written directly to the target file
+     */
+    protected boolean useTempTarget() {
+        return true;
+    }
+
+    public void setStreaming(boolean streaming) {
+        m_streaming = streaming;
+    }
+
+    public boolean isStreaming() {
+        return m_streaming;
+    }
+
+    public PortionStream openPortion() throws CourierException {
+        return new FilePortionStream();
+    }
+
+    private boolean needStore(String fileName) throws CourierException, IOException {
+        if (needCheckFileExistance() && fileExists(fileName)) {
+            if (m_overwriteWarning) {
+                m_logger.warning(
+                    "Receiver (" + toString() + ") is overwriting file: " + fileName
+                );
+            }
+            return m_overwrite;
+        }
+        return true;
+    }
+
+    /**
+     * Writes portion to a temporary file which is renamed to the target name
+     * on commit. With file name at first line the target is opened as soon
+     * as the first line is complete.
+     */
+    private class FilePortionStream implements PortionStream {
+        private StringBuffer m_head = null;
+        private String m_tempName = null;
+        private String m_fullName = null;
+        private Writer m_out = null;
+
+        public FilePortionStream() throws CourierException {
+            if (m_fileNameAtFirstLine) {
+                m_head = new StringBuffer();
+            } else {
+                long fromTime = System.currentTimeMillis();
+                try {
+                    open(getParamFileName());
+                } finally {
+                    addTargetTime(System.currentTimeMillis() - fromTime);
+                }
+            }
+        }
+
+        private void open(String fileName) throws CourierException {
+            try {
+                if (!needStore(fileName)) return;
+                m_fullName = getFullFileName(fileName);
+                m_tempName = useTempTarget() ? m_fullName + c_tempPostfix : m_fullName;
+                m_out = new BufferedWriter(new OutputStreamWriter(openTarget(m_tempName), m_encoding));
+            } catch (IOException e) {
+                throw new CourierException(FileBasedAbstractReceiver.this.toString() + ": error sending data", e);
+            }
+        }
+
+        private void openFromHead() throws CourierException, IOException {
+            SendInfo se = parse(m_head.toString());
+            m_head = null;
+            open(se.m_fileName);
+            if (m_out != null) m_out.write(se.m_operation);
+        }
+
+        public void write(String data) throws CourierException {
+            long fromTime = System.currentTimeMillis();
+            try {
+                if (m_head != null) {
+                    m_head.append(data);
+                    if (data.indexOf('\n') >= 0) openFromHead();
+                } else if (m_out != null) {
+                    m_out.write(data);
+                }
+            } catch (IOException e) {
+                throw new CourierException(FileBasedAbstractReceiver.this.toString() + ": error sending data", e);
+            } finally {
+                addTargetTime(System.currentTimeMillis() - fromTime);
+            }
+        }
+
+        public List<LinkWarning> commit() throws CourierException {
+            long fromTime = System.currentTimeMillis();
+            try {
+                if (m_head != null) openFromHead();
+                if (m_out == null) return null;
+                Writer out = m_out;
+                m_out = null;
+                out.close();
+                if (!m_tempName.equals(m_fullName)) renameTarget(m_tempName, m_fullName);
+                m_tempName = null;
+            } catch (IOException e) {
+                throw new CourierException(FileBasedAbstractReceiver.this.toString() + ": error sending data", e);
+            } finally {
+                addTargetTime(System.currentTimeMillis() - fromTime);
+            }
+            return null;
+        }
+
+        public void abort() {
+            m_head = null;
+            if (m_out != null) {
+                try { m_out.close(); }
+                catch (Exception e) { m_logger.warning(e); }
+                m_out = null;
+            }
+            if (m_tempName != null && !m_tempName.equals(m_fullName)) {
+                try { deleteTarget(m_tempName); }
+                catch (Exception e) { m_logger.warning(e); }
+            }
+            m_tempName = null;
+        }
+    }
+
     public List<LinkWarning> timedProcess(String operation) throws CourierException {
         String fileName;
         String sendData;
@@ -98,16 +235,7 @@ public abstract class FileBasedAbstractReceiver extends TimedStringReceiver {
         }
 
         try {
-            boolean storeFile = true;
-            if (needCheckFileExistance() && fileExists(fileName)) {
-                storeFile = m_overwrite;
-                if (m_overwriteWarning) {
-                    m_logger.warning(
-                        "Receiver (" + toString() + ") is overwriting file: " + fileName
-                    );
-                }
-            }
-            if (storeFile) {
+            if (needStore(fileName)) {
                 storeData(getFullFileName(fileName), sendData);
             }
         } catch (IOException e) {
@@ -37,7 +37,10 @@ import ru.rd.courier.logging.CourierLogger;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Date;
 import java.util.List;
 
@@ -81,8 +84,7 @@ public class FileReceiver extends FileBasedAbstractReceiver {
         );
     }
 
-    protected void storeData(String fileName, String inputData) throws CourierException, IOException {
-        File f = new File(fileName);
+    private void makeParentDir(File f) {
         File p = f.getParentFile();
         if (p != null) {
             if (m_syncMkdir) {
@@ -93,6 +95,11 @@ public class FileReceiver extends FileBasedAbstractReceiver {
                 if (!p.exists()) p.mkdirs();
             }
         }
+    }
+
+    protected void storeData(String fileName, String inputData) throws CourierException, IOException {
+        File f = new File(fileName);
+        makeParentDir(f);
         PrintStream out = null;
         FileOutputStream fout = new FileOutputStream(f, m_append);
         try {
@@ -109,6 +116,27 @@ public class FileReceiver extends FileBasedAbstractReceiver {
         }
     }
 
+    protected boolean useTempTarget() {
+        return !m_append;
+    }
+
+    protected OutputStream openTarget(String fileName) throws CourierException, IOException {
+        File f = new File(fileName);
+        makeParentDir(f);
+        return new FileOutputStream(f, m_append);
+    }
+
+    protected void renameTarget(String fromName, String toName) throws CourierException, IOException {
+        Files.move(
+            new File(fromName).toPath(), new File(toName).toPath(),
+            StandardCopyOption.REPLACE_EXISTING
+        );
+    }
+
+    protected void deleteTarget(String fileName) throws CourierException, IOException {
+        Files.deleteIfExists(new File(fileName).toPath());
+    }
+
     protected boolean fileExists(String fileName) throws IOException, CourierException {
         return (new File(fileName)).exists();
     }
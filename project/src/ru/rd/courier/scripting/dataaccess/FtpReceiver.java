@@ -37,7 +37,9 @@ import ru.rd.courier.CourierException;
 import ru.rd.courier.logging.CourierLogger;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Date;
@@ -163,6 +165,46 @@ public class FtpReceiver extends FileBasedAbstractReceiver {
         }
     }
 
+    private CourierException ftpError(String action) {
+        return new CourierException(
+            action + " through ftp (" + toString() +
+            ") failed: " + m_ftp.getReplyString()
+        );
+    }
+
+    protected OutputStream openTarget(String fileName) throws CourierException, IOException {
+        OutputStream out = m_ftp.storeFileStream(fileName);
+        if (out == null) throw ftpError("Storing file");
+        return new FilterOutputStream(out) {
+            private boolean m_closed = false;
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            public void close() throws IOException {
+                if (m_closed) return;
+                m_closed = true;
+                super.close();
+                if (!m_ftp.completePendingCommand()) {
+                    throw new IOException(
+                        "Storing file through ftp failed: " + m_ftp.getReplyString()
+                    );
+                }
+            }
+        };
+    }
+
+    protected void renameTarget(String fromName, String toName) throws CourierException, IOException {
+        // some servers do not replace existing file on rename
+        m_ftp.deleteFile(toName);
+        if (!m_ftp.rename(fromName, toName)) throw ftpError("Renaming file");
+    }
+
+    protected void deleteTarget(String fileName) throws CourierException, IOException {
+        if (!m_ftp.deleteFile(fileName)) throw ftpError("Deleting file");
+    }
+
     public List timedFlush() {
         return null;
     }
@@ -45,6 +45,8 @@ import ru.rd.courier.scripting.TimedStringReceiver;
 import ru.rd.utils.LogHelper;
 
 import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.InputStreamReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -68,6 +70,7 @@ import org.apache.xpath.XPath;
 import org.apache.xpath.XPathContext;
 import org.apache.xml.utils.PrefixResolver;
 import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.PathNotFoundException;
 import com.jayway.jsonpath.ReadContext;
 import com.jayway.jsonpath.TypeRef;
 import com.jayway.jsonpath.Configuration;
@@ -85,16 +88,32 @@ public class JSONPathSource extends TimedStringReceiver implements DataSource {
     public static class ColumnSelectInfo {
         public final String m_name;
         public final String m_path;
+        private final JsonPath m_jsonPath;
 
         public ColumnSelectInfo(String name, String path) {
             m_name = name;
             m_path = path;
+            m_jsonPath = path.startsWith("$") ? JsonPath.compile(path) : null;
+        }
+
+        /**
+         * @return value of record key or, if column path starts with "$", value
+         * of json path evaluated against the record
+         */
+        public Object getValue(Map<String, Object> record) {
+            if (m_jsonPath == null) return record.get(m_path);
+            try {
+                return m_jsonPath.read(record);
+            } catch (PathNotFoundException e) {
+                return null;
+            }
         }
     }
 
     private final CourierLogger m_logger;
     protected final String m_recordSelector;
     private String m_encoding = null;
+    private boolean m_streaming = false;
 
     public JSONPathSource(
         CourierLogger logger, String recordSelector, List<ColumnSelectInfo> cols
@@ -108,6 +127,14 @@ public class JSONPathSource extends TimedStringReceiver implements DataSource {
         m_encoding = encoding;
     }
 
+    /**
+     * @param streaming whether to read records one by one by {@link JsonRecordReader}
+     * instead of parsing the whole document
+     */
+    public void setStreaming(boolean streaming) {
+        m_streaming = streaming;
+    }
+
     protected List<LinkWarning> timedProcess(String operation) throws CourierException {
         return null;
     }
@@ -130,6 +157,11 @@ public class JSONPathSource extends TimedStringReceiver implements DataSource {
 
     public final ResultSet getResultSet(InputStream is)
     throws IOException, SAXException {
+        if (m_streaming) {
+            return innerRequest(new JsonRecordReader(
+                new InputStreamReader(is, m_encoding == null ? "UTF-8" : m_encoding), m_recordSelector
+            ));
+        }
 		//try
 		//LogHelper.logStdWarning("LOG0", null, null);
 		ReadContext ctx = JsonPath.parse(is);
@@ -176,9 +208,10 @@ public class JSONPathSource extends TimedStringReceiver implements DataSource {
 
                 int i = 1;
                 for (ColumnSelectInfo ci: m_cols) {
-                    String val = "";
+                    String val;
                     try {
-                        val = rn.get(ci.m_path).toString();
+                        Object v = ci.getValue(rn);
+                        val = v == null ? null : v.toString();
                     } catch (Exception e) {
                         SQLException sqle = new SQLException();
                         sqle.initCause(e);
@@ -196,6 +229,19 @@ public class JSONPathSource extends TimedStringReceiver implements DataSource {
 					c++;
                 return c;
             }
+
+            public void close() throws SQLException {
+                super.close();
+                if (itr instanceof Closeable) {
+                    try {
+                        ((Closeable)itr).close();
+                    } catch (IOException e) {
+                        SQLException sqle = new SQLException();
+                        sqle.initCause(e);
+                        throw sqle;
+                    }
+                }
+            }
         };
 
         /*
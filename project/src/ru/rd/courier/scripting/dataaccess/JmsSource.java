@@ -32,6 +32,7 @@ package ru.rd.courier.scripting.dataaccess;
 
 import org.w3c.dom.Node;
 import ru.rd.courier.StringHandler;
+import ru.rd.courier.StringListHandler;
 import ru.rd.courier.TransferProcessResult;
 import ru.rd.courier.TransferResultListener;
 import ru.rd.courier.datalinks.JmsReceiverFactory;
@@ -46,8 +47,11 @@ import ru.rd.utils.KeepAlive;
 
 import javax.jms.*;
 import javax.naming.Context;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * User: AStepochkin
@@ -72,7 +76,31 @@ public class JmsSource extends KeepAlive implements StartStopListener {
     private int m_mesProcCount = 0;
     private boolean m_suspended;
 
+    private final StringListHandler m_batchHandler;
+    private final int m_batchSize;
+    private final int m_batchBytes;
+    private final long m_batchLatency;
+    private final int m_batchMaxAttempts;
+    private final long m_batchRetryInterval;
+    private Batch m_batch = null;
+    private Batch m_sentBatch = null;
+    private boolean m_connectionStopped = false;
+    private String m_failedMessageId = null;
+    private int m_failedAttempts = 0;
+
     public JmsSource(CourierLogger logger, ObjectPoolIntf threadPool, Timer timer, Node conf, StringHandler handler) {
+        this(logger, threadPool, timer, conf, handler, null);
+    }
+
+    /**
+     * @param batchHandler if not null and any of batch-size, batch-bytes
+     * attributes is specified messages are collected into batches
+     * handled by one call of this handler
+     */
+    public JmsSource(
+        CourierLogger logger, ObjectPoolIntf threadPool, Timer timer, Node conf,
+        StringHandler handler, StringListHandler batchHandler
+    ) {
         super(
             logger, threadPool, timer,
             DomHelper.getTimeNodeAttr(conf, "check-interval", 60*1000),
@@ -90,6 +118,12 @@ public class JmsSource extends KeepAlive implements StartStopListener {
         m_maxMessagesCount = DomHelper.getIntNodeAttr(conf, "max-message-count", 0);
         m_mesCount = 0;
         m_suspended = false;
+        m_batchSize = DomHelper.getIntNodeAttr(conf, "batch-size", 0);
+        m_batchBytes = DomHelper.getIntNodeAttr(conf, "batch-bytes", 0);
+        m_batchLatency = DomHelper.getTimeNodeAttr(conf, "batch-latency", 100);
+        m_batchMaxAttempts = DomHelper.getIntNodeAttr(conf, "batch-max-attempts", 10);
+        m_batchRetryInterval = DomHelper.getTimeNodeAttr(conf, "batch-retry-interval", 5*1000);
+        m_batchHandler = (m_batchSize > 1 || m_batchBytes > 0) ? batchHandler : null;
         setState(c_stateStopped);
     }
 
@@ -103,15 +137,268 @@ public class JmsSource extends KeepAlive implements StartStopListener {
 
     private class ResultListener implements TransferResultListener {
         public void transferFinished(TransferProcessResult result) {
-            boolean needResume = false;
+            messageFinished(1);
+        }
+    }
+
+    private void messageFinished(int count) {
+        boolean needResume = false;
+        synchronized(lock) {
+            m_mesCount -= count;
+            needResume = m_maxMessagesCount > 0 && m_mesCount <= m_maxMessagesCount / 2;
+        }
+        if (needResume) resumeCheck();
+    }
+
+    /**
+     * Messages handled by one transfer process. Acknowledgement of a JMS
+     * session message acknowledges all messages delivered by the session
+     * so only one batch is sent at a time and no message is delivered
+     * until it is acknowledged: listener filling the batch waits for its
+     * acknowledgement, batch flushed by latency timer stops the connection
+     * till the acknowledgement. Session is used by the listener thread only
+     * or while the connection is stopped.
+     */
+    private class Batch implements TransferResultListener {
+        private final List<String> m_texts = new ArrayList<String>();
+        private int m_bytes = 0;
+        private String m_firstId = null;
+        private Message m_last = null;
+        private TimerTask m_flushTask = null;
+        private boolean m_finished = false;
+        private boolean m_succeeded = false;
+
+        public void add(Message message, String text) throws JMSException {
+            if (m_texts.isEmpty()) m_firstId = message.getJMSMessageID();
+            m_texts.add(text);
+            m_bytes += text.length();
+            m_last = message;
+        }
+
+        public boolean isFull() {
+            return
+                (m_batchSize > 0 && m_texts.size() >= m_batchSize) ||
+                (m_batchBytes > 0 && m_bytes >= m_batchBytes);
+        }
+
+        public int size() {
+            return m_texts.size();
+        }
+
+        public void transferFinished(TransferProcessResult result) {
+            batchFinished(this, result.getErrorCount() == 0);
+        }
+
+        public String toString() {
+            return "batch of " + m_texts.size() + " messages";
+        }
+    }
+
+    private void batchFinished(Batch batch, boolean succeeded) {
+        boolean complete = false;
+        synchronized(lock) {
+            if (batch == m_sentBatch && !batch.m_finished) {
+                batch.m_finished = true;
+                batch.m_succeeded = succeeded;
+                // listener waiting for the batch completes it itself
+                complete = m_connectionStopped;
+                lock.notifyAll();
+            }
+        }
+        if (complete) completeBatch(batch);
+        messageFinished(batch.size());
+    }
+
+    /**
+     * Acknowledges finished batch or recovers the session to receive its
+     * messages again. Batch failed batch-max-attempts times is logged and
+     * acknowledged. Called by the message listener or with the connection
+     * stopped.
+     * @return true if the session is recovered while the connection is
+     * running so that the messages are received again when the listener
+     * returns
+     */
+    private boolean completeBatch(Batch batch) {
+        boolean ack;
+        boolean skip = false;
+        int attempts;
+        Session session;
+        synchronized(lock) {
+            if (batch != m_sentBatch) return false;
+            session = m_session;
+            ack = batch.m_succeeded;
+            if (!ack && batch.m_firstId != null && batch.m_firstId.equals(m_failedMessageId)) {
+                m_failedAttempts++;
+            } else {
+                m_failedMessageId = ack ? null : batch.m_firstId;
+                m_failedAttempts = ack ? 0 : 1;
+            }
+            attempts = m_failedAttempts;
+            if (!ack && m_batchMaxAttempts > 0 && attempts >= m_batchMaxAttempts) {
+                ack = true;
+                skip = true;
+                m_failedMessageId = null;
+                m_failedAttempts = 0;
+            }
+        }
+        if (skip) {
+            m_logger.error(
+                m_desc + ": " + batch + " failed " + attempts +
+                " times and is skipped. Messages: " + batch.m_texts
+            );
+        } else if (!ack) {
+            m_logger.warning(
+                m_desc + ": " + batch + " failed " + attempts +
+                " times. Not acknowledged messages are received again"
+            );
+        }
+        try {
+            if (ack) batch.m_last.acknowledge();
+            else session.recover();
+        } catch (JMSException e) {
+            m_logger.error(
+                "JmsSource." + (ack ? "acknowledge" : "recover") + ": " +
+                JmsReceiver.jmsErrorMessage(e), e
+            );
+            invalidate();
+            return false;
+        }
+
+        Connection restart = null;
+        synchronized(lock) {
+            if (batch == m_sentBatch) {
+                m_sentBatch = null;
+                if (m_connectionStopped) {
+                    m_connectionStopped = false;
+                    restart = m_connection;
+                }
+                lock.notifyAll();
+            }
+        }
+        if (ack) {
+            if (restart != null) startConnection(restart);
+            return false;
+        }
+        if (restart != null) {
+            final Connection con = restart;
+            m_timer.schedule(
+                new TimerTask() {
+                    public void run() {
+                        synchronized(lock) {
+                            if (con != m_connection) return;
+                        }
+                        startConnection(con);
+                    }
+                },
+                m_batchRetryInterval
+            );
+            return false;
+        }
+        return true;
+    }
+
+    private void startConnection(Connection con) {
+        try {
+            con.start();
+        } catch (JMSException e) {
+            m_logger.error("JmsSource.start: " + JmsReceiver.jmsErrorMessage(e), e);
+            invalidate();
+        }
+    }
+
+    /**
+     * @param inListener whether called by the message listener which then
+     * waits for the batch acknowledgement, otherwise the connection is
+     * stopped till the acknowledgement
+     */
+    private void flushBatch(Batch batch, boolean inListener) throws InterruptedException {
+        Connection stopped = null;
+        if (!inListener) {
+            Connection con;
             synchronized(lock) {
-                m_mesCount--;
-                needResume = m_maxMessagesCount > 0 && m_mesCount <= m_maxMessagesCount / 2;
+                if (batch != m_batch || m_connection == null) return;
+                con = m_connection;
+            }
+            // waits for the listener adding a message
+            try {
+                con.stop();
+            } catch (JMSException e) {
+                m_logger.error("JmsSource.stop: " + JmsReceiver.jmsErrorMessage(e), e);
+                invalidate();
+                return;
+            }
+            stopped = con;
+        }
+        synchronized(lock) {
+            if (batch == m_batch) {
+                m_batch = null;
+                if (batch.m_flushTask != null) batch.m_flushTask.cancel();
+                m_sentBatch = batch;
+                m_connectionStopped = (stopped != null);
+                stopped = null;
+            }
+        }
+        if (stopped != null) {
+            // the listener has flushed the batch meanwhile
+            startConnection(stopped);
+            return;
+        }
+
+        debug("flush " + batch + " Count = " + m_mesCount);
+        m_mesProcCount++;
+        boolean handleRes = m_batchHandler.handle(batch.m_texts, batch);
+        m_mesProcCount--;
+        if (!handleRes) {
+            debug(batch + " not registered");
+            batchFinished(batch, false);
+        }
+        if (inListener) {
+            synchronized(lock) {
+                while (m_sentBatch == batch && !batch.m_finished) lock.wait();
+            }
+            if (completeBatch(batch)) {
+                // delays receiving the messages again
+                final long end = System.currentTimeMillis() + m_batchRetryInterval;
+                synchronized(lock) {
+                    long left;
+                    while (m_state == c_stateStarted && (left = end - System.currentTimeMillis()) > 0) {
+                        lock.wait(left);
+                    }
+                }
             }
-            if (needResume) resumeCheck();
         }
     }
 
+    private void addToBatch(Message message, String text) throws JMSException, InterruptedException {
+        final Batch batch;
+        synchronized(lock) {
+            if (m_batch == null) {
+                final Batch b = new Batch();
+                final Runnable flush = new Runnable() {
+                    public void run() {
+                        try {
+                            flushBatch(b, false);
+                        } catch (Exception e) {
+                            m_logger.warning(e);
+                        }
+                    }
+                };
+                b.m_flushTask = new TimerTask() {
+                    public void run() {
+                        // stopping the connection may wait for the listener
+                        m_threads.exec(flush);
+                    }
+                };
+                m_batch = b;
+                m_timer.schedule(b.m_flushTask, m_batchLatency);
+            }
+            batch = m_batch;
+            batch.add(message, text);
+            if (!batch.isFull()) return;
+        }
+        flushBatch(batch, true);
+    }
+
     private void mdebug(Message message, String mes) throws JMSException {
         debug(
             "onMessage " + message.getJMSMessageID() +
@@ -137,6 +424,10 @@ public class JmsSource extends KeepAlive implements StartStopListener {
                 if (m_maxMessagesCount > 0 && m_mesCount >= m_maxMessagesCount) {
                     suspend();
                 }
+                if (m_batchHandler != null) {
+                    addToBatch(message, ((TextMessage)message).getText());
+                    return;
+                }
                 m_mesProcCount++;
                 boolean handleRes = m_handler.handle(((TextMessage)message).getText(), m_resHandler);
                 m_mesProcCount--;
@@ -150,6 +441,8 @@ public class JmsSource extends KeepAlive implements StartStopListener {
                 }
             } catch (JMSException e) {
                 m_logger.error("JmsSource.onMessage: " + JmsReceiver.jmsErrorMessage(e), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
     }
@@ -235,6 +528,18 @@ public class JmsSource extends KeepAlive implements StartStopListener {
     }
 
     protected Runnable getCleanupWork() {
+        synchronized(lock) {
+            // not sent messages are received again after reconnect
+            Batch batch = m_batch;
+            if (batch != null) {
+                m_batch = null;
+                if (batch.m_flushTask != null) batch.m_flushTask.cancel();
+                m_mesCount -= batch.size();
+            }
+            m_sentBatch = null;
+            m_connectionStopped = false;
+            lock.notifyAll();
+        }
         if (m_connection == null) return null;
         InvokeAllRunnable cw = new InvokeAllRunnable(m_logger, m_desc + " cleaner");
         if (m_receiver != null) cw.add(m_receiver, MessageConsumer.class, "close");
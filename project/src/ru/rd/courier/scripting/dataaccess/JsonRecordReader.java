@@ -0,0 +1,386 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess;
+
+import ru.rd.courier.CourierException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Incremental JSON reader returning records one by one without loading
+ * the whole document. Only the current record is materialized (objects as
+ * LinkedHashMap, arrays as ArrayList, numbers as Integer, Long, BigInteger
+ * or Double), everything outside records path is skipped.
+ *
+ * Records path is restricted to "$" followed by ".name", "['name']",
+ * ".*" (any key) and "[*]" (any array element) steps. If the path selects an
+ * array its elements are records, if it selects an object it is a record.
+ */
+public class JsonRecordReader implements Iterator<HashMap<String, Object>>, Closeable {
+    private static final String c_anyKey = "*";
+
+    private final Reader m_reader;
+    private final String[] m_steps; // null element is array step
+    private final char[] m_buf = new char[8*1024];
+    private int m_pos = 0;
+    private int m_length = 0;
+    private long m_offset = 0;
+
+    private static class Frame {
+        public final boolean m_array;
+        public final boolean m_records;
+        public final int m_step;
+        public boolean m_first = true;
+
+        public Frame(boolean array, boolean records, int step) {
+            m_array = array;
+            m_records = records;
+            m_step = step;
+        }
+    }
+
+    private final LinkedList<Frame> m_frames = new LinkedList<Frame>();
+    private boolean m_started = false;
+    private HashMap<String, Object> m_next = null;
+    private int m_recordCount = 0;
+
+    public JsonRecordReader(Reader reader, String recordsPath) {
+        m_reader = reader;
+        m_steps = parsePath(recordsPath);
+    }
+
+    private static String[] parsePath(String path) {
+        List<String> steps = new LinkedList<String>();
+        String p = path.trim();
+        int pos = p.startsWith("$") ? 1 : 0;
+        while (pos < p.length()) {
+            char c = p.charAt(pos);
+            if (c == '.' && pos + 1 < p.length() && p.charAt(pos + 1) != '.') {
+                int end = pos + 1;
+                while (end < p.length() && p.charAt(end) != '.' && p.charAt(end) != '[') end++;
+                steps.add(p.substring(pos + 1, end));
+                pos = end;
+            } else if (p.startsWith("[*]", pos)) {
+                steps.add(null);
+                pos += 3;
+            } else if (c == '[' && pos + 1 < p.length() && (p.charAt(pos + 1) == '\'' || p.charAt(pos + 1) == '"')) {
+                int end = p.indexOf(p.charAt(pos + 1), pos + 2);
+                if (end < 0 || end + 1 >= p.length() || p.charAt(end + 1) != ']') break;
+                steps.add(p.substring(pos + 2, end));
+                pos = end + 2;
+            } else {
+                break;
+            }
+        }
+        if (pos < p.length()) {
+            throw new CourierException(
+                "Streaming records path '" + path + "' is not supported after position " + pos);
+        }
+        return steps.toArray(new String[steps.size()]);
+    }
+
+    public int getRecordCount() {
+        return m_recordCount;
+    }
+
+    public boolean hasNext() {
+        if (m_next == null) {
+            try {
+                m_next = readRecord();
+            } catch (IOException e) {
+                throw new CourierException(e);
+            }
+        }
+        return m_next != null;
+    }
+
+    public HashMap<String, Object> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        HashMap<String, Object> ret = m_next;
+        m_next = null;
+        m_recordCount++;
+        return ret;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() throws IOException {
+        m_frames.clear();
+        m_started = true;
+        m_reader.close();
+    }
+
+    private HashMap<String, Object> readRecord() throws IOException {
+        if (!m_started) {
+            m_started = true;
+            HashMap<String, Object> r = enterValue(0);
+            if (r != null) return r;
+        }
+        while (!m_frames.isEmpty()) {
+            Frame f = m_frames.getLast();
+            char c = skipBlanks();
+            if (c == (f.m_array ? ']' : '}')) {
+                m_pos++;
+                m_frames.removeLast();
+                continue;
+            }
+            if (f.m_first) {
+                f.m_first = false;
+            } else {
+                expect(',');
+                skipBlanks();
+            }
+            HashMap<String, Object> r;
+            if (f.m_array) {
+                r = f.m_records ? toRecord(readValue(true)) : enterValue(f.m_step + 1);
+            } else {
+                String key = readString();
+                skipBlanks();
+                expect(':');
+                String step = m_steps[f.m_step];
+                if (step != null && (step.equals(c_anyKey) || step.equals(key))) {
+                    r = enterValue(f.m_step + 1);
+                } else {
+                    readValue(false);
+                    r = null;
+                }
+            }
+            if (r != null) return r;
+        }
+        return null;
+    }
+
+    /**
+     * Processes value selected by first <code>step</code> path steps: pushes
+     * frame for container to be searched further, returns object record
+     * or skips value not matching the path.
+     */
+    private HashMap<String, Object> enterValue(int step) throws IOException {
+        char c = skipBlanks();
+        if (step == m_steps.length) {
+            if (c == '[') {
+                m_pos++;
+                m_frames.add(new Frame(true, true, step));
+                return null;
+            }
+            return toRecord(readValue(true));
+        }
+        boolean arrayStep = m_steps[step] == null;
+        if (c == (arrayStep ? '[' : '{')) {
+            m_pos++;
+            m_frames.add(new Frame(arrayStep, false, step));
+        } else {
+            readValue(false);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private HashMap<String, Object> toRecord(Object value) {
+        if (!(value instanceof HashMap)) {
+            throw new CourierException("JSON record at " + (m_offset + m_pos) + " is not an object");
+        }
+        return (HashMap<String, Object>)value;
+    }
+
+    private boolean fill() throws IOException {
+        if (m_pos < m_length) return true;
+        m_offset += m_length;
+        m_length = m_reader.read(m_buf);
+        m_pos = 0;
+        if (m_length < 0) {
+            m_length = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private char peek() throws IOException {
+        if (!fill()) throw new CourierException("Unexpected end of JSON");
+        return m_buf[m_pos];
+    }
+
+    private char read() throws IOException {
+        char c = peek();
+        m_pos++;
+        return c;
+    }
+
+    private char skipBlanks() throws IOException {
+        while (true) {
+            char c = peek();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+            m_pos++;
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        char c = read();
+        if (c != expected) {
+            throw new CourierException(
+                "JSON '" + expected + "' expected at " + (m_offset + m_pos - 1) + " but found '" + c + "'");
+        }
+    }
+
+    private Object readValue(boolean build) throws IOException {
+        char c = skipBlanks();
+        switch (c) {
+            case '{': {
+                m_pos++;
+                HashMap<String, Object> ret = build ? new LinkedHashMap<String, Object>() : null;
+                if (skipBlanks() == '}') {
+                    m_pos++;
+                    return ret;
+                }
+                while (true) {
+                    skipBlanks();
+                    String key = readString();
+                    skipBlanks();
+                    expect(':');
+                    Object value = readValue(build);
+                    if (build) ret.put(key, value);
+                    if (skipBlanks() == '}') {
+                        m_pos++;
+                        return ret;
+                    }
+                    expect(',');
+                }
+            }
+            case '[': {
+                m_pos++;
+                List<Object> ret = build ? new ArrayList<Object>() : null;
+                if (skipBlanks() == ']') {
+                    m_pos++;
+                    return ret;
+                }
+                while (true) {
+                    Object value = readValue(build);
+                    if (build) ret.add(value);
+                    if (skipBlanks() == ']') {
+                        m_pos++;
+                        return ret;
+                    }
+                    expect(',');
+                }
+            }
+            case '"': {
+                return readString();
+            }
+            default: {
+                String word = readWord();
+                if (word.equals("null")) return null;
+                if (word.equals("true")) return Boolean.TRUE;
+                if (word.equals("false")) return Boolean.FALSE;
+                return build ? parseNumber(word) : null;
+            }
+        }
+    }
+
+    private String readWord() throws IOException {
+        StringBuffer sb = new StringBuffer();
+        while (fill()) {
+            char c = m_buf[m_pos];
+            if (
+                (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')
+                || c == '-' || c == '+' || c == '.' || c == 'E'
+            ) {
+                sb.append(c);
+                m_pos++;
+            } else {
+                break;
+            }
+        }
+        if (sb.length() == 0) {
+            throw new CourierException("Invalid JSON value at " + (m_offset + m_pos));
+        }
+        return sb.toString();
+    }
+
+    private Object parseNumber(String word) {
+        try {
+            if (word.indexOf('.') >= 0 || word.indexOf('e') >= 0 || word.indexOf('E') >= 0) {
+                return Double.valueOf(word);
+            }
+            long v = Long.parseLong(word);
+            if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) return (int)v;
+            return v;
+        } catch (NumberFormatException e) {
+            try {
+                return new BigInteger(word);
+            } catch (NumberFormatException e1) {
+                throw new CourierException("Invalid JSON value '" + word + "' at " + (m_offset + m_pos));
+            }
+        }
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        StringBuffer sb = new StringBuffer();
+        while (true) {
+            int start = m_pos;
+            while (m_pos < m_length && m_buf[m_pos] != '"' && m_buf[m_pos] != '\\') m_pos++;
+            sb.append(m_buf, start, m_pos - start);
+            char c = read();
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            c = read();
+            switch (c) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u': {
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) code = code * 16 + Character.digit(read(), 16);
+                    sb.append((char)code);
+                    break;
+                }
+                default: sb.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess;
+
+import ru.rd.courier.CourierException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Bounded persistent queue of strings kept in a directory as a log of
+ * segment files. Messages are read in portions which are acknowledged in
+ * the order they were read. Acknowledged position is stored in a separate
+ * file so not acknowledged messages are read again after restart.
+ * Producers wait while the queue holds capacity not acknowledged messages.
+ */
+public class LocalQueue {
+    public static final int c_defaultSegmentSize = 16*1024*1024;
+    private static final String c_segmentExt = ".seg";
+    private static final String c_posFileName = "queue.pos";
+    private static final Charset c_charset = Charset.forName("UTF-8");
+
+    private static final Map<String, LocalQueue> s_queues = new LinkedHashMap<String, LocalQueue>();
+
+    private final String m_name;
+    private final File m_dir;
+    private final int m_capacity;
+    private final int m_segmentSize;
+    private final LinkedList<Long> m_segments = new LinkedList<Long>();
+    private final FileChannel m_posChannel;
+    private final ByteBuffer m_posBuffer = ByteBuffer.allocate(16);
+
+    private DataOutputStream m_out;
+    private long m_writeSegment;
+    private long m_writePos;
+
+    private DataInputStream m_in = null;
+    private long m_readSegment;
+    private long m_readPos;
+    private long m_readEnd;
+
+    private long m_ackSegment;
+    private long m_ackPos;
+
+    private int m_count;
+    private int m_unread;
+    private int m_generation = 0;
+    private final LinkedList<Portion> m_portions = new LinkedList<Portion>();
+    private Runnable m_listener = null;
+    private boolean m_closed = false;
+    private long m_putCount = 0;
+    private long m_ackCount = 0;
+
+    public static LocalQueue openQueue(
+        String name, File dir, int capacity, int segmentSize
+    ) throws IOException {
+        synchronized (s_queues) {
+            if (s_queues.containsKey(name)) {
+                throw new CourierException("Local queue '" + name + "' already exists");
+            }
+            LocalQueue ret = new LocalQueue(name, dir, capacity, segmentSize);
+            s_queues.put(name, ret);
+            return ret;
+        }
+    }
+
+    public static LocalQueue getQueue(String name) {
+        synchronized (s_queues) {
+            LocalQueue ret = s_queues.get(name);
+            if (ret == null) {
+                throw new CourierException("There is no local queue '" + name + "'");
+            }
+            return ret;
+        }
+    }
+
+    public static void closeQueues() {
+        synchronized (s_queues) {
+            for (LocalQueue queue: s_queues.values()) {
+                queue.close();
+            }
+            s_queues.clear();
+        }
+    }
+
+    public static String getQueuesDesc() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (s_queues) {
+            for (LocalQueue queue: s_queues.values()) {
+                sb.append("  ").append(queue.getStateDesc()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Messages read at once. Portion is acknowledged by
+     * {@link LocalQueue#finished} or returned back by {@link LocalQueue#cancel}.
+     */
+    public static class Portion {
+        private final List<String> m_data;
+        private final long m_startSegment;
+        private final long m_startPos;
+        private final long m_segment;
+        private final long m_pos;
+        private final int m_generation;
+        private boolean m_finished = false;
+        private boolean m_succeeded = false;
+
+        private Portion(
+            List<String> data, long startSegment, long startPos,
+            long segment, long pos, int generation
+        ) {
+            m_data = data;
+            m_startSegment = startSegment;
+            m_startPos = startPos;
+            m_segment = segment;
+            m_pos = pos;
+            m_generation = generation;
+        }
+
+        public List<String> getData() {
+            return m_data;
+        }
+
+        public int size() {
+            return m_data.size();
+        }
+    }
+
+    public LocalQueue(String name, File dir, int capacity, int segmentSize) throws IOException {
+        if (capacity < 1) throw new IllegalArgumentException("Local queue capacity must be > 0");
+        m_name = name;
+        m_dir = dir;
+        m_capacity = capacity;
+        m_segmentSize = segmentSize;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create local queue directory " + dir.getAbsolutePath());
+        }
+
+        for (File f: dir.listFiles()) {
+            String fname = f.getName();
+            if (!fname.endsWith(c_segmentExt)) continue;
+            try {
+                m_segments.add(Long.parseLong(fname.substring(0, fname.length() - c_segmentExt.length())));
+            } catch (NumberFormatException e) {
+                // not a segment
+            }
+        }
+        Collections.sort(m_segments);
+
+        m_posChannel = new RandomAccessFile(new File(dir, c_posFileName), "rw").getChannel();
+        if (m_posChannel.size() >= 16) {
+            m_posChannel.read(m_posBuffer, 0);
+            m_posBuffer.flip();
+            m_ackSegment = m_posBuffer.getLong();
+            m_ackPos = m_posBuffer.getLong();
+        } else {
+            m_ackSegment = m_segments.isEmpty() ? 0 : m_segments.getFirst();
+            m_ackPos = 0;
+        }
+        deleteSegmentsBefore(m_ackSegment);
+        if (m_segments.isEmpty() || m_segments.getLast() < m_ackSegment) {
+            m_segments.add(m_ackSegment);
+            m_ackPos = 0;
+        }
+
+        m_count = 0;
+        for (long segment: m_segments) {
+            if (segment < m_ackSegment) continue;
+            m_writePos = scanSegment(segment, segment == m_ackSegment ? m_ackPos : 0);
+        }
+        m_writeSegment = m_segments.getLast();
+        RandomAccessFile last = new RandomAccessFile(getSegmentFile(m_writeSegment), "rw");
+        try {
+            // drops incomplete message written before crash
+            if (last.length() > m_writePos) last.setLength(m_writePos);
+        } finally {
+            last.close();
+        }
+        m_out = openOutput(m_writeSegment);
+
+        m_unread = m_count;
+        m_readSegment = m_ackSegment;
+        m_readPos = m_ackPos;
+        m_readEnd = getSegmentEnd(m_readSegment);
+    }
+
+    private File getSegmentFile(long segment) {
+        return new File(m_dir, String.format("%016d", segment) + c_segmentExt);
+    }
+
+    private DataOutputStream openOutput(long segment) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(getSegmentFile(segment), true), 64*1024
+        ));
+    }
+
+    /**
+     * Counts complete messages of the segment starting from the position.
+     * @return end position of the last complete message
+     */
+    private long scanSegment(long segment, long pos) throws IOException {
+        File file = getSegmentFile(segment);
+        if (!file.exists()) return 0;
+        final long length = file.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64*1024));
+        try {
+            if (in.skip(pos) < pos) return length;
+            while (pos + 4 <= length) {
+                int size = in.readInt();
+                if (size < 0 || pos + 4 + size > length) break;
+                if (in.skipBytes(size) < size) break;
+                pos += 4 + size;
+                m_count++;
+            }
+        } finally {
+            in.close();
+        }
+        return pos;
+    }
+
+    private long getSegmentEnd(long segment) {
+        return segment == m_writeSegment ? Long.MAX_VALUE : getSegmentFile(segment).length();
+    }
+
+    private void checkOpen() {
+        if (m_closed) throw new CourierException("Local queue '" + m_name + "' is closed");
+    }
+
+    public synchronized void setListener(Runnable listener) {
+        m_listener = listener;
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    public int getCapacity() {
+        return m_capacity;
+    }
+
+    public synchronized int size() {
+        return m_count;
+    }
+
+    /**
+     * Adds message to the queue waiting at most timeout milliseconds while
+     * the queue is full.
+     * @return false if the queue is still full after timeout
+     */
+    public boolean put(String data, long timeout) throws IOException, InterruptedException {
+        byte[] bytes = data.getBytes(c_charset);
+        Runnable listener;
+        synchronized (this) {
+            checkOpen();
+            if (m_count >= m_capacity) {
+                final long end = System.currentTimeMillis() + timeout;
+                while (m_count >= m_capacity) {
+                    long rest = end - System.currentTimeMillis();
+                    if (rest <= 0) return false;
+                    wait(rest);
+                    checkOpen();
+                }
+            }
+            if (m_writePos >= m_segmentSize) rollSegment();
+            m_out.writeInt(bytes.length);
+            m_out.write(bytes);
+            m_out.flush();
+            m_writePos += 4 + bytes.length;
+            m_count++;
+            m_unread++;
+            m_putCount++;
+            listener = m_listener;
+        }
+        if (listener != null) listener.run();
+        return true;
+    }
+
+    private void rollSegment() throws IOException {
+        m_out.close();
+        if (m_readSegment == m_writeSegment) m_readEnd = m_writePos;
+        m_writeSegment++;
+        m_segments.add(m_writeSegment);
+        m_writePos = 0;
+        m_out = openOutput(m_writeSegment);
+    }
+
+    private void closeInput() {
+        if (m_in == null) return;
+        try { m_in.close(); } catch (IOException e) { /* nothing to do */ }
+        m_in = null;
+    }
+
+    private void openInput() throws IOException {
+        FileInputStream fis = new FileInputStream(getSegmentFile(m_readSegment));
+        fis.getChannel().position(m_readPos);
+        m_in = new DataInputStream(new BufferedInputStream(fis, 64*1024));
+    }
+
+    /**
+     * Reads next not read messages.
+     * @param maxBytes max summary length of messages or 0 for no limit
+     * @return null if there are no messages to read
+     */
+    public synchronized Portion poll(int maxCount, int maxBytes) throws IOException {
+        if (m_closed || m_unread == 0) return null;
+        final long startSegment = m_readSegment;
+        final long startPos = m_readPos;
+        List<String> data = new ArrayList<String>(Math.min(maxCount, m_unread));
+        int bytes = 0;
+        while (m_unread > 0 && data.size() < maxCount && (maxBytes <= 0 || bytes < maxBytes)) {
+            while (m_readPos >= m_readEnd) {
+                closeInput();
+                m_readSegment = m_segments.get(m_segments.indexOf(m_readSegment) + 1);
+                m_readPos = 0;
+                m_readEnd = getSegmentEnd(m_readSegment);
+            }
+            if (m_in == null) openInput();
+            int size = m_in.readInt();
+            byte[] buf = new byte[size];
+            m_in.readFully(buf);
+            data.add(new String(buf, c_charset));
+            m_readPos += 4 + size;
+            bytes += size;
+            m_unread--;
+        }
+        Portion ret = new Portion(data, startSegment, startPos, m_readSegment, m_readPos, m_generation);
+        m_portions.add(ret);
+        return ret;
+    }
+
+    /**
+     * Returns the last read portion back to the queue
+     */
+    public synchronized void cancel(Portion portion) throws IOException {
+        if (m_closed || portion.m_generation != m_generation) return;
+        if (m_portions.isEmpty() || m_portions.getLast() != portion) {
+            finished(portion, false);
+            return;
+        }
+        m_portions.removeLast();
+        m_unread += portion.size();
+        setReadPosition(portion.m_startSegment, portion.m_startPos);
+    }
+
+    /**
+     * Acknowledges portion if succeeded and all portions read before are
+     * acknowledged. If portion failed all not acknowledged messages are
+     * read again.
+     */
+    public synchronized void finished(Portion portion, boolean succeeded) throws IOException {
+        if (m_closed || portion.m_generation != m_generation) return;
+        portion.m_finished = true;
+        portion.m_succeeded = succeeded;
+        boolean moved = false;
+        while (!m_portions.isEmpty()) {
+            Portion p = m_portions.getFirst();
+            if (!p.m_finished) break;
+            if (!p.m_succeeded) {
+                rewind();
+                break;
+            }
+            m_portions.removeFirst();
+            m_ackSegment = p.m_segment;
+            m_ackPos = p.m_pos;
+            m_count -= p.size();
+            m_ackCount += p.size();
+            moved = true;
+        }
+        if (moved) {
+            m_posBuffer.clear();
+            m_posBuffer.putLong(m_ackSegment);
+            m_posBuffer.putLong(m_ackPos);
+            m_posBuffer.flip();
+            m_posChannel.write(m_posBuffer, 0);
+            deleteSegmentsBefore(m_ackSegment);
+            notifyAll();
+        }
+    }
+
+    private void rewind() {
+        m_generation++;
+        m_portions.clear();
+        m_unread = m_count;
+        setReadPosition(m_ackSegment, m_ackPos);
+    }
+
+    private void setReadPosition(long segment, long pos) {
+        closeInput();
+        m_readSegment = segment;
+        m_readPos = pos;
+        m_readEnd = getSegmentEnd(segment);
+    }
+
+    private void deleteSegmentsBefore(long segment) {
+        while (!m_segments.isEmpty() && m_segments.getFirst() < segment) {
+            getSegmentFile(m_segments.removeFirst()).delete();
+        }
+    }
+
+    public synchronized void close() {
+        if (m_closed) return;
+        m_closed = true;
+        closeInput();
+        try { m_out.close(); } catch (IOException e) { /* nothing to do */ }
+        try { m_posChannel.close(); } catch (IOException e) { /* nothing to do */ }
+        notifyAll();
+    }
+
+    public synchronized String getStateDesc() {
+        return
+            m_name + ": count=" + m_count + " unread=" + m_unread +
+            " capacity=" + m_capacity + " segments=" + m_segments.size() +
+            " put=" + m_putCount + " acknowledged=" + m_ackCount;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess;
+
+import org.w3c.dom.Node;
+import ru.rd.courier.StringHandler;
+import ru.rd.courier.StringListHandler;
+import ru.rd.courier.TransferProcessResult;
+import ru.rd.courier.TransferResultListener;
+import ru.rd.courier.logging.CourierLogger;
+import ru.rd.courier.utils.DomHelper;
+import ru.rd.scheduling.leveled.StartStopListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Realtime source reading messages from the {@link LocalQueue}. The queue
+ * is opened when the source is created so producers can put messages even
+ * while the source is stopped. Messages not registered because the pipeline
+ * is busy or failed to be processed are read again after retry interval.
+ */
+public class LocalQueueSource implements StartStopListener {
+    private final CourierLogger m_logger;
+    private final Timer m_timer;
+    private final LocalQueue m_queue;
+    private final StringHandler m_handler;
+    private final StringListHandler m_batchHandler;
+    private final int m_batchSize;
+    private final int m_batchBytes;
+    private final int m_maxMessagesCount;
+    private final long m_retryInterval;
+    private final Runnable m_drainer;
+    private final Object lock = new Object();
+
+    private boolean m_started = false;
+    private boolean m_draining = false;
+    private boolean m_drainAgain = false;
+    private boolean m_retryScheduled = false;
+    private int m_mesCount = 0;
+
+    public LocalQueueSource(
+        CourierLogger logger, Timer timer, Node conf, File dir,
+        StringHandler handler, StringListHandler batchHandler
+    ) throws IOException {
+        m_logger = logger;
+        m_timer = timer;
+        m_handler = handler;
+        m_batchSize = DomHelper.getIntNodeAttr(conf, "batch-size", 0);
+        m_batchBytes = DomHelper.getIntNodeAttr(conf, "batch-bytes", 0);
+        m_batchHandler = (m_batchSize > 1 || m_batchBytes > 0) ? batchHandler : null;
+        m_maxMessagesCount = DomHelper.getIntNodeAttr(conf, "max-message-count", 0);
+        m_retryInterval = DomHelper.getTimeNodeAttr(conf, "retry-interval", 10*1000);
+        m_queue = LocalQueue.openQueue(
+            DomHelper.getNodeAttr(conf, "queue", true), dir,
+            DomHelper.getIntNodeAttr(conf, "capacity", 10000),
+            DomHelper.getIntNodeAttr(conf, "segment-size", LocalQueue.c_defaultSegmentSize)
+        );
+        m_drainer = new Runnable() {
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    public LocalQueue getQueue() {
+        return m_queue;
+    }
+
+    public void start(Date parentStart) {
+        synchronized(lock) {
+            m_started = true;
+        }
+        m_queue.setListener(m_drainer);
+        drain();
+    }
+
+    public void stop() {
+        m_queue.setListener(null);
+        synchronized(lock) {
+            m_started = false;
+        }
+    }
+
+    private LocalQueue.Portion nextPortion() throws IOException {
+        synchronized(lock) {
+            while (true) {
+                LocalQueue.Portion ret = null;
+                if (
+                    m_started && !m_retryScheduled &&
+                    (m_maxMessagesCount <= 0 || m_mesCount < m_maxMessagesCount)
+                ) {
+                    if (m_batchHandler == null) {
+                        ret = m_queue.poll(1, 0);
+                    } else {
+                        ret = m_queue.poll(m_batchSize > 0 ? m_batchSize : Integer.MAX_VALUE, m_batchBytes);
+                    }
+                }
+                if (ret != null) {
+                    m_mesCount += ret.size();
+                    return ret;
+                }
+                if (!m_drainAgain) {
+                    m_draining = false;
+                    return null;
+                }
+                m_drainAgain = false;
+            }
+        }
+    }
+
+    /**
+     * Registers processes for available messages. Only one thread drains
+     * the queue at a time, others just ask it to look for messages again.
+     */
+    private void drain() {
+        synchronized(lock) {
+            if (m_draining) {
+                m_drainAgain = true;
+                return;
+            }
+            m_draining = true;
+        }
+        try {
+            LocalQueue.Portion portion;
+            while ((portion = nextPortion()) != null) {
+                handle(portion);
+            }
+        } catch (Exception e) {
+            synchronized(lock) {
+                m_draining = false;
+            }
+            m_logger.error(e);
+            scheduleRetry();
+        }
+    }
+
+    private void handle(final LocalQueue.Portion portion) throws IOException {
+        TransferResultListener resultHandler = new TransferResultListener() {
+            public void transferFinished(TransferProcessResult result) {
+                portionFinished(portion, result.getErrorCount() == 0);
+            }
+        };
+        boolean handleRes;
+        try {
+            if (m_batchHandler == null) {
+                handleRes = m_handler.handle(portion.getData().get(0), resultHandler);
+            } else {
+                handleRes = m_batchHandler.handle(portion.getData(), resultHandler);
+            }
+        } catch (Exception e) {
+            m_logger.error(e);
+            handleRes = false;
+        }
+        if (!handleRes) {
+            m_queue.cancel(portion);
+            synchronized(lock) {
+                m_mesCount -= portion.size();
+            }
+            scheduleRetry();
+        }
+    }
+
+    private void portionFinished(LocalQueue.Portion portion, boolean succeeded) {
+        try {
+            m_queue.finished(portion, succeeded);
+        } catch (IOException e) {
+            m_logger.error(e);
+        }
+        synchronized(lock) {
+            m_mesCount -= portion.size();
+        }
+        if (succeeded) {
+            drain();
+        } else {
+            m_logger.warning(
+                "Local queue '" + m_queue.getName() + "' " + portion.size() +
+                " messages failed and will be read again"
+            );
+            scheduleRetry();
+        }
+    }
+
+    private void scheduleRetry() {
+        synchronized(lock) {
+            if (m_retryScheduled) return;
+            m_retryScheduled = true;
+        }
+        m_timer.schedule(new TimerTask() {
+            public void run() {
+                synchronized(lock) {
+                    m_retryScheduled = false;
+                }
+                drain();
+            }
+        }, m_retryInterval);
+    }
+}
@@ -38,11 +38,9 @@ import ru.rd.courier.scripting.ReceiverTimeCounter;
 import ru.rd.courier.scripting.StandardOperationSupport;
 import ru.rd.courier.scripting.LinkWarning;
 import ru.rd.courier.scripting.dataaccess.jdbc.JdbcReceiver;
+import ru.rd.courier.utils.CachedDateFormat;
 
 import java.sql.Connection;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
 
 public class LoggingDataReceiver implements DataReceiver, JdbcReceiver, ReceiverTimeCounter, StandardOperationSupport {
@@ -51,7 +49,7 @@ public class LoggingDataReceiver implements DataReceiver, JdbcReceiver, Receiver
     protected final DataLogger m_dataLogger;
     protected final String m_sRule;
 
-    private static DateFormat s_dataFormat = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
+    protected static final CachedDateFormat s_dataFormat = new CachedDateFormat("dd-MM-yyyy HH:mm:ss");
 
     public LoggingDataReceiver(CourierLogger logger, DataReceiver dr, DataLogger dataLogger, String sRule) {
         m_logger = logger;
@@ -61,10 +59,15 @@ public class LoggingDataReceiver implements DataReceiver, JdbcReceiver, Receiver
     }
 
     public final List<LinkWarning> process(Object operation) throws CourierException {
-        m_dataLogger.log("/* " + m_sRule + " " + s_dataFormat.format(new Date()) + " */\n");
-        m_dataLogger.log(operation.toString());
-        m_dataLogger.log("\n");
-        m_dataLogger.flush();
+        // logged as one message so that operations of concurrent processes do not mix;
+        // data logger is flushed by the process end
+        final String op = operation.toString();
+        final String rule = String.valueOf(m_sRule);
+        final String date = s_dataFormat.format(System.currentTimeMillis());
+        StringBuilder msg = new StringBuilder(op.length() + rule.length() + date.length() + 10);
+        msg.append("/* ").append(rule).append(' ').append(date).append(" */\n");
+        msg.append(op).append('\n');
+        m_dataLogger.log(msg.toString());
         return m_dr.process(operation);
     }
 
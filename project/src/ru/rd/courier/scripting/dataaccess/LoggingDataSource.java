@@ -37,23 +37,18 @@ import ru.rd.courier.scripting.DataSource;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
 
 public class LoggingDataSource extends LoggingDataReceiver implements DataSource {
-    private static DateFormat s_dataFormat = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
-
     public LoggingDataSource(CourierLogger logger, DataSource ds, DataLogger dataLogger, String sRule) {
         super(logger, ds, dataLogger, sRule);
     }
 
     public ResultSet request(String query) throws CourierException {
-        m_dataLogger.log("/* " + (m_sRule != null ? (m_sRule + " ") : "") + s_dataFormat.format(new Date()) + "\n");
-        m_dataLogger.log(query);
-        m_dataLogger.log("\n*/\n");
-        m_dataLogger.flush();
+        m_dataLogger.log(
+            "/* " + (m_sRule != null ? (m_sRule + " ") : "") +
+            s_dataFormat.format(System.currentTimeMillis()) + "\n" + query + "\n*/\n"
+        );
         return ((DataSource)m_dr).request(query);
     }
 
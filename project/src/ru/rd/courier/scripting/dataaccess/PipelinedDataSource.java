@@ -0,0 +1,267 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess;
+
+import ru.rd.courier.CourierException;
+import ru.rd.courier.scripting.DataReceiver;
+import ru.rd.courier.scripting.LinkWarning;
+import ru.rd.courier.scripting.PortionFormatter;
+import ru.rd.pool.ObjectPoolIntf;
+import ru.rd.thread.PoolExecutor;
+
+import java.sql.ResultSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffered receiver writing portions by separate thread so that the process
+ * thread can read next source records meanwhile. Portions are written in the
+ * order they are produced; portion listener is notified and link warnings are
+ * returned in the process thread on subsequent calls after the portion has been
+ * written. Producer is blocked when the queue of unwritten portions is full.
+ */
+public class PipelinedDataSource extends BufferedDataSource {
+    private static final long c_offerTimeout = 1000;
+
+    private final ObjectPoolIntf m_threadPool;
+    private final BlockingQueue<Item> m_queue;
+    private final LinkedList<Item> m_done = new LinkedList<Item>();
+    private int m_pendingCount = 0;
+    private List<LinkWarning> m_warnings = null;
+    private boolean m_writerStarted = false;
+    private volatile boolean m_writerFinished = true;
+    private volatile boolean m_discard = false;
+    private volatile Throwable m_error = null;
+
+    private static class Item {
+        public final Object m_data;
+        public final PortionSendEvent m_event;
+        public List<LinkWarning> m_warnings = null;
+        public boolean m_written = false;
+
+        public Item(Object data, PortionSendEvent event) {
+            m_data = data;
+            m_event = event;
+        }
+    }
+
+    private static final Item c_stopItem = new Item(null, null);
+
+    public PipelinedDataSource(
+        DataReceiver dr,
+        int bytesLimit, int recordsLimit,
+        PortionFormatter formatter, PortionSendListener portionSendListener,
+        ObjectPoolIntf threadPool, int queueSize
+    ) {
+        super(dr, bytesLimit, recordsLimit, formatter, portionSendListener);
+        m_threadPool = threadPool;
+        m_queue = new ArrayBlockingQueue<Item>(queueSize);
+    }
+
+    protected List<LinkWarning> processData(Object data) throws CourierException {
+        submit(new Item(data, null));
+        return collect(false);
+    }
+
+    protected List<LinkWarning> sendPortion(PortionSendEvent e, Object data) throws CourierException {
+        if (data == null) {
+            List<LinkWarning> ret = collect(true);
+            portionSent(e);
+            return ret;
+        }
+        submit(new Item(data, e));
+        return collect(false);
+    }
+
+    /**
+     * Waits for all submitted portions to be written. Writer thread keeps
+     * running until {@link #close()} or {@link #stopWriter()}.
+     */
+    public List<LinkWarning> flush() throws CourierException {
+        List<LinkWarning> ret = flushBuffer();
+        return joinWarnings(ret, collect(true));
+    }
+
+    public ResultSet request(String query) throws CourierException {
+        m_warnings = collect(true);
+        return super.request(query);
+    }
+
+    public void cancel() throws CourierException {
+        m_discard = true;
+        super.cancel();
+    }
+
+    public void close() throws CourierException {
+        try {
+            super.close();
+        } finally {
+            stopWriter();
+        }
+    }
+
+    private void startWriter() {
+        m_discard = false;
+        m_error = null;
+        m_writerFinished = false;
+        new PoolExecutor(m_threadPool).exec(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+
+            public String toString() {
+                return "Pipelined target writer";
+            }
+        });
+        m_writerStarted = true;
+    }
+
+    /**
+     * Waits for the writer thread to finish. Portions not written yet are discarded.
+     */
+    public void stopWriter() throws CourierException {
+        if (!m_writerStarted) return;
+        m_writerStarted = false;
+        m_discard = true;
+        try {
+            while (!m_writerFinished && !m_queue.offer(c_stopItem, c_offerTimeout, TimeUnit.MILLISECONDS));
+            synchronized (m_done) {
+                while (!m_writerFinished) m_done.wait();
+                m_done.clear();
+                m_pendingCount = 0;
+            }
+        } catch (InterruptedException e) {
+            throw new CourierException(e);
+        } finally {
+            m_queue.clear();
+            m_warnings = null;
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                final Item item = m_queue.take();
+                if (item == c_stopItem) break;
+                if (!m_discard) {
+                    try {
+                        item.m_warnings = getReceiver().process(item.m_data);
+                        item.m_written = true;
+                    } catch (Throwable e) {
+                        m_error = e;
+                        m_discard = true;
+                    }
+                }
+                synchronized (m_done) {
+                    m_done.add(item);
+                    m_done.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            m_error = e;
+        } finally {
+            synchronized (m_done) {
+                m_writerFinished = true;
+                m_done.notifyAll();
+            }
+        }
+    }
+
+    private void submit(Item item) throws CourierException {
+        if (m_error != null) throwError();
+        if (!m_writerStarted) startWriter();
+        synchronized (m_done) {
+            m_pendingCount++;
+        }
+        try {
+            while (!m_queue.offer(item, c_offerTimeout, TimeUnit.MILLISECONDS)) {
+                if (m_writerFinished) {
+                    synchronized (m_done) {
+                        m_pendingCount--;
+                    }
+                    if (m_error != null) throwError();
+                    throw new CourierException("Target writer thread finished unexpectedly");
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new CourierException(e);
+        }
+    }
+
+    /**
+     * Handles written portions in the process thread
+     * @param all wait for all submitted portions to be written
+     */
+    private List<LinkWarning> collect(boolean all) throws CourierException {
+        List<LinkWarning> ret = m_warnings;
+        m_warnings = null;
+        while (true) {
+            final Item item;
+            synchronized (m_done) {
+                if (m_done.isEmpty()) {
+                    if (!all || m_pendingCount == 0 || m_writerFinished) break;
+                    try {
+                        m_done.wait();
+                    } catch (InterruptedException e) {
+                        throw new CourierException(e);
+                    }
+                    continue;
+                }
+                item = m_done.removeFirst();
+                m_pendingCount--;
+            }
+            if (item.m_written) {
+                ret = joinWarnings(ret, item.m_warnings);
+                if (item.m_event != null) canceledPortionSent(item.m_event);
+            }
+        }
+        if (m_error != null) throwError();
+        return ret;
+    }
+
+    /**
+     * Stops the writer discarding portions submitted after the failed one
+     * and throws the writer error. Next portion starts a new writer.
+     */
+    private void throwError() throws CourierException {
+        final Throwable e = m_error;
+        try {
+            stopWriter();
+        } finally {
+            m_error = null;
+        }
+        if (e instanceof CourierException) throw (CourierException)e;
+        throw new CourierException(e);
+    }
+}
@@ -33,10 +33,19 @@ package ru.rd.courier.scripting.dataaccess;
 public class PortionSendEvent {
     private int m_portionSize;
     private String m_portion;
+    private final PortionStream m_stream;
+    private String m_intervalValue = null;
 
     public PortionSendEvent(int portionSize, String portion) {
         m_portionSize = portionSize;
         m_portion = portion;
+        m_stream = null;
+    }
+
+    public PortionSendEvent(int portionSize, PortionStream stream) {
+        m_portionSize = portionSize;
+        m_portion = null;
+        m_stream = stream;
     }
 
     public int getPortionSize() {
@@ -50,4 +59,23 @@ public class PortionSendEvent {
     public void setPortion(String portion) {
         m_portion = portion;
     }
+
+    /**
+     * @return stream the portion is being written to or null if the portion
+     * is sent as one string
+     */
+    public PortionStream getStream() {
+        return m_stream;
+    }
+
+    /**
+     * @return interval value of the last portion record or null
+     */
+    public String getIntervalValue() {
+        return m_intervalValue;
+    }
+
+    public void setIntervalValue(String intervalValue) {
+        m_intervalValue = intervalValue;
+    }
 }
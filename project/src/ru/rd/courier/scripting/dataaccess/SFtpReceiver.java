@@ -35,6 +35,7 @@ import ru.rd.courier.logging.CourierLogger;
 import ru.rd.courier.scripting.LinkWarning;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Date;
 
@@ -141,6 +142,51 @@ public class SFtpReceiver extends FileBasedAbstractReceiver {
         }
     }
 
+    protected OutputStream openTarget(String fileName) throws CourierException, IOException {
+        beforeRequest();
+        final SFTPv3FileHandle h;
+        try {
+            h = m_ftp.createFileTruncate(fileName);
+        } catch (IOException e) {
+            cleanup();
+            throw e;
+        }
+        return new OutputStream() {
+            private long m_fileOffset = 0;
+
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte)b}, 0, 1);
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                synchronized(SFtpReceiver.this) {
+                    if (m_cancelled) throw new CourierException("Operation cancelled");
+                }
+                try {
+                    m_ftp.write(h, m_fileOffset, b, off, len);
+                } catch (IOException e) {
+                    cleanup();
+                    throw e;
+                }
+                m_fileOffset += len;
+            }
+
+            public void close() throws IOException {
+                if (m_ftp == null || h.isClosed()) return;
+                m_ftp.closeFile(h);
+            }
+        };
+    }
+
+    protected void renameTarget(String fromName, String toName) throws CourierException, IOException {
+        if (fileExists(toName)) m_ftp.rm(toName);
+        m_ftp.mv(fromName, toName);
+    }
+
+    protected void deleteTarget(String fileName) throws CourierException, IOException {
+        m_ftp.rm(fileName);
+    }
+
     protected boolean fileExists(String fileName) throws IOException, CourierException {
         try {
             m_ftp.stat(fileName);
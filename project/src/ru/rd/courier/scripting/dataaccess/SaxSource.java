@@ -34,25 +34,15 @@ import ru.rd.courier.scripting.TimedStringReceiver;
 import ru.rd.courier.scripting.DataSource;
 import ru.rd.courier.scripting.LinkWarning;
 import ru.rd.courier.CourierException;
-import ru.rd.courier.jdbc.ResultSets.StringBufferedResultSet;
-import ru.rd.courier.jdbc.ResultSets.IterColumnInfo;
-import ru.rd.courier.utils.DomHelper;
+import ru.rd.courier.logging.CourierLogger;
+import ru.rd.courier.logging.CourierLoggerAdapter;
 
-import javax.xml.transform.TransformerException;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParserFactory;
-import javax.xml.parsers.SAXParser;
 import java.util.List;
+import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Map;
 import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.io.IOException;
-import java.io.File;
-
-import org.xml.sax.SAXException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.traversal.NodeIterator;
-import org.apache.xpath.XPathAPI;
+import java.util.logging.Logger;
 
 /**
  * User: AStepochkin
@@ -60,8 +50,7 @@ import org.apache.xpath.XPathAPI;
  * Time: 17:33:38
  */
 public class SaxSource extends TimedStringReceiver implements DataSource {
-    private final String m_recordSelector;
-    private final List<ColumnSelectInfo> m_cols;
+    private final XPathSource m_source;
 
     public static class ColumnSelectInfo {
         public final String m_name;
@@ -73,9 +62,23 @@ public class SaxSource extends TimedStringReceiver implements DataSource {
         }
     }
 
+    public SaxSource(CourierLogger logger, String recordSelector, List<ColumnSelectInfo> cols) {
+        Map<String, String> nsPrefixes = new HashMap<String, String>();
+        List<XPathSource.ColumnSelectInfo> xcols = new LinkedList<XPathSource.ColumnSelectInfo>();
+        for (ColumnSelectInfo ci: cols) {
+            xcols.add(new XPathSource.ColumnSelectInfo(
+                ci.m_name, new XPathSource.XPathNodeSelector(ci.m_path, nsPrefixes)
+            ));
+        }
+        m_source = new XPathSource(logger, recordSelector, xcols, nsPrefixes);
+        m_source.setStreaming(XmlRecordIterator.isSupportedPath(recordSelector));
+    }
+
     public SaxSource(String recordSelector, List<ColumnSelectInfo> cols) {
-        m_recordSelector = recordSelector;
-        m_cols = cols;
+        this(
+            new CourierLoggerAdapter(Logger.getLogger(SaxSource.class.getPackage().getName())),
+            recordSelector, cols
+        );
     }
 
     protected List<LinkWarning> timedProcess(String operation) throws CourierException {
@@ -90,60 +93,11 @@ public class SaxSource extends TimedStringReceiver implements DataSource {
     public void setTimeout(int timeout) throws CourierException {}
     public void cancel() throws CourierException {}
 
+    /**
+     * @param query XML file name; records are read one by one if records path
+     * is supported by {@link XmlRecordIterator}, otherwise the whole file is parsed
+     */
     public ResultSet request(String query) throws CourierException {
-        try {
-            return innerFileRequest(query);
-        } catch(Exception e) {
-            throw new CourierException(e);
-        }
-    }
-
-    private ResultSet innerFileRequest(String query)
-    throws TransformerException, IOException, ParserConfigurationException, SAXException {
-        return innerRequest(DomHelper.parseXmlFile(new File(query)));
-    }
-
-    private ResultSet innerRequest(Document doc)
-            throws TransformerException, ParserConfigurationException, SAXException {
-        SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
-        //parser.getXMLReader().
-
-        final NodeIterator nl = XPathAPI.selectNodeIterator(doc, m_recordSelector);
-
-        IterColumnInfo[] infos = new IterColumnInfo[m_cols.size()];
-        int i = 0;
-        for (ColumnSelectInfo ci: m_cols) {
-            infos[i] = new IterColumnInfo(ci.m_name, 0);
-            i++;
-        }
-
-        StringBufferedResultSet rs = new StringBufferedResultSet(null, infos) {
-            protected boolean getRecord() throws SQLException {
-                Node rn = nl.nextNode();
-                if (rn == null) return false;
-
-                int i = 1;
-                for (ColumnSelectInfo ci: m_cols) {
-                    Node cn;
-                    try {
-                        cn = XPathAPI.selectSingleNode(rn, ci.m_path);
-                    } catch (TransformerException e) {
-                        SQLException sqle = new SQLException();
-                        sqle.initCause(e);
-                        throw sqle;
-                    }
-                    updateString(i, DomHelper.getNodeValue(cn));
-                    i++;
-                }
-                return true;
-            }
-
-            protected int skipRecords(int count) {
-                int c = 0;
-                while (nl.nextNode()!= null) c++;
-                return c;
-            }
-        };
-        return rs;
+        return m_source.request(query);
     }
 }
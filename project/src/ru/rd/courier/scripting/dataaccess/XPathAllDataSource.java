@@ -160,5 +160,10 @@ public class XPathAllDataSource extends XPathSourceBase {
         private void nextRecord() {
             m_curRecord = (Element)m_data.nextNode();
         }
+
+        public void close() throws SQLException {
+            super.close();
+            m_data.detach();
+        }
     }
 }
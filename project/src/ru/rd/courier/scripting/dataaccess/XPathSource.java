@@ -363,6 +363,11 @@ public class XPathSource extends XPathSourceBase {
                 while (nl.nextNode()!= null) c++;
                 return c;
             }
+
+            public void close() throws SQLException {
+                super.close();
+                nl.detach();
+            }
         };
 
         /*
@@ -67,6 +67,7 @@ public abstract class XPathSourceBase extends TimedStringReceiver implements Dat
     protected final String m_recordSelector;
     private final Map<String, String> m_nsPrefixes;
     private String m_encoding = null;
+    private boolean m_streaming = false;
 
     public XPathSourceBase(
         CourierLogger logger, String recordSelector, Map<String, String> nsPrefixes
@@ -98,6 +99,14 @@ public abstract class XPathSourceBase extends TimedStringReceiver implements Dat
 
     public final ResultSet getResultSet(InputStream is)
     throws TransformerException, IOException, SAXException {
+        if (m_streaming) {
+            XmlRecordIterator nl = new XmlRecordIterator(is, m_encoding, m_recordSelector, m_nsPrefixes);
+            SimpleNamespaceResolver nsResolver = new SimpleNamespaceResolver();
+            nsResolver.addPrefixes(nl.getRootNamespaces());
+            nsResolver.addPrefixes(m_nsPrefixes);
+            return innerRequest(nl, nsResolver);
+        }
+
         DomHelper.LoggingErrorHandler eh = new DomHelper.LoggingErrorHandler(m_logger);
         Document doc = DomHelper.parseStreamEx(is, eh, m_encoding);
         if (eh.getError() != null) throw eh.getError();
@@ -113,6 +122,14 @@ public abstract class XPathSourceBase extends TimedStringReceiver implements Dat
         m_encoding = encoding;
     }
 
+    /**
+     * @param streaming whether to read records one by one by {@link XmlRecordIterator}
+     * instead of parsing the whole document
+     */
+    public void setStreaming(boolean streaming) {
+        m_streaming = streaming;
+    }
+
     private ResultSet innerFileRequest(String query)
     throws IOException, SAXException, TransformerException {
         return getResultSet(new BufferedInputStream(new FileInputStream(query)));
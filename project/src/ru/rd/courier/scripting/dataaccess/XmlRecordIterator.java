@@ -0,0 +1,340 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.traversal.NodeFilter;
+import org.w3c.dom.traversal.NodeIterator;
+import ru.rd.courier.CourierException;
+import ru.rd.courier.utils.DomHelper;
+import ru.rd.courier.utils.StringHelper;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Forward only iterator over record elements of XML stream. Only one record
+ * subtree is kept in memory: every record is built in its own small document
+ * together with its ancestors (with their attributes but without other
+ * children), so relative column paths including ".." keep working.
+ *
+ * Records path is restricted to element steps:
+ * "/a/b/c" - absolute path, "//b/c" - elements "c" inside "b" at any level,
+ * "p:name" - element of namespace bound to prefix p (by namespaces map or
+ * by the document), "name" - element of any namespace, "*" - any element.
+ * Records nested in other records are returned as part of outer record only.
+ */
+public class XmlRecordIterator implements NodeIterator {
+    private static final XMLInputFactory c_factory = XMLInputFactory.newInstance();
+    static {
+        c_factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        c_factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    }
+
+    private final InputStream m_is;
+    private XMLStreamReader m_reader;
+    private final DocumentBuilder m_builder;
+    private final Map<String, String> m_nsPrefixes;
+    private final boolean m_anyLevel;
+    private final String[] m_prefixes;
+    private final String[] m_names;
+    private final List<ElementInfo> m_stack = new ArrayList<ElementInfo>();
+    private final Map<String, String> m_rootNamespaces = new HashMap<String, String>();
+    private boolean m_pending = false;
+    private int m_recordCount = 0;
+
+    private static class ElementInfo {
+        private final String m_nspace;
+        private final String m_prefix;
+        private final String m_name;
+        private final String[] m_attrs;
+        private final String[] m_namespaces;
+
+        public ElementInfo(XMLStreamReader reader) {
+            m_nspace = emptyToNull(reader.getNamespaceURI());
+            m_prefix = emptyToNull(reader.getPrefix());
+            m_name = reader.getLocalName();
+            int count = reader.getAttributeCount();
+            m_attrs = new String[count * 3];
+            for (int i = 0; i < count; i++) {
+                m_attrs[i*3] = emptyToNull(reader.getAttributeNamespace(i));
+                m_attrs[i*3 + 1] = qualifiedName(
+                    emptyToNull(reader.getAttributePrefix(i)), reader.getAttributeLocalName(i)
+                );
+                m_attrs[i*3 + 2] = reader.getAttributeValue(i);
+            }
+            count = reader.getNamespaceCount();
+            m_namespaces = new String[count * 2];
+            for (int i = 0; i < count; i++) {
+                String prefix = emptyToNull(reader.getNamespacePrefix(i));
+                m_namespaces[i*2] = prefix == null ? "xmlns" : "xmlns:" + prefix;
+                m_namespaces[i*2 + 1] = reader.getNamespaceURI(i);
+            }
+        }
+
+        public Element create(Document doc) {
+            Element e = doc.createElementNS(m_nspace, qualifiedName(m_prefix, m_name));
+            for (int i = 0; i < m_namespaces.length; i += 2) {
+                e.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, m_namespaces[i], m_namespaces[i + 1]);
+            }
+            for (int i = 0; i < m_attrs.length; i += 3) {
+                e.setAttributeNS(m_attrs[i], m_attrs[i + 1], m_attrs[i + 2]);
+            }
+            return e;
+        }
+    }
+
+    public XmlRecordIterator(
+        InputStream is, String encoding, String recordsPath, Map<String, String> nsPrefixes
+    ) {
+        m_is = is;
+        m_nsPrefixes = nsPrefixes;
+
+        String path = recordsPath.trim();
+        m_anyLevel = path.startsWith("//");
+        String[] steps = StringHelper.splitString(path, '/', stepsStart(path));
+        if (steps.length == 0) {
+            throw new CourierException("Streaming records path '" + recordsPath + "' has no element steps");
+        }
+        m_prefixes = new String[steps.length];
+        m_names = new String[steps.length];
+        for (int i = 0; i < steps.length; i++) {
+            String step = steps[i];
+            if (!isSupportedStep(step)) {
+                throw new CourierException(
+                    "Streaming records path '" + recordsPath + "' step '" + step + "' is not supported");
+            }
+            int pos = step.indexOf(':');
+            m_prefixes[i] = pos < 0 ? null : step.substring(0, pos);
+            m_names[i] = step.substring(pos + 1);
+        }
+
+        m_builder = DomHelper.getParser(null, null, true);
+        try {
+            m_reader = encoding == null ?
+                c_factory.createXMLStreamReader(is) : c_factory.createXMLStreamReader(is, encoding);
+            while (m_reader.hasNext()) {
+                if (m_reader.next() == XMLStreamReader.START_ELEMENT) {
+                    for (int i = 0; i < m_reader.getNamespaceCount(); i++) {
+                        String prefix = emptyToNull(m_reader.getNamespacePrefix(i));
+                        if (prefix != null) m_rootNamespaces.put(prefix, m_reader.getNamespaceURI(i));
+                    }
+                    m_pending = true;
+                    break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            detach();
+            throw new CourierException(e);
+        }
+    }
+
+    /**
+     * @return whether records path has only the element steps this iterator
+     * supports, so that the iterator can be created for it
+     */
+    public static boolean isSupportedPath(String recordsPath) {
+        String path = recordsPath.trim();
+        String[] steps = StringHelper.splitString(path, '/', stepsStart(path));
+        if (steps.length == 0) return false;
+        for (String step: steps) {
+            if (!isSupportedStep(step)) return false;
+        }
+        return true;
+    }
+
+    private static int stepsStart(String path) {
+        if (path.startsWith("//")) return 2;
+        return path.startsWith("/") ? 1 : 0;
+    }
+
+    private static boolean isSupportedStep(String step) {
+        return !(
+            step.length() == 0 || step.equals(".") || step.equals("..")
+            || step.indexOf('@') >= 0 || step.indexOf('[') >= 0 || step.indexOf('(') >= 0
+        );
+    }
+
+    private static String emptyToNull(String str) {
+        return (str == null || str.length() == 0) ? null : str;
+    }
+
+    private static String qualifiedName(String prefix, String name) {
+        return prefix == null ? name : prefix + ":" + name;
+    }
+
+    /**
+     * @return prefixes declared by the document element
+     */
+    public Map<String, String> getRootNamespaces() {
+        return m_rootNamespaces;
+    }
+
+    public int getRecordCount() {
+        return m_recordCount;
+    }
+
+    private boolean stepMatches(int step, String nspace, String name) {
+        if (!m_names[step].equals("*") && !m_names[step].equals(name)) return false;
+        String prefix = m_prefixes[step];
+        if (prefix == null) return true;
+        String stepNamespace = m_nsPrefixes == null ? null : m_nsPrefixes.get(prefix);
+        if (stepNamespace == null) {
+            stepNamespace = m_reader.getNamespaceContext().getNamespaceURI(prefix);
+        }
+        return stepNamespace != null && stepNamespace.equals(nspace == null ? "" : nspace);
+    }
+
+    private boolean isRecord() {
+        int depth = m_stack.size() + 1;
+        if (m_anyLevel ? depth < m_names.length : depth != m_names.length) return false;
+        int last = m_names.length - 1;
+        if (!stepMatches(last, m_reader.getNamespaceURI(), m_reader.getLocalName())) return false;
+        for (int i = last - 1, d = m_stack.size() - 1; i >= 0; i--, d--) {
+            ElementInfo ei = m_stack.get(d);
+            if (!stepMatches(i, ei.m_nspace, ei.m_name)) return false;
+        }
+        return true;
+    }
+
+    private Element readRecord() throws XMLStreamException {
+        Document doc = m_builder.newDocument();
+        Node parent = doc;
+        for (ElementInfo ei: m_stack) {
+            Element e = ei.create(doc);
+            parent.appendChild(e);
+            parent = e;
+        }
+        Element record = new ElementInfo(m_reader).create(doc);
+        parent.appendChild(record);
+
+        Node cur = record;
+        int depth = 1;
+        while (depth > 0) {
+            switch (m_reader.next()) {
+                case XMLStreamReader.START_ELEMENT: {
+                    Element e = new ElementInfo(m_reader).create(doc);
+                    cur.appendChild(e);
+                    cur = e;
+                    depth++;
+                    break;
+                }
+                case XMLStreamReader.END_ELEMENT: {
+                    cur = cur.getParentNode();
+                    depth--;
+                    break;
+                }
+                case XMLStreamReader.CHARACTERS:
+                case XMLStreamReader.SPACE: {
+                    cur.appendChild(doc.createTextNode(m_reader.getText()));
+                    break;
+                }
+                case XMLStreamReader.CDATA: {
+                    cur.appendChild(doc.createCDATASection(m_reader.getText()));
+                    break;
+                }
+            }
+        }
+        m_recordCount++;
+        return record;
+    }
+
+    public Node nextNode() throws DOMException {
+        if (m_reader == null) return null;
+        try {
+            while (true) {
+                int event;
+                if (m_pending) {
+                    m_pending = false;
+                    event = m_reader.getEventType();
+                } else if (m_reader.hasNext()) {
+                    event = m_reader.next();
+                } else {
+                    event = XMLStreamReader.END_DOCUMENT;
+                }
+
+                if (event == XMLStreamReader.START_ELEMENT) {
+                    if (isRecord()) return readRecord();
+                    m_stack.add(new ElementInfo(m_reader));
+                } else if (event == XMLStreamReader.END_ELEMENT) {
+                    m_stack.remove(m_stack.size() - 1);
+                } else if (event == XMLStreamReader.END_DOCUMENT) {
+                    detach();
+                    return null;
+                }
+            }
+        } catch (XMLStreamException e) {
+            detach();
+            throw new CourierException(e);
+        }
+    }
+
+    public Node previousNode() throws DOMException {
+        throw new UnsupportedOperationException("Forward only iterator");
+    }
+
+    public Node getRoot() {
+        return null;
+    }
+
+    public int getWhatToShow() {
+        return NodeFilter.SHOW_ELEMENT;
+    }
+
+    public NodeFilter getFilter() {
+        return null;
+    }
+
+    public boolean getExpandEntityReferences() {
+        return true;
+    }
+
+    public void detach() {
+        if (m_reader != null) {
+            try { m_reader.close(); } catch (XMLStreamException e) { /* closing anyway */ }
+            m_reader = null;
+        }
+        try { m_is.close(); } catch (IOException e) { /* closing anyway */ }
+        m_stack.clear();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * Parameterized statement with values of one record to be executed
+ * in JDBC batch
+ */
+public class BatchRow {
+    private static final int c_typedValueLength = 8;
+
+    private final String m_sql;
+    private final Object[] m_values;
+    private final int[] m_sqlTypes;
+    private final int m_length;
+
+    /**
+     * @param values Long, Double, Float, Date or String values, null means SQL NULL
+     * @param sqlTypes {@link java.sql.Types} of values used to bind nulls
+     */
+    public BatchRow(String sql, Object[] values, int[] sqlTypes) {
+        if (values.length != sqlTypes.length) {
+            throw new IllegalArgumentException(
+                "Values count " + values.length + " does not match types count " + sqlTypes.length);
+        }
+        m_sql = sql;
+        m_values = values;
+        m_sqlTypes = sqlTypes;
+        int length = 0;
+        for (Object v: values) {
+            if (v instanceof String) length += ((String)v).length();
+            else length += c_typedValueLength;
+        }
+        m_length = length;
+    }
+
+    public String getSql() { return m_sql; }
+    public Object[] getValues() { return m_values; }
+    public int[] getSqlTypes() { return m_sqlTypes; }
+
+    /**
+     * @return approximate size of the row data in chars used for portion bytes limit
+     */
+    public int getLength() { return m_length; }
+
+    /**
+     * @return statement followed by its values like they are written in SQL
+     */
+    public String toString() {
+        StringBuilder ret = new StringBuilder(m_sql.length() + m_length + 16 + 4*m_values.length);
+        ret.append(m_sql).append("\n-- values: ");
+        for (int i = 0; i < m_values.length; i++) {
+            if (i > 0) ret.append(", ");
+            final Object v = m_values[i];
+            if (v == null) {
+                ret.append("NULL");
+            } else if (v instanceof Number) {
+                ret.append(v);
+            } else {
+                final String str = (v instanceof Date && !(v instanceof Timestamp))
+                    ? new Timestamp(((Date)v).getTime()).toString() : v.toString();
+                ret.append('\'').append(str.replace("'", "''")).append('\'');
+            }
+        }
+        return ret.toString();
+    }
+
+    public void bind(PreparedStatement stmt) throws SQLException {
+        for (int i = 0; i < m_values.length; i++) {
+            final Object v = m_values[i];
+            final int p = i + 1;
+            if (v == null) {
+                stmt.setNull(p, m_sqlTypes[i]);
+            } else if (v instanceof Long) {
+                stmt.setLong(p, (Long)v);
+            } else if (v instanceof Double) {
+                stmt.setDouble(p, (Double)v);
+            } else if (v instanceof Float) {
+                stmt.setFloat(p, (Float)v);
+            } else if (v instanceof Timestamp) {
+                stmt.setTimestamp(p, (Timestamp)v);
+            } else if (v instanceof Date) {
+                stmt.setTimestamp(p, new Timestamp(((Date)v).getTime()));
+            } else {
+                stmt.setString(p, v.toString());
+            }
+        }
+    }
+}
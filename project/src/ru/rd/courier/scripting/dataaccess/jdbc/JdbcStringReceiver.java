@@ -82,6 +82,9 @@ public class JdbcStringReceiver extends JdbcBaseImplementation implements Releas
 
     public synchronized List<LinkWarning> timedProcessObject(final Object operation)
     throws CourierException {
+        if (operation instanceof BatchPortion) {
+            return processBatch(((BatchPortion)operation).getRows());
+        }
         setCancelled(false);
         try {
             Throwable err = null;
@@ -146,6 +149,89 @@ public class JdbcStringReceiver extends JdbcBaseImplementation implements Releas
         }
     }
 
+    private List<LinkWarning> processBatch(final List<BatchRow> rows) throws CourierException {
+        setCancelled(false);
+        closeStatement();
+        try {
+            Throwable err = null;
+            boolean wasError = false;
+            List<LinkWarning> res = new LinkedList<LinkWarning>();
+            try {
+                int rowNumber = 1;
+                int firstRow = rowNumber;
+                String sql = null;
+                for (BatchRow row: rows) {
+                    if (m_stmt == null || !row.getSql().equals(sql)) {
+                        if (m_stmt != null) {
+                            if (executeBatch((PreparedStatement)m_stmt, firstRow, res)) wasError = true;
+                            closeStatement();
+                        }
+                        sql = row.getSql();
+                        firstRow = rowNumber;
+                        m_stmt = m_con.prepareStatement(sql);
+                        if (m_timeout > 0) m_stmt.setQueryTimeout(m_timeout);
+                    }
+                    if (isCancelled()) return null;
+                    PreparedStatement stmt = (PreparedStatement)m_stmt;
+                    row.bind(stmt);
+                    stmt.addBatch();
+                    rowNumber++;
+                }
+                if (m_stmt != null) {
+                    if (isCancelled()) return null;
+                    if (executeBatch((PreparedStatement)m_stmt, firstRow, res)) wasError = true;
+                }
+            } catch(Throwable e) {
+                err = e;
+            }
+
+            if (wasError || err != null) {
+                m_errorsCount++;
+                safeRollback();
+                if (err != null) throw new CourierException(err);
+            } else {
+                safeCommit();
+            }
+            return res.size() > 0 ? res : null;
+        } finally {
+            closeStatement();
+        }
+    }
+
+    /**
+     * @param firstRow portion row number of the first statement batch row
+     * @return true if any batch row failed
+     */
+    private static boolean executeBatch(
+        PreparedStatement stmt, int firstRow, List<LinkWarning> res
+    ) throws SQLException {
+        boolean wasError = false;
+        try {
+            stmt.executeBatch();
+        } catch (BatchUpdateException e) {
+            wasError = true;
+            final long now = System.currentTimeMillis();
+            int[] counts = e.getUpdateCounts();
+            if (counts == null) counts = new int[0];
+            boolean failedFound = false;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == Statement.EXECUTE_FAILED) {
+                    res.add(new LinkWarning(firstRow + i, e, now));
+                    failedFound = true;
+                }
+            }
+            // driver stopped at the first failed row
+            if (!failedFound) res.add(new LinkWarning(firstRow + counts.length, e, now));
+        }
+
+        SQLWarning warn = stmt.getWarnings();
+        while (warn != null) {
+            res.add(new LinkWarning(-1, warn, System.currentTimeMillis()));
+            warn = warn.getNextWarning();
+        }
+        return wasError;
+    }
+
     private void safeCommit() {
         if (m_autoCommit) return;
         if (m_safeCommitSql == null) {
@@ -87,7 +87,7 @@ public class CsvParser implements StreamParser {
             if (rsi.m_cols == null && m_headerParser != null) {
                 rsi.m_cols = m_headerParser.readHeader(r);
             }
-            return new CsvStringResultSet(m_logger, null, rsi);
+            return CsvStringResultSet.create(m_logger, null, rsi);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -117,6 +117,18 @@ public class ExcelParser implements StreamParser {
             return m_name;
         }
 
+        public String getSheetName() {
+            return m_sheetName;
+        }
+
+        public int getCol() {
+            return m_col;
+        }
+
+        public int getRow() {
+            return m_row;
+        }
+
         public void setFinishRow(int row) {
             m_finishRow = row;
         }
@@ -167,7 +179,7 @@ public class ExcelParser implements StreamParser {
 
     private static final TimeZone gmtZone = TimeZone.getTimeZone("GMT");
 
-    private static int intParam(Properties props, String name, int def) {
+    static int intParam(Properties props, String name, int def) {
         return ExcelParserFactory.adjustDim(
             StringHelper.intParam(props, name, ExcelParserFactory.unadjustDim(def))
         );
@@ -285,7 +297,7 @@ public class ExcelParser implements StreamParser {
     }
 
     private static final String cAlphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-    private static String columnPosToStr(int pos) {
+    static String columnPosToStr(int pos) {
         pos++;
         StringBuffer ret = new StringBuffer(1);
         int r = cAlphabet.length();
@@ -57,6 +57,7 @@ public class ExcelParserFactory implements StreamParserFactory {
     private final String m_blankCaptionPrefix;
     private final String m_dateFormat;
     private final String m_numberFormat;
+    private final boolean m_xlsx;
 
     public static int adjustDim(int v) {
         return v - 1;
@@ -109,6 +110,14 @@ public class ExcelParserFactory implements StreamParserFactory {
     }
 
     public ExcelParserFactory(Node conf) {
+        this(conf, false);
+    }
+
+    /**
+     * @param xlsx creates {@link XlsxParser} instead of {@link ExcelParser}
+     */
+    public ExcelParserFactory(Node conf, boolean xlsx) {
+        m_xlsx = xlsx;
         m_sheetName = DomHelper.getNodeAttr(conf, "sheet-name", null);
         m_leftColumn = getColumnIndex(conf, "left-column", false, 1);
         m_rightColumn = getColumnIndex(conf, "right-column", false, 0);
@@ -142,15 +151,24 @@ public class ExcelParserFactory implements StreamParserFactory {
     }
 
     public StreamParser createParser() {
+        StringChecker skipCaptionSelector = m_skipTemplate == null ?
+            new StringChecker() {
+                public boolean isTrue(String str) { return false; }
+            }
+            : new ReqExpChecker(m_skipTemplate);
+        if (m_xlsx) {
+            return new XlsxParser(
+                m_sheetName, m_leftColumn, m_rightColumn,
+                m_captionRow, m_dataRow, m_constFields, m_needToTrim,
+                m_stopAtBlankCaption, skipCaptionSelector,
+                m_blankCaptionAsNumber, m_blankCaptionPrefix,
+                m_dateFormat, m_numberFormat
+            );
+        }
         return new ExcelParser(
             m_sheetName, m_leftColumn, m_rightColumn,
             m_captionRow, m_dataRow, m_constFields, m_needToTrim,
-            m_stopAtBlankCaption,
-            m_skipTemplate == null ?
-                new StringChecker() {
-                    public boolean isTrue(String str) { return false; }
-                }
-                : new ReqExpChecker(m_skipTemplate),
+            m_stopAtBlankCaption, skipCaptionSelector,
             m_blankCaptionAsNumber, m_blankCaptionPrefix,
             m_dateFormat, m_numberFormat
         );
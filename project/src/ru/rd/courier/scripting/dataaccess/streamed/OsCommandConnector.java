@@ -38,6 +38,7 @@ import ru.rd.courier.utils.NullOutputStream;
 import ru.rd.courier.utils.StreamTransferring;
 import ru.rd.pool.ObjectPoolIntf;
 import ru.rd.thread.ThreadHelper;
+import ru.rd.thread.WorkExecutor;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -51,6 +52,7 @@ import java.io.InputStream;
 public abstract class OsCommandConnector implements StreamConnector {
     protected final CourierLogger m_logger;
     private final ObjectPoolIntf m_threadPool;
+    private WorkExecutor m_executor = null;
     private OsCommand m_proc = null;
 
     private static class OsCommandInputStream extends DelegateInputStream {
@@ -58,13 +60,12 @@ public abstract class OsCommandConnector implements StreamConnector {
         private final OsCommand m_proc;
         private final ByteArrayOutputStream m_stderr;
 
-        public OsCommandInputStream(CourierLogger logger, ObjectPoolIntf threadPool, OsCommand proc) {
+        public OsCommandInputStream(CourierLogger logger, OsCommandConnector connector, OsCommand proc) {
             super(proc.getInputStream());
             m_logger = logger;
             m_proc = proc;
             m_stderr = new ByteArrayOutputStream();
-            ThreadHelper.exec(
-                threadPool,
+            connector.exec(
                 new StreamTransferring(proc.getErrorStream(), new LinesLimitedOutputStream(m_stderr, 100))
             );
         }
@@ -92,6 +93,23 @@ public abstract class OsCommandConnector implements StreamConnector {
         m_threadPool = threadPool;
     }
 
+    /**
+     * @param executor (optional) runs stream pumping works instead of the
+     * thread pool if it is virtual. Platform groups are not used as the
+     * request reading the stream may itself hold the last thread of the group.
+     */
+    public void setExecutor(WorkExecutor executor) {
+        m_executor = executor;
+    }
+
+    private void exec(Runnable work) {
+        if (m_executor != null && m_executor.isVirtual()) {
+            m_executor.launchWork(work);
+        } else {
+            ThreadHelper.exec(m_threadPool, work);
+        }
+    }
+
     protected abstract OsCommand createCommand();
 
     public final InputStream createStream() throws IOException {
@@ -105,8 +123,8 @@ public abstract class OsCommandConnector implements StreamConnector {
                 if (m_proc == null) throw new RuntimeException("Process cancelled");
                 proc = m_proc;
                 m_proc = null;
-                ThreadHelper.exec(m_threadPool, new StreamTransferring(proc.getErrorStream(), new NullOutputStream()));
-                return new OsCommandInputStream(m_logger, m_threadPool, proc);
+                exec(new StreamTransferring(proc.getErrorStream(), new NullOutputStream()));
+                return new OsCommandInputStream(m_logger, this, proc);
             }
         } finally {
             synchronized(this) {
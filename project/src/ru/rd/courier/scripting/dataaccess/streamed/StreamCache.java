@@ -0,0 +1,183 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess.streamed;
+
+import ru.rd.courier.utils.DelegateInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stream data cache of {@link StreamSource}. Data are kept in memory up to
+ * the memory limit, beyond it all the data are moved to a temporary file.
+ * The file is deleted when the stream returned by {@link #getInputStream}
+ * is closed or when the cache is discarded.
+ */
+public class StreamCache extends OutputStream {
+    public static final int c_defaultMemoryLimit = 4*1024*1024;
+
+    private static final int c_fileBufferSize = 64*1024;
+    private static final AtomicLong s_cacheCount = new AtomicLong(0);
+    private static final AtomicLong s_bytesCached = new AtomicLong(0);
+    private static final AtomicLong s_spillCount = new AtomicLong(0);
+    private static final AtomicLong s_bytesSpilled = new AtomicLong(0);
+
+    private final int m_memoryLimit;
+    private final File m_dir;
+    private byte[] m_buf = new byte[4*1024];
+    private long m_size = 0;
+    private File m_file = null;
+    private OutputStream m_out = null;
+    private boolean m_spilled = false;
+    private boolean m_closed = false;
+
+    /**
+     * @param dir (optional) temporary files directory, system default if null
+     */
+    public StreamCache(int memoryLimit, File dir) {
+        m_memoryLimit = memoryLimit;
+        m_dir = dir;
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    public void write(byte b[], int off, int len) throws IOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0) throw new IndexOutOfBoundsException();
+        if (m_closed) throw new IOException("Stream cache closed");
+        if (m_out == null && m_size + len > m_memoryLimit) spill();
+        if (m_out == null) {
+            int size = (int)m_size + len;
+            if (size > m_buf.length) {
+                byte[] buf = new byte[Math.min(Math.max(m_buf.length * 2, size), m_memoryLimit)];
+                System.arraycopy(m_buf, 0, buf, 0, (int)m_size);
+                m_buf = buf;
+            }
+            System.arraycopy(b, off, m_buf, (int)m_size, len);
+        } else {
+            m_out.write(b, off, len);
+        }
+        m_size += len;
+    }
+
+    private void spill() throws IOException {
+        m_file = File.createTempFile("stream-cache", ".data", m_dir);
+        m_out = new BufferedOutputStream(new FileOutputStream(m_file), c_fileBufferSize);
+        m_out.write(m_buf, 0, (int)m_size);
+        m_buf = null;
+        m_spilled = true;
+        s_spillCount.incrementAndGet();
+    }
+
+    public void flush() throws IOException {
+        if (m_out != null) m_out.flush();
+    }
+
+    public void close() throws IOException {
+        if (m_closed) return;
+        m_closed = true;
+        if (m_out != null) m_out.close();
+    }
+
+    public long getSize() {
+        return m_size;
+    }
+
+    public boolean isSpilled() {
+        return m_spilled;
+    }
+
+    /**
+     * Closes the cache and returns stream reading cached data. Memory data
+     * are not copied.
+     */
+    public InputStream getInputStream() throws IOException {
+        close();
+        s_cacheCount.incrementAndGet();
+        s_bytesCached.addAndGet(m_size);
+        if (m_file == null) {
+            return new ByteArrayInputStream(m_buf, 0, (int)m_size);
+        }
+        s_bytesSpilled.addAndGet(m_size);
+        final File file = m_file;
+        m_file = null;
+        return new DelegateInputStream(
+            new BufferedInputStream(new FileInputStream(file), c_fileBufferSize)
+        ) {
+            private boolean m_deleted = false;
+
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!m_deleted) {
+                        m_deleted = true;
+                        file.delete();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Closes the cache and frees its resources. Stream returned by
+     * {@link #getInputStream} is not affected.
+     */
+    public void discard() {
+        try {
+            close();
+        } catch (IOException e) {
+            // file is deleted anyway
+        }
+        m_buf = null;
+        if (m_file != null) {
+            m_file.delete();
+            m_file = null;
+        }
+    }
+
+    public static String getStatDesc() {
+        return
+            "caches = " + s_cacheCount.get()
+            + "; bytes cached = " + s_bytesCached.get()
+            + "; spills = " + s_spillCount.get()
+            + "; bytes spilled = " + s_bytesSpilled.get();
+    }
+}
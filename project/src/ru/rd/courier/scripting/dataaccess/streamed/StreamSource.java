@@ -39,13 +39,13 @@ import ru.rd.courier.scripting.LinkWarning;
 import ru.rd.courier.scripting.TimedStringReceiver;
 import ru.rd.courier.utils.*;
 import ru.rd.pool.ObjectPoolIntf;
+import ru.rd.thread.WorkExecutor;
 import ru.rd.thread.WorkThread;
 import ru.rd.utils.ExceptionCatchRunnable;
 import ru.rd.utils.State;
 
 import javax.xml.parsers.ParserConfigurationException;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.ResultSet;
@@ -60,9 +60,12 @@ import java.util.Properties;
 public class StreamSource extends TimedStringReceiver implements DataSource {
     private final CourierLogger m_logger;
     private final ObjectPoolIntf m_threadPool;
+    private WorkExecutor m_executor = null;
     private final StreamConnector m_streamConnector;
     private final StreamParser m_parser;
     private final boolean m_cacheData;
+    private int m_cacheMemoryLimit = StreamCache.c_defaultMemoryLimit;
+    private File m_cacheDir = null;
     private State m_state;
     private int m_timeout = 0;
     private StreamConnector m_cursf;
@@ -98,6 +101,31 @@ public class StreamSource extends TimedStringReceiver implements DataSource {
         m_cacheData = cacheData;
     }
 
+    /**
+     * @param executor (optional) runs the requests and the helper works
+     * instead of the thread pool
+     */
+    public StreamSource(
+        CourierLogger logger, ObjectPoolIntf threadPool, WorkExecutor executor,
+        StreamConnector streamConnector, StreamParser parser,
+        boolean cacheData
+    ) {
+        this(logger, threadPool, streamConnector, parser, cacheData);
+        m_executor = executor;
+        if (m_executor != null && streamConnector instanceof OsCommandConnector) {
+            ((OsCommandConnector)streamConnector).setExecutor(m_executor);
+        }
+    }
+
+    /**
+     * @param memoryLimit cached data exceeding this size are moved to file
+     * @param dir (optional) cache files directory
+     */
+    public void setCacheOptions(int memoryLimit, File dir) {
+        m_cacheMemoryLimit = memoryLimit;
+        m_cacheDir = dir;
+    }
+
     protected List<LinkWarning> timedProcess(String operation) throws CourierException {
         return null;
     }
@@ -136,22 +164,28 @@ public class StreamSource extends TimedStringReceiver implements DataSource {
         }
 
         try {
-            WorkThread thread = (WorkThread)m_threadPool.getObject();
-            try {
-                final ResultHolder sh = new ResultHolder();
-                ExceptionCatchRunnable task = new ExceptionCatchRunnable() {
-                    protected void safeRun() throws Exception {
-                        sh.result = innerRequest(query);
-                    }
-                };
-                if (!thread.launchWorkAndWait(task, m_timeout*1000)) {
-                    throw new RuntimeException("Timeout " + m_timeout + " sec. expired");
+            final ResultHolder sh = new ResultHolder();
+            ExceptionCatchRunnable task = new ExceptionCatchRunnable() {
+                protected void safeRun() throws Exception {
+                    sh.result = innerRequest(query);
+                }
+            };
+            boolean finished;
+            if (m_executor != null) {
+                finished = m_executor.launchWorkAndWait(task, m_timeout*1000);
+            } else {
+                WorkThread thread = (WorkThread)m_threadPool.getObject();
+                try {
+                    finished = thread.launchWorkAndWait(task, m_timeout*1000);
+                } finally {
+                    m_threadPool.releaseObject(thread);
                 }
-                if (task.getException() != null) throw task.getException();
-                return sh.result;
-            } finally {
-                m_threadPool.releaseObject(thread);
             }
+            if (!finished) {
+                throw new RuntimeException("Timeout " + m_timeout + " sec. expired");
+            }
+            if (task.getException() != null) throw task.getException();
+            return sh.result;
         } catch (Exception e) {
             throw new CourierException(e);
         } finally {
@@ -174,29 +208,40 @@ public class StreamSource extends TimedStringReceiver implements DataSource {
 
         InputStream is = m_cursf.createStream();
         if (m_cacheData) {
-            ByteArrayOutputStream w = new ByteArrayOutputStream();
-            StreamHelper.transfer(
-                is, w, 4*1024,
-                new Condition() {
-                    public boolean isTrue() { return isCancelled(); }
-                },
-                true
+            StreamCache cache = new StreamCache(m_cacheMemoryLimit, m_cacheDir);
+            try {
+                StreamHelper.transfer(
+                    is, cache, 16*1024,
+                    new Condition() {
+                        public boolean isTrue() { return isCancelled(); }
+                    },
+                    true
+                );
+                if (isCancelled()) throw new RuntimeException("Request cancelled");
+                is = cache.getInputStream();
+            } finally {
+                cache.discard();
+            }
+            m_logger.debug(
+                "StreamSource cached " + cache.getSize() + " bytes"
+                + (cache.isSpilled() ? " in file" : "")
             );
-
-            //m_logger.debug("StreamSource cache:\n" + w.toString());
-
-            is = new ByteArrayInputStream(w.toByteArray());
         }
 
-        synchronized(this) {
-            if (m_state == c_cancelState) {
-                throw new RuntimeException("Request cancelled");
+        try {
+            synchronized(this) {
+                if (m_state == c_cancelState) {
+                    throw new RuntimeException("Request cancelled");
+                }
+                //ensureState(c_connectState);
+                setState(c_parseState);
             }
-            //ensureState(c_connectState);
-            setState(c_parseState);
+            m_curp = createParser(p);
+            return m_curp.parse(is);
+        } catch (Exception e) {
+            if (m_cacheData) is.close();
+            throw e;
         }
-        m_curp = createParser(p);
-        return m_curp.parse(is);
     }
 
     private synchronized boolean isCancelled() {
@@ -218,12 +263,14 @@ public class StreamSource extends TimedStringReceiver implements DataSource {
             );
         } else if (type.equals("exec")) {
             p.skipBlanks();
-            return new ExecStreamConnector(
+            ExecStreamConnector ret = new ExecStreamConnector(
                 m_logger, m_threadPool, p.shiftWordOrBracketedString('\''), null, null
             );
+            ret.setExecutor(m_executor);
+            return ret;
         } else if (type.equals("ssh")) {
             Properties props = p.getProperties(null, '\'', "|");
-            return new SshStreamConnector(
+            SshStreamConnector ret = new SshStreamConnector(
                 m_logger, m_threadPool,
                 StringHelper.stringParam(props, "host", null),
                 StringHelper.intParam(props, "port", -1),
@@ -231,6 +278,8 @@ public class StreamSource extends TimedStringReceiver implements DataSource {
                 StringHelper.stringParam(props, "password", null),
                 StringHelper.stringParam(props, "command", null)
             );
+            ret.setExecutor(m_executor);
+            return ret;
         } else if (type.equals("const")) {
             Properties props = p.getProperties(null, '\'', "|");
             String data = StringHelper.stringParam(props, "data", "");
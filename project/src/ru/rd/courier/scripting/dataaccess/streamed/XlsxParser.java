@@ -0,0 +1,355 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess.streamed;
+
+import ru.rd.courier.jdbc.ResultSets.IterColumnInfo;
+import ru.rd.courier.jdbc.ResultSets.StringBufferedResultSet;
+import ru.rd.courier.utils.ReqExpChecker;
+import ru.rd.courier.utils.StreamHelper;
+import ru.rd.courier.utils.StringChecker;
+import ru.rd.courier.utils.StringSimpleParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Office Open XML (xlsx) counterpart of {@link ExcelParser} with the same
+ * options. Stream is stored to temporary file to read the workbook parts
+ * in any order, data sheet rows are read one by one.
+ */
+public class XlsxParser implements StreamParser {
+    private final String m_sheetName;
+    private int m_leftColumn;
+    private final int m_rightColumn;
+    private int m_captionRow;
+    private int m_dataRow;
+    private final List<ExcelParser.ConstField> m_constFields;
+    private final boolean m_needToTrim;
+    private final boolean m_stopAtBlankCaption;
+    private final StringChecker m_skipCaptionSelector;
+    private final boolean m_blankCaptionAsNumber;
+    private final String m_blankCaptionPrefix;
+    private final String m_dateFormat;
+    private final String m_numberFormat;
+
+    private static final TimeZone gmtZone = TimeZone.getTimeZone("GMT");
+    private static final String c_defaultDateFormat = "yyyy-MM-dd";
+    private static final String c_defaultDateTimeFormat = "yyyy-MM-dd HH:mm:ss";
+
+    public XlsxParser(
+        String sheetName, int leftColumn, int rightColumn,
+        int captionRow, int dataRow,
+        List<ExcelParser.ConstField> constFields, boolean needToTrim,
+        boolean stopAtBlankCaption, StringChecker skipCaptionSelector,
+        boolean blankCaptionAsNumber, String blankCaptionPrefix,
+        String dateFormat, String numberFormat
+    ) {
+        m_sheetName = sheetName;
+        m_leftColumn = leftColumn;
+        m_rightColumn = rightColumn;
+        m_captionRow = captionRow;
+        m_dataRow = dataRow;
+        m_constFields = constFields;
+        m_needToTrim = needToTrim;
+        m_stopAtBlankCaption = stopAtBlankCaption;
+        m_skipCaptionSelector = skipCaptionSelector;
+        m_blankCaptionAsNumber = blankCaptionAsNumber;
+        m_blankCaptionPrefix = blankCaptionPrefix;
+        m_dateFormat = dateFormat;
+        m_numberFormat = numberFormat;
+    }
+
+    public void parseProperties(StringSimpleParser p) {
+        Properties props = p.getProperties(null, '\'', "|");
+        m_leftColumn = ExcelParser.intParam(props, "left-column", m_leftColumn);
+        m_captionRow = ExcelParser.intParam(props, "caption-row", m_captionRow);
+        m_dataRow = ExcelParser.intParam(props, "data-row", m_dataRow);
+    }
+
+    private static class CellFormatter {
+        private final XlsxWorkbook m_book;
+        private final boolean m_needToTrim;
+        private final DateFormat m_df;
+        private final DateFormat m_defaultDf;
+        private final DateFormat m_defaultDtf;
+        private final NumberFormat m_nf;
+
+        public CellFormatter(
+            XlsxWorkbook book, boolean needToTrim,
+            String dateFormat, String numberFormat
+        ) {
+            m_book = book;
+            m_needToTrim = needToTrim;
+            m_df = dateFormat == null ? null : gmtFormat(dateFormat);
+            m_defaultDf = gmtFormat(c_defaultDateFormat);
+            m_defaultDtf = gmtFormat(c_defaultDateTimeFormat);
+            m_nf = numberFormat == null ? null : new DecimalFormat(numberFormat);
+        }
+
+        private static DateFormat gmtFormat(String format) {
+            DateFormat ret = new SimpleDateFormat(format);
+            ret.setTimeZone(gmtZone);
+            return ret;
+        }
+
+        public String getContent(XlsxWorkbook.SheetReader sheet, int row, int col) {
+            String v = sheet.getValue(row, col);
+            String data;
+            switch (sheet.getType(row, col)) {
+                case XlsxWorkbook.c_blank:
+                    data = "";
+                    break;
+                case XlsxWorkbook.c_number: {
+                    double d = Double.parseDouble(v);
+                    data = m_nf == null ? Double.toString(d) : m_nf.format(d);
+                    break;
+                }
+                case XlsxWorkbook.c_date: {
+                    double d = Double.parseDouble(v);
+                    DateFormat df = m_df;
+                    if (df == null) df = (d == Math.floor(d)) ? m_defaultDf : m_defaultDtf;
+                    data = df.format(new Date(m_book.toMillis(d)));
+                    break;
+                }
+                default:
+                    data = v;
+            }
+            if (m_needToTrim) data = data.trim();
+            return data;
+        }
+
+        public String getCaption(XlsxWorkbook.SheetReader sheet, int row, int col) {
+            byte type = sheet.getType(row, col);
+            if (type == XlsxWorkbook.c_number) {
+                double d = Double.parseDouble(sheet.getValue(row, col));
+                if (d == Math.rint(d) && Math.abs(d) < Long.MAX_VALUE) {
+                    return Long.toString((long)d);
+                }
+                return Double.toString(d);
+            }
+            if (type == XlsxWorkbook.c_date) {
+                return getContent(sheet, row, col);
+            }
+            String ret = sheet.getValue(row, col);
+            return ret == null ? "" : ret;
+        }
+    }
+
+    private static class XlsxResultSet extends StringBufferedResultSet {
+        private final XlsxWorkbook m_book;
+        private final XlsxWorkbook.SheetReader m_sheet;
+        private final CellFormatter m_formatter;
+        private int m_row;
+        private final int[] m_positions;
+
+        public XlsxResultSet(
+            XlsxWorkbook book, XlsxWorkbook.SheetReader sheet,
+            CellFormatter formatter, int top,
+            List<IterColumnInfo> infos, List<Integer> positions,
+            Map<String, String> consts
+        ) {
+            super(null);
+            m_book = book;
+            m_sheet = sheet;
+            m_formatter = formatter;
+            m_row = top;
+            m_positions = new int[positions.size()];
+            int i = 0;
+            for (int p: positions) {
+                m_positions[i] = p;
+                i++;
+            }
+            initWithConsts(infos.toArray(new IterColumnInfo[infos.size()]), consts);
+        }
+
+        protected boolean needToClearNulls() {
+            return false;
+        }
+
+        protected boolean getRecord() throws SQLException {
+            try {
+                if (!m_sheet.readRow(m_row)) return false;
+            } catch (IOException e) {
+                throw new SQLException(e.getMessage());
+            }
+            for (int i = 0; i < getDynColCount(); i++) {
+                updateString(i + 1, m_formatter.getContent(m_sheet, m_row, m_positions[i]));
+            }
+            m_row++;
+            return true;
+        }
+
+        protected int skipRecords(int count) throws SQLException {
+            int i = 0;
+            try {
+                for (; i < count && m_sheet.readRow(m_row); i++) m_row++;
+            } catch (IOException e) {
+                throw new SQLException(e.getMessage());
+            }
+            return i;
+        }
+
+        public void close() throws SQLException {
+            m_sheet.close();
+            try {
+                m_book.close();
+            } catch (IOException e) {
+                throw new SQLException(e.getMessage());
+            }
+            super.close();
+        }
+    }
+
+    private int getColumnCount(XlsxWorkbook book, String sheetName) throws IOException {
+        XlsxWorkbook.SheetReader s = book.openSheet(sheetName);
+        try {
+            int ret = s.getDeclaredColumnCount();
+            if (ret >= 0) return ret;
+            if (m_rightColumn >= 0) return m_rightColumn + 1;
+            ret = 0;
+            for (int r = 0; s.readRow(r); r++) {
+                ret = Math.max(ret, s.getCellCount(r));
+            }
+            return ret;
+        } finally {
+            s.close();
+        }
+    }
+
+    private void formCols(
+        XlsxWorkbook book, CellFormatter formatter, int colCount,
+        List<IterColumnInfo> cols, List<Integer> positions
+    ) throws IOException {
+        XlsxWorkbook.SheetReader s = null;
+        try {
+            if (m_captionRow >= 0) {
+                s = book.openSheet(m_sheetName);
+                s.readRow(m_captionRow);
+            }
+            for (int c = m_leftColumn; c < colCount; c++) {
+                if (m_rightColumn >= 0 && c > m_rightColumn) break;
+                String t = "";
+                if (s != null) {
+                    t = formatter.getCaption(s, m_captionRow, c).trim();
+                    if (m_skipCaptionSelector.isTrue(t)) continue;
+                    if (m_stopAtBlankCaption) break;
+                }
+                if (t.length() == 0) {
+                    if (m_blankCaptionAsNumber) {
+                        t = m_blankCaptionPrefix + Integer.toString(c);
+                    } else {
+                        t = m_blankCaptionPrefix + ExcelParser.columnPosToStr(c);
+                    }
+                }
+                cols.add(new IterColumnInfo(t));
+                positions.add(c);
+            }
+        } finally {
+            if (s != null) s.close();
+        }
+    }
+
+    private static final StringChecker s_anyString = new StringChecker() {
+        public boolean isTrue(String str) { return true; }
+    };
+
+    private String getConstValue(
+        XlsxWorkbook book, CellFormatter formatter, ExcelParser.ConstField f
+    ) throws IOException {
+        String sheetName = f.getSheetName() == null ? m_sheetName : f.getSheetName();
+        StringChecker checker = (f.getPattern() == null) ? s_anyString : new ReqExpChecker(f.getPattern());
+        XlsxWorkbook.SheetReader s = book.openSheet(sheetName);
+        try {
+            int colCount = s.getDeclaredColumnCount();
+            int fRow = f.getFinishRow();
+            for (int r = f.getRow(); (fRow < 0 || r <= fRow) && s.readRow(r); r++) {
+                int lastCol = colCount >= 0 ? colCount - 1 : s.getCellCount(r) - 1;
+                if (r == fRow && f.getFinishCol() >= 0) {
+                    lastCol = Math.min(lastCol, f.getFinishCol());
+                }
+                for (int c = (r == f.getRow()) ? f.getCol() : 0; c <= lastCol; c++) {
+                    String cont = formatter.getContent(s, r, c);
+                    if (checker.isTrue(cont)) return cont;
+                }
+            }
+            return "";
+        } finally {
+            s.close();
+        }
+    }
+
+    public ResultSet parse(InputStream is) throws IOException {
+        File f = File.createTempFile("xlsx-parser", ".xlsx");
+        XlsxWorkbook book;
+        try {
+            StreamHelper.transfer(is, new FileOutputStream(f), 64*1024, null, true);
+            book = new XlsxWorkbook(f, true);
+        } catch (IOException e) {
+            f.delete();
+            throw e;
+        }
+
+        XlsxWorkbook.SheetReader s = null;
+        try {
+            CellFormatter formatter = new CellFormatter(
+                book, m_needToTrim, m_dateFormat, m_numberFormat
+            );
+            List<IterColumnInfo> cols = new LinkedList<IterColumnInfo>();
+            List<Integer> positions = new LinkedList<Integer>();
+            formCols(book, formatter, getColumnCount(book, m_sheetName), cols, positions);
+            Map<String, String> consts = new HashMap<String, String>();
+            for (ExcelParser.ConstField cf: m_constFields) {
+                consts.put(cf.getName(), getConstValue(book, formatter, cf));
+            }
+            s = book.openSheet(m_sheetName);
+            return new XlsxResultSet(book, s, formatter, m_dataRow, cols, positions, consts);
+        } catch (IOException e) {
+            if (s != null) s.close();
+            book.close();
+            throw e;
+        } catch (RuntimeException e) {
+            if (s != null) s.close();
+            book.close();
+            throw e;
+        }
+    }
+
+    public void cancel() {}
+}
@@ -0,0 +1,531 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess.streamed;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Office Open XML (xlsx) workbook read with java.util.zip and StAX.
+ * Shared strings and cell styles are loaded on open, sheet rows are read
+ * one by one with {@link SheetReader}.
+ */
+public class XlsxWorkbook implements Closeable {
+    public static final byte c_blank = 0;
+    public static final byte c_string = 1;
+    public static final byte c_number = 2;
+    public static final byte c_date = 3;
+    public static final byte c_boolean = 4;
+    public static final byte c_error = 5;
+
+    private static final XMLInputFactory s_xmlFactory;
+    static {
+        s_xmlFactory = XMLInputFactory.newInstance();
+        s_xmlFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        s_xmlFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    }
+
+    private static final long c_dayMillis = 24*60*60*1000L;
+    private static final int c_unixEpochSerial = 25569;
+    private static final int c_date1904Shift = 1462;
+
+    private final ZipFile m_zip;
+    private final Map<String, String> m_sheets = new LinkedHashMap<String, String>();
+    private final List<String> m_sharedStrings = new ArrayList<String>();
+    private boolean[] m_dateStyles = new boolean[0];
+    private boolean m_date1904 = false;
+
+    /**
+     * @param deleteFile delete the file when the workbook is closed
+     */
+    public XlsxWorkbook(File file, boolean deleteFile) throws IOException {
+        m_zip = new ZipFile(file, deleteFile ? ZipFile.OPEN_READ | ZipFile.OPEN_DELETE : ZipFile.OPEN_READ);
+        try {
+            String wbPath = "xl/workbook.xml";
+            Map<String, String> rootRels = readRels("_rels/.rels", "");
+            for (Map.Entry<String, String> e: rootRels.entrySet()) {
+                if (e.getKey().endsWith("/officeDocument")) wbPath = e.getValue();
+            }
+            String wbDir = wbPath.substring(0, wbPath.lastIndexOf('/') + 1);
+            String relsPath = wbDir + "_rels/" + wbPath.substring(wbDir.length()) + ".rels";
+            Map<String, String> wbRels = readRels(relsPath, wbDir);
+            String sharedStrings = wbDir + "sharedStrings.xml";
+            String styles = wbDir + "styles.xml";
+            for (Map.Entry<String, String> e: wbRels.entrySet()) {
+                if (e.getKey().endsWith("/sharedStrings")) sharedStrings = e.getValue();
+                if (e.getKey().endsWith("/styles")) styles = e.getValue();
+            }
+            readWorkbook(wbPath, wbRels);
+            readSharedStrings(sharedStrings);
+            readStyles(styles);
+        } catch (IOException e) {
+            m_zip.close();
+            throw e;
+        } catch (RuntimeException e) {
+            m_zip.close();
+            throw e;
+        }
+    }
+
+    private XMLStreamReader openXml(String path) throws IOException {
+        ZipEntry entry = m_zip.getEntry(path);
+        if (entry == null) return null;
+        try {
+            return s_xmlFactory.createXMLStreamReader(m_zip.getInputStream(entry));
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String resolvePath(String dir, String target) {
+        if (target.startsWith("/")) return target.substring(1);
+        String path = dir + target;
+        while (true) {
+            int pos = path.indexOf("/../");
+            if (pos < 0) break;
+            int start = path.lastIndexOf('/', pos - 1);
+            path = path.substring(0, start + 1) + path.substring(pos + 4);
+        }
+        return path;
+    }
+
+    private static String attr(XMLStreamReader r, String localName) {
+        for (int i = 0; i < r.getAttributeCount(); i++) {
+            if (r.getAttributeLocalName(i).equals(localName)) return r.getAttributeValue(i);
+        }
+        return null;
+    }
+
+    /**
+     * @return relationship type (or id prefixed by '#') to target path map
+     */
+    private Map<String, String> readRels(String path, String dir) throws IOException {
+        Map<String, String> ret = new HashMap<String, String>();
+        XMLStreamReader r = openXml(path);
+        if (r == null) return ret;
+        try {
+            while (r.hasNext()) {
+                if (r.next() == XMLStreamConstants.START_ELEMENT
+                    && r.getLocalName().equals("Relationship")) {
+                    String target = resolvePath(dir, attr(r, "Target"));
+                    ret.put(attr(r, "Type"), target);
+                    ret.put("#" + attr(r, "Id"), target);
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            close(r);
+        }
+        return ret;
+    }
+
+    private void readWorkbook(String path, Map<String, String> rels) throws IOException {
+        XMLStreamReader r = openXml(path);
+        if (r == null) throw new IOException("Workbook part '" + path + "' not found");
+        try {
+            while (r.hasNext()) {
+                if (r.next() != XMLStreamConstants.START_ELEMENT) continue;
+                String name = r.getLocalName();
+                if (name.equals("workbookPr")) {
+                    String v = attr(r, "date1904");
+                    m_date1904 = "1".equals(v) || "true".equals(v);
+                } else if (name.equals("sheet")) {
+                    String target = rels.get("#" + attr(r, "id"));
+                    if (target != null) m_sheets.put(attr(r, "name"), target);
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            close(r);
+        }
+    }
+
+    private void readSharedStrings(String path) throws IOException {
+        XMLStreamReader r = openXml(path);
+        if (r == null) return;
+        try {
+            StringBuffer sb = new StringBuffer();
+            int phonetic = 0;
+            while (r.hasNext()) {
+                int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = r.getLocalName();
+                    if (name.equals("si")) {
+                        sb.setLength(0);
+                    } else if (name.equals("rPh")) {
+                        phonetic++;
+                    } else if (name.equals("t") && phonetic == 0) {
+                        sb.append(r.getElementText());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = r.getLocalName();
+                    if (name.equals("si")) {
+                        m_sharedStrings.add(sb.toString());
+                    } else if (name.equals("rPh")) {
+                        phonetic--;
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            close(r);
+        }
+    }
+
+    private static boolean isBuiltinDateFormat(int id) {
+        return (id >= 14 && id <= 22) || (id >= 27 && id <= 36)
+            || (id >= 45 && id <= 47) || (id >= 50 && id <= 58);
+    }
+
+    /**
+     * @return whether number format code displays date or time
+     */
+    public static boolean isDateFormat(String code) {
+        boolean quoted = false;
+        boolean bracket = false;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (quoted) {
+                if (c == '"') quoted = false;
+            } else if (bracket) {
+                if (c == ']') bracket = false;
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == '[') {
+                bracket = true;
+            } else if (c == '\\' || c == '_' || c == '*') {
+                i++;
+            } else if (c == ';') {
+                break;
+            } else if ("dmyhsDMYHS".indexOf(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void readStyles(String path) throws IOException {
+        XMLStreamReader r = openXml(path);
+        if (r == null) return;
+        try {
+            Map<Integer, Boolean> customFormats = new HashMap<Integer, Boolean>();
+            List<Boolean> styles = new ArrayList<Boolean>();
+            boolean cellXfs = false;
+            while (r.hasNext()) {
+                int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = r.getLocalName();
+                    if (name.equals("numFmt")) {
+                        customFormats.put(
+                            Integer.valueOf(attr(r, "numFmtId")),
+                            isDateFormat(attr(r, "formatCode"))
+                        );
+                    } else if (name.equals("cellXfs")) {
+                        cellXfs = true;
+                    } else if (name.equals("xf") && cellXfs) {
+                        String v = attr(r, "numFmtId");
+                        int id = v == null ? 0 : Integer.parseInt(v);
+                        Boolean custom = customFormats.get(id);
+                        styles.add(custom == null ? isBuiltinDateFormat(id) : custom);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (r.getLocalName().equals("cellXfs")) cellXfs = false;
+                }
+            }
+            m_dateStyles = new boolean[styles.size()];
+            for (int i = 0; i < m_dateStyles.length; i++) m_dateStyles[i] = styles.get(i);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            close(r);
+        }
+    }
+
+    private static void close(XMLStreamReader r) {
+        try {
+            r.close();
+        } catch (XMLStreamException e) {
+            // nothing to do
+        }
+    }
+
+    public List<String> getSheetNames() {
+        return new ArrayList<String>(m_sheets.keySet());
+    }
+
+    /**
+     * @param name sheet name or null for the first sheet
+     */
+    public SheetReader openSheet(String name) throws IOException {
+        String path;
+        if (name == null) {
+            if (m_sheets.isEmpty()) throw new IOException("Workbook has no sheets");
+            path = m_sheets.values().iterator().next();
+        } else {
+            path = m_sheets.get(name);
+            if (path == null) throw new IOException("Sheet '" + name + "' not found");
+        }
+        XMLStreamReader r = openXml(path);
+        if (r == null) throw new IOException("Sheet part '" + path + "' not found");
+        return new SheetReader(r);
+    }
+
+    /**
+     * @return milliseconds since epoch (GMT) for excel date serial number
+     */
+    public long toMillis(double serial) {
+        if (m_date1904) serial += c_date1904Shift;
+        return Math.round((serial - c_unixEpochSerial) * c_dayMillis);
+    }
+
+    public void close() throws IOException {
+        m_zip.close();
+    }
+
+    /**
+     * @return column index (0 based) of a cell reference like "AB12"
+     */
+    public static int columnIndex(String ref) {
+        int ret = 0;
+        for (int i = 0; i < ref.length(); i++) {
+            char c = ref.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                ret = ret * 26 + (c - 'A' + 1);
+            } else if (c >= 'a' && c <= 'z') {
+                ret = ret * 26 + (c - 'a' + 1);
+            } else {
+                break;
+            }
+        }
+        return ret - 1;
+    }
+
+    /**
+     * Forward only reader of sheet rows. Rows absent in the sheet xml are
+     * reported as blank rows.
+     */
+    public class SheetReader implements Closeable {
+        private final XMLStreamReader m_reader;
+        private int m_columnCount = -1;
+        private boolean m_started = false;
+        private boolean m_finished = false;
+        private int m_rowIndex = -1;
+        private int m_cellCount = 0;
+        private byte[] m_types = new byte[16];
+        private String[] m_values = new String[16];
+
+        private SheetReader(XMLStreamReader reader) {
+            m_reader = reader;
+        }
+
+        private void start() throws XMLStreamException {
+            m_started = true;
+            while (m_reader.hasNext()) {
+                if (m_reader.next() != XMLStreamConstants.START_ELEMENT) continue;
+                String name = m_reader.getLocalName();
+                if (name.equals("dimension")) {
+                    String ref = attr(m_reader, "ref");
+                    if (ref != null) {
+                        int pos = ref.indexOf(':');
+                        m_columnCount = columnIndex(pos < 0 ? ref : ref.substring(pos + 1)) + 1;
+                    }
+                } else if (name.equals("sheetData")) {
+                    return;
+                }
+            }
+            m_finished = true;
+        }
+
+        /**
+         * @return column count declared by the sheet or -1 if not declared
+         */
+        public int getDeclaredColumnCount() throws IOException {
+            try {
+                if (!m_started) start();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+            return m_columnCount;
+        }
+
+        private void setCell(int col, byte type, String value) {
+            if (col >= m_types.length) {
+                int size = Math.max(m_types.length * 2, col + 1);
+                byte[] types = new byte[size];
+                System.arraycopy(m_types, 0, types, 0, m_cellCount);
+                m_types = types;
+                String[] values = new String[size];
+                System.arraycopy(m_values, 0, values, 0, m_cellCount);
+                m_values = values;
+            }
+            for (int i = m_cellCount; i < col; i++) m_types[i] = c_blank;
+            m_types[col] = type;
+            m_values[col] = value;
+            if (col >= m_cellCount) m_cellCount = col + 1;
+        }
+
+        private boolean readXmlRow() throws XMLStreamException {
+            if (!m_started) start();
+            if (m_finished) return false;
+            while (m_reader.hasNext()) {
+                int event = m_reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT
+                    && m_reader.getLocalName().equals("row")) {
+                    String r = attr(m_reader, "r");
+                    m_rowIndex = r == null ? m_rowIndex + 1 : Integer.parseInt(r) - 1;
+                    m_cellCount = 0;
+                    readCells();
+                    return true;
+                }
+                if (event == XMLStreamConstants.END_ELEMENT
+                    && m_reader.getLocalName().equals("sheetData")) {
+                    break;
+                }
+            }
+            m_finished = true;
+            m_cellCount = 0;
+            return false;
+        }
+
+        private void readCells() throws XMLStreamException {
+            int col = -1;
+            while (m_reader.hasNext()) {
+                int event = m_reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT
+                    && m_reader.getLocalName().equals("row")) {
+                    return;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT
+                    || !m_reader.getLocalName().equals("c")) {
+                    continue;
+                }
+                String ref = attr(m_reader, "r");
+                col = ref == null ? col + 1 : columnIndex(ref);
+                String t = attr(m_reader, "t");
+                String s = attr(m_reader, "s");
+                String value = null;
+                StringBuffer inline = null;
+                while (m_reader.hasNext()) {
+                    event = m_reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = m_reader.getLocalName();
+                        if (name.equals("v")) {
+                            value = m_reader.getElementText();
+                        } else if (name.equals("t")) {
+                            if (inline == null) inline = new StringBuffer();
+                            inline.append(m_reader.getElementText());
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT
+                        && m_reader.getLocalName().equals("c")) {
+                        break;
+                    }
+                }
+                if (t == null || t.equals("n")) {
+                    if (value == null) continue;
+                    int style = s == null ? 0 : Integer.parseInt(s);
+                    boolean date = style < m_dateStyles.length && m_dateStyles[style];
+                    setCell(col, date ? c_date : c_number, value);
+                } else if (t.equals("s")) {
+                    if (value == null) continue;
+                    setCell(col, c_string, m_sharedStrings.get(Integer.parseInt(value.trim())));
+                } else if (t.equals("inlineStr")) {
+                    setCell(col, c_string, inline == null ? "" : inline.toString());
+                } else if (t.equals("b")) {
+                    setCell(col, c_boolean, "1".equals(value) ? "true" : "false");
+                } else if (t.equals("e")) {
+                    setCell(col, c_error, value);
+                } else if (t.equals("d")) {
+                    setCell(col, c_string, value);
+                } else {
+                    if (value == null) continue;
+                    setCell(col, c_string, value);
+                }
+            }
+        }
+
+        /**
+         * Positions the reader to the row. Rows before the current one are
+         * not available.
+         * @return false if the sheet has no rows starting with the row
+         */
+        public boolean readRow(int row) throws IOException {
+            try {
+                while (m_rowIndex < row) {
+                    if (!readXmlRow()) return false;
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+            return true;
+        }
+
+        private boolean isCurrent(int row) {
+            return row == m_rowIndex;
+        }
+
+        /**
+         * @return cells count in the row read by {@link #readRow}
+         */
+        public int getCellCount(int row) {
+            return isCurrent(row) ? m_cellCount : 0;
+        }
+
+        public byte getType(int row, int col) {
+            if (!isCurrent(row) || col >= m_cellCount) return c_blank;
+            return m_types[col];
+        }
+
+        public String getValue(int row, int col) {
+            if (!isCurrent(row) || col >= m_cellCount || m_types[col] == c_blank) return null;
+            return m_values[col];
+        }
+
+        public void close() {
+            XlsxWorkbook.close(m_reader);
+        }
+    }
+}
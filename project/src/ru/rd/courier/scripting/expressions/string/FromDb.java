@@ -34,6 +34,9 @@ import ru.rd.courier.CourierException;
 import ru.rd.courier.scripting.Context;
 import ru.rd.courier.scripting.ScriptExpression;
 import ru.rd.courier.scripting.AbstractContext;
+import ru.rd.courier.scripting.LookupCache;
+import ru.rd.courier.scripting.LookupCacheConf;
+import ru.rd.courier.scripting.LookupRow;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -42,14 +45,30 @@ public class FromDb implements ScriptExpression {
     private ScriptExpression m_dbName;
     private String m_rsName;
     private ScriptExpression m_sql;
+    private final LookupCacheConf m_cache;
 
     public FromDb(
         final ScriptExpression dbName, final String rsName,
-        final ScriptExpression sql
+        final ScriptExpression sql, final LookupCacheConf cache
     ) {
         m_dbName = dbName;
         m_rsName = rsName;
         m_sql = sql;
+        m_cache = cache;
+    }
+
+    public FromDb(
+        final ScriptExpression dbName, final String rsName,
+        final ScriptExpression sql
+    ) {
+        this(dbName, rsName, sql, null);
+    }
+
+    public FromDb(
+        final String dbName, final String rsName,
+        final ScriptExpression sql, final LookupCacheConf cache
+    ) {
+        this(new Const(dbName), rsName, sql, cache);
     }
 
     public FromDb(
@@ -62,7 +81,33 @@ public class FromDb implements ScriptExpression {
     public String calculate(Context ctx) throws CourierException {
         String sql = m_sql.calculate(ctx);
         if (ctx.isCanceled()) return null;
-        ResultSet rs = AbstractContext.createResultSet(ctx, m_dbName.calculate(ctx), sql);
+        String dbName = m_dbName.calculate(ctx);
+        if (m_cache == null) return request(ctx, dbName, sql);
+
+        LookupCache cache = m_cache.getCache(ctx, "from-db", dbName, false);
+        Object key = m_cache.getKey(ctx, dbName, sql);
+        LookupRow row = cache.get(key);
+        if (row == null) {
+            ResultSet rs = AbstractContext.createResultSet(ctx, dbName, sql);
+            try {
+                if (ctx.isCanceled()) return null;
+                row = LookupCacheConf.readFirst(ctx, rs, false);
+            } catch (SQLException e) {
+                throw new CourierException(e);
+            } finally {
+                try {
+                    AbstractContext.closeResultSet(ctx, rs);
+                } catch(Exception e) {
+                    ctx.warning(e);
+                }
+            }
+            cache.put(key, row);
+        }
+        return row.getString(0);
+    }
+
+    private String request(Context ctx, String dbName, String sql) throws CourierException {
+        ResultSet rs = AbstractContext.createResultSet(ctx, dbName, sql);
         try {
             if (ctx.isCanceled()) return null;
 
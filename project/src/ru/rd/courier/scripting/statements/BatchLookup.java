@@ -0,0 +1,173 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.statements;
+
+import ru.rd.courier.CourierException;
+import ru.rd.courier.scripting.AbstractContext;
+import ru.rd.courier.scripting.Context;
+import ru.rd.courier.scripting.LookupRow;
+import ru.rd.courier.scripting.ScriptExpression;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lookup resolved for a window of source records at once. Keys of the
+ * window records are collected first, then they are requested by
+ * set-based queries of at most max-keys keys each: the key list is put
+ * into keys variable which the query uses as
+ * "where id in ([%$lookup-keys])". The first query column is the key,
+ * the rest are set into record variables. If all keys of the first window
+ * are null the query is executed once with NULL key list to learn the
+ * variable names.
+ */
+public class BatchLookup {
+    private final ScriptExpression m_dbName;
+    private final ScriptExpression m_sql;
+    private final ScriptExpression m_key;
+    private final ScriptExpression m_prefix;
+    private final String m_keysVarName;
+    private final int m_maxKeys;
+    private final boolean m_quoteKeys;
+
+    public BatchLookup(
+        ScriptExpression dbName, ScriptExpression sql, ScriptExpression key,
+        ScriptExpression prefix, String keysVarName, int maxKeys, boolean quoteKeys
+    ) {
+        if (maxKeys < 1) throw new CourierException("Batch lookup max-keys must be > 0");
+        m_dbName = dbName;
+        m_sql = sql;
+        m_key = key;
+        m_prefix = prefix;
+        m_keysVarName = keysVarName;
+        m_maxKeys = maxKeys;
+        m_quoteKeys = quoteKeys;
+    }
+
+    /**
+     * Lookup results of one window
+     */
+    public class Batch {
+        private final Set<String> m_keys = new LinkedHashSet<String>();
+        private final Map<String, LookupRow> m_rows = new HashMap<String, LookupRow>();
+        private LookupRow m_empty = null;
+        private boolean m_hasNullKeys = false;
+        private int m_requestCount = 0;
+
+        public void collect(Context ctx) {
+            String key = m_key.calculate(ctx);
+            if (key != null) m_keys.add(key);
+            else m_hasNullKeys = true;
+        }
+
+        public void resolve(Context ctx) {
+            List<String> keys = new ArrayList<String>(m_keys);
+            String dbName = m_dbName.calculate(ctx);
+            for (int i = 0; i < keys.size(); i += m_maxKeys) {
+                if (ctx.isCanceled()) return;
+                request(ctx, dbName, keys.subList(i, Math.min(i + m_maxKeys, keys.size())));
+            }
+            if (m_empty == null && m_hasNullKeys && !ctx.isCanceled()) {
+                request(ctx, dbName, new ArrayList<String>());
+            }
+            m_keys.clear();
+            m_hasNullKeys = false;
+        }
+
+        private void request(Context ctx, String dbName, List<String> keys) {
+            ctx.setVar(m_keysVarName, keys.isEmpty() ? "NULL" : keysToString(keys));
+            ResultSet rs = AbstractContext.createResultSet(ctx, dbName, m_sql.calculate(ctx));
+            m_requestCount++;
+            try {
+                if (m_empty == null) m_empty = LookupRow.read(rs, false, 2, true);
+                while (true) {
+                    long begTime = System.currentTimeMillis();
+                    boolean hasNext = rs.next();
+                    ctx.addSourceTime(System.currentTimeMillis() - begTime);
+                    if (!hasNext || ctx.isCanceled()) break;
+                    String key = rs.getString(1);
+                    if (key != null && !m_rows.containsKey(key)) {
+                        m_rows.put(key, LookupRow.read(rs, true, 2, true));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new CourierException(e);
+            } finally {
+                try { AbstractContext.closeResultSet(ctx, rs); }
+                catch(Exception e) { ctx.warning(e); }
+            }
+        }
+
+        /**
+         * Sets current record lookup variables: null if there is no key in
+         * lookup result
+         */
+        public void apply(Context ctx) {
+            String key = m_key.calculate(ctx);
+            LookupRow row = key == null ? null : m_rows.get(key);
+            if (row == null) row = m_empty;
+            if (row != null) row.toVars(ctx, m_prefix == null ? null : m_prefix.calculate(ctx));
+        }
+
+        public void clear() {
+            m_keys.clear();
+            m_hasNullKeys = false;
+            m_rows.clear();
+        }
+
+        public int getRequestCount() {
+            return m_requestCount;
+        }
+    }
+
+    public Batch createBatch() {
+        return new Batch();
+    }
+
+    private String keysToString(List<String> keys) {
+        StringBuilder sb = new StringBuilder(keys.size() * 8);
+        for (String key: keys) {
+            if (sb.length() > 0) sb.append(',');
+            if (m_quoteKeys) {
+                sb.append('\'').append(key.replace("'", "''")).append('\'');
+            } else {
+                sb.append(key);
+            }
+        }
+        return sb.toString();
+    }
+}
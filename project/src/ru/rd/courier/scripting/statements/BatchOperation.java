@@ -0,0 +1,104 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.statements;
+
+import ru.rd.courier.CourierException;
+import ru.rd.courier.scripting.*;
+import ru.rd.courier.scripting.dataaccess.jdbc.BatchRow;
+import ru.rd.courier.scripting.expressions.string.Const;
+
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * Sends parameterized statement with current values of the variables
+ * to receiver executing it in JDBC batch. Typed row variables are bound
+ * with their native types, other variables as strings.
+ */
+public class BatchOperation implements ScriptStatement {
+    private final ScriptExpression m_dbName;
+    private final ScriptExpression m_sql;
+    private final String[] m_params;
+
+    public BatchOperation(
+        final ScriptExpression dbName, final ScriptExpression sql, final String params
+    ) {
+        m_dbName = dbName;
+        m_sql = sql;
+        if (params == null || params.trim().length() == 0) {
+            m_params = new String[0];
+        } else {
+            m_params = params.trim().split("\\s*,\\s*");
+        }
+    }
+
+    public BatchOperation(final String dbName, final ScriptExpression sql, final String params) {
+        this(new Const(dbName), sql, params);
+    }
+
+    public void start(final Context ctx) throws CourierException {}
+    public void finish(final Context ctx) throws CourierException {}
+
+    public void exec(final Context ctx) throws CourierException {
+        String dbName = m_dbName.calculate(ctx);
+        final DataReceiver dr = ctx.getReceiver(dbName);
+        ctx.addUsedLink(dr);
+        try {
+            final String sql = m_sql.calculate(ctx);
+            final Object[] values = new Object[m_params.length];
+            final int[] types = new int[m_params.length];
+            for (int i = 0; i < m_params.length; i++) {
+                final ScriptExpression exp = ctx.getVarExpression(m_params[i]);
+                if (exp instanceof TypedRow.Column) {
+                    final TypedRow.Column col = (TypedRow.Column)exp;
+                    values[i] = col.getObject(ctx);
+                    types[i] = col.getType() == TypedRow.c_typeBinary
+                        ? Types.VARCHAR : col.getRow().getSqlType(col.getIndex());
+                } else {
+                    values[i] = exp.calculate(ctx);
+                    types[i] = Types.VARCHAR;
+                }
+            }
+            if (ctx.isCanceled()) return;
+            List<LinkWarning> ws;
+            try {
+                ws = dr.process(new BatchRow(sql, values, types));
+            } catch (Exception e) {
+                throw new CourierException(
+                    "Error executing on receiver '" + dbName + "' batch operation:\n" + sql, e
+                );
+            }
+            ctx.addDbWarning(ws);
+        } finally {
+            ctx.removeUsedLink(dr);
+        }
+    }
+}
@@ -38,12 +38,45 @@ import ru.rd.courier.scripting.AbstractContext;
 import ru.rd.courier.scripting.expressions.string.Const;
 
 import java.sql.ResultSet;
+import java.util.List;
 
 public class CtxResultSetLoop extends ResultSetLoopSkeleton {
     private final ScriptExpression m_dbName;
     private final String m_rsName;
     private final ScriptExpression m_sql;
 
+    public CtxResultSetLoop(
+        final ScriptExpression dbName, final String rsName,
+        final ScriptExpression sql,
+        final ScriptStatement stmt, final String label,
+        String recCountVarName, String lastRecordVarName,
+        boolean errorAsNull, ScriptExpression prefix,
+        String xmlvar, String xmlRecordTag, boolean xmlAttributes,
+        boolean typedRow, int batchSize, List<BatchLookup> batchLookups
+    ) {
+        this(
+            dbName, rsName, sql, stmt,label, recCountVarName, lastRecordVarName,
+            errorAsNull, prefix, xmlvar, xmlRecordTag, xmlAttributes, typedRow
+        );
+        setBatchLookups(batchSize, batchLookups);
+    }
+
+    public CtxResultSetLoop(
+        final ScriptExpression dbName, final String rsName,
+        final ScriptExpression sql,
+        final ScriptStatement stmt, final String label,
+        String recCountVarName, String lastRecordVarName,
+        boolean errorAsNull, ScriptExpression prefix,
+        String xmlvar, String xmlRecordTag, boolean xmlAttributes,
+        boolean typedRow
+    ) {
+        this(
+            dbName, rsName, sql, stmt,label, recCountVarName, lastRecordVarName,
+            errorAsNull, prefix, xmlvar, xmlRecordTag, xmlAttributes
+        );
+        setTypedRow(typedRow);
+    }
+
     public CtxResultSetLoop(
         final ScriptExpression dbName, final String rsName,
         final ScriptExpression sql,
@@ -148,6 +181,11 @@ public class CtxResultSetLoop extends ResultSetLoopSkeleton {
         }
     }
 
+    protected void windowCreated(final Context ctx, final ResultSet window) throws CourierException {
+        // template references to the result set read the window record
+        if (m_rsName != null) ctx.addResultSet(m_rsName, window);
+    }
+
     protected boolean needStandardCleanUp() throws CourierException {
         return m_rsName == null;
     }
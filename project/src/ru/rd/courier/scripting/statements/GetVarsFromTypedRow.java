@@ -0,0 +1,139 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.statements;
+
+import ru.rd.courier.CourierException;
+import ru.rd.courier.scripting.Context;
+import ru.rd.courier.scripting.ScriptExpression;
+import ru.rd.courier.scripting.ScriptStatement;
+import ru.rd.courier.scripting.TypedRow;
+import ru.rd.courier.utils.StringHelper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Typed counterpart of {@link GetVarsFromDirectRs}: result set metadata
+ * is read once and record values are moved into {@link TypedRow} slots.
+ */
+public class GetVarsFromTypedRow implements ScriptStatement {
+    private final ResultSet m_rs;
+    private final boolean m_errorAsNull;
+    private final String m_prefix;
+    private final String m_xmlvar;
+    private final String m_xmlRecordTag;
+    private final boolean m_xmlAttributes;
+    private TypedRow m_row = null;
+    private StringBuffer m_xml = null;
+
+    public GetVarsFromTypedRow(
+        ResultSet rs,
+        boolean errorAsNull, String prefix,
+        String xmlvar, String xmlRecordTag, boolean xmlAttributes
+    ) {
+        m_rs = rs;
+        m_errorAsNull = errorAsNull;
+        m_prefix = prefix;
+        m_xmlvar = xmlvar;
+        m_xmlRecordTag = xmlRecordTag;
+        m_xmlAttributes = xmlAttributes;
+    }
+
+    public GetVarsFromTypedRow(
+        ResultSet rs,
+        boolean errorAsNull, ScriptExpression prefix, Context ctx,
+        String xmlvar, String xmlRecordTag, boolean xmlAttributes
+    ) {
+        this(
+            rs, errorAsNull,
+            prefix == null ? null : prefix.calculate(ctx),
+            xmlvar, xmlRecordTag, xmlAttributes
+        );
+    }
+
+    public TypedRow getRow(final Context ctx) throws CourierException {
+        if (m_row == null) {
+            try {
+                m_row = new TypedRow(m_rs.getMetaData(), m_prefix);
+            } catch (SQLException e) {
+                throw new CourierException(e);
+            }
+        }
+        return m_row;
+    }
+
+    public void start(final Context ctx) {}
+    public void finish(final Context ctx) {}
+
+    public void exec(final Context ctx) throws CourierException {
+        if (ctx.isCanceled()) return;
+        final TypedRow row = getRow(ctx);
+        row.fetch(m_rs, ctx, m_errorAsNull);
+        row.bind(ctx);
+        if (m_xmlvar != null) ctx.setVar(m_xmlvar, formXml(row, ctx));
+    }
+
+    private String formXml(TypedRow row, Context ctx) throws CourierException {
+        if (m_xml == null) {
+            m_xml = new StringBuffer(row.getColumnCount() * 10);
+        } else {
+            m_xml.setLength(0);
+        }
+        final StringBuffer xml = m_xml;
+        if (m_xmlAttributes) {
+            xml.append(m_xmlRecordTag == null ? "<record" : "<" + m_xmlRecordTag);
+        } else {
+            if (m_xmlRecordTag != null) {
+                xml.append('<').append(m_xmlRecordTag).append('>');
+            }
+        }
+        for (int i = 0; i < row.getColumnCount(); i++) {
+            String fieldName = row.getFieldName(i);
+            String v = row.getColumn(i).calculate(ctx);
+            v = v == null ? "" : StringHelper.replaceChars(v, "<\"", new String[] {"&lt;", "&quot;"});
+            if (m_xmlAttributes) {
+                xml.append(' ').append(fieldName).append("=\"").append(v).append('"');
+            } else {
+                xml.append('<').append(fieldName).append('>');
+                xml.append(v);
+                xml.append('<').append('/').append(fieldName).append('>');
+            }
+        }
+        if (m_xmlAttributes) {
+            xml.append("/>");
+        } else {
+            if (m_xmlRecordTag != null) {
+                xml.append("</").append(m_xmlRecordTag).append('>');
+            }
+        }
+        return xml.toString();
+    }
+}
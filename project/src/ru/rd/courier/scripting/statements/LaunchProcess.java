@@ -36,6 +36,8 @@ import ru.rd.courier.utils.StringHelper;
 import ru.rd.courier.scripting.Context;
 import ru.rd.courier.scripting.ScriptExpression;
 import ru.rd.courier.scripting.ScriptStatement;
+import ru.rd.courier.scripting.TypedRow;
+import ru.rd.courier.scripting.expressions.string.Const;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -92,6 +94,13 @@ public class LaunchProcess implements ScriptStatement {
     public void start(Context ctx) throws CourierException {}
     public void finish(Context ctx) throws CourierException {}
 
+    // typed row slots change with every record so their current values are copied
+    private static ScriptExpression importVar(Context ctx, String varName) {
+        ScriptExpression exp = ctx.getVarExpression(varName);
+        if (exp instanceof TypedRow.Column) return new Const(exp.calculate(ctx));
+        return exp;
+    }
+
     public void exec(Context ctx) throws CourierException {
         SystemDb sdb = ((CourierContext)ctx.getObject(m_courierObjectName)).getSystemDb();
 
@@ -101,13 +110,13 @@ public class LaunchProcess implements ScriptStatement {
         if (importVars == null) {
             for(String varName: ctx.getVarKeySet()) {
                 if (varName.length() == 0 || varName.charAt(0) == '$') continue;
-                pars.put(varName, ctx.getVarExpression(varName));
+                pars.put(varName, importVar(ctx, varName));
             }
         } else {
             String[] importVarsArr = importVars.split("\\s*,\\s*");
             for(String varName: importVarsArr) {
                 if (varName.length() == 0 || varName.charAt(0) == '$') continue;
-                pars.put(varName, ctx.getVarExpression(varName));
+                pars.put(varName, importVar(ctx, varName));
             }
         }
 
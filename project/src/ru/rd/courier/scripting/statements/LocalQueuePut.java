@@ -0,0 +1,74 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.statements;
+
+import ru.rd.courier.CourierException;
+import ru.rd.courier.scripting.Context;
+import ru.rd.courier.scripting.ScriptExpression;
+import ru.rd.courier.scripting.ScriptStatement;
+import ru.rd.courier.scripting.dataaccess.LocalQueue;
+import ru.rd.courier.utils.StringHelper;
+
+import java.io.IOException;
+
+/**
+ * Puts message into the {@link LocalQueue} waiting while the queue is full
+ * at most timeout.
+ */
+public class LocalQueuePut implements ScriptStatement {
+    private final ScriptExpression m_queueName;
+    private final ScriptExpression m_message;
+    private final long m_timeout;
+
+    public LocalQueuePut(ScriptExpression queueName, ScriptExpression message, String timeout) {
+        m_queueName = queueName;
+        m_message = message;
+        m_timeout = StringHelper.parseTime(timeout, "ms");
+    }
+
+    public void exec(Context ctx) throws CourierException {
+        final String queueName = m_queueName.calculate(ctx);
+        boolean res;
+        try {
+            res = LocalQueue.getQueue(queueName).put(m_message.calculate(ctx), m_timeout);
+        } catch (IOException e) {
+            throw new CourierException(e);
+        } catch (InterruptedException e) {
+            throw new CourierException(e);
+        }
+        if (!res) {
+            throw new CourierException("Local queue '" + queueName + "' is full");
+        }
+    }
+
+    public void start(Context ctx) throws CourierException {}
+    public void finish(Context ctx) throws CourierException {}
+}
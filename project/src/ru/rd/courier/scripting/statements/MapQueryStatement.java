@@ -60,11 +60,16 @@ public abstract class MapQueryStatement implements ScriptStatement {
     public void finish(Context ctx) throws CourierException {}
 
     public final void exec(Context ctx) throws CourierException {
-        MapDataSource ds = (MapDataSource)ctx.getPooledObject(m_dbName.calculate(ctx)).getObject();
+        String dbName = m_dbName.calculate(ctx);
         Map<String, String> pars = new HashMap<String, String>();
         for (Map.Entry<String, ScriptExpression> e: m_params.entrySet()) {
             pars.put(e.getKey(), e.getValue().calculate(ctx));
         }
+        request(ctx, dbName, pars);
+    }
+
+    protected void request(Context ctx, String dbName, Map<String, String> pars) throws CourierException {
+        MapDataSource ds = (MapDataSource)ctx.getPooledObject(dbName).getObject();
         ResultSet rs = ds.request(pars);
         try {
             processResultSet(rs, ctx);
@@ -30,13 +30,20 @@
  */
 package ru.rd.courier.scripting.statements;
 
+import ru.rd.courier.CourierException;
 import ru.rd.courier.scripting.Context;
+import ru.rd.courier.scripting.LookupCache;
+import ru.rd.courier.scripting.LookupCacheConf;
+import ru.rd.courier.scripting.LookupRow;
+import ru.rd.courier.scripting.MapDataSource;
 import ru.rd.courier.scripting.ScriptExpression;
 import ru.rd.courier.scripting.expressions.string.Const;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * User: AStepochkin
@@ -45,20 +52,62 @@ import java.util.Map;
  */
 public class MapVarQuery extends MapQueryStatement {
     private final ScriptExpression m_prefix;
+    private final LookupCacheConf m_cache;
 
-    public MapVarQuery(ScriptExpression dbName, Map<String, ScriptExpression> params, ScriptExpression prefix) {
+    public MapVarQuery(
+        ScriptExpression dbName, Map<String, ScriptExpression> params,
+        ScriptExpression prefix, LookupCacheConf cache
+    ) {
         super(dbName, params);
         m_prefix = prefix;
+        m_cache = cache;
+    }
+
+    public MapVarQuery(ScriptExpression dbName, Map<String, ScriptExpression> params, LookupCacheConf cache) {
+        this(dbName, params, null, cache);
+    }
+
+    public MapVarQuery(ScriptExpression dbName, Map<String, ScriptExpression> params, ScriptExpression prefix) {
+        this(dbName, params, prefix, null);
     }
 
     public MapVarQuery(ScriptExpression dbName, Map<String, ScriptExpression> params) {
-        this(dbName, params, null);
+        this(dbName, params, (ScriptExpression)null);
     }
 
     public MapVarQuery(String dbName, Map<String, ScriptExpression> params) {
         this(new Const(dbName), params);
     }
 
+    protected void request(Context ctx, String dbName, Map<String, String> pars) throws CourierException {
+        if (m_cache == null) {
+            super.request(ctx, dbName, pars);
+            return;
+        }
+        LookupCache cache = m_cache.getCache(ctx, VarQuery.c_cacheKind, dbName, true);
+        Object key = m_cache.getKey(ctx, dbName, new TreeMap<String, String>(pars));
+        LookupRow row = cache.get(key);
+        if (row == null) {
+            MapDataSource ds = (MapDataSource)ctx.getPooledObject(dbName).getObject();
+            ResultSet rs = ds.request(pars);
+            try {
+                row = LookupCacheConf.readFirst(ctx, rs, true);
+            } catch (SQLException e) {
+                throw new CourierException(e);
+            } finally {
+                try {
+                    Statement stmt = rs.getStatement();
+                    rs.close();
+                    if (stmt != null) stmt.close();
+                } catch(Exception e) {
+                    ctx.warning(e);
+                }
+            }
+            cache.put(key, row);
+        }
+        row.toVars(ctx, m_prefix == null ? null : m_prefix.calculate(ctx));
+    }
+
     protected void processResultSet(ResultSet rs, Context ctx) throws SQLException {
         VarQuery.resultSetToVars(rs, ctx, m_prefix);
     }
@@ -56,7 +56,11 @@ public abstract class QueryStatement implements ScriptStatement {
     public final void exec(final Context ctx) throws CourierException {
         String sql = m_sql.calculate(ctx);
         if (ctx.isCanceled()) return;
-        ResultSet rs = AbstractContext.createResultSet(ctx, m_dbName.calculate(ctx), sql);
+        request(ctx, m_dbName.calculate(ctx), sql);
+    }
+
+    protected void request(final Context ctx, String dbName, String sql) throws CourierException {
+        ResultSet rs = AbstractContext.createResultSet(ctx, dbName, sql);
         try {
             if (ctx.isCanceled()) return;
             processResultSet(rs, ctx);
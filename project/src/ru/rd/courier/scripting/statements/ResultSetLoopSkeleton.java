@@ -31,12 +31,16 @@
 package ru.rd.courier.scripting.statements;
 
 import ru.rd.courier.CourierException;
+import ru.rd.courier.jdbc.ResultSets.PrefetchResultSet;
 import ru.rd.courier.scripting.Context;
 import ru.rd.courier.scripting.ScriptStatement;
 import ru.rd.courier.scripting.ScriptExpression;
+import ru.rd.courier.scripting.expressions.string.Const;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * User: AStepochkin
@@ -53,6 +57,12 @@ public abstract class ResultSetLoopSkeleton implements ScriptStatement {
     private String m_xmlvar = null;
     private String m_xmlRecordTag = null;
     private boolean m_xmlAttributes = false;
+    private boolean m_typedRow = false;
+    private int m_batchSize = 0;
+    private List<BatchLookup> m_batchLookups = null;
+
+    private static final ScriptExpression c_lastRecord = new Const("1");
+    private static final ScriptExpression c_notLastRecord = new Const("0");
 
     protected ResultSetLoopSkeleton(
         ScriptStatement stmt, String breakLabel,
@@ -96,6 +106,26 @@ public abstract class ResultSetLoopSkeleton implements ScriptStatement {
         m_xmlAttributes = xmlAttributes;
     }
 
+    /**
+     * Turns on binding of record values to reusable typed slots
+     * instead of creating string variables for every record
+     */
+    public void setTypedRow(boolean typedRow) {
+        m_typedRow = typedRow;
+    }
+
+    /**
+     * Turns on reading records by windows of batchSize records: lookups
+     * are resolved for the whole window before its records are processed
+     */
+    public void setBatchLookups(int batchSize, List<BatchLookup> lookups) {
+        if (lookups != null && !lookups.isEmpty() && batchSize < 1) {
+            throw new CourierException("Batch size must be > 0");
+        }
+        m_batchSize = batchSize;
+        m_batchLookups = lookups == null || lookups.isEmpty() ? null : lookups;
+    }
+
     public final void start(
         final ru.rd.courier.scripting.Context ctx
     ) throws CourierException {
@@ -112,6 +142,75 @@ public abstract class ResultSetLoopSkeleton implements ScriptStatement {
     protected abstract boolean needStandardCleanUp() throws CourierException;
     protected abstract void cleanUp(final Context ctx) throws CourierException;
 
+    /**
+     * Called when records of the result set are read through the window
+     */
+    protected void windowCreated(final Context ctx, final ResultSet window) throws CourierException {}
+
+    private ScriptStatement createFillVarsStat(final Context ctx, final ResultSet rs) {
+        if (m_typedRow) {
+            return new GetVarsFromTypedRow(
+                rs, m_errorAsNull, m_prefix, ctx, m_xmlvar, m_xmlRecordTag, m_xmlAttributes
+            );
+        } else {
+            return new GetVarsFromDirectRs(
+                rs, m_errorAsNull, m_prefix, ctx, m_xmlvar, m_xmlRecordTag, m_xmlAttributes
+            );
+        }
+    }
+
+    // returns false if the loop is broken
+    private boolean processRecord(final Context ctx, boolean isLast, int recCount) throws CourierException {
+        if (m_lastRecordVarName != null) {
+            ctx.setVar(m_lastRecordVarName, isLast ? c_lastRecord : c_notLastRecord);
+        }
+
+        if (m_recCountVarName != null) {
+            ctx.setVar(m_recCountVarName, Integer.toString(recCount));
+        }
+
+        ctx.execInnerStmt(m_stmt);
+
+        if (ctx.getBreakLabel() != null ) {
+            if(ctx.getBreakLabel().equals(m_breakLabel)) ctx.setBreak(null);
+            return false;
+        }
+        return true;
+    }
+
+    private void execBatched(final Context ctx, final ResultSet rs) throws CourierException, SQLException {
+        final PrefetchResultSet window = new PrefetchResultSet(rs);
+        windowCreated(ctx, window);
+        final ScriptStatement fillVarsStat = createFillVarsStat(ctx, window);
+        final List<BatchLookup.Batch> batches = new ArrayList<BatchLookup.Batch>(m_batchLookups.size());
+        for (BatchLookup lookup: m_batchLookups) batches.add(lookup.createBatch());
+
+        int recCount = 0;
+        while (!ctx.isCanceled()) {
+            long begTime = System.currentTimeMillis();
+            int count = window.prefetch(m_batchSize);
+            ctx.addSourceTime(System.currentTimeMillis() - begTime);
+            if (count == 0) break;
+
+            while (window.next()) {
+                if (ctx.isCanceled()) return;
+                fillVarsStat.exec(ctx);
+                for (BatchLookup.Batch batch: batches) batch.collect(ctx);
+            }
+            for (BatchLookup.Batch batch: batches) batch.resolve(ctx);
+
+            window.rewind();
+            while (window.next()) {
+                if (ctx.isCanceled()) return;
+                fillVarsStat.exec(ctx);
+                for (BatchLookup.Batch batch: batches) batch.apply(ctx);
+                recCount++;
+                if (!processRecord(ctx, window.isSourceLast(), recCount)) return;
+            }
+            for (BatchLookup.Batch batch: batches) batch.clear();
+        }
+    }
+
     // ***************** ScriptStatement implementation ********
     public void exec(final Context ctx) throws CourierException {
         final ResultSet rs = getResultSet(ctx);
@@ -122,9 +221,11 @@ public abstract class ResultSetLoopSkeleton implements ScriptStatement {
             if (m_recCountVarName != null) {
                 ctx.setVar(m_recCountVarName, Integer.toString(recCount));
             }
-            ScriptStatement fillVarsStat = new GetVarsFromDirectRs(
-                rs, m_errorAsNull, m_prefix, ctx, m_xmlvar, m_xmlRecordTag, m_xmlAttributes
-            );
+            if (m_batchLookups != null) {
+                execBatched(ctx, rs);
+                return;
+            }
+            ScriptStatement fillVarsStat = createFillVarsStat(ctx, rs);
             long begTime = System.currentTimeMillis();
             boolean isLast = !rs.next();
             ctx.addSourceTime(System.currentTimeMillis() - begTime);
@@ -137,21 +238,8 @@ public abstract class ResultSetLoopSkeleton implements ScriptStatement {
                 isLast = !rs.next();
                 ctx.addSourceTime(System.currentTimeMillis() - begTime);
 
-                if (m_lastRecordVarName != null) {
-                    ctx.setVar(m_lastRecordVarName, isLast ? "1" : "0");
-                }
-
                 recCount++;
-                if (m_recCountVarName != null) {
-                    ctx.setVar(m_recCountVarName, Integer.toString(recCount));
-                }
-
-                ctx.execInnerStmt(m_stmt);
-
-                if (ctx.getBreakLabel() != null ) {
-                    if(ctx.getBreakLabel().equals(m_breakLabel)) ctx.setBreak(null);
-                    break;
-                }
+                if (!processRecord(ctx, isLast, recCount)) break;
             }
         } catch (SQLException e) {
             throw new CourierException(e);
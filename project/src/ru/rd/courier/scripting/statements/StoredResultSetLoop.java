@@ -0,0 +1,105 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.statements;
+
+import ru.rd.courier.CourierException;
+import ru.rd.courier.jdbc.objbuffer.StoredResultSet;
+import ru.rd.courier.scripting.AbstractContext;
+import ru.rd.courier.scripting.Context;
+import ru.rd.courier.scripting.ScriptExpression;
+import ru.rd.courier.scripting.ScriptStatement;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Loops through result set stored in the context under rsName. If request
+ * is specified the source result set is read into the {@link StoredResultSet}
+ * first, otherwise the result set stored earlier is read again from the
+ * beginning. Stored result set lives until the context is cleaned up.
+ */
+public class StoredResultSetLoop extends ResultSetLoopSkeleton {
+    private final ScriptExpression m_dbName;
+    private final String m_rsName;
+    private final ScriptExpression m_sql;
+    private final int m_memoryRows;
+
+    public StoredResultSetLoop(
+        final ScriptExpression dbName, final String rsName,
+        final ScriptExpression sql, final int memoryRows,
+        final ScriptStatement stmt, String recCountVarName,
+        ScriptExpression prefix
+    ) {
+        super(stmt, null, recCountVarName, null, false, prefix);
+        m_dbName = dbName;
+        m_rsName = rsName;
+        m_sql = sql;
+        m_memoryRows = memoryRows;
+    }
+
+    protected ResultSet getResultSet(final Context ctx) throws CourierException {
+        final String sql = m_sql == null ? null : m_sql.calculate(ctx);
+        try {
+            if (sql == null) {
+                ResultSet rs = ctx.getResultSet(m_rsName);
+                if (!(rs instanceof StoredResultSet)) {
+                    throw new CourierException("Result set '" + m_rsName + "' is not stored");
+                }
+                rs.beforeFirst();
+                return rs;
+            }
+
+            ctx.removeResultSet(m_rsName);
+            final ResultSet rs = AbstractContext.createResultSet(ctx, m_dbName.calculate(ctx), sql);
+            final StoredResultSet ret;
+            try {
+                long begTime = System.currentTimeMillis();
+                ret = StoredResultSet.store(rs, m_memoryRows, null);
+                ctx.addSourceTime(System.currentTimeMillis() - begTime);
+            } finally {
+                AbstractContext.closeResultSet(ctx, rs);
+            }
+            if (ret.isSpilled()) {
+                ctx.debug("Result set '" + m_rsName + "' has been stored to temporary file");
+            }
+            ctx.addResultSet(m_rsName, ret);
+            return ret;
+        } catch (SQLException e) {
+            throw new CourierException(e);
+        }
+    }
+
+    protected boolean needStandardCleanUp() throws CourierException {
+        return false;
+    }
+
+    protected void cleanUp(Context ctx) throws CourierException {}
+}
@@ -36,8 +36,10 @@ import ru.rd.courier.scripting.DataReceiver;
 import ru.rd.courier.scripting.PortionFormatterProvider;
 import ru.rd.courier.scripting.ScriptStatement;
 import ru.rd.courier.scripting.dataaccess.BufferedDataSource;
+import ru.rd.courier.scripting.dataaccess.PipelinedDataSource;
 import ru.rd.courier.scripting.dataaccess.PortionSendEvent;
 import ru.rd.courier.scripting.dataaccess.PortionSendListener;
+import ru.rd.courier.scripting.dataaccess.PortionStreamListener;
 import ru.rd.pool.PoolObjectFactory;
 import ru.rd.pool.PooledObjectHolder;
 
@@ -70,6 +72,7 @@ public class TargetBuffer implements ScriptStatement {
         m_stmt.finish(ctx);
     }
 
+    protected void streamOpened(final Context ctx, PortionSendEvent event) throws CourierException {}
     protected void beforeSend(final Context ctx, PortionSendEvent event) throws CourierException {}
     protected void afterSend(final Context ctx, PortionSendEvent event) throws CourierException {}
 
@@ -101,21 +104,32 @@ public class TargetBuffer implements ScriptStatement {
 
             private void createReceiver() {
                 PortionFormatterProvider fp = (PortionFormatterProvider)ctx.getObject(m_formatterProviderName);
-                m_bdr = new BufferedDataSource(
-                    (DataReceiver) m_po.getObject(),
-                    Integer.parseInt(ctx.getVar(m_bytesLimitVarName)),
-                    Integer.parseInt(ctx.getVar(m_recLimitVarName)),
-                    fp.getPortionFormatter(ctx),
-                    new PortionSendListener() {
-                        public void before(PortionSendEvent event) throws CourierException {
-                            beforeSend(ctx, event);
-                        }
-
-                        public void after(PortionSendEvent event) throws CourierException {
-                            afterSend(ctx, event);
-                        }
+                PortionSendListener listener = new PortionStreamListener() {
+                    public void opened(PortionSendEvent event) throws CourierException {
+                        streamOpened(ctx, event);
                     }
-                );
+
+                    public void before(PortionSendEvent event) throws CourierException {
+                        beforeSend(ctx, event);
+                    }
+
+                    public void after(PortionSendEvent event) throws CourierException {
+                        afterSend(ctx, event);
+                    }
+                };
+                final DataReceiver dr = (DataReceiver) m_po.getObject();
+                final int bytesLimit = Integer.parseInt(ctx.getVar(m_bytesLimitVarName));
+                final int recLimit = Integer.parseInt(ctx.getVar(m_recLimitVarName));
+                if (fp.getPipelineQueueSize() > 0) {
+                    m_bdr = new PipelinedDataSource(
+                        dr, bytesLimit, recLimit, fp.getPortionFormatter(ctx), listener,
+                        fp.getThreadPool(), fp.getPipelineQueueSize()
+                    );
+                } else {
+                    m_bdr = new BufferedDataSource(
+                        dr, bytesLimit, recLimit, fp.getPortionFormatter(ctx), listener
+                    );
+                }
             }
         }
 
@@ -125,7 +139,13 @@ public class TargetBuffer implements ScriptStatement {
             ctx.execInnerStmt(m_stmt);
             if (po.hasObject()) ctx.addDbWarning(po.m_bdr.flush());
         } finally {
-            ctx.setPooledObject(m_dbName, po.m_po);
+            try {
+                if (po.m_bdr instanceof PipelinedDataSource) {
+                    ((PipelinedDataSource)po.m_bdr).stopWriter();
+                }
+            } finally {
+                ctx.setPooledObject(m_dbName, po.m_po);
+            }
         }
     }
 }
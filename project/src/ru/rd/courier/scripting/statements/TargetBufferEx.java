@@ -64,6 +64,11 @@ public class TargetBufferEx extends TargetBuffer {
         m_recordsCountVarName = TransferProcess.c_recordCountVarName;
     }
 
+    protected void streamOpened(final Context ctx, PortionSendEvent event) throws CourierException {
+        PortionFormatterProvider fp = (PortionFormatterProvider)ctx.getObject(m_formatterProviderName);
+        event.getStream().write(fp.getBeforePortion().calculate(ctx));
+    }
+
     protected void beforeSend(final Context ctx, PortionSendEvent event) throws CourierException {
         ctx.setVar(
             m_portionSizeVarName,
@@ -72,6 +77,26 @@ public class TargetBufferEx extends TargetBuffer {
 
         PortionFormatterProvider fp = (PortionFormatterProvider)ctx.getObject(m_formatterProviderName);
 
+        if (event.getStream() != null) {
+            // streamed portion text has already been passed to the receiver
+            // so the handler cannot change it
+            event.getStream().write(fp.getAfterPortion().calculate(ctx));
+            ctx.setVar(m_portionVarName, "");
+            fp.getBeforePortionHandler().exec(ctx);
+        } else {
+            beforeSendPortion(ctx, fp, event);
+        }
+
+        // the portion may be written asynchronously while next records
+        // change the cached interval value
+        if (ctx.hasVar(TransferProcess.c_intervalValueCacheVarName)) {
+            event.setIntervalValue(ctx.getVar(TransferProcess.c_intervalValueCacheVarName));
+        }
+    }
+
+    private void beforeSendPortion(
+        final Context ctx, PortionFormatterProvider fp, PortionSendEvent event
+    ) throws CourierException {
         String portion =
               fp.getBeforePortion().calculate(ctx) 
             + event.getPortion()
@@ -94,7 +119,9 @@ public class TargetBufferEx extends TargetBuffer {
             );
         }
 
-        if (ctx.hasVar(TransferProcess.c_intervalValueCacheVarName)) {
+        if (event.getIntervalValue() != null) {
+            ctx.setVar(TransferProcess.c_intervalValueVarName, event.getIntervalValue());
+        } else if (ctx.hasVar(TransferProcess.c_intervalValueCacheVarName)) {
             ctx.setVar(
                 TransferProcess.c_intervalValueVarName,
                 ctx.getVar(TransferProcess.c_intervalValueCacheVarName)
@@ -30,6 +30,10 @@
  */
 package ru.rd.courier.scripting.statements;
 
+import ru.rd.courier.scripting.AbstractContext;
+import ru.rd.courier.scripting.LookupCache;
+import ru.rd.courier.scripting.LookupCacheConf;
+import ru.rd.courier.scripting.LookupRow;
 import ru.rd.courier.scripting.ScriptExpression;
 import ru.rd.courier.scripting.Context;
 import ru.rd.courier.scripting.expressions.string.Const;
@@ -45,15 +49,29 @@ import java.sql.ResultSetMetaData;
  * Time: 16:30:45
  */
 public class VarQuery extends QueryStatement {
+    static final String c_cacheKind = "var-query";
+
     private final ScriptExpression m_prefix;
+    private final LookupCacheConf m_cache;
 
-    public VarQuery(ScriptExpression dbName, ScriptExpression sql, ScriptExpression prefix) {
+    public VarQuery(
+        ScriptExpression dbName, ScriptExpression sql, ScriptExpression prefix, LookupCacheConf cache
+    ) {
         super(dbName, sql);
         m_prefix = prefix;
+        m_cache = cache;
+    }
+
+    public VarQuery(ScriptExpression dbName, ScriptExpression sql, LookupCacheConf cache) {
+        this(dbName, sql, null, cache);
+    }
+
+    public VarQuery(ScriptExpression dbName, ScriptExpression sql, ScriptExpression prefix) {
+        this(dbName, sql, prefix, null);
     }
 
     public VarQuery(ScriptExpression dbName, ScriptExpression sql) {
-        this(dbName, sql, null);
+        this(dbName, sql, (ScriptExpression)null);
     }
 
     public VarQuery(String dbName, ScriptExpression sql) {
@@ -64,6 +82,30 @@ public class VarQuery extends QueryStatement {
         this(new Const(dbName), new Const(sql));
     }
 
+    protected void request(Context ctx, String dbName, String sql) throws CourierException {
+        if (m_cache == null) {
+            super.request(ctx, dbName, sql);
+            return;
+        }
+        LookupCache cache = m_cache.getCache(ctx, c_cacheKind, dbName, true);
+        Object key = m_cache.getKey(ctx, dbName, sql);
+        LookupRow row = cache.get(key);
+        if (row == null) {
+            ResultSet rs = AbstractContext.createResultSet(ctx, dbName, sql);
+            try {
+                if (ctx.isCanceled()) return;
+                row = LookupCacheConf.readFirst(ctx, rs, true);
+            } catch (SQLException e) {
+                throw new CourierException(e);
+            } finally {
+                try { AbstractContext.closeResultSet(ctx, rs); }
+                catch(Exception e) { ctx.warning(e); }
+            }
+            cache.put(key, row);
+        }
+        row.toVars(ctx, m_prefix == null ? null : m_prefix.calculate(ctx));
+    }
+
     protected void processResultSet(ResultSet rs, Context ctx) throws SQLException {
         resultSetToVars(rs, ctx, m_prefix);
     }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.utils;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Thread safe date formatter for patterns without milliseconds. The last
+ * formatted second is cached so subsequent calls within the same second
+ * do not format at all.
+ */
+public class CachedDateFormat {
+    private final ThreadLocal<DateFormat> m_format;
+    private volatile Entry m_last = null;
+
+    private static class Entry {
+        public final long m_second;
+        public final String m_text;
+
+        public Entry(long second, String text) {
+            m_second = second;
+            m_text = text;
+        }
+    }
+
+    public CachedDateFormat(final String pattern) {
+        m_format = new ThreadLocal<DateFormat>() {
+            protected DateFormat initialValue() {
+                return new SimpleDateFormat(pattern);
+            }
+        };
+    }
+
+    public String format(long time) {
+        long second = time >= 0 ? time / 1000 : (time - 999) / 1000;
+        Entry last = m_last;
+        if (last != null && last.m_second == second) return last.m_text;
+        String text = m_format.get().format(new Date(time));
+        m_last = new Entry(second, text);
+        return text;
+    }
+
+    public String format(Date date) {
+        return format(date.getTime());
+    }
+}
@@ -30,32 +30,100 @@
  */
 package ru.rd.courier.utils;
 
-import ru.rd.courier.utils.Storage;
-
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 /**
  * User: AStepochkin
  * Date: 16.02.2009
  * Time: 18:14:02
  */
-public class FileStorage implements Storage {
+public class FileStorage implements JournalStorage {
     private final File m_file;
+    private final File m_tmpFile;
+    private final File m_journalFile;
 
     public FileStorage(File file) {
         m_file = file;
-        File pf = m_file.getParentFile();
+        m_tmpFile = new File(file.getPath() + ".tmp");
+        m_journalFile = new File(file.getPath() + ".journal");
+        File pf = m_file.getAbsoluteFile().getParentFile();
         if (!pf.exists()) {
             if (!pf.mkdirs()) throw new RuntimeException("Failed to create folder " + pf.getPath());
         }
     }
 
+    /**
+     * Content is written to a temporary file that replaces the storage file
+     * on close, so a crash while storing leaves the previous content intact.
+     */
     public OutputStream getStoreStream() throws Exception {
-        return new FileOutputStream(m_file);
+        final FileOutputStream fout = new FileOutputStream(m_tmpFile);
+        return new FilterOutputStream(fout) {
+            private boolean m_closed = false;
+            private boolean m_failed = false;
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    fout.write(b, off, len);
+                } catch (IOException e) {
+                    m_failed = true;
+                    throw e;
+                }
+            }
+
+            public void close() throws IOException {
+                if (m_closed) return;
+                m_closed = true;
+                try {
+                    flush();
+                    fout.getFD().sync();
+                } catch (IOException e) {
+                    m_failed = true;
+                    throw e;
+                } finally {
+                    fout.close();
+                    if (m_failed) m_tmpFile.delete();
+                }
+                replaceFile();
+            }
+        };
+    }
+
+    private void replaceFile() throws IOException {
+        try {
+            Files.move(
+                m_tmpFile.toPath(), m_file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+            );
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(m_tmpFile.toPath(), m_file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
     public InputStream getRestoreStream() throws Exception {
         if (!m_file.exists()) return null;
         return new FileInputStream(m_file);
     }
+
+    public OutputStream getJournalStream() throws Exception {
+        return new FileOutputStream(m_journalFile, true);
+    }
+
+    public InputStream getJournalRestoreStream() throws Exception {
+        if (!m_journalFile.exists()) return null;
+        return new FileInputStream(m_journalFile);
+    }
+
+    public void clearJournal() throws Exception {
+        if (m_journalFile.exists() && !m_journalFile.delete()) {
+            new FileOutputStream(m_journalFile).close();
+        }
+    }
+
+    public String toString() {
+        return m_file.getPath();
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.utils;
+
+import java.io.*;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Framing of append-only journal records. Each record is written as
+ * its length, CRC32 of its data and the data itself. Reading stops at
+ * the first incomplete or damaged record, so a record torn by a crash
+ * in the middle of an append is ignored together with anything after it.
+ */
+public class RecordJournal {
+    private static final int c_headerSize = 8;
+    private static final int c_maxRecordSize = 16 * 1024 * 1024;
+
+    public static byte[] frame(byte[] data) {
+        byte[] ret = new byte[c_headerSize + data.length];
+        writeInt(ret, 0, data.length);
+        writeInt(ret, 4, crc(data, 0, data.length));
+        System.arraycopy(data, 0, ret, c_headerSize, data.length);
+        return ret;
+    }
+
+    /**
+     * Writes the record with a single write call
+     */
+    public static void append(OutputStream out, byte[] data) throws IOException {
+        out.write(frame(data));
+        out.flush();
+    }
+
+    public static List<byte[]> read(InputStream in) throws IOException {
+        List<byte[]> ret = new LinkedList<byte[]>();
+        DataInputStream din = new DataInputStream(in);
+        byte[] header = new byte[c_headerSize];
+        while (readFully(din, header)) {
+            int size = readInt(header, 0);
+            if (size < 0 || size > c_maxRecordSize) break;
+            byte[] data = new byte[size];
+            if (!readFully(din, data)) break;
+            if (crc(data, 0, size) != readInt(header, 4)) break;
+            ret.add(data);
+        }
+        return ret;
+    }
+
+    private static boolean readFully(DataInputStream in, byte[] buf) throws IOException {
+        try {
+            in.readFully(buf);
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int)crc.getValue();
+    }
+
+    private static void writeInt(byte[] buf, int offset, int v) {
+        buf[offset] = (byte)(v >>> 24);
+        buf[offset + 1] = (byte)(v >>> 16);
+        buf[offset + 2] = (byte)(v >>> 8);
+        buf[offset + 3] = (byte)v;
+    }
+
+    private static int readInt(byte[] buf, int offset) {
+        return
+            ((buf[offset] & 0xFF) << 24) | ((buf[offset + 1] & 0xFF) << 16) |
+            ((buf[offset + 2] & 0xFF) << 8) | (buf[offset + 3] & 0xFF);
+    }
+}
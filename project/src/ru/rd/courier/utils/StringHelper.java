@@ -128,6 +128,20 @@ public class StringHelper {
         out.append('\'');
     }
 
+    public static void escapeSqlString(StringBuilder out, final String str) {
+        out.ensureCapacity(out.length() + str.length() + 2);
+        out.append('\'');
+        int copied = 0;
+        int pos = str.indexOf('\'');
+        while (pos >= 0) {
+            out.append(str, copied, pos + 1).append('\'');
+            copied = pos + 1;
+            pos = str.indexOf('\'', copied);
+        }
+        out.append(str, copied, str.length());
+        out.append('\'');
+    }
+
     public static String escapeSqlStringWithFuncs(final String str) {
         if (str.length() == 0) return "''";
         int i = 0;
@@ -36,6 +36,7 @@ import ru.rd.courier.utils.DomHelper;
 import ru.rd.courier.scripting.ErrorAwareObjectFactory;
 import ru.rd.pool2.DefaultObjectPool2;
 import ru.rd.pool2.AsynchExecutePolicy;
+import ru.rd.pool2.BlockingObjectPool;
 import ru.rd.pool2.TimedObjectPoolAdapter;
 import ru.rd.pool2.ObjectPool2;
 import ru.rd.thread.PoolExecutorAdapter;
@@ -72,13 +73,36 @@ public class ConfHelper {
         return new TimedObjectPoolAdapter(pool, DomHelper.getTimeNodeAttr(n, "wait-timeout", 30*1000, "ms"));
     }
 
+    public static ObjectPoolIntf blockingPoolFromXml(
+        CourierLogger poolLogger, ObjectPoolIntf threadPool, Timer timer,
+        String name, Node n, PoolObjectFactory pof
+    ) {
+        BlockingObjectPool pool = new BlockingObjectPool(poolLogger, name, pof);
+        pool.setTimer(timer);
+        AsynchExecutePolicy execp = new AsynchExecutePolicy(poolLogger, threadPool);
+        execp.setAllocateTimeout(DomHelper.getTimeNodeAttr(n, "allocate-timeout", 30*1000, "ms"));
+        execp.setCheckTimeout(DomHelper.getTimeNodeAttr(n, "check-timeout", 10*1000, "ms"));
+        pool.setExecPolicy(execp);
+        initBlockingPoolFromXml(pool, n);
+        return pool;
+    }
+
     public static ObjectPoolIntf asynchPoolFromXmlEx(
         CourierLogger poolLogger, ObjectPoolIntf threadPool, Timer timer,
         String name, Node n, PoolObjectFactory pof, boolean isPool2
+    ) {
+        return asynchPoolFromXmlEx(poolLogger, threadPool, timer, name, n, pof, isPool2, false);
+    }
+
+    public static ObjectPoolIntf asynchPoolFromXmlEx(
+        CourierLogger poolLogger, ObjectPoolIntf threadPool, Timer timer,
+        String name, Node n, PoolObjectFactory pof, boolean isPool2, boolean isBlocking
     ) {
         int maxErrorCount = DomHelper.getIntNodeAttr(n, "max-error-count", -1);
         if (maxErrorCount > 0) pof = new ErrorAwareObjectFactory(pof, maxErrorCount);
-        if (isPool2) {
+        if (isBlocking) {
+            return blockingPoolFromXml(poolLogger, threadPool, timer, name, n, pof);
+        } else if (isPool2) {
             return asynchPool2FromXml(poolLogger, threadPool, timer, name, n, pof);
         } else {
             return asynchPoolFromXml(threadPool, pof, name, n, poolLogger);
@@ -123,6 +147,28 @@ public class ConfHelper {
         );
     }
 
+    public static void initBlockingPoolFromXml(BlockingObjectPool pool, Node n) {
+        pool.setCapacityPars(
+            DomHelper.getIntNodeAttr(n, "initial-capacity", 0),
+            DomHelper.getIntNodeAttr(n, "min-capacity", -1),
+            DomHelper.getIntNodeAttr(n, "max-capacity", -1)
+        );
+
+        pool.setShrinkPars(
+            DomHelper.getIntNodeAttr(n, "shrink-interval-min", 5)*60*1000,
+            DomHelper.getIntNodeAttr(n, "shrink-capacity", -1),
+            DomHelper.getIntNodeAttr(n, "shrink-obsolete-interval-min", 2)*60*1000
+        );
+
+        int checkIntervalMin = DomHelper.getIntNodeAttr(n, "check-interval-min", 5);
+        pool.setCheckPars(checkIntervalMin*60*1000);
+
+        int expirePeriodMin = DomHelper.getIntNodeAttr(n, "expire-period-min", 5*60);
+        pool.setExpirePars(expirePeriodMin*60*1000);
+
+        pool.setWaitTimeout(DomHelper.getTimeNodeAttr(n, "wait-timeout", 30*1000, "ms"));
+    }
+
     public static void initPool2FromXml(ObjectPool2 pool, Node n) {
         pool.setCapacityPars(
             DomHelper.getIntNodeAttr(n, "initial-capacity", 0),
@@ -31,6 +31,7 @@
 package ru.rd.pool;
 
 import ru.rd.courier.logging.CourierLogger;
+import ru.rd.scheduling.WheelTask;
 import ru.rd.utils.Disposable;
 
 import java.util.*;
@@ -424,8 +425,8 @@ public abstract class ObjectPool implements ObjectPoolIntf {
 
             if (m_shrinkInterval > 0) {
                 ensureTimer();
-                TimerTask shrinkTask = new TimerTask() {
-                    public void run() {
+                TimerTask shrinkTask = new WheelTask() {
+                    protected void execute() {
                         try {
                             shrink();
                         }
@@ -439,8 +440,8 @@ public abstract class ObjectPool implements ObjectPoolIntf {
 
             if (m_checkInterval > 0) {
                 ensureTimer();
-                TimerTask checkTask = new TimerTask() {
-                    public void run() {
+                TimerTask checkTask = new WheelTask() {
+                    protected void execute() {
                         try {
                             check();
                         }
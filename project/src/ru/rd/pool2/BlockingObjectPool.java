@@ -0,0 +1,701 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.pool2;
+
+import ru.rd.courier.logging.CourierLogger;
+import ru.rd.pool.ObjectPoolIntf;
+import ru.rd.pool.PoolException;
+import ru.rd.pool.PoolObjectFactory;
+import ru.rd.pool.PooledObject;
+import ru.rd.scheduling.WheelTask;
+import ru.rd.utils.Disposable;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Object pool keeping free objects in a deque and busy objects in an identity
+ * map so that getting and releasing an object take constant time. When max
+ * capacity is reached callers wait in FIFO order up to the wait timeout and
+ * released object is handed directly to the longest waiting caller.
+ * Validation, expiration and shrinking run in timer tasks outside the pool lock.
+ * Objects are allocated one at a time, so factories need not be thread safe.
+ */
+public class BlockingObjectPool implements ObjectPoolIntf {
+    private static class Entry {
+        public final Object m_obj;
+        public final long m_createTime;
+        public long m_releaseTime;
+
+        public Entry(Object obj) {
+            m_obj = obj;
+            m_createTime = System.currentTimeMillis();
+            m_releaseTime = m_createTime;
+        }
+    }
+
+    private static class Waiter {
+        public final Condition m_cond;
+        public Entry m_entry = null;
+        public boolean m_allocate = false;
+        public InterruptedException m_interrupt = null;
+
+        public Waiter(Condition cond) {
+            m_cond = cond;
+        }
+
+        public boolean isServed() {
+            return m_entry != null || m_allocate;
+        }
+    }
+
+    private final CourierLogger m_logger;
+    private final String m_desc;
+    private final PoolObjectFactory m_objFactory;
+    private ExecutePolicy m_execPolicy = new SynchExecPolicy();
+
+    private final ReentrantLock m_lock = new ReentrantLock();
+    private final Condition m_busyReleased = m_lock.newCondition();
+    private final Object m_allocateLock = new Object();
+    private final Deque<Entry> m_free = new ArrayDeque<Entry>();
+    private final Map<Object, Entry> m_busy = new IdentityHashMap<Object, Entry>();
+    private final Deque<Waiter> m_waiters = new ArrayDeque<Waiter>();
+    // free, busy, being checked and being allocated objects
+    private int m_size = 0;
+    private boolean m_started = false;
+
+    private int m_initialCapacity = 0;
+    private int m_minCapacity = -1;
+    private int m_maxCapacity = -1;
+    private long m_waitTimeout = 30 * 1000;
+    private long m_shrinkInterval = -1;
+    private int m_shrinkCapacity = -1;
+    private long m_shrinkObjPeriod = -1;
+    private long m_checkInterval = -1;
+    private long m_expirePeriod = -1;
+    private long m_closeTimeout = 0;
+    private Timer m_timer = null;
+    private boolean m_ownTimer = false;
+    private final List<TimerTask> m_tasks = new LinkedList<TimerTask>();
+
+    private long m_getCount = 0;
+    private long m_waitCount = 0;
+    private long m_timeoutCount = 0;
+    private long m_allocateCount = 0;
+    private long m_removeCount = 0;
+    private long m_totalWaitTime = 0;
+    private long m_maxWaitTime = 0;
+
+    public BlockingObjectPool(CourierLogger logger, String desc, PoolObjectFactory objFactory) {
+        m_logger = logger;
+        m_desc = desc;
+        m_objFactory = objFactory;
+    }
+
+    public void setExecPolicy(ExecutePolicy execPolicy) {
+        m_execPolicy = execPolicy;
+    }
+
+    public void setTimer(Timer timer) {
+        m_timer = timer;
+    }
+
+    public final void setCapacityPars(int initialCapacity, int minCapacity, int maxCapacity) {
+        m_initialCapacity = initialCapacity;
+        m_minCapacity = minCapacity;
+        m_maxCapacity = maxCapacity;
+    }
+
+    public final void setMaxCapacity(int maxCapacity) {
+        m_lock.lock();
+        try {
+            m_maxCapacity = maxCapacity;
+            while (serveAllocateWaiter_nl()) {}
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    public final void setShrinkPars(long shrinkInterval, int shrinkCapacity, long shrinkObjPeriod) {
+        m_shrinkInterval = shrinkInterval;
+        m_shrinkCapacity = shrinkCapacity;
+        m_shrinkObjPeriod = shrinkObjPeriod;
+    }
+
+    public final void setCheckPars(long checkInterval) {
+        m_checkInterval = checkInterval;
+    }
+
+    public final void setExpirePars(long expirePeriod) {
+        m_expirePeriod = expirePeriod;
+    }
+
+    /**
+     * @param waitTimeout max time in milliseconds getObject waits for
+     * a free object, if <= 0 then it waits infinitely
+     */
+    public final void setWaitTimeout(long waitTimeout) {
+        m_waitTimeout = waitTimeout;
+    }
+
+    /**
+     * @param closeTimeout time in milliseconds close waits for busy objects
+     */
+    public final void setCloseTimeout(long closeTimeout) {
+        m_closeTimeout = closeTimeout;
+    }
+
+    public String getDesc() {
+        return m_desc;
+    }
+
+    public PoolObjectFactory getObjectFactory() {
+        return m_objFactory;
+    }
+
+    public Object getObject() {
+        return getObject(m_waitTimeout);
+    }
+
+    public Object getObject(long timeout) {
+        final long startTime = System.currentTimeMillis();
+        List<Entry> expired = null;
+        Entry entry = null;
+        boolean allocate = false;
+        m_lock.lock();
+        try {
+            ensureStarted();
+            m_getCount++;
+            if (m_waiters.isEmpty()) {
+                while ((entry = m_free.pollFirst()) != null && objectExpired(entry)) {
+                    if (expired == null) expired = new LinkedList<Entry>();
+                    expired.add(entry);
+                    m_size--;
+                    m_removeCount++;
+                }
+                if (entry == null && canGrow_nl()) {
+                    m_size++;
+                    allocate = true;
+                }
+            }
+            if (entry == null && !allocate) {
+                Waiter w = waitObject_nl(timeout);
+                long waitTime = System.currentTimeMillis() - startTime;
+                m_totalWaitTime += waitTime;
+                if (waitTime > m_maxWaitTime) m_maxWaitTime = waitTime;
+                if (!w.isServed()) {
+                    ensureStarted();
+                    if (w.m_interrupt != null) {
+                        throw new PoolException(
+                            "Pool '" + m_desc + "': get object wait interrupted", w.m_interrupt);
+                    }
+                    m_timeoutCount++;
+                    throw new RuntimeException(
+                        "Pool '" + m_desc + "': get object timeout (" + timeout + ") expired");
+                }
+                entry = w.m_entry;
+                allocate = w.m_allocate;
+            }
+            if (entry != null) m_busy.put(entry.m_obj, entry);
+        } finally {
+            m_lock.unlock();
+            if (expired != null) deallocate(expired);
+        }
+        if (allocate) entry = allocateBusy();
+        Object o = entry.m_obj;
+        if (o instanceof PooledObject) {
+            ((PooledObject)o).allocated();
+        }
+        return o;
+    }
+
+    private Waiter waitObject_nl(long timeout) {
+        Waiter w = new Waiter(m_lock.newCondition());
+        m_waiters.addLast(w);
+        m_waitCount++;
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (!w.isServed() && m_started) {
+                if (timeout <= 0) {
+                    w.m_cond.await();
+                } else {
+                    if (nanos <= 0) break;
+                    nanos = w.m_cond.awaitNanos(nanos);
+                }
+            }
+        } catch (InterruptedException e) {
+            w.m_interrupt = e;
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!w.isServed()) m_waiters.remove(w);
+        }
+        return w;
+    }
+
+    public void releaseObject(Object o) {
+        boolean needToRemove = false;
+        if (o instanceof PooledObject) {
+            needToRemove = !((PooledObject)o).released();
+        }
+        releaseObject(o, needToRemove);
+    }
+
+    public void releaseAndRemoveObject(Object o) {
+        releaseObject(o, true);
+    }
+
+    private void releaseObject(Object o, boolean needToRemove) {
+        Entry entry;
+        m_lock.lock();
+        try {
+            entry = m_busy.remove(o);
+            if (entry == null) {
+                m_logger.warning(
+                    "Pool '" + m_desc + "': there was no release for object: " + o
+                );
+                return;
+            }
+            if (m_busy.isEmpty()) m_busyReleased.signalAll();
+            if (needToRemove || !m_started || objectExpired(entry)) {
+                removed_nl();
+            } else {
+                entry.m_releaseTime = System.currentTimeMillis();
+                putFree_nl(entry, true);
+                entry = null;
+            }
+        } finally {
+            m_lock.unlock();
+        }
+        if (entry != null) deallocate(entry);
+    }
+
+    private boolean canGrow_nl() {
+        return m_maxCapacity <= 0 || m_size < m_maxCapacity;
+    }
+
+    /**
+     * Hands the object to the first waiter or puts it to the free list
+     */
+    private void putFree_nl(Entry entry, boolean hot) {
+        Waiter w = m_waiters.pollFirst();
+        if (w == null) {
+            if (hot) m_free.addFirst(entry);
+            else m_free.addLast(entry);
+        } else {
+            w.m_entry = entry;
+            w.m_cond.signal();
+        }
+    }
+
+    private void removed_nl() {
+        m_size--;
+        m_removeCount++;
+        serveAllocateWaiter_nl();
+    }
+
+    /**
+     * Lets the first waiter allocate new object if capacity allows
+     */
+    private boolean serveAllocateWaiter_nl() {
+        if (m_waiters.isEmpty() || !canGrow_nl()) return false;
+        Waiter w = m_waiters.pollFirst();
+        m_size++;
+        w.m_allocate = true;
+        w.m_cond.signal();
+        return true;
+    }
+
+    private Object allocateObject() throws Exception {
+        Object o;
+        synchronized (m_allocateLock) {
+            o = m_execPolicy.allocateObject(this, null, m_objFactory);
+        }
+        if (o == null) {
+            throw new RuntimeException("Pool '" + m_desc + "' failed to allocate object");
+        }
+        m_logger.debug("Pool '" + m_desc + "' allocated new object: " + o);
+        return o;
+    }
+
+    /**
+     * Allocates object for the place reserved by the caller
+     */
+    private Entry allocateBusy() {
+        Entry entry;
+        try {
+            entry = new Entry(allocateObject());
+        } catch (Exception e) {
+            allocateFailed();
+            if (e instanceof RuntimeException) throw (RuntimeException)e;
+            throw new RuntimeException("Pool '" + m_desc + "' failed to allocate object", e);
+        } catch (Error e) {
+            allocateFailed();
+            throw e;
+        }
+        m_lock.lock();
+        try {
+            m_allocateCount++;
+            m_busy.put(entry.m_obj, entry);
+        } finally {
+            m_lock.unlock();
+        }
+        return entry;
+    }
+
+    private void allocateFailed() {
+        m_lock.lock();
+        try {
+            m_size--;
+            serveAllocateWaiter_nl();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Adds free objects up to the specified size
+     */
+    private void fill(int size) {
+        while (true) {
+            m_lock.lock();
+            try {
+                if (!m_started || m_size >= size || !canGrow_nl()) return;
+                m_size++;
+            } finally {
+                m_lock.unlock();
+            }
+            Entry entry = null;
+            try {
+                entry = new Entry(allocateObject());
+            } catch (Throwable e) {
+                m_logger.error("Error while allocating new pool '" + m_desc + "' object", e);
+            }
+            m_lock.lock();
+            try {
+                if (entry == null) {
+                    m_size--;
+                    serveAllocateWaiter_nl();
+                    return;
+                }
+                m_allocateCount++;
+                putFree_nl(entry, true);
+            } finally {
+                m_lock.unlock();
+            }
+        }
+    }
+
+    private void deallocate(Entry entry) {
+        m_logger.debug("Returning object from pool '" + m_desc + "'");
+        try {
+            m_execPolicy.deallocateObject(null, entry.m_obj, m_objFactory);
+        } catch (Throwable e) {
+            m_logger.error("Error returning object from pool '" + m_desc + "'", e);
+        }
+    }
+
+    private void deallocate(Collection<Entry> entries) {
+        for (Entry entry: entries) deallocate(entry);
+    }
+
+    private boolean objectExpired(Entry entry) {
+        return
+            m_expirePeriod >= 0
+            && (System.currentTimeMillis() - entry.m_createTime) > m_expirePeriod;
+    }
+
+    private boolean objectValid(Entry entry) {
+        Object o = entry.m_obj;
+        try {
+            if (m_execPolicy.objectWrapperValid(null, o, m_objFactory)) return true;
+            m_logger.warning(
+                "Pool object " + o.getClass().getName() + " (" + o + ") failed checking"
+            );
+        } catch (Throwable e) {
+            m_logger.warning(
+                "Error while checking object " + o.getClass().getName() + ": " + o, e
+            );
+        }
+        return false;
+    }
+
+    /**
+     * Checks free objects one by one so that other objects stay available
+     */
+    void check() {
+        List<Entry> entries;
+        m_lock.lock();
+        try {
+            if (!m_started) return;
+            entries = new ArrayList<Entry>(m_free);
+        } finally {
+            m_lock.unlock();
+        }
+        for (Entry entry: entries) {
+            m_lock.lock();
+            try {
+                if (!m_started) return;
+                if (!m_free.remove(entry)) continue;
+            } finally {
+                m_lock.unlock();
+            }
+            boolean valid = !objectExpired(entry) && objectValid(entry);
+            m_lock.lock();
+            try {
+                if (valid && m_started) {
+                    putFree_nl(entry, false);
+                    entry = null;
+                } else {
+                    removed_nl();
+                }
+            } finally {
+                m_lock.unlock();
+            }
+            if (entry != null) deallocate(entry);
+        }
+        fill(m_minCapacity);
+    }
+
+    /**
+     * Removes expired objects and objects unused for more than shrink period
+     */
+    void shrink() {
+        List<Entry> removed = new LinkedList<Entry>();
+        m_lock.lock();
+        try {
+            if (!m_started) return;
+            final long curTime = System.currentTimeMillis();
+            int shrinkCount = 0;
+            for (Iterator<Entry> it = m_free.descendingIterator(); it.hasNext(); ) {
+                Entry entry = it.next();
+                boolean remove = objectExpired(entry);
+                if (
+                    !remove && m_shrinkObjPeriod > 0
+                    && (m_shrinkCapacity < 0 || shrinkCount < m_shrinkCapacity)
+                    && (m_minCapacity <= 0 || m_size > m_minCapacity)
+                    && (curTime - entry.m_releaseTime) > m_shrinkObjPeriod
+                ) {
+                    remove = true;
+                    shrinkCount++;
+                }
+                if (remove) {
+                    it.remove();
+                    removed.add(entry);
+                    removed_nl();
+                }
+            }
+        } finally {
+            m_lock.unlock();
+        }
+        deallocate(removed);
+        m_logger.debug("Pool '" + m_desc + "' returned " + removed.size() + " objects");
+        fill(m_minCapacity);
+    }
+
+    private void schedule(TimerTask task, long period) {
+        if (m_timer == null) {
+            m_timer = new Timer(m_desc + "-Timer", true);
+            m_ownTimer = true;
+        }
+        m_tasks.add(task);
+        m_timer.schedule(task, period, period);
+    }
+
+    public void start() {
+        m_lock.lock();
+        try {
+            if (m_started) throw new IllegalStateException("Pool '" + m_desc + "' already started");
+            m_started = true;
+        } finally {
+            m_lock.unlock();
+        }
+        fill(Math.max(m_initialCapacity, m_minCapacity));
+
+        if (m_shrinkInterval > 0) {
+            schedule(new WheelTask() {
+                protected void execute() {
+                    try {
+                        shrink();
+                    } catch (Throwable e) {
+                        m_logger.error(e);
+                    }
+                }
+            }, m_shrinkInterval);
+        }
+        if (m_checkInterval > 0) {
+            schedule(new WheelTask() {
+                protected void execute() {
+                    try {
+                        check();
+                    } catch (Throwable e) {
+                        m_logger.error(e);
+                    }
+                }
+            }, m_checkInterval);
+        }
+    }
+
+    /**
+     * Busy objects are returned to factory when they are released
+     */
+    public void close() {
+        List<Entry> free;
+        m_lock.lock();
+        try {
+            if (!m_started) return;
+            long nanos = TimeUnit.MILLISECONDS.toNanos(m_closeTimeout);
+            try {
+                while (nanos > 0 && !m_busy.isEmpty()) {
+                    nanos = m_busyReleased.awaitNanos(nanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            m_started = false;
+            free = new ArrayList<Entry>(m_free);
+            m_free.clear();
+            m_size -= free.size();
+            for (Waiter w: m_waiters) w.m_cond.signal();
+            m_waiters.clear();
+            for (Entry entry: m_busy.values()) {
+                m_logger.warning(
+                    "Pool '" + m_desc + "': close cannot return object because its in use. " +
+                    "Object: " + entry.m_obj
+                );
+            }
+        } finally {
+            m_lock.unlock();
+        }
+
+        for (TimerTask task: m_tasks) task.cancel();
+        m_tasks.clear();
+        if (m_ownTimer) {
+            m_timer.cancel();
+            m_timer = null;
+            m_ownTimer = false;
+        }
+        deallocate(free);
+
+        if (m_objFactory instanceof Disposable) {
+            ((Disposable)m_objFactory).dispose();
+        }
+    }
+
+    public boolean isStarted() {
+        m_lock.lock();
+        try {
+            return m_started;
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    private void ensureStarted() {
+        if (!m_started) throw new IllegalStateException("Pool '" + m_desc + "' closed");
+    }
+
+    public int size() {
+        m_lock.lock();
+        try {
+            return m_size;
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    public int freeCount() {
+        m_lock.lock();
+        try {
+            return m_free.size();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    public int busyCount() {
+        m_lock.lock();
+        try {
+            return m_busy.size();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    public int waitingCount() {
+        m_lock.lock();
+        try {
+            return m_waiters.size();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    public long getAllocateCount() {
+        m_lock.lock();
+        try {
+            return m_allocateCount;
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    public long getTimeoutCount() {
+        m_lock.lock();
+        try {
+            return m_timeoutCount;
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    public String toString() {
+        m_lock.lock();
+        try {
+            return
+                "BlockingObjectPool '" + m_desc + "' Size = " + m_size +
+                "; Busy = " + m_busy.size() +
+                "; Free = " + m_free.size() +
+                "; Waiting = " + m_waiters.size() +
+                "; Utilization = " + (m_size > 0 ? m_busy.size() * 100 / m_size : 0) + "%" +
+                "; Gets = " + m_getCount +
+                "; Waits = " + m_waitCount +
+                "; Timeouts = " + m_timeoutCount +
+                "; Avg wait = " + (m_waitCount > 0 ? m_totalWaitTime / m_waitCount : 0) + " ms" +
+                "; Max wait = " + m_maxWaitTime + " ms" +
+                "; Allocated = " + m_allocateCount +
+                "; Removed = " + m_removeCount;
+        } finally {
+            m_lock.unlock();
+        }
+    }
+}
@@ -33,6 +33,7 @@ package ru.rd.pool2;
 import ru.rd.courier.logging.CourierLogger;
 import ru.rd.pool.ObjectPoolIntf;
 import ru.rd.pool.PoolObjectFactory;
+import ru.rd.scheduling.WheelTask;
 import ru.rd.thread.Condition;
 import ru.rd.thread.ThreadHelper;
 import ru.rd.utils.TimedDisposable;
@@ -764,10 +765,10 @@ public abstract class ObjectPool2 implements ObjectPoolIntf, TimedDisposable {
         }
     }
 
-    private class ActivityTask extends TimerTask {
+    private class ActivityTask extends WheelTask {
         private byte m_tactivity;
 
-        public void run() {
+        protected void execute() {
             try {
                 //m_logger.debug('ActivityTask.run: Activity = %d', [integer(fActivity)]);
                 tryToLaunchActivity(m_tactivity);
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.scheduling;
+
+import java.util.*;
+
+/**
+ * Lateness of scheduled launches relative to their planned time
+ */
+public class LatenessStat {
+    // named statistics listed in the state dump while their owners live
+    private static final Map<LatenessStat, String> s_named = new WeakHashMap<LatenessStat, String>();
+
+    private long m_count = 0;
+    private long m_total = 0;
+    private long m_max = 0;
+    private long m_last = 0;
+
+    public LatenessStat() {
+    }
+
+    /**
+     * Creates statistics listed by {@link #getNamedStatsDesc()}
+     */
+    public LatenessStat(String desc) {
+        synchronized (s_named) {
+            s_named.put(this, desc);
+        }
+    }
+
+    /**
+     * @return lateness of every named statistics having launches, the
+     * most late first
+     */
+    public static String getNamedStatsDesc() {
+        final List<Map.Entry<LatenessStat, String>> stats;
+        synchronized (s_named) {
+            stats = new ArrayList<Map.Entry<LatenessStat, String>>(s_named.entrySet());
+        }
+        Collections.sort(stats, new Comparator<Map.Entry<LatenessStat, String>>() {
+            public int compare(Map.Entry<LatenessStat, String> e1, Map.Entry<LatenessStat, String> e2) {
+                long m1 = e1.getKey().getMax(), m2 = e2.getKey().getMax();
+                return m1 < m2 ? 1 : (m1 == m2 ? 0 : -1);
+            }
+        });
+        StringBuffer ret = new StringBuffer();
+        for (Map.Entry<LatenessStat, String> e: stats) {
+            if (e.getKey().getCount() == 0) continue;
+            ret.append("  ").append(e.getValue()).append(": ").append(e.getKey()).append('\n');
+        }
+        return ret.toString();
+    }
+
+    public synchronized void register(long lateness) {
+        if (lateness < 0) lateness = 0;
+        m_count++;
+        m_total += lateness;
+        m_last = lateness;
+        if (lateness > m_max) m_max = lateness;
+    }
+
+    public synchronized long getCount() {
+        return m_count;
+    }
+
+    public synchronized long getMax() {
+        return m_max;
+    }
+
+    public synchronized long getLast() {
+        return m_last;
+    }
+
+    public synchronized long getAverage() {
+        return m_count > 0 ? m_total / m_count : 0;
+    }
+
+    public synchronized String toString() {
+        return
+            "launches = " + m_count + "; lateness: last = " + m_last +
+            " ms; avg = " + getAverage() + " ms; max = " + m_max + " ms";
+    }
+}
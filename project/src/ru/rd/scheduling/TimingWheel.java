@@ -0,0 +1,334 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.scheduling;
+
+import ru.rd.courier.logging.CourierLogger;
+
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Executor;
+
+/**
+ * Hierarchical timing wheel with constant time insert and cancel.
+ * Its tick thread only moves tasks between wheel slots and passes due
+ * tasks to the executor, so a slow task does not delay other ones.
+ * <p>
+ * Only {@link WheelTask} instances are scheduled on the wheel: cancel of
+ * other timer tasks cannot be noticed so they are scheduled as by plain
+ * Timer. A periodic task is not run concurrently with itself: its next
+ * launch is scheduled when the previous one has finished.
+ */
+public class TimingWheel extends Timer {
+    private static final int c_slotBits = 8;
+    private static final int c_slotCount = 1 << c_slotBits;
+    private static final int c_slotMask = c_slotCount - 1;
+    private static final int c_levelCount = 6;
+    private static final long c_maxDelta = (1L << (c_slotBits * c_levelCount)) - 1;
+
+    private final CourierLogger m_logger;
+    private final String m_name;
+    private final long m_tick;
+    private final Executor m_executor;
+    private final WheelTask[][] m_slots = new WheelTask[c_levelCount][c_slotCount];
+    private final long m_startNanos = System.nanoTime();
+    private final Thread m_thread;
+
+    private final Object m_lock = new Object();
+    private long m_currentTick = 0;
+    private int m_size = 0;
+    private boolean m_cancelled = false;
+    private long m_firedCount = 0;
+    private final LatenessStat m_lateness = new LatenessStat();
+
+    public TimingWheel(CourierLogger logger, String name, long tick, Executor executor) {
+        super(name, true);
+        if (tick < 1) throw new IllegalArgumentException("Tick must be > 0");
+        m_logger = logger;
+        m_name = name;
+        m_tick = tick;
+        m_executor = executor;
+        m_thread = new Thread(name + "-tick") {
+            public void run() {
+                tickLoop();
+            }
+        };
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    private long now() {
+        return (System.nanoTime() - m_startNanos) / 1000000;
+    }
+
+    private void tickLoop() {
+        List<WheelTask> due = new LinkedList<WheelTask>();
+        while (true) {
+            synchronized (m_lock) {
+                try {
+                    while (true) {
+                        if (m_cancelled) return;
+                        if (m_size == 0) {
+                            m_lock.wait();
+                            continue;
+                        }
+                        long wait = m_currentTick * m_tick - now();
+                        if (wait <= 0) break;
+                        m_lock.wait(wait);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long target = now() / m_tick;
+                while (m_currentTick <= target && m_size > 0) {
+                    tick_nl(due);
+                }
+            }
+            for (WheelTask task: due) dispatch(task);
+            due.clear();
+        }
+    }
+
+    private void tick_nl(List<WheelTask> due) {
+        int index = (int)(m_currentTick & c_slotMask);
+        if (index == 0) {
+            for (int level = 1; level < c_levelCount; level++) {
+                int li = (int)((m_currentTick >>> (c_slotBits * level)) & c_slotMask);
+                cascade_nl(level, li);
+                if (li != 0) break;
+            }
+        }
+        WheelTask task = m_slots[0][index];
+        m_slots[0][index] = null;
+        while (task != null) {
+            WheelTask next = task.m_next;
+            task.m_prev = null;
+            task.m_next = null;
+            if (task.m_deadline > m_currentTick) {
+                add_nl(task);
+            } else {
+                m_size--;
+                task.m_deadline = -1;
+                due.add(task);
+            }
+            task = next;
+        }
+        m_currentTick++;
+    }
+
+    private void cascade_nl(int level, int index) {
+        WheelTask task = m_slots[level][index];
+        m_slots[level][index] = null;
+        while (task != null) {
+            WheelTask next = task.m_next;
+            task.m_prev = null;
+            task.m_next = null;
+            m_size--;
+            add_nl(task);
+            task = next;
+        }
+    }
+
+    private void add_nl(WheelTask task) {
+        long deadline = Math.max(task.m_deadline, m_currentTick);
+        long delta = Math.min(deadline - m_currentTick, c_maxDelta);
+        int level = 0;
+        while (delta >= c_slotCount && level < c_levelCount - 1) {
+            delta >>>= c_slotBits;
+            level++;
+        }
+        long slotTick = m_currentTick + Math.min(deadline - m_currentTick, c_maxDelta);
+        int index = (int)((slotTick >>> (c_slotBits * level)) & c_slotMask);
+        WheelTask head = m_slots[level][index];
+        task.m_level = level;
+        task.m_index = index;
+        task.m_next = head;
+        task.m_prev = null;
+        if (head != null) head.m_prev = task;
+        m_slots[level][index] = task;
+        m_size++;
+    }
+
+    private boolean remove_nl(WheelTask task) {
+        if (task.m_deadline < 0) return false;
+        if (task.m_prev != null) {
+            task.m_prev.m_next = task.m_next;
+        } else {
+            m_slots[task.m_level][task.m_index] = task.m_next;
+        }
+        if (task.m_next != null) task.m_next.m_prev = task.m_prev;
+        task.m_prev = null;
+        task.m_next = null;
+        task.m_deadline = -1;
+        m_size--;
+        return true;
+    }
+
+    private void dispatch(final WheelTask task) {
+        final long startTime = System.currentTimeMillis();
+        m_lateness.register(startTime - task.m_plannedTime);
+        try {
+            m_executor.execute(new Runnable() {
+                public void run() {
+                    long runStart = System.currentTimeMillis();
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        m_logger.error("Timer '" + m_name + "' task failed: " + task, e);
+                    }
+                    if (task.m_period > 0) {
+                        long next = task.m_fixedRate ? task.m_plannedTime + task.m_period : runStart + task.m_period;
+                        synchronized (m_lock) {
+                            if (!task.m_cancelled && !m_cancelled) schedule_nl(task, next);
+                        }
+                    }
+                }
+
+                public String toString() {
+                    return "timer '" + m_name + "' task " + task;
+                }
+            });
+            synchronized (m_lock) {
+                m_firedCount++;
+            }
+        } catch (Throwable e) {
+            m_logger.error("Timer '" + m_name + "' failed to dispatch task: " + task, e);
+        }
+    }
+
+    private void schedule_nl(WheelTask task, long time) {
+        task.m_plannedTime = time;
+        long delay = time - System.currentTimeMillis();
+        long deadline = (now() + Math.max(delay, 0) + m_tick - 1) / m_tick;
+        task.m_deadline = deadline < 0 ? Long.MAX_VALUE : deadline;
+        boolean wasEmpty = m_size == 0;
+        // empty wheel has no slot positions to keep so idle ticks are skipped
+        if (wasEmpty) m_currentTick = Math.max(m_currentTick, now() / m_tick);
+        add_nl(task);
+        if (wasEmpty) m_lock.notifyAll();
+    }
+
+    private void sched(TimerTask task, long time, long period, boolean fixedRate) {
+        if (time < 0) throw new IllegalArgumentException("Illegal execution time.");
+        if (period < 0) throw new IllegalArgumentException("Illegal period.");
+        WheelTask wt = (WheelTask)task;
+        synchronized (m_lock) {
+            if (m_cancelled) throw new IllegalStateException("Timer already cancelled.");
+            if (wt.m_wheel != null || wt.m_cancelled) {
+                throw new IllegalStateException("Task already scheduled or cancelled");
+            }
+            wt.m_wheel = this;
+            wt.m_period = period;
+            wt.m_fixedRate = fixedRate;
+            schedule_nl(wt, time);
+        }
+    }
+
+    boolean cancelTask(WheelTask task) {
+        synchronized (m_lock) {
+            boolean ret = !task.m_cancelled;
+            task.m_cancelled = true;
+            remove_nl(task);
+            return ret;
+        }
+    }
+
+    private static long delayTime(long delay) {
+        if (delay < 0) throw new IllegalArgumentException("Negative delay.");
+        return System.currentTimeMillis() + delay;
+    }
+
+    public void schedule(TimerTask task, long delay) {
+        if (task instanceof WheelTask) sched(task, delayTime(delay), 0, false);
+        else super.schedule(task, delay);
+    }
+
+    public void schedule(TimerTask task, Date time) {
+        if (task instanceof WheelTask) sched(task, time.getTime(), 0, false);
+        else super.schedule(task, time);
+    }
+
+    public void schedule(TimerTask task, long delay, long period) {
+        if (period <= 0) throw new IllegalArgumentException("Non-positive period.");
+        if (task instanceof WheelTask) sched(task, delayTime(delay), period, false);
+        else super.schedule(task, delay, period);
+    }
+
+    public void schedule(TimerTask task, Date firstTime, long period) {
+        if (period <= 0) throw new IllegalArgumentException("Non-positive period.");
+        if (task instanceof WheelTask) sched(task, firstTime.getTime(), period, false);
+        else super.schedule(task, firstTime, period);
+    }
+
+    public void scheduleAtFixedRate(TimerTask task, long delay, long period) {
+        if (period <= 0) throw new IllegalArgumentException("Non-positive period.");
+        if (task instanceof WheelTask) sched(task, delayTime(delay), period, true);
+        else super.scheduleAtFixedRate(task, delay, period);
+    }
+
+    public void scheduleAtFixedRate(TimerTask task, Date firstTime, long period) {
+        if (period <= 0) throw new IllegalArgumentException("Non-positive period.");
+        if (task instanceof WheelTask) sched(task, firstTime.getTime(), period, true);
+        else super.scheduleAtFixedRate(task, firstTime, period);
+    }
+
+    public void cancel() {
+        synchronized (m_lock) {
+            m_cancelled = true;
+            for (WheelTask[] level: m_slots) {
+                for (int i = 0; i < c_slotCount; i++) level[i] = null;
+            }
+            m_size = 0;
+            m_lock.notifyAll();
+        }
+        super.cancel();
+    }
+
+    public int size() {
+        synchronized (m_lock) {
+            return m_size;
+        }
+    }
+
+    public LatenessStat getLateness() {
+        return m_lateness;
+    }
+
+    public String getStateDesc() {
+        synchronized (m_lock) {
+            return
+                "'" + m_name + "': tick = " + m_tick + " ms; scheduled = " + m_size +
+                "; fired = " + m_firedCount + "; dispatch " + m_lateness;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.scheduling;
+
+import java.util.TimerTask;
+
+/**
+ * Timer task which can be scheduled by {@link TimingWheel} as well as by
+ * plain java.util.Timer. Lateness of every launch is registered in the
+ * launcher statistics.
+ */
+public abstract class WheelTask extends TimerTask {
+    private final LatenessStat m_stat;
+
+    // wheel bookkeeping guarded by the wheel lock
+    TimingWheel m_wheel = null;
+    WheelTask m_prev = null;
+    WheelTask m_next = null;
+    long m_deadline;
+    int m_level;
+    int m_index;
+    long m_period = 0;
+    boolean m_fixedRate = false;
+    volatile boolean m_cancelled = false;
+    volatile long m_plannedTime;
+
+    protected WheelTask(LatenessStat stat) {
+        m_stat = stat;
+    }
+
+    protected WheelTask() {
+        this(null);
+    }
+
+    protected abstract void execute();
+
+    public final void run() {
+        // task may be cancelled after it has been dispatched to the executor
+        if (m_cancelled) return;
+        long planned = m_wheel == null ? scheduledExecutionTime() : m_plannedTime;
+        if (m_stat != null) m_stat.register(System.currentTimeMillis() - planned);
+        execute();
+    }
+
+    public boolean cancel() {
+        boolean ret = false;
+        TimingWheel wheel = m_wheel;
+        if (wheel != null) ret = wheel.cancelTask(this);
+        else m_cancelled = true;
+        return super.cancel() || ret;
+    }
+}
@@ -30,6 +30,9 @@
  */
 package ru.rd.scheduling.leveled;
 
+import ru.rd.scheduling.LatenessStat;
+import ru.rd.scheduling.WheelTask;
+
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -45,15 +48,17 @@ public class ScheduleLevel implements StartStopListenerSet {
     private boolean m_started;
     private boolean m_active;
     private Collection<StartStopListener> m_listeners = new LinkedList<StartStopListener>();
+    private final LatenessStat m_lateness;
 
-    private class TimerTaskWrapper extends TimerTask {
+    private class TimerTaskWrapper extends WheelTask {
         private Runnable m_work;
 
         public TimerTaskWrapper(final Runnable work) {
+            super(m_lateness);
             m_work = work;
         }
 
-        public void run() {
+        protected void execute() {
             m_work.run();
         }
     }
@@ -98,12 +103,17 @@ public class ScheduleLevel implements StartStopListenerSet {
         m_skipAmbient = skipAmbient;
         m_timer = timer;
         m_started = false;
+        m_lateness = new LatenessStat("schedule level '" + desc + "'");
     }
 
     public String getDesc() {
         return m_desc;
     }
 
+    public LatenessStat getLateness() {
+        return m_lateness;
+    }
+
     public synchronized TimeTable getTimeTable() {
         return m_timeTable;
     }
@@ -30,6 +30,8 @@
  */
 package ru.rd.scheduling.leveled.launchers;
 
+import ru.rd.scheduling.LatenessStat;
+import ru.rd.scheduling.WheelTask;
 import ru.rd.scheduling.leveled.CalendarInterval;
 import ru.rd.scheduling.leveled.StartStopListener;
 
@@ -48,6 +50,7 @@ public abstract class CalendarPeriodicLauncher implements StartStopListener {
     private TimerTask m_curTask = null;
     private Calendar m_curLaunchDate = new GregorianCalendar();
     private boolean m_active;
+    private final LatenessStat m_lateness;
     protected int[] m_clearFields;
 
     public CalendarPeriodicLauncher(
@@ -65,6 +68,7 @@ public abstract class CalendarPeriodicLauncher implements StartStopListener {
         }
         m_work = work;
         m_timer = (timer == null) ? new Timer(): timer;
+        m_lateness = new LatenessStat(desc + " launcher '" + work + "'");
     }
 
     public CalendarPeriodicLauncher(
@@ -94,9 +98,12 @@ public abstract class CalendarPeriodicLauncher implements StartStopListener {
         m_curLaunchDate.add(m_calendarField, m_interval);
     }
 
-    private class LaunchTimerTask extends TimerTask {
-        public LaunchTimerTask() {}
-        public void run() {
+    private class LaunchTimerTask extends WheelTask {
+        public LaunchTimerTask() {
+            super(m_lateness);
+        }
+
+        protected void execute() {
             synchronized(CalendarPeriodicLauncher.this) {
                 if (!m_active) return;
                 m_work.run();
@@ -150,4 +157,8 @@ public abstract class CalendarPeriodicLauncher implements StartStopListener {
         }
         m_offset.addFieldInterval(fieldId, interval);
     }
+
+    public LatenessStat getLateness() {
+        return m_lateness;
+    }
 }
@@ -30,6 +30,8 @@
  */
 package ru.rd.scheduling.leveled.launchers;
 
+import ru.rd.scheduling.LatenessStat;
+import ru.rd.scheduling.WheelTask;
 import ru.rd.scheduling.leveled.CalendarSetter;
 
 import java.util.*;
@@ -39,6 +41,7 @@ import java.util.logging.Level;
 public class OneExactTimeLauncher extends OneTimeLauncher {
     private final CalendarSetter m_shift;
     private final Timer m_timer;
+    private final LatenessStat m_lateness;
 
     public OneExactTimeLauncher(
         Logger log, CalendarSetter shift, Runnable work, Timer timer
@@ -47,6 +50,7 @@ public class OneExactTimeLauncher extends OneTimeLauncher {
         m_shift = shift;
         if (timer == null) m_timer = new Timer();
         else m_timer = timer;
+        m_lateness = new LatenessStat("exact time launcher '" + work + "'");
     }
 
     public void protectedStart(Date parentStart) {
@@ -59,11 +63,15 @@ public class OneExactTimeLauncher extends OneTimeLauncher {
         }
         if (c.getTime().after(new Date())) {
             m_timer.schedule(
-                new TimerTask() {
-                    public void run() { m_work.run(); }
+                new WheelTask(m_lateness) {
+                    protected void execute() { m_work.run(); }
                 },
                 c.getTime()
             );
         }
     }
+
+    public LatenessStat getLateness() {
+        return m_lateness;
+    }
 }
@@ -30,6 +30,8 @@
  */
 package ru.rd.scheduling.leveled.launchers;
 
+import ru.rd.scheduling.LatenessStat;
+import ru.rd.scheduling.WheelTask;
 import ru.rd.scheduling.leveled.StartStopListener;
 
 import java.util.Date;
@@ -43,12 +45,14 @@ public class PeriodicLauncher implements StartStopListener {
     private Timer m_timer;
     private Runnable m_work = null;
     private TimerTask m_curTask = null;
+    private final LatenessStat m_lateness;
 
     public PeriodicLauncher(Logger logger, long interval, Runnable work, Timer timer) {
         m_logger = logger;
         m_interval = interval;
         m_work = work;
         m_timer = (timer == null) ? new Timer(): timer;
+        m_lateness = new LatenessStat("periodic launcher '" + work + "'");
     }
 
     public PeriodicLauncher(Logger logger, final long interval, final Runnable work) {
@@ -56,8 +60,8 @@ public class PeriodicLauncher implements StartStopListener {
     }
 
     synchronized public void start(final Date parentStart) {
-        m_curTask = new TimerTask() {
-            public void run() {
+        m_curTask = new WheelTask(m_lateness) {
+            protected void execute() {
                 /*
                 if (m_logger != null) {
                     m_logger.log(
@@ -88,4 +92,8 @@ public class PeriodicLauncher implements StartStopListener {
     synchronized public long getInterval() {
         return m_interval;
     }
+
+    public LatenessStat getLateness() {
+        return m_lateness;
+    }
 }
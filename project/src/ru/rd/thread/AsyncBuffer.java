@@ -35,6 +35,7 @@ import ru.rd.courier.utils.CloseEventListener;
 import ru.rd.pool.ObjectPoolIntf;
 import ru.rd.pool.PoolException;
 import ru.rd.pool.ReleaseHelper;
+import ru.rd.scheduling.WheelTask;
 
 import java.util.*;
 
@@ -44,6 +45,7 @@ public class AsyncBuffer<E> {
     private int m_maxThreadCnt;
     private CourierLogger m_logger;
     private ObjectPoolIntf m_threadPool;
+    private WorkExecutor m_executor = null;
     private LinkedList<E> m_data = new LinkedList<E>();
     private Timer m_timer;
     private boolean m_borrowedTimer;
@@ -65,6 +67,11 @@ public class AsyncBuffer<E> {
         public Worker(List<E> part) {
             incActiveHandlersCnt(1);
             m_part = part;
+            // buffer lock is held here so a full executor queue must not block
+            if (m_executor != null && m_executor.tryLaunchWork(this, null)) {
+                m_rHelper = null;
+                return;
+            }
             m_rHelper = new ReleaseHelper(m_threadPool);
             ((WorkThread)m_rHelper.getObject()).launchWork(this, this);
         }
@@ -111,10 +118,25 @@ public class AsyncBuffer<E> {
         m_borrowedTimer = timer != null;
     }
 
+    /**
+     * @param executor runs workers when it has room in its queue,
+     * otherwise the thread pool is used
+     */
+    public AsyncBuffer(
+        CourierLogger logger,
+        ObjectPoolIntf threadPool, WorkExecutor executor, int maxThreadCnt,
+        Timer timer, long period,
+        Receiver<E> receiver, int partSize,
+        CloseEventListener closeListener
+    ) {
+        this(logger, threadPool, maxThreadCnt, timer, period, receiver, partSize, closeListener);
+        m_executor = executor;
+    }
+
     private void initTimerTask() {
         if (m_timer == null) m_timer = new Timer();
-        m_launcher = new TimerTask() {
-            public void run() {
+        m_launcher = new WheelTask() {
+            protected void execute() {
                 try {
                     launchThread();
                 } catch(Throwable e) {
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.thread;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Creates virtual threads on JVMs supporting them. The sources are
+ * compiled for older JVMs so the thread builder is reached by reflection.
+ */
+public class VirtualThreads {
+    private static final Method c_ofVirtual;
+    private static final Method c_name;
+    private static final Method c_unstarted;
+
+    static {
+        Method ofVirtual = null, name = null, unstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+            // preview JVMs throw here unless preview features are enabled
+            unstarted.invoke(ofVirtual.invoke(null), new Runnable() { public void run() {} });
+        } catch (Throwable e) {
+            ofVirtual = null;
+        }
+        c_ofVirtual = ofVirtual;
+        c_name = name;
+        c_unstarted = unstarted;
+    }
+
+    public static boolean isSupported() {
+        return c_ofVirtual != null;
+    }
+
+    /**
+     * @return not started virtual thread
+     */
+    public static Thread newThread(String name, Runnable work) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException(
+                "Virtual threads are not supported by JVM " + System.getProperty("java.version")
+            );
+        }
+        try {
+            Object builder = c_ofVirtual.invoke(null);
+            builder = c_name.invoke(builder, name);
+            return (Thread)c_unstarted.invoke(builder, work);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
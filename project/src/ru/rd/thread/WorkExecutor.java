@@ -0,0 +1,485 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.thread;
+
+import ru.rd.courier.logging.CourierLogger;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named group of worker threads taking works from a bounded queue.
+ * Works are launched with the same launch/free contract as WorkThread
+ * has, so callers wait in the queue instead of failing when all threads
+ * are busy. A worker running a work which has not finished in time is
+ * abandoned and replaced by a new one.
+ * <p>
+ * In virtual mode every work gets its own virtual thread at once, so the
+ * works blocked in I/O do not hold platform threads and the concurrency
+ * is limited by the callers only.
+ */
+public class WorkExecutor implements Executor {
+    private final CourierLogger m_logger;
+    private final String m_name;
+    private final int m_maxThreads;
+    private final long m_keepAlive;
+    private final boolean m_virtual;
+    private final BlockingQueue<Task> m_queue;
+
+    private final Object m_lock = new Object();
+    private final Set<Worker> m_workers = new HashSet<Worker>();
+    private int m_idleCount = 0;
+    private int m_lastId = 0;
+    private int m_abandonedCount = 0;
+    private boolean m_closed = false;
+
+    private final AtomicLong m_submitCount = new AtomicLong(0);
+    private final AtomicLong m_completeCount = new AtomicLong(0);
+    private final AtomicLong m_totalLatency = new AtomicLong(0);
+    private final AtomicLong m_maxLatency = new AtomicLong(0);
+    private final AtomicLong m_totalRunTime = new AtomicLong(0);
+
+    private static class Task {
+        public final Runnable m_work;
+        public final FreeListener m_freeListener;
+        public final long m_submitTime = System.currentTimeMillis();
+        public Worker m_worker = null;
+        public boolean m_done = false;
+
+        public Task(Runnable work, FreeListener fl) {
+            m_work = work;
+            m_freeListener = fl;
+        }
+
+        public synchronized void finished() {
+            m_done = true;
+            notifyAll();
+        }
+
+        public synchronized boolean waitFinished(long timeout) {
+            long deadline = System.currentTimeMillis() + timeout;
+            try {
+                while (!m_done) {
+                    if (timeout <= 0) {
+                        wait();
+                    } else {
+                        long left = deadline - System.currentTimeMillis();
+                        if (left <= 0) break;
+                        wait(left);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return m_done;
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final Thread m_thread;
+        private boolean m_abandoned = false;
+        private Task m_task = null;
+
+        public Worker(int id) {
+            String name = m_name + "-" + id;
+            m_thread = m_virtual ? VirtualThreads.newThread(name, this) : new Thread(this, name);
+        }
+
+        public void run() {
+            if (m_virtual) {
+                execTask(m_task);
+                synchronized (m_lock) {
+                    m_task = null;
+                    if (m_abandoned) return;
+                    m_workers.remove(this);
+                    m_lock.notifyAll();
+                }
+                return;
+            }
+            while (true) {
+                final Task task;
+                synchronized (m_lock) {
+                    task = takeTask_nl();
+                    if (task == null) {
+                        workerExit_nl(this);
+                        return;
+                    }
+                    m_task = task;
+                    task.m_worker = this;
+                }
+                execTask(task);
+                synchronized (m_lock) {
+                    m_task = null;
+                    if (m_abandoned) return;
+                    m_idleCount++;
+                }
+            }
+        }
+
+        /**
+         * Waits for a work holding the lock, so the worker stops being
+         * counted idle at the moment it takes the work from the queue
+         * @return null if the worker has to exit
+         */
+        private Task takeTask_nl() {
+            final long deadline = System.currentTimeMillis() + m_keepAlive;
+            while (true) {
+                final Task task = m_queue.poll();
+                if (task != null) {
+                    m_idleCount--;
+                    return task;
+                }
+                if (m_closed) return null;
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) return null;
+                try {
+                    m_lock.wait(left);
+                } catch (InterruptedException e) {
+                    // re-check the queue and the state
+                }
+            }
+        }
+    }
+
+    public WorkExecutor(
+        CourierLogger logger, String name, int maxThreads, int queueSize, long keepAlive
+    ) {
+        if (maxThreads < 1) throw new IllegalArgumentException("Max threads count must be > 0");
+        if (queueSize < 1) throw new IllegalArgumentException("Queue size must be > 0");
+        m_logger = logger;
+        m_name = name;
+        m_maxThreads = maxThreads;
+        m_keepAlive = keepAlive;
+        m_queue = new ArrayBlockingQueue<Task>(queueSize);
+        m_virtual = false;
+    }
+
+    /**
+     * Creates executor running every work in a new virtual thread
+     * @see VirtualThreads#isSupported()
+     */
+    public WorkExecutor(CourierLogger logger, String name) {
+        if (!VirtualThreads.isSupported()) {
+            throw new UnsupportedOperationException(
+                "Executor '" + name + "': virtual threads are not supported by JVM " +
+                System.getProperty("java.version")
+            );
+        }
+        m_logger = logger;
+        m_name = name;
+        m_maxThreads = Integer.MAX_VALUE;
+        m_keepAlive = 0;
+        m_queue = new ArrayBlockingQueue<Task>(1);
+        m_virtual = true;
+    }
+
+    public boolean isVirtual() {
+        return m_virtual;
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    private void execTask(Task task) {
+        long startTime = System.currentTimeMillis();
+        long latency = startTime - task.m_submitTime;
+        m_totalLatency.addAndGet(latency);
+        long max;
+        while (latency > (max = m_maxLatency.get())) {
+            if (m_maxLatency.compareAndSet(max, latency)) break;
+        }
+        try {
+            task.m_work.run();
+        } catch (Throwable e) {
+            m_logger.error("Executor '" + m_name + "' work failed: " + task.m_work, e);
+        }
+        Thread.interrupted();
+        m_totalRunTime.addAndGet(System.currentTimeMillis() - startTime);
+        m_completeCount.incrementAndGet();
+        task.finished();
+        if (task.m_freeListener != null) {
+            try {
+                task.m_freeListener.free(task.m_work);
+            } catch (Throwable e) {
+                m_logger.error(e);
+            }
+        }
+    }
+
+    private void workerExit_nl(Worker worker) {
+        m_workers.remove(worker);
+        m_idleCount--;
+        m_lock.notifyAll();
+    }
+
+    private void ensureWorkers_nl() {
+        while (m_workers.size() < m_maxThreads && m_idleCount < m_queue.size()) {
+            Worker w = new Worker(++m_lastId);
+            m_workers.add(w);
+            m_idleCount++;
+            w.m_thread.start();
+        }
+        if (!m_queue.isEmpty()) m_lock.notifyAll();
+    }
+
+    private void startVirtual_nl(Task task) {
+        Worker w = new Worker(++m_lastId);
+        w.m_task = task;
+        task.m_worker = w;
+        m_workers.add(w);
+        w.m_thread.start();
+    }
+
+    /**
+     * Queues the work waiting while the queue is full
+     * @param fl is called after the work has finished
+     */
+    public void launchWork(Runnable work, FreeListener fl) {
+        launchTask(new Task(work, fl));
+    }
+
+    /**
+     * Queues the work unless the queue is full
+     * @return false if the work has not been queued
+     */
+    public boolean tryLaunchWork(Runnable work, FreeListener fl) {
+        synchronized (m_lock) {
+            if (m_closed) return false;
+            if (m_virtual) {
+                startVirtual_nl(new Task(work, fl));
+                m_submitCount.incrementAndGet();
+                return true;
+            }
+        }
+        if (!m_queue.offer(new Task(work, fl))) return false;
+        m_submitCount.incrementAndGet();
+        synchronized (m_lock) {
+            ensureWorkers_nl();
+        }
+        return true;
+    }
+
+    /**
+     * Queues the work only if an idle or a new worker can take it at once,
+     * so that a work waiting for its own nested works does not queue them
+     * behind itself
+     * @return false if the work has not been queued
+     */
+    public boolean tryLaunchIdleWork(Runnable work, FreeListener fl) {
+        synchronized (m_lock) {
+            if (m_closed) return false;
+            if (m_virtual) {
+                startVirtual_nl(new Task(work, fl));
+                m_submitCount.incrementAndGet();
+                return true;
+            }
+            if (m_workers.size() >= m_maxThreads && m_idleCount <= m_queue.size()) return false;
+            if (!m_queue.offer(new Task(work, fl))) return false;
+            m_submitCount.incrementAndGet();
+            ensureWorkers_nl();
+            return true;
+        }
+    }
+
+    /**
+     * Removes the work from the queue unless a worker has taken it
+     * @return true if the work will not be run by this executor
+     */
+    public boolean cancelWork(Runnable work) {
+        synchronized (m_lock) {
+            for (Task task: m_queue) {
+                if (task.m_work == work) return m_queue.remove(task);
+            }
+        }
+        return false;
+    }
+
+    private void launchTask(Task task) {
+        synchronized (m_lock) {
+            if (m_closed) throw new IllegalStateException("Executor '" + m_name + "' closed");
+            if (m_virtual) {
+                startVirtual_nl(task);
+                m_submitCount.incrementAndGet();
+                return;
+            }
+        }
+        try {
+            m_queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Executor '" + m_name + "': launch work interrupted", e);
+        }
+        m_submitCount.incrementAndGet();
+        synchronized (m_lock) {
+            ensureWorkers_nl();
+        }
+    }
+
+    public void launchWork(Runnable work) {
+        launchWork(work, null);
+    }
+
+    public void execute(Runnable command) {
+        launchWork(command, null);
+    }
+
+    /**
+     * @return true if the work has finished within the timeout, otherwise
+     * the worker running it is abandoned
+     */
+    public boolean launchWorkAndWait(Runnable work, long timeout) {
+        Task task = new Task(work, null);
+        launchTask(task);
+        if (task.waitFinished(timeout)) return true;
+        synchronized (m_lock) {
+            if (task.m_worker != null && task.m_worker.m_task == task) {
+                abandon_nl(task.m_worker);
+            } else {
+                m_queue.remove(task);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops counting the worker running the work so that it is replaced
+     * by a new one. The worker exits as soon as the work finishes.
+     * @return true if the work is running
+     */
+    public boolean abandonWork(Runnable work) {
+        synchronized (m_lock) {
+            for (Worker w: m_workers) {
+                if (w.m_task != null && w.m_task.m_work == work) {
+                    abandon_nl(w);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void abandon_nl(Worker w) {
+        w.m_abandoned = true;
+        m_workers.remove(w);
+        m_abandonedCount++;
+        ensureWorkers_nl();
+    }
+
+    /**
+     * Rejects new works and waits for queued ones to finish
+     * @return true if all workers have exited within the timeout
+     */
+    public boolean close(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (m_lock) {
+            m_closed = true;
+            if (!m_virtual) {
+                ensureWorkers_nl();
+                m_lock.notifyAll();
+            }
+            try {
+                while (!m_workers.isEmpty()) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) break;
+                    m_lock.wait(left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!m_workers.isEmpty()) {
+                m_logger.warning(
+                    "Executor '" + m_name + "' closed while " + m_workers.size() +
+                    " threads are busy; " + m_queue.size() + " works discarded"
+                );
+                m_queue.clear();
+                for (Worker w: m_workers) w.m_thread.interrupt();
+                return false;
+            }
+            m_queue.clear();
+            return true;
+        }
+    }
+
+    public int getQueueSize() {
+        return m_queue.size();
+    }
+
+    public int getThreadCount() {
+        synchronized (m_lock) {
+            return m_workers.size();
+        }
+    }
+
+    public int getActiveCount() {
+        synchronized (m_lock) {
+            return m_workers.size() - m_idleCount;
+        }
+    }
+
+    public long getCompletedCount() {
+        return m_completeCount.get();
+    }
+
+    public long getAverageLatency() {
+        long count = m_completeCount.get();
+        return count > 0 ? m_totalLatency.get() / count : 0;
+    }
+
+    public long getMaxLatency() {
+        return m_maxLatency.get();
+    }
+
+    public String getStateDesc() {
+        long count = m_completeCount.get();
+        synchronized (m_lock) {
+            return
+                "'" + m_name + "'" + (m_virtual ? " (virtual)" : "") +
+                ": threads = " + m_workers.size() + (m_virtual ? "" : "/" + m_maxThreads) +
+                "; active = " + (m_workers.size() - m_idleCount) +
+                "; abandoned = " + m_abandonedCount +
+                "; queue = " + m_queue.size() + "/" + (m_queue.size() + m_queue.remainingCapacity()) +
+                "; submitted = " + m_submitCount.get() +
+                "; completed = " + count +
+                "; avg latency = " + getAverageLatency() + " ms" +
+                "; max latency = " + m_maxLatency.get() + " ms" +
+                "; avg run = " + (count > 0 ? m_totalRunTime.get() / count : 0) + " ms";
+        }
+    }
+
+    public String toString() {
+        return "WorkExecutor " + getStateDesc();
+    }
+}
@@ -35,6 +35,7 @@ import ru.rd.courier.logging.data.DataLogger;
 import ru.rd.courier.datalinks.AccountProvider;
 import ru.rd.pool.ObjectPool;
 import ru.rd.pool.PooledObjectHolder;
+import ru.rd.thread.WorkExecutor;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
@@ -87,6 +88,10 @@ public class CourierContextMock implements CourierContext {
         return null;
     }
 
+    public WorkExecutor getWorkExecutor(String name) {
+        return null;
+    }
+
     public Document parseXmlFile(File f) throws ParserConfigurationException, IOException, SAXException {
         return null;
     }
@@ -151,6 +156,14 @@ public class CourierContextMock implements CourierContext {
         return null;
     }
 
+    public ScriptStatement getSourceCoordinatorStatement() {
+        return null;
+    }
+
+    public ScriptStatement getSourcePartitionStatement() {
+        return null;
+    }
+
     public ScriptStatement getPipesTopStatement() {
         return null;
     }
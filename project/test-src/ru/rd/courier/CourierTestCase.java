@@ -156,7 +156,7 @@ public class CourierTestCase extends FileDataTestCase {
         public Pipe(
             String name, Integer ignoreErrorCount,
             String otherAttributes, String sourceTransform,
-            String sourceRuleOtherAttributes,
+            String sourceRuleOtherAttributes, String sourceRuleSections,
             String targetRuleSection, String targetCommonSections,
             int expectedMaxWorkProcCount, Element inputData
         ) throws IOException, CourierException {
@@ -194,6 +194,7 @@ public class CourierTestCase extends FileDataTestCase {
                               {"name", cRuleName}
                             , {"transform", sourceTransform}
                             , {"source-rule-other-attributes", sourceRuleOtherAttributes}
+                            , {"source-rule-sections", sourceRuleSections}
                         }
                     )}
                 }
@@ -243,6 +244,7 @@ public class CourierTestCase extends FileDataTestCase {
                 DomHelper.getChildValue(e, "other-attributes", ""),
                 DomHelper.getChildValue(e, "source-transform"),
                 DomHelper.getChildValue(e, "source-rule-other-attributes", ""),
+                DomHelper.getChildValue(e, "source-rule-sections", ""),
                 DomHelper.getChildValue(e, "target-rule-section"),
                 DomHelper.getChildValue(e, "target-common-sections", ""),
                 DomHelper.getIntNodeAttr(e, "max-working-processes", 1),
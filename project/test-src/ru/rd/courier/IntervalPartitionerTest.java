@@ -0,0 +1,83 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier;
+
+import junit.framework.TestCase;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.List;
+
+public class IntervalPartitionerTest extends TestCase {
+    public IntervalPartitionerTest(String name) {
+        super(name);
+    }
+
+    public void testInteger() {
+        assertEquals(
+            Arrays.asList("25", "50", "75", "100"),
+            IntervalPartitioner.split('i', "0", "100", 4, null)
+        );
+        assertEquals(
+            Arrays.asList("3", "6", "10"),
+            IntervalPartitioner.split('i', "0", "10", 3, null)
+        );
+        assertEquals(
+            Arrays.asList("11", "12"),
+            IntervalPartitioner.split('i', "10", "12", 4, null)
+        );
+        assertTrue(IntervalPartitioner.split('i', "10", "10", 4, null).isEmpty());
+        assertEquals(Arrays.asList("10"), IntervalPartitioner.split('i', "", "10", 4, null));
+    }
+
+    public void testHex() {
+        assertEquals(
+            Arrays.asList("0080", "0100"),
+            IntervalPartitioner.split('b', "0000", "0100", 2, null)
+        );
+        assertEquals(
+            Arrays.asList("0000007F", "000000FE"),
+            IntervalPartitioner.split('b', "00000000", "000000FE", 2, null)
+        );
+    }
+
+    public void testDate() {
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        List<String> res = IntervalPartitioner.split('d', "2020-01-01 00:00:00", "2020-01-01 04:00:00", 4, df);
+        assertEquals(
+            Arrays.asList(
+                "2020-01-01 01:00:00", "2020-01-01 02:00:00",
+                "2020-01-01 03:00:00", "2020-01-01 04:00:00"
+            ),
+            res
+        );
+    }
+}
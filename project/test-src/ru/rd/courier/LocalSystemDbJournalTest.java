@@ -0,0 +1,303 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Element;
+import ru.rd.courier.logging.ConsoleCourierLogger;
+import ru.rd.courier.logging.data.DataLogger;
+import ru.rd.courier.utils.DomHelper;
+import ru.rd.courier.utils.FileStorage;
+import ru.rd.pool.PoolObjectFactory;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+
+public class LocalSystemDbJournalTest extends TestCase {
+    private File m_dir;
+    private File m_file;
+    private final List<Timer> m_timers = new LinkedList<Timer>();
+
+    public LocalSystemDbJournalTest(String name) {
+        super(name);
+    }
+
+    private class TestSystemDb extends LocalSystemDb {
+        private Integer m_launched;
+        private boolean m_reject = false;
+
+        public TestSystemDb() throws CourierException {
+            super(
+                new ConsoleCourierLogger("test"), new SimpleDateFormat("yyyyMMdd HH:mm:ss"),
+                3600, newTimer(), new FileStorage(m_file), null
+            );
+            registerPipeline("p1", "p1", 0, 60, 'i', 0);
+            registerPipeline("p2", "p2", 0, 60, 'i', 0);
+        }
+
+        protected boolean hasPipeline(PipeInfo pipe) {
+            return true;
+        }
+
+        protected boolean isPipelineRunning(PipeInfo pipe) {
+            return true;
+        }
+
+        protected boolean launchPipelineProcess(ProcessInfo proc) {
+            if (m_reject) throw new RejectedExecutionException("queue is full");
+            m_launched = proc.m_id;
+            return true;
+        }
+
+        public void transfer(String pipe, String intervalValue, String pipeValue) throws CourierException {
+            registerProcessRequest(new TransferRequest(pipe, null, null, null, null, null));
+            processFinished(new FinishedProcess(m_launched, intervalValue, pipeValue));
+        }
+    }
+
+    private static class FinishedProcess implements TransferProcess, TransferProcessResult {
+        private final Integer m_id;
+        private final Map<String, String> m_vars = new HashMap<String, String>();
+
+        public FinishedProcess(Integer id, String intervalValue, String pipeValue) {
+            m_id = id;
+            if (intervalValue != null) m_vars.put(c_intervalValueVarName, intervalValue);
+            m_vars.put(c_PipeValueVarName, pipeValue);
+        }
+
+        public Integer getId() { return m_id; }
+        public String getTargetProfileName() { return null; }
+        public DataLogger getDataLogger() { return null; }
+        public int getErrorCount() { return 0; }
+        public int getRecordCount() { return 0; }
+        public String getErrorText() { return null; }
+        public String getErrorStack() { return null; }
+        public long getStartTime() { return 0; }
+        public long getTotalTime() { return 0; }
+        public long getTargetTime() { return 0; }
+        public long getSourceTime() { return 0; }
+        public String getSourceDbName() { return null; }
+        public String getTargetDbName() { return null; }
+        public PoolObjectFactory getPoolFactory(String name) { return null; }
+        public String getIntervalValue() { return null; }
+        public void start() {}
+        public void stop() {}
+        public void close() {}
+        public void syncProgress() {}
+        public String getCurrentStateDesc() { return null; }
+        public TransferProcessResult getResults() { return this; }
+
+        public Date getDateVar(String name) { return null; }
+        public Object getObject(String name) { return null; }
+        public boolean hasVar(String name) { return m_vars.containsKey(name); }
+        public String getVar(String name) { return m_vars.get(name); }
+        public void setVar(String name, String value) { m_vars.put(name, value); }
+        public void removeVar(String name) { m_vars.remove(name); }
+    }
+
+    private Timer newTimer() {
+        Timer timer = new Timer("test", true);
+        m_timers.add(timer);
+        return timer;
+    }
+
+    protected void setUp() throws Exception {
+        m_dir = File.createTempFile("sysdb", "");
+        assertTrue(m_dir.delete());
+        assertTrue(m_dir.mkdir());
+        m_file = new File(m_dir, "system-db.xml");
+    }
+
+    protected void tearDown() throws Exception {
+        for (Timer timer: m_timers) timer.cancel();
+        File[] files = m_dir.listFiles();
+        if (files != null) for (File f: files) f.delete();
+        m_dir.delete();
+    }
+
+    private File getJournalFile() {
+        return new File(m_file.getPath() + ".journal");
+    }
+
+    private Map<String, String[]> restoredState() throws Exception {
+        TestSystemDb db = new TestSystemDb();
+        db.start();
+        Map<String, String[]> ret = new HashMap<String, String[]>();
+        Element[] pipes = DomHelper.getChildrenByTagName(
+            DomHelper.parseXmlFile(m_file).getDocumentElement(), "pipe", false
+        );
+        for (Element pipe: pipes) {
+            ret.put(
+                DomHelper.getNodeAttr(pipe, "code"),
+                new String[] {
+                    DomHelper.getNodeAttr(pipe, "interval-value", false),
+                    DomHelper.getNodeAttr(pipe, "pipe-value", false)
+                }
+            );
+        }
+        return ret;
+    }
+
+    private static void assertState(
+        Map<String, String[]> state, String pipe, String intervalValue, String pipeValue
+    ) {
+        String[] vars = state.get(pipe);
+        assertEquals(intervalValue, vars[0]);
+        assertEquals(pipeValue, vars[1]);
+    }
+
+    private static byte[] readFile(File f) throws IOException {
+        byte[] ret = new byte[(int)f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            in.readFully(ret);
+        } finally {
+            in.close();
+        }
+        return ret;
+    }
+
+    private static void writeFile(File f, byte[] data, int length) throws IOException {
+        OutputStream out = new FileOutputStream(f);
+        try {
+            out.write(data, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void testReplayAfterCrash() throws Exception {
+        TestSystemDb db = new TestSystemDb();
+        db.start();
+        db.transfer("p1", "10", "a");
+        db.transfer("p2", "20", "b");
+        db.transfer("p1", "11", "c");
+        // no stop: changes are only in the journal
+        assertTrue(getJournalFile().length() > 0);
+
+        Map<String, String[]> state = restoredState();
+        assertState(state, "p1", "11", "c");
+        assertState(state, "p2", "20", "b");
+        assertEquals(0, getJournalFile().exists() ? getJournalFile().length() : 0);
+    }
+
+    public void testTornRecordIgnored() throws Exception {
+        TestSystemDb db = new TestSystemDb();
+        db.start();
+        db.transfer("p1", "10", "a");
+        long complete = getJournalFile().length();
+        db.transfer("p1", "11", "b");
+        byte[] journal = readFile(getJournalFile());
+        assertFalse(m_file.exists());
+
+        for (int length = (int)complete; length < journal.length; length++) {
+            m_file.delete();
+            writeFile(getJournalFile(), journal, length);
+            assertState(restoredState(), "p1", "10", "a");
+        }
+        m_file.delete();
+        writeFile(getJournalFile(), journal, journal.length);
+        assertState(restoredState(), "p1", "11", "b");
+    }
+
+    public void testDamagedRecordIgnored() throws Exception {
+        TestSystemDb db = new TestSystemDb();
+        db.start();
+        db.transfer("p1", "10", "a");
+        int complete = (int)getJournalFile().length();
+        db.transfer("p1", "11", "b");
+        byte[] journal = readFile(getJournalFile());
+        journal[journal.length - 1] ^= 0x55;
+        writeFile(getJournalFile(), journal, journal.length);
+        assertTrue(complete < journal.length);
+
+        assertState(restoredState(), "p1", "10", "a");
+    }
+
+    public void testRecordsAfterRestore() throws Exception {
+        TestSystemDb db = new TestSystemDb();
+        db.start();
+        db.transfer("p1", "10", "a");
+
+        db = new TestSystemDb();
+        db.start();
+        db.transfer("p2", "20", "b");
+        db.clearPipeVars("p1");
+
+        Map<String, String[]> state = restoredState();
+        assertState(state, "p1", null, "");
+        assertState(state, "p2", "20", "b");
+    }
+
+    public void testRejectedLaunchWaits() throws Exception {
+        TestSystemDb db = new TestSystemDb();
+        db.start();
+        db.m_reject = true;
+        db.registerProcessRequest(new TransferRequest("p1", null, null, null, null, null));
+        assertNull(db.m_launched);
+
+        db.m_reject = false;
+        db.syncDatabase();
+        assertNotNull(db.m_launched);
+        db.processFinished(new FinishedProcess(db.m_launched, "10", "a"));
+        db.stop();
+
+        assertState(restoredState(), "p1", "10", "a");
+    }
+
+    public void testRejectedLaunchKeepsClearedVars() throws Exception {
+        TestSystemDb db = new TestSystemDb();
+        db.start();
+        db.transfer("p1", "10", "a");
+        db.registerProcessRequest(new TransferRequest("p1", null, null, null, null, null));
+        Integer working = db.m_launched;
+        db.clearPipeVars("p1");
+        db.m_reject = true;
+        db.registerProcessRequest(new TransferRequest("p1", null, null, null, null, null));
+        // vars of the process working before the clear are not stored
+        db.processFinished(new FinishedProcess(working, "20", "b"));
+        db.stop();
+
+        assertState(restoredState(), "p1", null, "");
+    }
+
+    public void testStopCompacts() throws Exception {
+        TestSystemDb db = new TestSystemDb();
+        db.start();
+        db.transfer("p1", "10", "a");
+        db.stop();
+        assertFalse(getJournalFile().exists() && getJournalFile().length() > 0);
+
+        assertState(restoredState(), "p1", "10", "a");
+    }
+}
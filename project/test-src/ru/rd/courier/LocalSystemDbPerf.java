@@ -0,0 +1,182 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier;
+
+import ru.rd.courier.logging.ConsoleCourierLogger;
+import ru.rd.courier.logging.data.DataLogger;
+import ru.rd.pool.PoolObjectFactory;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Timer;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Registers, progresses and finishes processes of many pipelines from
+ * many threads to measure system database contention.
+ */
+public class LocalSystemDbPerf {
+    private static final int c_pipeCount = 300;
+    private static final int c_threadCount = 16;
+    private static final int c_processCount = 20000;
+    private static final int c_progressCount = 5;
+
+    private static class TestSystemDb extends LocalSystemDb {
+        private final ThreadLocal<List<Integer>> m_launched = new ThreadLocal<List<Integer>>() {
+            protected List<Integer> initialValue() {
+                return new LinkedList<Integer>();
+            }
+        };
+
+        public TestSystemDb(Timer timer) throws CourierException {
+            super(
+                new ConsoleCourierLogger("perf"), new SimpleDateFormat("yyyyMMdd HH:mm:ss"),
+                3600, timer, null, null
+            );
+        }
+
+        protected boolean hasPipeline(PipeInfo pipe) {
+            return true;
+        }
+
+        protected boolean isPipelineRunning(PipeInfo pipe) {
+            return true;
+        }
+
+        protected boolean launchPipelineProcess(ProcessInfo proc) {
+            m_launched.get().add(proc.m_id);
+            return true;
+        }
+
+        public List<Integer> takeLaunched() {
+            List<Integer> ret = new LinkedList<Integer>(m_launched.get());
+            m_launched.get().clear();
+            return ret;
+        }
+    }
+
+    static class FinishedProcess implements TransferProcess, TransferProcessResult {
+        private final Integer m_id;
+
+        public FinishedProcess(Integer id) { m_id = id; }
+
+        public Integer getId() { return m_id; }
+        public String getTargetProfileName() { return null; }
+        public DataLogger getDataLogger() { return null; }
+        public int getErrorCount() { return 0; }
+        public int getRecordCount() { return 0; }
+        public String getErrorText() { return null; }
+        public String getErrorStack() { return null; }
+        public long getStartTime() { return 0; }
+        public long getTotalTime() { return 0; }
+        public long getTargetTime() { return 0; }
+        public long getSourceTime() { return 0; }
+        public String getSourceDbName() { return null; }
+        public String getTargetDbName() { return null; }
+        public PoolObjectFactory getPoolFactory(String name) { return null; }
+        public String getIntervalValue() { return null; }
+        public void start() {}
+        public void stop() {}
+        public void close() {}
+        public void syncProgress() {}
+        public String getCurrentStateDesc() { return null; }
+        public TransferProcessResult getResults() { return this; }
+
+        public Date getDateVar(String name) { return null; }
+        public Object getObject(String name) { return null; }
+        public boolean hasVar(String name) { return false; }
+        public String getVar(String name) { return ""; }
+        public void setVar(String name, String value) {}
+        public void removeVar(String name) {}
+    }
+
+    public static void main(String[] args) throws Exception {
+        Timer timer = new Timer("perf", true);
+        // warm up
+        run(timer, 1, c_pipeCount, c_processCount / 4);
+        run(timer, c_threadCount, c_pipeCount, c_processCount / 4);
+
+        run(timer, 1, c_pipeCount, c_processCount);
+        run(timer, c_threadCount, c_pipeCount, c_processCount);
+        run(timer, c_threadCount, 1, c_processCount);
+        timer.cancel();
+    }
+
+    private static void run(
+        Timer timer, final int threadCount, final int pipeCount, final int processCount
+    ) throws Exception {
+        final TestSystemDb db = new TestSystemDb(timer);
+        for (int i = 0; i < pipeCount; i++) {
+            db.registerPipeline("pipe" + i, "pipe" + i, 0, 60, 'i', 0);
+        }
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final CountDownLatch doneSignal = new CountDownLatch(threadCount);
+        final int perThread = processCount / threadCount;
+        for (int t = 0; t < threadCount; t++) {
+            final Random rnd = new Random(t);
+            new Thread() {
+                public void run() {
+                    try {
+                        startSignal.await();
+                        for (int i = 0; i < perThread; i++) {
+                            String pipe = "pipe" + rnd.nextInt(pipeCount);
+                            db.registerProcessRequest(
+                                new TransferRequest(pipe, null, null, null, null, null)
+                            );
+                            for (Integer id: db.takeLaunched()) {
+                                for (int p = 0; p < c_progressCount; p++) {
+                                    db.processProgress(id, p, 0, true);
+                                }
+                                db.processFinished(new FinishedProcess(id));
+                                db.checkWaitingProcess();
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        doneSignal.countDown();
+                    }
+                }
+            }.start();
+        }
+        long bt = System.currentTimeMillis();
+        startSignal.countDown();
+        doneSignal.await();
+        long time = System.currentTimeMillis() - bt;
+        System.out.println(
+            "threads = " + threadCount + " pipes = " + pipeCount +
+            " processes = " + (perThread * threadCount) + ": " + time + " ms"
+        );
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier;
+
+import java.util.List;
+
+/**
+ * Partitioned rule with the only source connection and max-working-count 1:
+ * the coordinator releases its connection and parts run one by one.
+ */
+public class PartitionedRuleSingleConnectionTest extends CourierTestCase {
+    public void test() throws CourierException {
+        PipeListener pl = new EmptyPipeListener() {
+            public void check(Pipe testPipe) {
+                List<CourierTestCase.Process> procs = ((ConsecutivePipe)testPipe).getProcesses();
+                assertEquals(1, procs.size());
+                List<String> data = procs.get(0).getData();
+                assertTrue(data.toString(), data.contains("U part-1-4-before-var"));
+                assertTrue(data.toString(), data.contains("U part-2-4-before-var"));
+                assertEquals(data.toString(), 7, data.size());
+            }
+        };
+        addListener("partitioned-single-connection", pl);
+        m_mockDbTemplate = "mock-db-single-connection-template.xml";
+        launchTest("test-partitioned-single-connection.xml");
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier;
+
+import ru.rd.courier.logging.ConsoleCourierLogger;
+import ru.rd.courier.logging.CourierLogger;
+import ru.rd.thread.VirtualThreads;
+import ru.rd.thread.WorkExecutor;
+
+import java.text.SimpleDateFormat;
+import java.util.Timer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Runs thousands of processes blocked in mock database requests through
+ * the system database on a thread group of platform threads and on a
+ * virtual one. Checks the pipeline max working count is not exceeded.
+ */
+public class VirtualThreadsPerf {
+    private static final int c_pipeCount = 1000;
+    private static final int c_maxWorkCount = 5;
+    private static final int c_processCount = 20000;
+    private static final long c_requestTime = 200;
+    private static final int c_platformThreads = 200;
+
+    private static class TestSystemDb extends LocalSystemDb {
+        private final WorkExecutor m_executor;
+        private final AtomicIntegerArray m_pipeWorking = new AtomicIntegerArray(c_pipeCount);
+        private final AtomicInteger m_working = new AtomicInteger(0);
+        private final AtomicInteger m_maxWorking = new AtomicInteger(0);
+        private final AtomicInteger m_violations = new AtomicInteger(0);
+        private final CountDownLatch m_done;
+
+        public TestSystemDb(CourierLogger logger, Timer timer, WorkExecutor executor, int processCount) {
+            super(logger, new SimpleDateFormat("yyyyMMdd HH:mm:ss"), 3600, timer, null, null);
+            m_executor = executor;
+            m_done = new CountDownLatch(processCount);
+        }
+
+        protected boolean hasPipeline(PipeInfo pipe) {
+            return true;
+        }
+
+        protected boolean isPipelineRunning(PipeInfo pipe) {
+            return true;
+        }
+
+        protected boolean launchPipelineProcess(final ProcessInfo proc) {
+            final int pipe = Integer.parseInt(proc.m_pipe.m_code.substring(4));
+            m_executor.launchWork(new Runnable() {
+                public void run() {
+                    if (m_pipeWorking.incrementAndGet(pipe) > c_maxWorkCount) {
+                        m_violations.incrementAndGet();
+                    }
+                    int working = m_working.incrementAndGet();
+                    int max;
+                    while (working > (max = m_maxWorking.get())) {
+                        if (m_maxWorking.compareAndSet(max, working)) break;
+                    }
+                    try {
+                        // blocked in database request
+                        Thread.sleep(c_requestTime);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    m_working.decrementAndGet();
+                    m_pipeWorking.decrementAndGet(pipe);
+                    try {
+                        processFinished(new LocalSystemDbPerf.FinishedProcess(proc.m_id));
+                    } catch (CourierException e) {
+                        e.printStackTrace();
+                    }
+                    m_done.countDown();
+                }
+            });
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        CourierLogger logger = new ConsoleCourierLogger("perf");
+        Timer timer = new Timer("perf", true);
+
+        WorkExecutor platform = new WorkExecutor(
+            logger, "platform", c_platformThreads, c_processCount, 60*1000
+        );
+        run(logger, timer, platform, c_processCount / 10);
+        platform.close(10000);
+
+        if (VirtualThreads.isSupported()) {
+            WorkExecutor virtual = new WorkExecutor(logger, "virtual");
+            run(logger, timer, virtual, c_processCount);
+            virtual.close(10000);
+        } else {
+            System.out.println(
+                "Virtual threads are not supported by JVM " + System.getProperty("java.version")
+            );
+        }
+        timer.cancel();
+    }
+
+    private static void run(
+        CourierLogger logger, Timer timer, WorkExecutor executor, int processCount
+    ) throws Exception {
+        TestSystemDb db = new TestSystemDb(logger, timer, executor, processCount);
+        for (int i = 0; i < c_pipeCount; i++) {
+            db.registerPipeline("pipe" + i, "pipe" + i, 0, 60, 'i', c_maxWorkCount);
+        }
+        long bt = System.currentTimeMillis();
+        int launched = 0;
+        int pipe = 0;
+        int rejected = 0;
+        while (launched < processCount) {
+            if (db.registerProcessRequest(new TransferRequest("pipe" + pipe, null, null, null, null, null))) {
+                launched++;
+                rejected = 0;
+            } else if (++rejected >= c_pipeCount) {
+                Thread.sleep(1);
+                rejected = 0;
+            }
+            pipe = (pipe + 1) % c_pipeCount;
+        }
+        db.m_done.await();
+        long time = System.currentTimeMillis() - bt;
+        System.out.println(
+            executor.getStateDesc() + "\n  processes = " + processCount +
+            ": " + time + " ms; " + (processCount * 1000L / time) + " processes/sec" +
+            "; max concurrent = " + db.m_maxWorking.get() +
+            "; max working count violations = " + db.m_violations.get()
+        );
+    }
+}
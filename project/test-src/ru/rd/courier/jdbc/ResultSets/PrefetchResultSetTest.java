@@ -0,0 +1,92 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.jdbc.ResultSets;
+
+import junit.framework.TestCase;
+import ru.rd.courier.jdbc.databuffer.DataBuffer;
+import ru.rd.courier.jdbc.databuffer.StringColumnInfo;
+
+import java.sql.SQLException;
+import java.sql.Types;
+
+public class PrefetchResultSetTest extends TestCase {
+    public PrefetchResultSetTest(String name) {
+        super(name);
+    }
+
+    private static DataBuffer createSource(int count) throws SQLException {
+        DataBuffer rs = new DataBuffer();
+        rs.addColumn(new StringColumnInfo("id", 10));
+        StringColumnInfo bin = new StringColumnInfo("bin", true, 20);
+        bin.m_type = Types.VARBINARY;
+        rs.addColumn(bin);
+        for (int i = 0; i < count; i++) {
+            rs.addRecord();
+            rs.updateString(1, Integer.toString(i));
+            if (i == 1) rs.updateNull(2);
+            else rs.updateString(2, "0A0B" + i);
+        }
+        rs.beforeFirst();
+        return rs;
+    }
+
+    public void testBinaryColumnString() throws SQLException {
+        PrefetchResultSet rs = new PrefetchResultSet(createSource(3));
+        assertEquals(3, rs.prefetch(10));
+        assertTrue(rs.next());
+        assertEquals("0A0B0", rs.getString(2));
+        assertTrue(rs.next());
+        assertNull(rs.getString(2));
+        assertTrue(rs.wasNull());
+        assertTrue(rs.next());
+        assertEquals("0A0B2", rs.getString(2));
+        assertFalse(rs.next());
+    }
+
+    public void testWindows() throws SQLException {
+        PrefetchResultSet rs = new PrefetchResultSet(createSource(5));
+        assertEquals(2, rs.prefetch(2));
+        assertTrue(rs.next());
+        assertTrue(rs.next());
+        assertEquals("1", rs.getString(1));
+        assertFalse(rs.isSourceLast());
+        rs.rewind();
+        assertTrue(rs.next());
+        assertEquals("0", rs.getString(1));
+
+        assertEquals(2, rs.prefetch(2));
+        assertEquals(1, rs.prefetch(2));
+        assertTrue(rs.next());
+        assertEquals("4", rs.getString(1));
+        assertTrue(rs.isSourceLast());
+        assertEquals(0, rs.prefetch(2));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.jdbc.csv;
+
+import ru.rd.courier.utils.StringHelper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Compares reading of a large CSV file line by line with
+ * {@link CsvLineParser} against {@link CsvTokenizer} reading all the
+ * fields and only one field of each record.
+ * Arguments: [line count (10000000 by default)] [rounds (3 by default)]
+ */
+public class CsvTokenizerPerf {
+    private static final CsvLineSplitterInfo c_info = new CsvLineSplitterInfo(
+        '\'', true, ',', true, "NULL"
+    );
+    private static final String c_charSet = "cp1251";
+
+    public static void main(String[] args) throws Exception {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        File f = File.createTempFile("csv-perf", ".csv");
+        try {
+            generate(f, lineCount);
+            System.out.println("File " + f + ": " + f.length() + " bytes, " + lineCount + " lines");
+            for (int i = 0; i < rounds; i++) {
+                report("CsvLineParser", lineCount, lineParser(f));
+                report("CsvTokenizer all fields", lineCount, tokenizer(f, false));
+                report("CsvTokenizer one field", lineCount, tokenizer(f, true));
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    private static void generate(File f, int lineCount) throws Exception {
+        Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), c_charSet));
+        try {
+            for (int i = 0; i < lineCount; i++) {
+                w.write(Integer.toString(i));
+                w.write(",'name ");
+                w.write(Integer.toString(i % 1000));
+                w.write("', ");
+                w.write(Double.toString(i * 0.25));
+                w.write(",'it''s'," + (i % 7 == 0 ? "NULL" : "2010-01-01 10:00:00"));
+                w.write(",some plain text value\r\n");
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    private static Reader open(File f) throws Exception {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(f), c_charSet), 64*1024);
+    }
+
+    private static long lineParser(File f) throws Exception {
+        long start = System.currentTimeMillis();
+        CsvLineParser parser = new CsvLineParser(c_info);
+        Reader r = open(f);
+        StringBuffer line = new StringBuffer();
+        long check = 0;
+        try {
+            while (StringHelper.readLine(r, line)) {
+                String[] fields = parser.parse(line);
+                check += fields[1].length();
+            }
+        } finally {
+            r.close();
+        }
+        consume(check);
+        return System.currentTimeMillis() - start;
+    }
+
+    private static long tokenizer(File f, boolean oneField) throws Exception {
+        long start = System.currentTimeMillis();
+        CsvTokenizer t = new CsvTokenizer(new InputStreamReader(new FileInputStream(f), c_charSet), c_info);
+        long check = 0;
+        try {
+            while (t.nextRecord()) {
+                if (oneField) {
+                    check += t.getField(1).length();
+                } else {
+                    for (int i = 0; i < t.getFieldCount(); i++) {
+                        String v = t.getField(i);
+                        if (i == 1) check += v.length();
+                    }
+                }
+            }
+        } finally {
+            t.close();
+        }
+        consume(check);
+        return System.currentTimeMillis() - start;
+    }
+
+    private static long s_check = 0;
+
+    private static void consume(long check) {
+        s_check += check;
+    }
+
+    private static void report(String desc, int lineCount, long time) {
+        System.out.println(
+            desc + ": " + time + " ms; " + (time > 0 ? lineCount * 1000L / time : 0) + " lines/s"
+        );
+    }
+}
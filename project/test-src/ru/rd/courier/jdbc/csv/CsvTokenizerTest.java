@@ -0,0 +1,192 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.jdbc.csv;
+
+import junit.framework.TestCase;
+import ru.rd.courier.CourierException;
+import ru.rd.courier.utils.StringHelper;
+import ru.rd.test.TestCourierLogger;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+public class CsvTokenizerTest extends TestCase {
+    private static final CsvLineSplitterInfo c_plain = new CsvLineSplitterInfo(
+        '\'', false, ',', false, null
+    );
+    private static final CsvLineSplitterInfo c_bracketed = new CsvLineSplitterInfo(
+        '\'', true, ';', true, "NULL"
+    );
+
+    private static final String c_text =
+        "a,b,c\r\n"
+        + "\n"
+        + "\r\n"
+        + ",\n"
+        + "1,,3,\r\n"
+        + " x , y ,NULL\n"
+        + "'q1';' q;2 ';'it''s';'';''''\r\n"
+        + "NULL; NULL ;'NULL'\n"
+        + "last";
+
+    public CsvTokenizerTest(String name) {
+        super(name);
+    }
+
+    private static List<String[]> parseLines(String text, CsvLineSplitterInfo info) throws IOException {
+        CsvLineParser parser = new CsvLineParser(info);
+        StringReader r = new StringReader(text);
+        StringBuffer line = new StringBuffer();
+        List<String[]> ret = new ArrayList<String[]>();
+        while (StringHelper.readLine(r, line)) {
+            ret.add(parser.parse(line));
+        }
+        return ret;
+    }
+
+    private static List<String[]> tokenize(
+        String text, CsvLineSplitterInfo info, int bufferSize
+    ) throws IOException {
+        CsvTokenizer t = new CsvTokenizer(new StringReader(text), info, bufferSize);
+        List<String[]> ret = new ArrayList<String[]>();
+        while (t.nextRecord()) {
+            String[] fields = new String[t.getFieldCount()];
+            for (int i = 0; i < fields.length; i++) fields[i] = t.getField(i);
+            ret.add(fields);
+        }
+        return ret;
+    }
+
+    private static void assertRecords(List<String[]> expected, List<String[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(
+                "Record " + i,
+                Arrays.asList(expected.get(i)), Arrays.asList(actual.get(i))
+            );
+        }
+    }
+
+    public void testSameAsLineParser() throws IOException {
+        CsvLineSplitterInfo[] infos = {c_plain, c_bracketed};
+        for (CsvLineSplitterInfo info: infos) {
+            List<String[]> expected = parseLines(c_text, info);
+            for (int size = 1; size <= 16; size++) {
+                assertRecords(expected, tokenize(c_text, info, size));
+            }
+            assertRecords(expected, tokenize(c_text, info, CsvTokenizer.c_defaultBufferSize));
+        }
+    }
+
+    public void testMultiLine() throws IOException {
+        String text = "1;'a\r\nb\n''c''';2\n3;'';4";
+        for (int size = 1; size <= 8; size++) {
+            CsvTokenizer t = new CsvTokenizer(new StringReader(text), c_bracketed, size);
+            assertTrue(t.nextRecord());
+            assertEquals(3, t.getFieldCount());
+            assertEquals("a\nb\n'c'", t.getField(1));
+            assertEquals("2", t.getField(2));
+            assertEquals(3, t.getLineCount());
+            assertTrue(t.nextRecord());
+            assertEquals(1, t.getLineCount());
+            assertEquals("", t.getField(1));
+            assertEquals("3;'';4", t.getRecordText());
+            assertFalse(t.nextRecord());
+        }
+    }
+
+    private static void assertError(String text) throws IOException {
+        CsvTokenizer t = new CsvTokenizer(new StringReader(text), c_bracketed, 4);
+        try {
+            t.nextRecord();
+            fail("Error expected for " + text);
+        } catch (CourierException e) {
+            // expected
+        }
+    }
+
+    public void testErrors() throws IOException {
+        assertError("'abc");
+        assertError("'a'b;c");
+        assertError("'a' ;c");
+    }
+
+    public void testResultSet() throws Exception {
+        TestCourierLogger logger = new TestCourierLogger(false);
+        String text = "#comment\n1,a\n2,'b\n3,c'\n4\n";
+        ResultSetInfo rsi = new ResultSetInfo(
+            "LineNumber", new String[] {"N", "V"}, 4, new StringReader(text),
+            new CsvLineParser('\'', true, ',', false, null), 10,
+            false,
+            new LineFilter() {
+                public boolean skip(String line) {
+                    return line.startsWith("#");
+                }
+            },
+            new Properties()
+        );
+        rsi.m_constFields.setProperty("Title", "t");
+        ResultSet rs = CsvStringResultSet.create(logger, null, rsi);
+        assertTrue(rs instanceof CsvTokenizerResultSet);
+        assertTrue(rs.next());
+        assertEquals("a", rs.getString("V"));
+        assertEquals("1", rs.getString(1));
+        assertEquals("11", rs.getString("LineNumber"));
+        assertEquals("t", rs.getString("Title"));
+        assertTrue(rs.next());
+        assertEquals("b\n3,c", rs.getString("V"));
+        assertEquals("12", rs.getString("LineNumber"));
+        assertFalse(rs.next());
+        assertEquals(0, logger.getErrors().size());
+        rs.close();
+    }
+
+    public void testWrongFieldsNumber() throws Exception {
+        TestCourierLogger logger = new TestCourierLogger(false);
+        ResultSetInfo rsi = new ResultSetInfo(
+            "LineNumber", new String[] {"N", "V"}, -1, new StringReader("1,a\n2\n"),
+            new CsvLineParser('\'', false, ',', false, null), 0,
+            false, new FakeFilter(), new Properties()
+        );
+        ResultSet rs = CsvStringResultSet.create(logger, null, rsi);
+        assertTrue(rs.next());
+        assertTrue(rs.next());
+        assertNull(rs.getString("V"));
+        assertTrue(rs.wasNull());
+        assertFalse(rs.next());
+        assertEquals(1, logger.getErrors().size());
+    }
+}
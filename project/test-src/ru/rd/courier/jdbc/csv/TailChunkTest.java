@@ -0,0 +1,250 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.jdbc.csv;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringWriter;
+
+public class TailChunkTest extends TestCase {
+    private File m_file;
+
+    public TailChunkTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        m_file = File.createTempFile("tail-chunk", ".data");
+    }
+
+    protected void tearDown() throws Exception {
+        m_file.delete();
+    }
+
+    private void append(String data, String charSet) throws IOException {
+        OutputStream os = new FileOutputStream(m_file, true);
+        try {
+            os.write(data.getBytes(charSet));
+        } finally {
+            os.close();
+        }
+    }
+
+    private static String text(TailChunk chunk) throws IOException {
+        Reader r = chunk.getReader();
+        StringWriter w = new StringWriter();
+        int c;
+        while ((c = r.read()) >= 0) w.write(c);
+        r.close();
+        return w.toString();
+    }
+
+    public void testIncrementalRead() throws Exception {
+        append("\r\n\nline1\r\nline2\nline", "cp1251");
+        TailChunk chunk = TailChunk.read(m_file, 0, false, "cp1251", null);
+        assertEquals(3, chunk.getStartPos());
+        assertEquals(2, chunk.getLineCount());
+        assertEquals("line1\r\nline2\n", text(chunk));
+        assertFalse(chunk.isTruncated());
+
+        long pos = chunk.getEndPos();
+        chunk = TailChunk.read(m_file, pos, false, "cp1251", null);
+        assertEquals(0, chunk.getLineCount());
+        assertEquals(pos, chunk.getEndPos());
+
+        append("3\nline4", "cp1251");
+        chunk = TailChunk.read(m_file, pos, false, "cp1251", null);
+        assertEquals(1, chunk.getLineCount());
+        assertEquals("line3\n", text(chunk));
+
+        pos = chunk.getEndPos();
+        chunk = TailChunk.read(m_file, pos, true, "cp1251", null);
+        assertEquals(1, chunk.getLineCount());
+        assertEquals("line4", text(chunk));
+        assertEquals(m_file.length(), chunk.getEndPos());
+
+        chunk = TailChunk.read(m_file, chunk.getEndPos(), true, "cp1251", null);
+        assertEquals(0, chunk.getLineCount());
+        assertEquals("", text(chunk));
+    }
+
+    public void testBufferReused() throws Exception {
+        append("line1\nline2\n", "cp1251");
+        TailChunk first = TailChunk.read(m_file, 0, false, "cp1251", null);
+        assertEquals("line1\nline2\n", text(first));
+
+        append("line3\n", "cp1251");
+        TailChunk chunk = TailChunk.read(m_file, first.getEndPos(), false, "cp1251", null, first);
+        assertEquals(1, chunk.getLineCount());
+        assertEquals("line3\n", text(chunk));
+        assertTrue(chunk.isBufferReusable());
+        // file is not held open or mapped by the chunk
+        assertTrue(m_file.delete());
+        assertEquals("line3\n", text(chunk));
+    }
+
+    public void testChunkSize() throws Exception {
+        append("l1\nl2\nl3\n", "cp1251");
+        TailChunk chunk = TailChunk.read(m_file, 0, false, "cp1251", null, null, 4);
+        assertTrue(chunk.isTruncated());
+        assertEquals(1, chunk.getLineCount());
+        assertEquals("l1\n", text(chunk));
+
+        chunk = TailChunk.read(m_file, chunk.getEndPos(), false, "cp1251", null, chunk, 4);
+        assertEquals(1, chunk.getLineCount());
+        assertEquals("l2\n", text(chunk));
+        chunk = TailChunk.read(m_file, chunk.getEndPos(), true, "cp1251", null, chunk, 4);
+        assertFalse(chunk.isTruncated());
+        assertEquals("l3\n", text(chunk));
+        assertEquals(m_file.length(), chunk.getEndPos());
+    }
+
+    public void testLineLongerThanChunk() throws Exception {
+        append("first line\nsecond", "cp1251");
+        TailChunk chunk = TailChunk.read(m_file, 0, false, "cp1251", null, null, 4);
+        assertEquals(1, chunk.getLineCount());
+        assertEquals("first line\n", text(chunk));
+
+        append(" line\nx", "cp1251");
+        chunk = TailChunk.read(m_file, chunk.getEndPos(), false, "cp1251", null, chunk, 4);
+        assertEquals(1, chunk.getLineCount());
+        assertEquals("second line\n", text(chunk));
+        assertEquals(m_file.length() - 1, chunk.getEndPos());
+    }
+
+    public void testPartialLineCarried() throws Exception {
+        append("a\npart", "cp1251");
+        TailChunk chunk = TailChunk.read(m_file, 0, false, "cp1251", null);
+        assertEquals("a\n", text(chunk));
+        long pos = chunk.getEndPos();
+
+        // carried line is not read from the file again
+        RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+        try {
+            raf.seek(pos);
+            raf.write("PART".getBytes("cp1251"));
+        } finally {
+            raf.close();
+        }
+        append("ial\n", "cp1251");
+        chunk = TailChunk.read(m_file, pos, false, "cp1251", null, chunk);
+        assertEquals(1, chunk.getLineCount());
+        assertEquals("partial\n", text(chunk));
+
+        // without the previous chunk the line is read from the file
+        chunk = TailChunk.read(m_file, pos, false, "cp1251", null);
+        assertEquals("PARTial\n", text(chunk));
+    }
+
+    public void testLastLineChecker() throws Exception {
+        append("a,b\nc,\u0434\r", "UTF-8");
+        final StringBuffer checked = new StringBuffer();
+        TailChunk.LastLineChecker checker = new TailChunk.LastLineChecker() {
+            public boolean isComplete(String line) {
+                checked.append(line);
+                return line.split(",").length == 2;
+            }
+        };
+        TailChunk chunk = TailChunk.read(m_file, 0, false, "UTF-8", checker);
+        assertEquals("c,\u0434", checked.toString());
+        assertEquals(2, chunk.getLineCount());
+        assertEquals("a,b\nc,\u0434\r", text(chunk));
+
+        checked.setLength(0);
+        append("\ne", "UTF-8");
+        chunk = TailChunk.read(m_file, chunk.getEndPos(), false, "UTF-8", checker);
+        assertEquals("e", checked.toString());
+        assertEquals(0, chunk.getLineCount());
+    }
+
+    public void testBytePosition() throws Exception {
+        append("\u0437\u0430\u0433\nx", "UTF-8");
+        assertEquals(7, TailChunk.getBytePosition(m_file, "UTF-8", 4));
+        assertEquals(4, TailChunk.getBytePosition(m_file, "cp1251", 4));
+        assertEquals(8, TailChunk.getBytePosition(m_file, "UTF-8", 10));
+    }
+
+    public void testBytePositionOddCount() throws Exception {
+        append("\u0437\u0430\u0433\nx", "UTF-8");
+        assertEquals(6, TailChunk.getBytePosition(m_file, "UTF-8", 3));
+        assertEquals(2, TailChunk.getBytePosition(m_file, "UTF-8", 1));
+        assertEquals(3, TailChunk.getBytePosition(m_file, "cp1251", 3));
+        assertEquals(5, TailChunk.getBytePosition(m_file, "cp1251", 5));
+    }
+
+    public void testBytePositionMultibyte() throws Exception {
+        append("\u0437\u0430\u0433\nx", "UTF-16LE");
+        assertEquals(6, TailChunk.getBytePosition(m_file, "UTF-16LE", 3));
+        assertEquals(8, TailChunk.getBytePosition(m_file, "UTF-16LE", 4));
+        assertTrue(m_file.delete());
+
+        // supplementary char takes two chars and four bytes
+        append("\uD83D\uDE00a\u0434b", "UTF-8");
+        assertEquals(4, TailChunk.getBytePosition(m_file, "UTF-8", 2));
+        assertEquals(5, TailChunk.getBytePosition(m_file, "UTF-8", 3));
+        assertEquals(7, TailChunk.getBytePosition(m_file, "UTF-8", 4));
+        assertEquals(4, TailChunk.getBytePosition(m_file, "UTF-8", 1));
+    }
+
+    public void testBytePositionAcrossBuffers() throws Exception {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 50000; i++) sb.append('\u0434');
+        sb.append('x');
+        append(sb.toString(), "UTF-8");
+        assertEquals(100000, TailChunk.getBytePosition(m_file, "UTF-8", 50000));
+        assertEquals(65536, TailChunk.getBytePosition(m_file, "UTF-8", 32768));
+        assertEquals(65534, TailChunk.getBytePosition(m_file, "UTF-8", 32767));
+        assertEquals(99998, TailChunk.getBytePosition(m_file, "UTF-8", 49999));
+        assertEquals(100001, TailChunk.getBytePosition(m_file, "UTF-8", 60000));
+    }
+
+    public void testFileKey() throws Exception {
+        append("a\n", "cp1251");
+        Object key = TailChunk.getFileKey(m_file);
+        assertNotNull(key);
+        append("b\n", "cp1251");
+        assertEquals(key, TailChunk.getFileKey(m_file));
+
+        File other = File.createTempFile("tail-chunk", ".data", m_file.getParentFile());
+        try {
+            assertFalse(key.equals(TailChunk.getFileKey(other)));
+        } finally {
+            other.delete();
+        }
+        assertNull(TailChunk.getFileKey(new File(m_file.getPath() + ".absent")));
+    }
+}
@@ -63,4 +63,157 @@ public class DataBufferTest extends TestCase {
             assertEquals(values[i - 1], value);
         }
     }
+
+    private static DataBuffer createBuffer(int count) throws SQLException {
+        DataBuffer db = new DataBuffer();
+        db.addColumn(new IntegerColumnInfo("id", false));
+        db.addColumn(new StringColumnInfo("name", true, 2000));
+        for (int i = 0; i < count; i++) {
+            db.addRecord();
+            db.updateInt(1, i);
+            if (i % 3 == 0) db.updateNull(2);
+            else db.updateString(2, "name" + i);
+        }
+        return db;
+    }
+
+    private static void checkRecord(DataBuffer db, int i) throws SQLException {
+        assertEquals(i + 1, db.getRow());
+        assertEquals(i, db.getInt(1));
+        String name = db.getString(2);
+        if (i % 3 == 0) {
+            assertTrue(db.wasNull());
+        } else {
+            assertEquals("name" + i, name);
+        }
+    }
+
+    public void testPositioningAcrossChunks() throws SQLException {
+        final int count = 1000;
+        DataBuffer db = createBuffer(count);
+
+        db.beforeFirst();
+        for (int i = 0; i < count; i++) {
+            assertTrue(db.next());
+            checkRecord(db, i);
+        }
+        assertFalse(db.next());
+        assertTrue(db.isAfterLast());
+
+        for (int i = count - 1; i >= 0; i--) {
+            assertTrue(db.previous());
+            checkRecord(db, i);
+        }
+        assertFalse(db.previous());
+
+        int[] positions = {999, 0, 517, 31, 32, 33, 998};
+        for (int pos: positions) {
+            assertTrue(db.absolute(pos));
+            checkRecord(db, pos);
+        }
+        assertTrue(db.relative(-500));
+        checkRecord(db, 498);
+        assertTrue(db.last());
+        checkRecord(db, count - 1);
+    }
+
+    public void testRemoveRecord() throws SQLException {
+        DataBuffer db = createBuffer(100);
+        db.absolute(50);
+        db.removeRecord(10);
+        assertEquals(50, db.getRow());
+        assertEquals(50, db.getInt(1));
+        db.removeRecord(0);
+        db.addRecord();
+        db.updateInt(1, 100);
+        db.updateString(2, "name100");
+
+        db.beforeFirst();
+        int count = 0;
+        while (db.next()) {
+            int id = db.getInt(1);
+            assertTrue(id != 0 && id != 10);
+            assertEquals(id % 3 == 0 ? null : ("name" + id), db.getString(2));
+            count++;
+        }
+        assertEquals(99, count);
+    }
+
+    public void testAddColumnToFilledBuffer() throws SQLException {
+        DataBuffer db = createBuffer(300);
+        db.addColumn(new StringColumnInfo("first", 10), 0);
+        db.addColumn(new IntegerColumnInfo("last", false));
+
+        assertEquals(1, db.findColumn("first"));
+        db.beforeFirst();
+        for (int i = 0; i < 300; i++) {
+            assertTrue(db.next());
+            assertEquals("", db.getString(1));
+            assertEquals(i, db.getInt(2));
+            assertEquals(i % 3 == 0 ? null : ("name" + i), db.getString(3));
+        }
+    }
+
+    public void testAddColumnOnRecordInsideChunk() throws SQLException {
+        DataBuffer db = createBuffer(300);
+        assertTrue(db.absolute(46));
+        db.addColumn(new StringColumnInfo("middle", 10), 1);
+        assertEquals(47, db.getRow());
+        assertEquals(46, db.getInt(1));
+        assertEquals("name46", db.getString(3));
+
+        db.updateString(2, "mid46");
+        db.beforeFirst();
+        for (int i = 0; i < 300; i++) {
+            assertTrue(db.next());
+            assertEquals(i, db.getInt(1));
+            assertEquals(i == 46 ? "mid46" : "", db.getString(2));
+            assertEquals(i % 3 == 0 ? null : ("name" + i), db.getString(3));
+        }
+    }
+
+    public void testRemoveRecordAfterAdd() throws SQLException {
+        DataBuffer db = createBuffer(100);
+        db.addRecord();
+        db.removeRecord(10);
+        db.updateInt(1, 100);
+        db.updateString(2, "name100");
+        assertTrue(db.last());
+        assertEquals(100, db.getInt(1));
+        assertEquals("name100", db.getString(2));
+
+        db.addRecord();
+        db.removeRecord(100);
+        try {
+            db.updateInt(1, 101);
+            fail("Removed record must not stay current");
+        } catch (Exception e) {
+            // no current record
+        }
+        assertTrue(db.last());
+        assertEquals(100, db.getInt(1));
+    }
+
+    public void testImportRecords() throws Exception {
+        DataBuffer db = new DataBuffer();
+        db.addColumn(new StringColumnInfo("name", true, 20));
+        db.addColumn(new IntegerColumnInfo("id", false));
+        for (int i = 0; i < 70; i++) {
+            db.addRecord();
+            db.updateString(1, "name" + i);
+            db.updateInt(2, i);
+        }
+
+        DataBuffer copy = new DataBuffer();
+        copy.importMetaInfo(db);
+        db.beforeFirst();
+        while (db.next()) copy.importRecord(db);
+        copy.beforeFirst();
+        for (int i = 0; i < 70; i++) {
+            assertTrue(copy.next());
+            assertEquals("name" + i, copy.getString(1));
+            assertEquals(i, copy.getInt(2));
+        }
+        assertFalse(copy.next());
+    }
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.jdbc.objbuffer;
+
+import junit.framework.TestCase;
+import ru.rd.courier.jdbc.databuffer.BigIntColumnInfo;
+import ru.rd.courier.jdbc.databuffer.DataBuffer;
+import ru.rd.courier.jdbc.databuffer.DateColumnInfo;
+import ru.rd.courier.jdbc.databuffer.FloatColumnInfo;
+import ru.rd.courier.jdbc.databuffer.IntegerColumnInfo;
+import ru.rd.courier.jdbc.databuffer.StringColumnInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+
+public class StoredResultSetTest extends TestCase {
+    private File m_dir;
+
+    public StoredResultSetTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        m_dir = File.createTempFile("courier-test", "");
+        m_dir.delete();
+        m_dir.mkdir();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = m_dir.listFiles();
+        if (files != null) {
+            for (File f: files) f.delete();
+        }
+        m_dir.delete();
+    }
+
+    private static final String c_dateFormat = "yyyy-MM-dd HH:mm:ss";
+    private static final long c_baseTime = Timestamp.valueOf("2017-07-14 10:30:00").getTime();
+
+    private static String dateText(int i) {
+        return new SimpleDateFormat(c_dateFormat).format(new java.util.Date(c_baseTime + i*60*60*1000L));
+    }
+
+    /**
+     * Deals with integer, bigint, float, date and nullable string columns,
+     * so every typed value kind of the record store is written
+     */
+    private static DataBuffer createBuffer(int count) throws SQLException {
+        DataBuffer db = new DataBuffer();
+        db.addColumn(new IntegerColumnInfo("id", false));
+        db.addColumn(new BigIntColumnInfo("volume", false));
+        db.addColumn(new FloatColumnInfo("price"));
+        db.addColumn(new DateColumnInfo("trade_date", new SimpleDateFormat(c_dateFormat)));
+        db.addColumn(new StringColumnInfo("comment", true, 50));
+        for (int i = 0; i < count; i++) {
+            db.addRecord();
+            db.updateInt(1, i);
+            db.updateLong(2, (1L << 33) + i);
+            db.updateString(3, Float.toString(i + 0.25f));
+            db.updateString(4, dateText(i));
+            if (i % 4 == 0) db.updateNull(5);
+            else db.updateString(5, "deal " + i);
+        }
+        db.beforeFirst();
+        return db;
+    }
+
+    private static void checkAll(StoredResultSet rs, int count) throws SQLException {
+        for (int i = 0; i < count; i++) {
+            assertTrue(rs.next());
+            assertEquals(i, rs.getInt("id"));
+            assertEquals(Integer.valueOf(i), rs.getObject(1));
+            assertEquals((1L << 33) + i, rs.getLong("volume"));
+            assertEquals(Long.valueOf((1L << 33) + i), rs.getObject(2));
+            assertEquals(Float.toString(i + 0.25f), rs.getString("price"));
+            assertEquals(dateText(i), rs.getString("trade_date"));
+            assertEquals(new Timestamp(c_baseTime + i*60*60*1000L), rs.getTimestamp("trade_date"));
+            String comment = rs.getString("comment");
+            if (i % 4 == 0) {
+                assertNull(comment);
+                assertTrue(rs.wasNull());
+            } else {
+                assertEquals("deal " + i, comment);
+                assertFalse(rs.wasNull());
+            }
+        }
+        assertFalse(rs.next());
+    }
+
+    public void testInMemory() throws SQLException {
+        final int count = 20;
+        StoredResultSet rs = StoredResultSet.store(createBuffer(count), 100, m_dir);
+        assertFalse(rs.isSpilled());
+        checkAll(rs, count);
+        rs.beforeFirst();
+        checkAll(rs, count);
+        rs.close();
+    }
+
+    public void testSpilled() throws SQLException {
+        final int count = 1000;
+        StoredResultSet rs = StoredResultSet.store(createBuffer(count), 10, m_dir);
+        assertTrue(rs.isSpilled());
+        assertEquals(1, m_dir.listFiles().length);
+        assertEquals("id", rs.getMetaData().getColumnName(1));
+        checkAll(rs, count);
+        rs.beforeFirst();
+        checkAll(rs, count);
+        rs.close();
+        assertEquals(0, m_dir.listFiles().length);
+    }
+
+    public void testDateText() throws SQLException {
+        DataBuffer db = new DataBuffer();
+        db.addColumn(new DateColumnInfo("date", new SimpleDateFormat("dd.MM.yyyy")));
+        db.addColumn(new DateColumnInfo("iso", new SimpleDateFormat("yyyy-MM-dd")));
+        db.addRecord();
+        db.updateString(1, "14.07.2017");
+        db.updateString(2, "2017-07-14");
+        for (int memoryRows: new int[] {1, 0}) {
+            db.beforeFirst();
+            StoredResultSet rs = StoredResultSet.store(db, memoryRows, m_dir);
+            assertTrue(rs.next());
+            assertEquals("14.07.2017", rs.getString("date"));
+            assertEquals(java.sql.Date.valueOf("2017-07-14"), rs.getDate("iso"));
+            rs.close();
+        }
+    }
+
+    public void testTimestampText() throws SQLException {
+        DataBuffer db = new DataBuffer();
+        db.addColumn(new DateColumnInfo("iso", new SimpleDateFormat("yyyy-MM-dd")));
+        db.addColumn(new StringColumnInfo("bad", 20));
+        db.addRecord();
+        db.updateString(1, "2017-07-14");
+        db.updateString(2, "14.07.2017");
+        db.beforeFirst();
+        StoredResultSet rs = StoredResultSet.store(db, 1, m_dir);
+        assertTrue(rs.next());
+        assertEquals(Timestamp.valueOf("2017-07-14 00:00:00"), rs.getTimestamp("iso"));
+        try {
+            rs.getTimestamp("bad");
+            fail();
+        } catch (SQLException e) {
+            // expected
+        }
+        rs.close();
+    }
+
+    public void testRecordStoreTypes() throws IOException {
+        Object[] record = {
+            null, "\u0441\u0442\u0440\u043e\u043a\u0430", 12, 1L << 40, Boolean.TRUE
+        };
+        RecordStore store = new RecordStore(record.length, 1, m_dir);
+        try {
+            store.add(record);
+            store.add(record);
+            assertTrue(store.isSpilled());
+            assertEquals(2, store.size());
+            for (int i = 0; i < 2; i++) {
+                Object[] rec = store.next();
+                assertTrue(Arrays.equals(record, rec));
+            }
+            assertNull(store.next());
+            try {
+                store.add(record);
+                fail();
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            store.close();
+        }
+    }
+}
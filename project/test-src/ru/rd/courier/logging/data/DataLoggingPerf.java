@@ -0,0 +1,120 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.logging.data;
+
+import ru.rd.courier.CourierException;
+import ru.rd.courier.logging.ConsoleCourierLogger;
+import ru.rd.courier.logging.CourierLogger;
+import ru.rd.courier.scripting.DataReceiver;
+import ru.rd.courier.scripting.LinkWarning;
+import ru.rd.courier.scripting.dataaccess.LoggingDataReceiver;
+import ru.rd.courier.utils.FileHelper;
+
+import java.io.File;
+import java.util.List;
+import java.util.Timer;
+
+/**
+ * Compares target operations throughput with data logging off, with
+ * unbuffered log flushed per operation as it was done before, with
+ * buffered log and with ring buffer logger.
+ */
+public class DataLoggingPerf {
+    private static final int c_operationCount = 200000;
+    private static final String c_operation =
+        "insert into Deals (DealId, Amount, Currency, TradeDate) values (1234567, 1000000.00, 'USD', '20170101')";
+
+    private static class NullReceiver implements DataReceiver {
+        public List<LinkWarning> process(Object operation) { return null; }
+        public List<LinkWarning> flush() { return null; }
+        public void setTimeout(int timeout) {}
+        public void cancel() {}
+        public void close() {}
+    }
+
+    private static class FlushEachLogger extends AbstractDataLogger {
+        private final DataLogger m_target;
+
+        public FlushEachLogger(DataLogger target) { m_target = target; }
+
+        public void log(byte[] msg, int offset, int length) {
+            m_target.log(msg, offset, length);
+            m_target.flush();
+        }
+
+        public void flush() { m_target.flush(); }
+        public void close() { m_target.close(); }
+    }
+
+    public static void main(String[] args) throws Exception {
+        CourierLogger logger = ConsoleCourierLogger.instance();
+        File dir = new File(System.getProperty("java.io.tmpdir"), "DataLoggingPerf");
+        Timer timer = new Timer("writer", true);
+        for (int pass = 0; pass < 2; pass++) {
+            if (dir.exists()) FileHelper.deleteDir(dir);
+            run("logging off", null);
+            run("unbuffered, flush per operation", new FlushEachLogger(createLog(logger, dir, "flush", false)));
+            run("buffered", createLog(logger, dir, "buffered", true));
+            run("ring buffer", new RingBufferDataLogger(
+                logger, createLog(logger, dir, "ring", true), "cp1251",
+                256*1024, 64*1024, timer, 1000
+            ));
+        }
+        timer.cancel();
+        FileHelper.deleteDir(dir);
+    }
+
+    private static DataLogger createLog(CourierLogger logger, File dir, String name, boolean buffered) {
+        return new DaysFileLog(
+            logger, new File(dir, name), "cp1251", buffered, "yyyy-MM-dd",
+            1, "", ".log", false, true, -1
+        );
+    }
+
+    private static void run(String desc, DataLogger dataLogger) throws CourierException {
+        DataReceiver dr = new NullReceiver();
+        if (dataLogger != null) {
+            dr = new LoggingDataReceiver(ConsoleCourierLogger.instance(), dr, dataLogger, "rule");
+        }
+        long bt = System.currentTimeMillis();
+        for (int i = 0; i < c_operationCount; i++) {
+            dr.process(c_operation);
+        }
+        // process end
+        if (dataLogger != null) dataLogger.flush();
+        long time = System.currentTimeMillis() - bt;
+        dr.close();
+        if (dataLogger != null) dataLogger.close();
+        System.out.println(
+            desc + ": " + time + " ms; " + (c_operationCount * 1000L / Math.max(time, 1)) + " operations/sec"
+        );
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.logging.data;
+
+import junit.framework.TestCase;
+import ru.rd.test.TestCourierLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Timer;
+
+public class RingBufferDataLoggerTest extends TestCase {
+    private TestCourierLogger m_logger;
+    private Timer m_timer;
+    private MemoryLogger m_target;
+
+    private static class MemoryLogger extends AbstractDataLogger {
+        private final ByteArrayOutputStream m_data = new ByteArrayOutputStream();
+        public int m_writeCount = 0;
+        public int m_flushCount = 0;
+        public boolean m_closed = false;
+
+        public synchronized void log(byte[] msg, int offset, int length) {
+            m_data.write(msg, offset, length);
+            m_writeCount++;
+        }
+
+        public synchronized void flush() {
+            m_flushCount++;
+        }
+
+        public synchronized void close() {
+            m_closed = true;
+        }
+
+        public synchronized String getData() {
+            return new String(m_data.toByteArray());
+        }
+    }
+
+    public RingBufferDataLoggerTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        m_logger = new TestCourierLogger(false);
+        m_timer = new Timer("test", true);
+        m_target = new MemoryLogger();
+    }
+
+    protected void tearDown() throws Exception {
+        m_timer.cancel();
+        assertEquals(0, m_logger.getErrors().size());
+    }
+
+    private RingBufferDataLogger createLogger(int bufferSize, int flushSize, long flushInterval) {
+        return new RingBufferDataLogger(
+            m_logger, m_target, "cp1251", bufferSize, flushSize, m_timer, flushInterval
+        );
+    }
+
+    public void testFlush() {
+        RingBufferDataLogger l = createLogger(10, 10, 0);
+        l.log("abc");
+        l.log("def");
+        assertEquals("", m_target.getData());
+        l.flush();
+        assertEquals("abcdef", m_target.getData());
+        assertEquals(1, m_target.m_flushCount);
+        // large message goes to the target directly
+        l.log("0123456789ab");
+        assertEquals("abcdef0123456789ab", m_target.getData());
+        assertEquals(1, m_target.m_flushCount);
+        l.flush();
+        assertEquals(2, m_target.m_flushCount);
+        l.close();
+        assertTrue(m_target.m_closed);
+    }
+
+    public void testWrapAround() {
+        RingBufferDataLogger l = createLogger(10, 10, 0);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            String msg = "m" + i + ";";
+            expected.append(msg);
+            l.log(msg);
+        }
+        l.close();
+        assertEquals(expected.toString(), m_target.getData());
+    }
+
+    public void testLargeMessage() {
+        RingBufferDataLogger l = createLogger(4, 4, 0);
+        l.log("ab");
+        l.log("0123456789");
+        l.log("cd");
+        l.close();
+        assertEquals("ab0123456789cd", m_target.getData());
+    }
+
+    public void testFlushSize() throws Exception {
+        RingBufferDataLogger l = createLogger(100, 10, 0);
+        l.log("12345");
+        Thread.sleep(50);
+        assertEquals("", m_target.getData());
+        l.log("67890");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (m_target.getData().length() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        assertEquals("1234567890", m_target.getData());
+        l.close();
+    }
+
+    public void testFlushInterval() throws Exception {
+        RingBufferDataLogger l = createLogger(100, 100, 20);
+        l.log("abc");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (m_target.getData().length() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        assertEquals("abc", m_target.getData());
+        l.close();
+    }
+
+    public void testConcurrentMessages() throws Exception {
+        final RingBufferDataLogger l = createLogger(64, 32, 5);
+        final int threadCount = 8;
+        final int msgCount = 1000;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final char c = (char)('a' + t);
+            threads[t] = new Thread() {
+                public void run() {
+                    String msg = "<" + c + c + c + c + c + ">";
+                    for (int i = 0; i < msgCount; i++) l.log(msg);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t: threads) t.join();
+        l.close();
+
+        String data = m_target.getData();
+        assertEquals(threadCount * msgCount * 7, data.length());
+        for (int i = 0; i < data.length(); i += 7) {
+            String msg = data.substring(i, i + 7);
+            char c = msg.charAt(1);
+            assertEquals("<" + c + c + c + c + c + ">", msg);
+        }
+    }
+
+    public void testClosed() {
+        RingBufferDataLogger l = createLogger(100, 100, 0);
+        l.close();
+        try {
+            l.log("abc");
+            fail("Closed logger accepted data");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting;
+
+import junit.framework.TestCase;
+import ru.rd.courier.TransferProcess;
+import ru.rd.courier.jdbc.databuffer.DataBuffer;
+import ru.rd.courier.jdbc.databuffer.StringColumnInfo;
+import ru.rd.courier.logging.ConsoleCourierLogger;
+import ru.rd.courier.scripting.expressions.string.Const;
+import ru.rd.courier.scripting.expressions.string.FromDb;
+import ru.rd.courier.scripting.statements.VarQuery;
+import ru.rd.courier.scripting.test.TestContext;
+import ru.rd.courier.utils.DomHelper;
+import ru.rd.pool.PoolObjectFactory;
+import ru.rd.pool.PooledObjectHolder;
+
+import java.sql.ResultSet;
+import java.text.SimpleDateFormat;
+import java.util.LinkedList;
+import java.util.List;
+
+public class LookupCacheTest extends TestCase {
+    private static final String c_dbName = "dict";
+
+    private TestContext m_ctx;
+    private DictSource m_source;
+
+    public LookupCacheTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        LookupCache.removeCaches();
+        m_ctx = new TestContext(
+            new ConsoleCourierLogger("test"), new SimpleDateFormat("yyyyMMdd HH:mm:ss")
+        );
+        m_source = new DictSource();
+        m_ctx.setPooledObject(c_dbName, new PooledObjectHolder() {
+            public PoolObjectFactory getFactory() { return null; }
+            public Object getObject() { return m_source; }
+            public boolean hasObject() { return true; }
+            public void release() {}
+            public void markStale() {}
+        });
+    }
+
+    protected void tearDown() throws Exception {
+        LookupCache.removeCaches();
+    }
+
+    /**
+     * Answers "select {id}" by the record with name "name-{id}",
+     * "preload" by three records with ids 1..3, "empty" by no records
+     */
+    private static class DictSource implements DataSource {
+        private final List<String> m_requests = new LinkedList<String>();
+
+        public ResultSet request(String query) {
+            m_requests.add(query);
+            try {
+                DataBuffer rs = new DataBuffer();
+                if (query.equals("preload")) {
+                    rs.addColumn(new StringColumnInfo("id", 10));
+                    rs.addColumn(new StringColumnInfo("name", 20));
+                    for (int i = 1; i <= 3; i++) {
+                        rs.addRecord();
+                        rs.updateString(1, Integer.toString(i));
+                        rs.updateString(2, "pre-" + i);
+                    }
+                } else {
+                    rs.addColumn(new StringColumnInfo("name", 20));
+                    if (!query.equals("empty")) {
+                        rs.addRecord();
+                        rs.updateString(1, "name-" + query.substring("select ".length()));
+                    }
+                }
+                rs.beforeFirst();
+                return rs;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public List<LinkWarning> process(Object operation) { return null; }
+        public List<LinkWarning> flush() { return null; }
+        public void setTimeout(int timeout) {}
+        public void cancel() {}
+        public void close() {}
+    }
+
+    private static LookupCacheConf cacheConf(String attrs, String key) throws Exception {
+        return new LookupCacheConf(
+            DomHelper.parseString("<node " + attrs + "/>").getDocumentElement(),
+            key == null ? null : new VarValue(key)
+        );
+    }
+
+    private static class VarValue implements ScriptExpression {
+        private final String m_name;
+
+        public VarValue(String name) {
+            m_name = name;
+        }
+
+        public String calculate(Context ctx) {
+            return ctx.getVar(m_name);
+        }
+    }
+
+    private static class Check implements ScriptStatement {
+        private final ScriptStatement m_body;
+
+        public Check(ScriptStatement body) {
+            m_body = body;
+        }
+
+        public void start(Context ctx) {}
+        public void finish(Context ctx) {}
+
+        public void exec(Context ctx) {
+            m_body.exec(ctx);
+        }
+    }
+
+    private abstract static class Body implements ScriptStatement {
+        public void start(Context ctx) {}
+        public void finish(Context ctx) {}
+    }
+
+    private void exec(final Body body) {
+        m_ctx.exec(new Check(body));
+    }
+
+    private static VarQuery varQuery(String sql, LookupCacheConf cache) {
+        return new VarQuery(new Const(c_dbName), new Const(sql), new Const("d_"), cache);
+    }
+
+    public void testLruAndTtl() throws Exception {
+        LookupCache cache = new LookupCache("test", 2, 50);
+        ResultSet rs = m_source.request("select 1");
+        assertTrue(rs.next());
+        LookupRow row = LookupRow.read(rs, true, 1, false);
+        assertEquals("name-1", row.getString(0));
+        cache.put("a", row);
+        cache.put("b", row);
+        assertSame(row, cache.get("a"));
+        cache.put("c", row);
+        assertNull(cache.get("b"));
+        assertSame(row, cache.get("a"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        Thread.sleep(100);
+        assertNull(cache.get("a"));
+    }
+
+    public void testVarQueryCached() throws Exception {
+        final VarQuery stmt = varQuery("select 1", cacheConf("cache-size='10'", null));
+        final VarQuery empty = varQuery("empty", cacheConf("cache-size='10'", null));
+        exec(new Body() {
+            public void exec(Context ctx) {
+                for (int i = 0; i < 3; i++) {
+                    ctx.setVar("d_name", "none");
+                    stmt.exec(ctx);
+                    assertEquals("name-1", ctx.getVar("d_name"));
+                    empty.exec(ctx);
+                    assertNull(ctx.getVar("d_name"));
+                }
+            }
+        });
+        assertEquals(2, m_source.m_requests.size());
+    }
+
+    public void testPreloadWithKey() throws Exception {
+        final VarQuery stmt = new VarQuery(
+            new Const(c_dbName), new VarValue("sql"), new Const("d_"),
+            cacheConf("cache-size='10' cache-preload='preload'", "id")
+        );
+        exec(new Body() {
+            public void exec(Context ctx) {
+                for (int i = 1; i <= 4; i++) {
+                    ctx.setVar("id", Integer.toString(i));
+                    ctx.setVar("sql", "select " + i);
+                    stmt.exec(ctx);
+                    assertEquals(i <= 3 ? "pre-" + i : "name-" + i, ctx.getVar("d_name"));
+                }
+            }
+        });
+        assertEquals(2, m_source.m_requests.size());
+        assertEquals("preload", m_source.m_requests.get(0));
+        assertEquals("select 4", m_source.m_requests.get(1));
+    }
+
+    public void testPipelineScope() throws Exception {
+        final VarQuery pipeStmt = varQuery("select 1", cacheConf("cache-size='10'", null));
+        final VarQuery courierStmt = varQuery(
+            "select 2", cacheConf("cache-size='10' cache-scope='courier'", null)
+        );
+        exec(new Body() {
+            public void exec(Context ctx) {
+                for (String pipe: new String[] {"p1", "p2", "p1"}) {
+                    ctx.setVar(TransferProcess.c_PipeNameVarName, pipe);
+                    pipeStmt.exec(ctx);
+                    courierStmt.exec(ctx);
+                }
+            }
+        });
+        assertEquals(3, m_source.m_requests.size());
+    }
+
+    public void testFromDb() throws Exception {
+        final FromDb expr = new FromDb(
+            new Const(c_dbName), "rs", new Const("select 5"), cacheConf("cache-ttl='1s'", null)
+        );
+        exec(new Body() {
+            public void exec(Context ctx) {
+                assertEquals("name-5", expr.calculate(ctx));
+                assertEquals("name-5", expr.calculate(ctx));
+            }
+        });
+        assertEquals(1, m_source.m_requests.size());
+        assertTrue(LookupCache.getCachesDesc().indexOf("hits = 1; misses = 1") >= 0);
+    }
+}
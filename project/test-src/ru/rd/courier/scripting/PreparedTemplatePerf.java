@@ -0,0 +1,173 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting;
+
+import org.w3c.dom.Node;
+import ru.rd.courier.logging.ConsoleCourierLogger;
+import ru.rd.courier.scripting.test.TestContext;
+import ru.rd.courier.utils.DomHelper;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares interpreted and compiled {@link PreparedTemplate} on target
+ * profile templates of the example configurations: general-target-profiles.xml
+ * and the other configurations of the examples directory (its templates are
+ * only placeholders). Variables used by the templates are set to sample
+ * values matching their formatters.
+ * Arguments: [configuration files (../examples/*.xml by default)]
+ */
+public class PreparedTemplatePerf {
+    private static final int c_warmUpCount = 200000;
+    private static final int c_callCount = 1000000;
+    private static final Pattern c_varPattern = Pattern.compile(
+        "\\[%\\s*(\\([^)]*\\))?\\s*([^\\s\\]!(][^\\s\\]]*)"
+    );
+
+    public static void main(String[] args) throws Exception {
+        File[] files;
+        if (args.length > 0) {
+            files = new File[args.length];
+            for (int i = 0; i < args.length; i++) files[i] = new File(args[i]);
+        } else {
+            files = new File("../examples").listFiles();
+            if (files == null) throw new RuntimeException("Directory ../examples not found");
+            Arrays.sort(files);
+        }
+
+        final List<String> templates = new ArrayList<String>();
+        for (File f: files) {
+            if (!f.getName().endsWith(".xml")) continue;
+            int count = templates.size();
+            Node conf = DomHelper.parseXmlFile(f).getDocumentElement();
+            Node profiles = DomHelper.getChild(conf, "target-profiles", false);
+            if (profiles != null) collectTemplates(profiles, templates);
+            System.out.println(f.getName() + ": " + (templates.size() - count) + " templates");
+        }
+
+        final Map<String, String> vars = new LinkedHashMap<String, String>();
+        for (String t: templates) {
+            Matcher m = c_varPattern.matcher(t);
+            while (m.find()) vars.put(m.group(2), sampleValue(m.group(1)));
+        }
+
+        final List<PreparedTemplate> interpreted = new ArrayList<PreparedTemplate>();
+        final List<PreparedTemplate> compiled = new ArrayList<PreparedTemplate>();
+        for (String t: templates) {
+            interpreted.add(new PreparedTemplate(t, false));
+            compiled.add(new PreparedTemplate(t, true));
+        }
+
+        final TestContext ctx = new TestContext(
+            new ConsoleCourierLogger("perf"), new SimpleDateFormat("yyyyMMdd HH:mm:ss")
+        );
+        ctx.exec(new ScriptStatement() {
+            public void start(Context ctx) {}
+            public void finish(Context ctx) {}
+            public void exec(Context ctx) {
+                for (Map.Entry<String, String> e: vars.entrySet()) ctx.setVar(e.getKey(), e.getValue());
+                check(templates, interpreted, compiled, ctx);
+                System.out.println(interpreted.size() + " templates, variables " + vars.keySet());
+
+                run("interpreted", interpreted, ctx, c_warmUpCount);
+                run("compiled", compiled, ctx, c_warmUpCount);
+                run("interpreted", interpreted, ctx, c_callCount);
+                run("compiled", compiled, ctx, c_callCount);
+            }
+        });
+    }
+
+    private static void collectTemplates(Node n, List<String> templates) {
+        for (Node child = n.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                String text = child.getNodeValue();
+                if (text.indexOf("[%") >= 0) templates.add(text.trim());
+            } else {
+                collectTemplates(child, templates);
+            }
+        }
+    }
+
+    private static String sampleValue(String formatter) {
+        if (formatter == null) return "Trade's name";
+        if (formatter.indexOf("date") >= 0) return "20070102 10:11:12";
+        if (formatter.indexOf("number") >= 0) return "1234.5678";
+        return "Trade's name";
+    }
+
+    /**
+     * Drops templates that can not be calculated with sample values
+     * and makes sure both modes give the same text (unless the template
+     * calls functions like !now)
+     */
+    private static void check(
+        List<String> templates, List<PreparedTemplate> interpreted,
+        List<PreparedTemplate> compiled, Context ctx
+    ) {
+        for (int i = interpreted.size() - 1; i >= 0; i--) {
+            String text;
+            try {
+                text = interpreted.get(i).calculate(ctx);
+            } catch (RuntimeException e) {
+                System.out.println("Skipped template: " + e.getMessage());
+                templates.remove(i);
+                interpreted.remove(i);
+                compiled.remove(i);
+                continue;
+            }
+            if (templates.get(i).indexOf('!') >= 0) continue;
+            if (text != null && !text.equals(compiled.get(i).calculate(ctx))) {
+                throw new RuntimeException("Compiled template result differs: " + text);
+            }
+        }
+    }
+
+    private static void run(String name, List<PreparedTemplate> templates, Context ctx, int count) {
+        long len = 0;
+        long bt = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            String text = templates.get(i % templates.size()).calculate(ctx);
+            if (text != null) len += text.length();
+        }
+        long time = System.currentTimeMillis() - bt;
+        System.out.println(
+            name + ": " + count + " calls in " + time + " ms (" + len + " chars)"
+        );
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting;
+
+import junit.framework.TestCase;
+import ru.rd.courier.jdbc.databuffer.DataBuffer;
+import ru.rd.courier.jdbc.databuffer.DateColumnInfo;
+import ru.rd.courier.jdbc.databuffer.IntegerColumnInfo;
+import ru.rd.courier.jdbc.databuffer.StringColumnInfo;
+import ru.rd.courier.logging.ConsoleCourierLogger;
+import ru.rd.courier.scripting.expressions.string.Const;
+import ru.rd.courier.scripting.statements.GetVarsFromTypedRow;
+import ru.rd.courier.scripting.test.TestContext;
+
+import java.sql.Date;
+import java.text.SimpleDateFormat;
+
+public class PreparedTemplateTest extends TestCase {
+    private static final String c_template =
+        "insert into Trades (id, name, price, dt, code) values (" +
+        "[%p_id], [%(string)p_name], [%(number 0.00)p_id], " +
+        "[%(date-format yyyyMMdd)p_date], [%(surround < >)p_code])";
+
+    public PreparedTemplateTest(String name) {
+        super(name);
+    }
+
+    private static abstract class CheckStatement implements ScriptStatement {
+        public void start(Context ctx) {}
+        public void finish(Context ctx) {}
+    }
+
+    private static TestContext createContext() {
+        return new TestContext(
+            new ConsoleCourierLogger("test"), new SimpleDateFormat("yyyyMMdd HH:mm:ss")
+        );
+    }
+
+    private static void execChecked(final TestContext ctx, final CheckStatement stmt) {
+        ctx.exec(new CheckStatement() {
+            public void exec(Context ctx) {
+                try {
+                    stmt.exec(ctx);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    public void testCompiledSameAsInterpreted() throws Exception {
+        final PreparedTemplate interpreted = new PreparedTemplate(c_template, false);
+        final PreparedTemplate compiled = new PreparedTemplate(c_template, true);
+        assertFalse(interpreted.isCompiled());
+        assertTrue(compiled.isCompiled());
+
+        final TestContext ctx = createContext();
+        execChecked(ctx, new CheckStatement() {
+            public void exec(Context ctx) {
+                ctx.setVar("p_id", "12");
+                ctx.setVar("p_name", "O'Brien");
+                ctx.setVar("p_date", "20070102 10:11:12");
+                ctx.setVar("p_code", "a");
+                assertEquals(interpreted.calculate(ctx), compiled.calculate(ctx));
+
+                ctx.setVar("p_name", "second");
+                ((TestContext)ctx).removeVar("p_code");
+                ctx.setVar("p_code", "b");
+                String res = compiled.calculate(ctx);
+                assertEquals(interpreted.calculate(ctx), res);
+                assertTrue(res.indexOf("'second'") > 0);
+                assertTrue(res.indexOf("<b>") > 0);
+
+                ctx.setVar("p_name", (ScriptExpression)new Const(null));
+                assertEquals(interpreted.calculate(ctx), compiled.calculate(ctx));
+            }
+        });
+    }
+
+    public void testParentContextVariables() throws Exception {
+        final PreparedTemplate compiled = new PreparedTemplate("[%p_name]-[%p_code]", true);
+        final TestContext parent = createContext();
+        final TestContext ctx = createContext();
+        ctx.setParent(parent);
+        parent.setVar("p_name", "parent");
+        parent.setVar("p_code", "a");
+
+        final long version = ctx.getVarsVersion();
+        assertEquals("parent-a", compiled.calculate(ctx));
+        assertEquals(version, ctx.getVarsVersion());
+        assertNull(ctx.findVarSlot("p_missing"));
+
+        parent.setVar("p_code", "b");
+        assertEquals("parent-b", compiled.calculate(ctx));
+        ctx.setVar("p_name", "child");
+        assertEquals("child-b", compiled.calculate(ctx));
+        ctx.removeVar("p_name");
+        assertEquals("parent-b", compiled.calculate(ctx));
+    }
+
+    public void testRemovedVarSlotsDropped() throws Exception {
+        final PreparedTemplate compiled = new PreparedTemplate("[%p_name]-[%p_code]", true);
+        final TestContext ctx = createContext();
+        ctx.setVar("p_name", "x");
+        ctx.setVar("p_code", "a");
+        assertEquals("x-a", compiled.calculate(ctx));
+
+        ctx.removeVar("p_code");
+        long version = ctx.getVarsVersion();
+        for (int i = 0; i < 200; i++) {
+            ctx.setVar("gen" + i, "v");
+            ctx.removeVar("gen" + i);
+        }
+        assertTrue(ctx.getVarsVersion() != version);
+        assertEquals(1, ctx.getVarKeySet().size());
+        assertTrue(ctx.getVarKeySet().contains("p_name"));
+        assertFalse(ctx.getVarKeySet().contains("gen0"));
+
+        // template bound to the dropped slot sees the new one
+        ctx.setVar("p_code", "b");
+        assertEquals("x-b", compiled.calculate(ctx));
+        assertEquals(2, ctx.getVarKeySet().size());
+    }
+
+    public void testCompiledTypedRow() throws Exception {
+        final PreparedTemplate interpreted = new PreparedTemplate(c_template, false);
+        final PreparedTemplate compiled = new PreparedTemplate(c_template, true);
+
+        final DataBuffer rs = new DataBuffer();
+        rs.addColumn(new IntegerColumnInfo("id", false));
+        rs.addColumn(new StringColumnInfo("name", true, 100));
+        rs.addColumn(new DateColumnInfo("date", null));
+        rs.addColumn(new StringColumnInfo("code", true, 10));
+        for (int i = 0; i < 3; i++) {
+            rs.addRecord();
+            rs.updateInt(1, i * 1000);
+            if (i == 1) rs.updateNull(2); else rs.updateString(2, "name-" + i);
+            rs.updateDate(3, new Date(100000000L * i));
+            rs.updateString(4, "c" + i);
+        }
+        rs.beforeFirst();
+
+        final GetVarsFromTypedRow binder = new GetVarsFromTypedRow(rs, false, "p_", null, null, false);
+        final TestContext ctx = createContext();
+        execChecked(ctx, new CheckStatement() {
+            public void exec(Context ctx) {
+                try {
+                    while (rs.next()) {
+                        binder.exec(ctx);
+                        assertEquals(interpreted.calculate(ctx), compiled.calculate(ctx));
+                    }
+                } catch (java.sql.SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+}
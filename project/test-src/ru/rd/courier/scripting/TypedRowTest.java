@@ -0,0 +1,119 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting;
+
+import junit.framework.TestCase;
+import ru.rd.courier.jdbc.databuffer.DataBuffer;
+import ru.rd.courier.jdbc.databuffer.DateColumnInfo;
+import ru.rd.courier.jdbc.databuffer.FloatColumnInfo;
+import ru.rd.courier.jdbc.databuffer.IntegerColumnInfo;
+import ru.rd.courier.jdbc.databuffer.StringColumnInfo;
+import ru.rd.courier.logging.ConsoleCourierLogger;
+import ru.rd.courier.scripting.statements.GetVarsFromDirectRs;
+import ru.rd.courier.scripting.statements.GetVarsFromTypedRow;
+import ru.rd.courier.scripting.test.TestContext;
+
+import java.sql.Date;
+import java.text.SimpleDateFormat;
+
+public class TypedRowTest extends TestCase {
+    private static final String[] c_fields = {"p_id", "p_name", "p_date", "p_amount"};
+
+    public TypedRowTest(String name) {
+        super(name);
+    }
+
+    private static DataBuffer createData() throws Exception {
+        DataBuffer db = new DataBuffer();
+        db.addColumn(new IntegerColumnInfo("id", false));
+        db.addColumn(new StringColumnInfo("name", true, 100));
+        db.addColumn(new DateColumnInfo("date", null));
+        db.addColumn(new FloatColumnInfo("amount"));
+        for (int i = 0; i < 3; i++) {
+            db.addRecord();
+            db.updateInt(1, i * 1000);
+            if (i == 1) db.updateNull(2); else db.updateString(2, "name-" + i);
+            db.updateDate(3, new Date(100000000L * i));
+            db.updateString(4, "1." + i);
+        }
+        db.beforeFirst();
+        return db;
+    }
+
+    private static abstract class CheckStatement implements ScriptStatement {
+        public void start(Context ctx) {}
+        public void finish(Context ctx) {}
+    }
+
+    public void testSameValuesAsDirectBinding() throws Exception {
+        final TestContext directCtx = new TestContext(
+            new ConsoleCourierLogger("test"), new SimpleDateFormat("yyyyMMdd HH:mm:ss")
+        );
+        final TestContext typedCtx = new TestContext(
+            new ConsoleCourierLogger("test"), new SimpleDateFormat("yyyyMMdd HH:mm:ss")
+        );
+        directCtx.exec(new CheckStatement() {
+            public void exec(Context ctx) {
+                typedCtx.exec(new CheckStatement() {
+                    public void exec(Context ctx) {
+                        try {
+                            compare(directCtx, typedCtx);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static void compare(Context directCtx, Context typedCtx) throws Exception {
+        DataBuffer directRs = createData();
+        DataBuffer typedRs = createData();
+        ScriptStatement direct = new GetVarsFromDirectRs(directRs, false, "p_", null, null, false);
+        GetVarsFromTypedRow typed = new GetVarsFromTypedRow(typedRs, false, "p_", "xml", null, true);
+
+        while (directRs.next()) {
+            assertTrue(typedRs.next());
+            direct.exec(directCtx);
+            typed.exec(typedCtx);
+            for (String field: c_fields) {
+                assertEquals(directCtx.getVar(field), typedCtx.getVar(field));
+            }
+            assertEquals(directCtx.getDateVar("p_date"), typedCtx.getDateVar("p_date"));
+            assertTrue(typedCtx.getVar("xml").startsWith("<record p_id=\""));
+        }
+        assertFalse(typedRs.next());
+        assertSame(typed.getRow(typedCtx).getColumn("p_id"), typedCtx.getVarExpression("p_id"));
+        assertEquals(2000, typed.getRow(typedCtx).getColumn("p_id").getLong());
+        assertEquals(1.2, typed.getRow(typedCtx).getColumn("p_amount").getDouble(), 1e-6);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess;
+
+import junit.framework.TestCase;
+import ru.rd.courier.scripting.DataReceiver;
+import ru.rd.courier.scripting.LinkWarning;
+import ru.rd.courier.scripting.PortionFormatter;
+import ru.rd.courier.scripting.dataaccess.jdbc.BatchPortion;
+import ru.rd.courier.scripting.dataaccess.jdbc.BatchRow;
+
+import java.sql.Types;
+import java.util.LinkedList;
+import java.util.List;
+
+public class BufferedDataReceiverTest extends TestCase {
+    private static class RecordingReceiver implements DataReceiver {
+        public final List<Object> m_operations = new LinkedList<Object>();
+
+        public List<LinkWarning> process(Object operation) {
+            m_operations.add(operation);
+            return null;
+        }
+
+        public List<LinkWarning> flush() { return null; }
+        public void setTimeout(int timeout) {}
+        public void cancel() {}
+        public void close() {}
+    }
+
+    private static final PortionFormatter c_formatter = new PortionFormatter() {
+        public String format(List<String> portion) {
+            StringBuffer ret = new StringBuffer();
+            for (String s: portion) ret.append(s).append('\n');
+            return ret.toString();
+        }
+    };
+
+    public BufferedDataReceiverTest(String name) {
+        super(name);
+    }
+
+    private static BatchRow row(int id) {
+        return new BatchRow(
+            "insert into t (id, name) values (?, ?)",
+            new Object[] {(long)id, "name" + id},
+            new int[] {Types.BIGINT, Types.VARCHAR}
+        );
+    }
+
+    public void testBatchRecordsLimit() throws Exception {
+        RecordingReceiver rr = new RecordingReceiver();
+        BufferedDataReceiver dr = new BufferedDataReceiver(rr, 0, 2, c_formatter, null);
+        for (int i = 0; i < 5; i++) {
+            dr.process(row(i));
+            dr.incRecordsCount();
+        }
+        dr.flush();
+
+        assertEquals(3, rr.m_operations.size());
+        int[] sizes = {2, 2, 1};
+        int id = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            BatchPortion p = (BatchPortion)rr.m_operations.get(i);
+            assertEquals(sizes[i], p.getRows().size());
+            for (BatchRow r: p.getRows()) {
+                assertEquals((long)id, r.getValues()[0]);
+                id++;
+            }
+        }
+    }
+
+    public void testMixedOperationsKeepOrder() throws Exception {
+        RecordingReceiver rr = new RecordingReceiver();
+        BufferedDataReceiver dr = new BufferedDataReceiver(rr, 0, 0, c_formatter, null);
+        dr.process("delete from t");
+        dr.process(row(1));
+        dr.process(row(2));
+        dr.process("update t set name = null");
+        dr.flush();
+
+        assertEquals(3, rr.m_operations.size());
+        assertEquals("delete from t\n", rr.m_operations.get(0));
+        assertEquals(2, ((BatchPortion)rr.m_operations.get(1)).getRows().size());
+        assertEquals("update t set name = null\n", rr.m_operations.get(2));
+    }
+
+    public void testBatchOperationsText() throws Exception {
+        BatchRow r = new BatchRow(
+            "update t set name = ?, d = ? where id = ?",
+            new Object[] {"O'Neil", null, 3L},
+            new int[] {Types.VARCHAR, Types.TIMESTAMP, Types.BIGINT}
+        );
+        assertEquals(
+            "update t set name = ?, d = ? where id = ?\n-- values: 'O''Neil', NULL, 3",
+            r.toString()
+        );
+        List<BatchRow> rows = new LinkedList<BatchRow>();
+        rows.add(row(1));
+        rows.add(row(2));
+        assertEquals(
+            "insert into t (id, name) values (?, ?)\n-- values: 1, 'name1'\n" +
+            "insert into t (id, name) values (?, ?)\n-- values: 2, 'name2'",
+            new BatchPortion(rows).toString()
+        );
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Node;
+import ru.rd.courier.StringListHandler;
+import ru.rd.courier.TransferProcessResult;
+import ru.rd.courier.TransferResultListener;
+import ru.rd.courier.logging.LoggerAdapter;
+import ru.rd.courier.utils.DomHelper;
+import ru.rd.pool.ObjectPoolIntf;
+import ru.rd.pool.SynchObjectPool;
+import ru.rd.thread.ThreadFactory;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.naming.Context;
+import javax.naming.spi.InitialContextFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+public class JmsSourceTest extends TestCase {
+    private static Broker s_broker;
+
+    private LoggerAdapter m_logger;
+    private ObjectPoolIntf m_threadPool;
+    private Timer m_timer;
+    private final BlockingQueue<Sent> m_sent = new LinkedBlockingQueue<Sent>();
+
+    /**
+     * JMS provider delivering messages to the listener of the last
+     * connection by the test thread. Like JMS connection stop waits for
+     * the listener. Session used neither by the listener thread nor with
+     * the connection stopped is reported as unsafe.
+     */
+    private static class Broker implements InvocationHandler {
+        private final List<String> m_events = new LinkedList<String>();
+        private final Object m_delivery = new Object();
+        private Object m_connection = null;
+        private MessageListener m_listener = null;
+        private boolean m_started = false;
+
+        private Object proxy(Class cl) {
+            return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {cl}, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            Class cl = method.getDeclaringClass();
+            if (name.equals("lookup")) {
+                return proxy(args[0].equals("factory") ? ConnectionFactory.class : Destination.class);
+            } else if (name.equals("createConnection")) {
+                synchronized(this) {
+                    m_connection = proxy(Connection.class);
+                    m_listener = null;
+                    return m_connection;
+                }
+            } else if (name.equals("createSession")) {
+                return proxy(Session.class);
+            } else if (name.equals("createConsumer")) {
+                return proxy(MessageConsumer.class);
+            } else if (name.equals("setMessageListener")) {
+                synchronized(this) {
+                    m_listener = (MessageListener)args[0];
+                }
+            } else if (name.equals("recover")) {
+                addSessionEvent("recover");
+            } else if (name.equals("start")) {
+                setStarted(true, "start");
+            } else if (name.equals("stop")) {
+                synchronized(m_delivery) {
+                    setStarted(false, "stop");
+                }
+            } else if (name.equals("close") && cl == Connection.class) {
+                synchronized(m_delivery) {
+                    synchronized(this) {
+                        // old connection is closed asynchronously after the new one is created
+                        setStarted(m_started && proxy != m_connection, "close");
+                    }
+                }
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return cl.getSimpleName();
+            }
+            return null;
+        }
+
+        private synchronized void addSessionEvent(String event) {
+            boolean safe = Thread.holdsLock(m_delivery) || !m_started;
+            m_events.add(safe ? event : "unsafe " + event);
+        }
+
+        private synchronized void setStarted(boolean started, String event) {
+            m_started = started;
+            m_events.add(event);
+            notifyAll();
+        }
+
+        public synchronized boolean waitStarted(long timeout) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            while (!m_started || m_listener == null) {
+                long left = end - System.currentTimeMillis();
+                if (left <= 0) return false;
+                wait(left);
+            }
+            return true;
+        }
+
+        public synchronized String events() {
+            return m_events.toString();
+        }
+
+        public boolean deliver(final String text) {
+            synchronized(m_delivery) {
+                MessageListener listener;
+                synchronized(this) {
+                    if (!m_started) return false;
+                    listener = m_listener;
+                }
+                listener.onMessage((TextMessage)Proxy.newProxyInstance(
+                    getClass().getClassLoader(), new Class[] {TextMessage.class},
+                    new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            String name = method.getName();
+                            if (name.equals("getText") || name.equals("getJMSMessageID")) return text;
+                            if (name.equals("acknowledge")) addSessionEvent("ack " + text);
+                            return null;
+                        }
+                    }
+                ));
+                return true;
+            }
+        }
+    }
+
+    public static class TestContextFactory implements InitialContextFactory {
+        public Context getInitialContext(Hashtable<?, ?> environment) {
+            return (Context)s_broker.proxy(Context.class);
+        }
+    }
+
+    private static class Sent {
+        private final List<String> m_texts;
+        private final TransferResultListener m_listener;
+
+        public Sent(List<String> texts, TransferResultListener listener) {
+            m_texts = new LinkedList<String>(texts);
+            m_listener = listener;
+        }
+
+        public void finish(final int errorCount) {
+            m_listener.transferFinished((TransferProcessResult)Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[] {TransferProcessResult.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return method.getName().equals("getErrorCount") ? errorCount : null;
+                    }
+                }
+            ));
+        }
+    }
+
+    public JmsSourceTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        s_broker = new Broker();
+        m_logger = new LoggerAdapter(null, "test", false);
+        m_logger.getInnerLogger().setLevel(Level.SEVERE);
+        m_threadPool = new SynchObjectPool(
+            "test thread pool", m_logger, new ThreadFactory(m_logger, "Test"),
+            0, 1, -1, -1, -1, -1, -1
+        );
+        m_threadPool.start();
+        m_timer = new Timer(true);
+    }
+
+    protected void tearDown() throws Exception {
+        m_timer.cancel();
+        m_threadPool.close();
+        m_threadPool = null;
+        s_broker = null;
+    }
+
+    private JmsSource createSource() throws Exception {
+        Node conf = DomHelper.parseString(
+            "<jms check-interval='100ms' start-stop-timeout='5s'" +
+            " batch-size='2' batch-latency='100ms' lost-connection-regex='lost'" +
+            " batch-max-attempts='2' batch-retry-interval='100ms'" +
+            " context-factory='" + TestContextFactory.class.getName() + "'" +
+            " provider-url='test' factory-name='factory' destination='queue'/>"
+        ).getDocumentElement();
+        return new JmsSource(m_logger, m_threadPool, m_timer, conf, null, new StringListHandler() {
+            public boolean handle(List<String> data, TransferResultListener resultHandler) {
+                m_sent.add(new Sent(data, resultHandler));
+                return true;
+            }
+        });
+    }
+
+    private static void waitStarted(JmsSource source) throws InterruptedException {
+        assertTrue(s_broker.waitStarted(5000));
+        for (int i = 0; i < 50 && !source.isAlive(); i++) Thread.sleep(100);
+        assertTrue(source.isAlive());
+    }
+
+    private static Thread deliverAsync(final String... texts) {
+        Thread ret = new Thread() {
+            public void run() {
+                for (String text: texts) s_broker.deliver(text);
+            }
+        };
+        ret.start();
+        return ret;
+    }
+
+    public void testOneBatchInFlight() throws Exception {
+        JmsSource source = createSource();
+        source.start();
+        try {
+            waitStarted(source);
+
+            // listener filling the batch waits for its acknowledgement
+            Thread listener = deliverAsync("1", "2");
+            Sent sent = m_sent.poll(5, TimeUnit.SECONDS);
+            assertEquals("[1, 2]", sent.m_texts.toString());
+            listener.join(200);
+            assertTrue(listener.isAlive());
+            assertEquals("[start]", s_broker.events());
+            sent.finish(0);
+            listener.join(5000);
+            assertFalse(listener.isAlive());
+            assertEquals("[start, ack 2]", s_broker.events());
+
+            // batch flushed by latency stops the connection till the acknowledgement
+            assertTrue(s_broker.deliver("3"));
+            sent = m_sent.poll(5, TimeUnit.SECONDS);
+            assertEquals("[3]", sent.m_texts.toString());
+            assertFalse(s_broker.deliver("4"));
+            assertEquals("[start, ack 2, stop]", s_broker.events());
+            sent.finish(0);
+            assertTrue(s_broker.waitStarted(5000));
+            assertEquals("[start, ack 2, stop, ack 3, start]", s_broker.events());
+
+            // failed batch is recovered by the listener to be received again
+            listener = deliverAsync("4", "5");
+            sent = m_sent.poll(5, TimeUnit.SECONDS);
+            assertEquals("[4, 5]", sent.m_texts.toString());
+            sent.finish(1);
+            listener.join(5000);
+            assertFalse(listener.isAlive());
+            assertEquals("[start, ack 2, stop, ack 3, start, recover]", s_broker.events());
+
+            // batch failed batch-max-attempts times is skipped
+            listener = deliverAsync("4", "5");
+            sent = m_sent.poll(5, TimeUnit.SECONDS);
+            assertEquals("[4, 5]", sent.m_texts.toString());
+            sent.finish(1);
+            listener.join(5000);
+            assertFalse(listener.isAlive());
+            assertEquals("[start, ack 2, stop, ack 3, start, recover, ack 5]", s_broker.events());
+
+            // failed batch flushed by latency is recovered with the connection stopped
+            assertTrue(s_broker.deliver("6"));
+            sent = m_sent.poll(5, TimeUnit.SECONDS);
+            assertEquals("[6]", sent.m_texts.toString());
+            sent.finish(1);
+            assertTrue(s_broker.waitStarted(5000));
+            assertEquals(
+                "[start, ack 2, stop, ack 3, start, recover, ack 5, stop, recover, start]",
+                s_broker.events()
+            );
+            assertNull(m_sent.poll());
+        } finally {
+            source.stop(5000);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess;
+
+import junit.framework.TestCase;
+import ru.rd.courier.CourierException;
+import ru.rd.courier.logging.test.NullLogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+public class JsonRecordReaderTest extends TestCase {
+    private static final String c_json =
+        "{\"meta\": {\"count\": 3, \"list\": [{\"id\": -1}]},\n" +
+        " \"data\": {\"deals\": [\n" +
+        "   {\"id\": 1, \"sum\": 10.5, \"ok\": true, \"instr\": {\"code\": \"A\\\"B\"}, \"tags\": [1, 2]},\n" +
+        "   {\"id\": 12345678901, \"sum\": -2E3, \"ok\": false, \"instr\": {\"code\": \"\\u0410\\n\"}},\n" +
+        "   {\"id\": 3, \"sum\": null, \"instr\": {}}\n" +
+        " ]}, \"tail\": [[1], {\"deals\": 5}]}";
+
+    public JsonRecordReaderTest(String name) {
+        super(name);
+    }
+
+    // returns one char per read to check buffer boundaries
+    private static class SlowReader extends Reader {
+        private final Reader m_reader;
+
+        public SlowReader(String str) {
+            m_reader = new StringReader(str);
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            return m_reader.read(cbuf, off, Math.min(len, 1));
+        }
+
+        public void close() throws IOException {
+            m_reader.close();
+        }
+    }
+
+    private static List<Object> ids(String path) throws IOException {
+        JsonRecordReader r = new JsonRecordReader(new SlowReader(c_json), path);
+        List<Object> ret = new LinkedList<Object>();
+        while (r.hasNext()) ret.add(r.next().get("id"));
+        r.close();
+        return ret;
+    }
+
+    public void testRecordsPath() throws Exception {
+        assertEquals("[1, 12345678901, 3]", ids("$.data.deals").toString());
+        assertEquals("[1, 12345678901, 3]", ids("$.data.deals[*]").toString());
+        assertEquals("[1, 12345678901, 3]", ids("$['data']['deals']").toString());
+        assertEquals("[1, 12345678901, 3]", ids("$.*.deals").toString());
+        assertEquals("[-1]", ids("$.meta.list").toString());
+        assertEquals("[null]", ids("$.meta").toString());
+        assertEquals("[null]", ids("$").toString());
+        assertEquals("[]", ids("$.absent").toString());
+    }
+
+    public void testValues() throws Exception {
+        JsonRecordReader r = new JsonRecordReader(new StringReader(c_json), "$.data.deals");
+        HashMap<String, Object> rec = r.next();
+        assertEquals(1, rec.get("id"));
+        assertEquals(10.5, rec.get("sum"));
+        assertEquals(Boolean.TRUE, rec.get("ok"));
+        assertEquals("A\"B", ((HashMap)rec.get("instr")).get("code"));
+        assertEquals("[1, 2]", rec.get("tags").toString());
+        rec = r.next();
+        assertEquals(12345678901L, rec.get("id"));
+        assertEquals(-2000.0, rec.get("sum"));
+        assertEquals("\u0410\n", ((HashMap)rec.get("instr")).get("code"));
+        rec = r.next();
+        assertTrue(rec.containsKey("sum"));
+        assertNull(rec.get("sum"));
+        assertFalse(r.hasNext());
+        assertEquals(3, r.getRecordCount());
+    }
+
+    public void testLongString() throws Exception {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 20000; i++) sb.append((char)('a' + i % 26));
+        JsonRecordReader r = new JsonRecordReader(
+            new StringReader("[{\"v\": \"" + sb + "\\t\"}, {\"v\": \"x\"}]"), "$"
+        );
+        assertEquals(sb + "\t", r.next().get("v"));
+        assertEquals("x", r.next().get("v"));
+        assertFalse(r.hasNext());
+    }
+
+    public void testErrors() throws Exception {
+        for (String path: new String[] {"$..id", "$.data[0]", "$.data[?(@.id)]"}) {
+            try {
+                new JsonRecordReader(new StringReader(c_json), path);
+                fail("Path '" + path + "' accepted");
+            } catch (CourierException e) {
+                // expected
+            }
+        }
+        try {
+            new JsonRecordReader(new StringReader("{\"a\": [1, 2]}"), "$.a").hasNext();
+            fail("Not object record accepted");
+        } catch (CourierException e) {
+            // expected
+        }
+    }
+
+    private static List<String> read(boolean streaming) throws Exception {
+        List<JSONPathSource.ColumnSelectInfo> cols = new LinkedList<JSONPathSource.ColumnSelectInfo>();
+        cols.add(new JSONPathSource.ColumnSelectInfo("id", "id"));
+        cols.add(new JSONPathSource.ColumnSelectInfo("sum", "sum"));
+        cols.add(new JSONPathSource.ColumnSelectInfo("code", "$.instr.code"));
+        JSONPathSource source = new JSONPathSource(new NullLogger(), "$.data.deals", cols);
+        source.setStreaming(streaming);
+        ResultSet rs = source.getResultSet(new ByteArrayInputStream(c_json.getBytes("UTF-8")));
+        List<String> ret = new LinkedList<String>();
+        while (rs.next()) {
+            ret.add(rs.getString("id") + "|" + rs.getString("sum") + "|" + rs.getString("code"));
+        }
+        rs.close();
+        return ret;
+    }
+
+    public void testSourceSameAsJsonPath() throws Exception {
+        List<String> expected = read(false);
+        assertEquals("[1|10.5|A\"B, 12345678901|-2000.0|\u0410\n, 3|null|null]", expected.toString());
+        assertEquals(expected, read(true));
+    }
+}
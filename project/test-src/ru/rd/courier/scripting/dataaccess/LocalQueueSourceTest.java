@@ -0,0 +1,175 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Node;
+import ru.rd.courier.CourierException;
+import ru.rd.courier.StringHandler;
+import ru.rd.courier.TransferProcessResult;
+import ru.rd.courier.TransferResultListener;
+import ru.rd.courier.logging.LoggerAdapter;
+import ru.rd.courier.utils.DomHelper;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedList;
+import java.util.Timer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+public class LocalQueueSourceTest extends TestCase {
+    private static final String c_refuse = "refuse";
+    private static final String c_throw = "throw";
+
+    private File m_dir;
+    private LoggerAdapter m_logger;
+    private Timer m_timer;
+    private final LinkedList<String> m_answers = new LinkedList<String>();
+    private final BlockingQueue<Handled> m_handled = new LinkedBlockingQueue<Handled>();
+
+    private static class Handled {
+        private final String m_data;
+        private final String m_answer;
+        private final TransferResultListener m_listener;
+
+        public Handled(String data, String answer, TransferResultListener listener) {
+            m_data = data;
+            m_answer = answer;
+            m_listener = listener;
+        }
+
+        public void finish(final int errorCount) {
+            m_listener.transferFinished((TransferProcessResult)Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[] {TransferProcessResult.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return method.getName().equals("getErrorCount") ? errorCount : null;
+                    }
+                }
+            ));
+        }
+    }
+
+    public LocalQueueSourceTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        m_dir = File.createTempFile("courier-queue-source", "");
+        m_dir.delete();
+        m_dir.mkdir();
+        m_logger = new LoggerAdapter(null, "test", false);
+        m_logger.getInnerLogger().setLevel(Level.OFF);
+        m_timer = new Timer(true);
+    }
+
+    protected void tearDown() throws Exception {
+        m_timer.cancel();
+        LocalQueue.closeQueues();
+        File[] files = m_dir.listFiles();
+        if (files != null) {
+            for (File f: files) f.delete();
+        }
+        m_dir.delete();
+    }
+
+    private LocalQueueSource createSource() throws Exception {
+        Node conf = DomHelper.parseString(
+            "<local-queue queue='test' capacity='10'" +
+            " max-message-count='1' retry-interval='100ms'/>"
+        ).getDocumentElement();
+        return new LocalQueueSource(m_logger, m_timer, conf, m_dir, new StringHandler() {
+            public boolean handle(String data, TransferResultListener resultHandler) {
+                String answer;
+                synchronized(m_answers) {
+                    answer = m_answers.poll();
+                }
+                m_handled.add(new Handled(data, answer, resultHandler));
+                if (c_refuse.equals(answer)) return false;
+                if (c_throw.equals(answer)) throw new CourierException("Test handler error");
+                return true;
+            }
+        }, null);
+    }
+
+    private Handled nextHandled() throws InterruptedException {
+        Handled ret = m_handled.poll(5, TimeUnit.SECONDS);
+        assertNotNull(ret);
+        return ret;
+    }
+
+    public void testRefusedAndFailedPortions() throws Exception {
+        m_answers.add(c_refuse);
+        m_answers.add(c_throw);
+        LocalQueueSource source = createSource();
+        LocalQueue queue = source.getQueue();
+        assertTrue(queue.put("m1", 0));
+        source.start(null);
+        try {
+            // refused portion is read again after retry interval
+            Handled h = nextHandled();
+            assertEquals("m1", h.m_data);
+            assertEquals(c_refuse, h.m_answer);
+
+            // portion of failed handler is released too
+            h = nextHandled();
+            assertEquals("m1", h.m_data);
+            assertEquals(c_throw, h.m_answer);
+
+            h = nextHandled();
+            assertEquals("m1", h.m_data);
+            assertNull(h.m_answer);
+
+            // max-message-count does not let read the next message
+            assertTrue(queue.put("m2", 0));
+            assertNull(m_handled.poll(300, TimeUnit.MILLISECONDS));
+            h.finish(0);
+            h = nextHandled();
+            assertEquals("m2", h.m_data);
+            assertEquals(1, queue.size());
+
+            // failed transfer is read again
+            h.finish(1);
+            h = nextHandled();
+            assertEquals("m2", h.m_data);
+            h.finish(0);
+            assertEquals(0, queue.size());
+            assertNull(m_handled.poll(300, TimeUnit.MILLISECONDS));
+        } finally {
+            source.stop();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class LocalQueueTest extends TestCase {
+    private File m_dir;
+
+    public LocalQueueTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        m_dir = File.createTempFile("courier-queue", "");
+        m_dir.delete();
+        m_dir.mkdir();
+    }
+
+    protected void tearDown() throws Exception {
+        LocalQueue.closeQueues();
+        File[] files = m_dir.listFiles();
+        if (files != null) {
+            for (File f: files) f.delete();
+        }
+        m_dir.delete();
+    }
+
+    private int segmentCount() {
+        int ret = 0;
+        for (File f: m_dir.listFiles()) {
+            if (f.getName().endsWith(".seg")) ret++;
+        }
+        return ret;
+    }
+
+    public void testPutPoll() throws Exception {
+        LocalQueue queue = new LocalQueue("test", m_dir, 100, LocalQueue.c_defaultSegmentSize);
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(queue.put("message" + i, 0));
+            }
+            LocalQueue.Portion p1 = queue.poll(4, 0);
+            assertEquals(Arrays.asList("message0", "message1", "message2", "message3"), p1.getData());
+            LocalQueue.Portion p2 = queue.poll(100, 0);
+            assertEquals(6, p2.size());
+            assertEquals("message9", p2.getData().get(5));
+            assertNull(queue.poll(100, 0));
+
+            queue.finished(p2, true);
+            assertEquals(10, queue.size());
+            queue.finished(p1, true);
+            assertEquals(0, queue.size());
+        } finally {
+            queue.close();
+        }
+    }
+
+    public void testPersistence() throws Exception {
+        LocalQueue queue = new LocalQueue("test", m_dir, 100, 50);
+        for (int i = 0; i < 10; i++) {
+            queue.put("message" + i, 0);
+        }
+        assertTrue(segmentCount() > 1);
+        queue.finished(queue.poll(3, 0), true);
+        queue.poll(3, 0);
+        queue.close();
+
+        queue = new LocalQueue("test", m_dir, 100, 50);
+        try {
+            assertEquals(7, queue.size());
+            LocalQueue.Portion p = queue.poll(100, 0);
+            assertEquals(7, p.size());
+            assertEquals("message3", p.getData().get(0));
+            queue.finished(p, true);
+            assertEquals(0, queue.size());
+            assertEquals(1, segmentCount());
+        } finally {
+            queue.close();
+        }
+    }
+
+    public void testFailedPortionIsReadAgain() throws Exception {
+        LocalQueue queue = new LocalQueue("test", m_dir, 100, 30);
+        try {
+            for (int i = 0; i < 6; i++) {
+                queue.put("message" + i, 0);
+            }
+            LocalQueue.Portion p1 = queue.poll(2, 0);
+            LocalQueue.Portion p2 = queue.poll(2, 0);
+            LocalQueue.Portion p3 = queue.poll(2, 0);
+            queue.finished(p1, true);
+            queue.finished(p3, true);
+            queue.finished(p2, false);
+            assertEquals(4, queue.size());
+
+            LocalQueue.Portion p = queue.poll(100, 0);
+            assertEquals(Arrays.asList("message2", "message3", "message4", "message5"), p.getData());
+            queue.cancel(p);
+            p = queue.poll(1, 0);
+            assertEquals("message2", p.getData().get(0));
+        } finally {
+            queue.close();
+        }
+    }
+
+    public void testBackPressure() throws Exception {
+        final LocalQueue queue = LocalQueue.openQueue("test", m_dir, 2, LocalQueue.c_defaultSegmentSize);
+        assertSame(queue, LocalQueue.getQueue("test"));
+        assertTrue(queue.put("m1", 0));
+        assertTrue(queue.put("m2", 0));
+        assertFalse(queue.put("m3", 10));
+
+        final LocalQueue.Portion p = queue.poll(1, 0);
+        Thread consumer = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                    queue.finished(p, true);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        consumer.start();
+        assertTrue(queue.put("m3", 10000));
+        consumer.join();
+        assertEquals(2, queue.size());
+    }
+}
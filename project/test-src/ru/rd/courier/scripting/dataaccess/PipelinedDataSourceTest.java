@@ -0,0 +1,223 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess;
+
+import junit.framework.TestCase;
+import ru.rd.courier.CourierException;
+import ru.rd.courier.logging.LoggerAdapter;
+import ru.rd.courier.scripting.DataReceiver;
+import ru.rd.courier.scripting.LinkWarning;
+import ru.rd.courier.scripting.PortionFormatter;
+import ru.rd.pool.ObjectPoolIntf;
+import ru.rd.pool.SynchObjectPool;
+import ru.rd.thread.ThreadFactory;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+
+public class PipelinedDataSourceTest extends TestCase {
+    private ObjectPoolIntf m_threadPool;
+
+    private static class SlowReceiver implements DataReceiver {
+        public final List<Object> m_operations = Collections.synchronizedList(new LinkedList<Object>());
+        public volatile Thread m_thread = null;
+        private final String m_failOn;
+
+        public SlowReceiver(String failOn) {
+            m_failOn = failOn;
+        }
+
+        public List<LinkWarning> process(Object operation) {
+            m_thread = Thread.currentThread();
+            try { Thread.sleep(20); } catch (InterruptedException e) { throw new RuntimeException(e); }
+            if (operation.equals(m_failOn)) throw new CourierException("failed " + operation);
+            m_operations.add(operation);
+            List<LinkWarning> ret = new LinkedList<LinkWarning>();
+            ret.add(new LinkWarning(1, new SQLException(operation.toString()), 0));
+            return ret;
+        }
+
+        public List<LinkWarning> flush() { return null; }
+        public void setTimeout(int timeout) {}
+        public void cancel() {}
+        public void close() {}
+    }
+
+    private static class RecordingListener implements PortionSendListener {
+        public final List<String> m_sent = new LinkedList<String>();
+        public final List<Thread> m_threads = new LinkedList<Thread>();
+
+        public void before(PortionSendEvent event) {}
+
+        public void after(PortionSendEvent event) {
+            m_sent.add(event.getPortion());
+            m_threads.add(Thread.currentThread());
+        }
+    }
+
+    private static final PortionFormatter c_formatter = new PortionFormatter() {
+        public String format(List<String> portion) {
+            StringBuffer ret = new StringBuffer();
+            for (String s: portion) ret.append(s);
+            return ret.toString();
+        }
+    };
+
+    public PipelinedDataSourceTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        LoggerAdapter logger = new LoggerAdapter(null, "test", false);
+        logger.getInnerLogger().setLevel(Level.SEVERE);
+        m_threadPool = new SynchObjectPool(
+            "test thread pool", logger, new ThreadFactory(logger, "Test"),
+            0, 1, -1, -1, -1, -1, -1
+        );
+        m_threadPool.start();
+    }
+
+    protected void tearDown() throws Exception {
+        m_threadPool.close();
+        m_threadPool = null;
+    }
+
+    public void testPortionsOrder() throws Exception {
+        SlowReceiver rr = new SlowReceiver(null);
+        RecordingListener listener = new RecordingListener();
+        PipelinedDataSource dr = new PipelinedDataSource(
+            rr, 0, 1, c_formatter, listener, m_threadPool, 2
+        );
+        int warnings = 0;
+        for (int i = 0; i < 10; i++) {
+            List<LinkWarning> ws = dr.process("op" + i);
+            if (ws != null) warnings += ws.size();
+            ws = dr.incRecordsCount();
+            if (ws != null) warnings += ws.size();
+        }
+        List<LinkWarning> ws = dr.flush();
+        if (ws != null) warnings += ws.size();
+
+        assertEquals(10, warnings);
+        assertEquals(10, rr.m_operations.size());
+        assertEquals(10, listener.m_sent.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("op" + i, rr.m_operations.get(i));
+            assertEquals("op" + i, listener.m_sent.get(i));
+            assertSame(Thread.currentThread(), listener.m_threads.get(i));
+        }
+        assertNotSame(Thread.currentThread(), rr.m_thread);
+
+        final Thread writer = rr.m_thread;
+        dr.process("next");
+        dr.incRecordsCount();
+        dr.flush();
+        assertEquals("next", rr.m_operations.get(10));
+        assertSame(writer, rr.m_thread);
+        dr.close();
+    }
+
+    public void testAfterPortionOperationsNotBuffered() throws Exception {
+        final SlowReceiver rr = new SlowReceiver(null);
+        final PipelinedDataSource[] dr = new PipelinedDataSource[1];
+        PortionSendListener listener = new RecordingListener() {
+            public void after(PortionSendEvent event) {
+                super.after(event);
+                if (!event.getPortion().startsWith("after-")) {
+                    dr[0].process("after-" + event.getPortion());
+                }
+            }
+        };
+        dr[0] = new PipelinedDataSource(rr, 0, 1, c_formatter, listener, m_threadPool, 2);
+        for (int i = 0; i < 3; i++) {
+            dr[0].process("op" + i);
+            dr[0].incRecordsCount();
+        }
+        dr[0].flush();
+        dr[0].close();
+        assertEquals(6, rr.m_operations.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(rr.m_operations.contains("op" + i));
+            assertTrue(rr.m_operations.contains("after-op" + i));
+        }
+    }
+
+    public void testErrorPropagation() throws Exception {
+        SlowReceiver rr = new SlowReceiver("op3");
+        RecordingListener listener = new RecordingListener();
+        PipelinedDataSource dr = new PipelinedDataSource(
+            rr, 0, 1, c_formatter, listener, m_threadPool, 2
+        );
+        try {
+            for (int i = 0; i < 10; i++) {
+                dr.process("op" + i);
+                dr.incRecordsCount();
+            }
+            dr.flush();
+            fail("Writer error expected");
+        } catch (CourierException e) {
+            assertTrue(e.getMessage().indexOf("failed op3") >= 0);
+        } finally {
+            dr.stopWriter();
+        }
+        assertEquals(3, rr.m_operations.size());
+        assertTrue(listener.m_sent.size() <= 3);
+        assertFalse(listener.m_sent.contains("op3"));
+    }
+
+    public void testProcessAfterError() throws Exception {
+        SlowReceiver rr = new SlowReceiver("op1");
+        RecordingListener listener = new RecordingListener();
+        PipelinedDataSource dr = new PipelinedDataSource(
+            rr, 0, 1, c_formatter, listener, m_threadPool, 2
+        );
+        try {
+            for (int i = 0; i < 5; i++) {
+                dr.process("op" + i);
+                dr.incRecordsCount();
+            }
+            dr.flush();
+            fail("Writer error expected");
+        } catch (CourierException e) {
+            assertTrue(e.getMessage().indexOf("failed op1") >= 0);
+        }
+
+        dr.process("next");
+        dr.incRecordsCount();
+        dr.flush();
+        dr.close();
+        assertEquals("[op0, next]", rr.m_operations.toString());
+        assertEquals("next", listener.m_sent.get(listener.m_sent.size() - 1));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess;
+
+import junit.framework.TestCase;
+import ru.rd.courier.scripting.SeparatedPortionFormatter;
+import ru.rd.courier.utils.FileHelper;
+import ru.rd.test.TestCourierLogger;
+
+import java.io.File;
+import java.util.List;
+
+public class StreamingFileReceiverTest extends TestCase {
+    private File m_dir;
+    private TestCourierLogger m_logger;
+
+    private static final SeparatedPortionFormatter c_formatter = new SeparatedPortionFormatter() {
+        public String getRecordSeparator() {
+            return "\n";
+        }
+
+        public String format(List<String> portion) {
+            StringBuffer ret = new StringBuffer();
+            for (String s: portion) {
+                if (ret.length() > 0) ret.append('\n');
+                ret.append(s);
+            }
+            return ret.toString();
+        }
+    };
+
+    private static class CountingListener implements PortionStreamListener {
+        public int m_opened = 0;
+        public int m_sent = 0;
+
+        public void opened(PortionSendEvent event) {
+            m_opened++;
+            event.getStream().write("<");
+        }
+
+        public void before(PortionSendEvent event) {
+            assertNull(event.getPortion());
+            event.getStream().write(">");
+        }
+
+        public void after(PortionSendEvent event) {
+            m_sent++;
+        }
+    }
+
+    public StreamingFileReceiverTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        m_dir = File.createTempFile("stream-receiver", "");
+        assertTrue(m_dir.delete());
+        assertTrue(m_dir.mkdir());
+        m_logger = new TestCourierLogger();
+    }
+
+    protected void tearDown() throws Exception {
+        FileHelper.deleteDir(m_dir);
+    }
+
+    private FileReceiver createReceiver(boolean fileNameAtFirstLine) {
+        FileReceiver fr = new FileReceiver(
+            m_logger, "cp1251", true, false, false,
+            "p-", ".data", m_dir.getPath(), fileNameAtFirstLine,
+            "yyyyMMdd-HHmmssSSS", false
+        );
+        fr.setStreaming(true);
+        return fr;
+    }
+
+    private File[] listFiles(final String suffix) {
+        File[] ret = m_dir.listFiles();
+        int count = 0;
+        for (File f: ret) if (f.getName().endsWith(suffix)) ret[count++] = f;
+        File[] files = new File[count];
+        System.arraycopy(ret, 0, files, 0, count);
+        return files;
+    }
+
+    public void testPortionCommittedOnRecordsLimit() throws Exception {
+        CountingListener l = new CountingListener();
+        BufferedDataReceiver dr = new BufferedDataReceiver(createReceiver(false), 0, 2, c_formatter, l);
+
+        dr.process("a");
+        dr.incRecordsCount();
+        dr.process("b");
+        assertEquals(1, listFiles(".tmp").length);
+        assertEquals(0, listFiles(".data").length);
+
+        dr.incRecordsCount();
+        assertEquals(0, listFiles(".tmp").length);
+        File[] files = listFiles(".data");
+        assertEquals(1, files.length);
+        assertEquals("<a\nb>", FileHelper.fileToString(files[0], "cp1251"));
+        assertEquals(1, l.m_opened);
+        assertEquals(1, l.m_sent);
+
+        dr.process("c");
+        dr.incRecordsCount();
+        dr.close();
+        assertEquals(2, listFiles(".data").length);
+        assertEquals(2, l.m_sent);
+        assertEquals(0, m_logger.getErrors().size());
+    }
+
+    public void testCancelRemovesTemporaryFile() throws Exception {
+        BufferedDataReceiver dr = new BufferedDataReceiver(createReceiver(false), 0, 0, c_formatter, null);
+        dr.process("a");
+        dr.process("b");
+        assertEquals(1, listFiles(".tmp").length);
+        dr.cancel();
+        assertEquals(0, m_dir.listFiles().length);
+    }
+
+    public void testFileNameAtFirstLine() throws Exception {
+        FileReceiver fr = createReceiver(true);
+        BufferedDataReceiver dr = new BufferedDataReceiver(fr, 0, 0, c_formatter, null);
+        dr.process("file-name=out.txt");
+        assertEquals(0, m_dir.listFiles().length);
+        dr.process("x");
+        assertTrue(new File(m_dir, "out.txt.tmp").exists());
+        dr.process("y");
+        dr.flush();
+        assertEquals("x\ny", FileHelper.fileToString(new File(m_dir, "out.txt"), "cp1251"));
+        assertEquals(1, m_dir.listFiles().length);
+    }
+
+    public void testNotStreamingReceiver() throws Exception {
+        FileReceiver fr = createReceiver(false);
+        fr.setStreaming(false);
+        BufferedDataReceiver dr = new BufferedDataReceiver(fr, 0, 0, c_formatter, null);
+        dr.process("a");
+        dr.process("b");
+        assertEquals(0, m_dir.listFiles().length);
+        dr.flush();
+        File[] files = listFiles(".data");
+        assertEquals(1, files.length);
+        assertEquals("a\nb", FileHelper.fileToString(files[0], "cp1251"));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import ru.rd.courier.CourierException;
+import ru.rd.courier.logging.test.NullLogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+public class XmlRecordIteratorTest extends TestCase {
+    private static final String c_xml =
+        "<?xml version='1.0' encoding='windows-1251'?>" +
+        "<root xmlns:t='urn:trades'>" +
+          "<t:batch id='b1'>" +
+            "<t:trade no='1'><sum>10</sum><note><![CDATA[a&b]]></note></t:trade>" +
+            "<other><t:trade no='x'/></other>" +
+            "<t:trade no='2'><sum>20</sum></t:trade>" +
+          "</t:batch>" +
+          "<t:batch id='b2'>" +
+            "<t:trade no='3'><sum>\u0441\u0443\u043c\u043c\u0430</sum></t:trade>" +
+          "</t:batch>" +
+        "</root>";
+
+    public XmlRecordIteratorTest(String name) {
+        super(name);
+    }
+
+    private static XmlRecordIterator iterator(String path, Map<String, String> ns) throws Exception {
+        return new XmlRecordIterator(
+            new ByteArrayInputStream(c_xml.getBytes("windows-1251")), null, path, ns
+        );
+    }
+
+    private static List<String> attrs(XmlRecordIterator it, String attr) {
+        List<String> ret = new LinkedList<String>();
+        Node n;
+        while ((n = it.nextNode()) != null) ret.add(((Element)n).getAttribute(attr));
+        return ret;
+    }
+
+    public void testAbsolutePath() throws Exception {
+        XmlRecordIterator it = iterator("/root/t:batch/t:trade", null);
+        assertEquals("[1, 2, 3]", attrs(it, "no").toString());
+        assertEquals(3, it.getRecordCount());
+        assertNull(it.nextNode());
+    }
+
+    public void testAnyLevelPath() throws Exception {
+        assertEquals("[1, x, 2, 3]", attrs(iterator("//trade", null), "no").toString());
+        assertEquals("[x]", attrs(iterator("//other/*", null), "no").toString());
+        assertEquals("[b1, b2]", attrs(iterator("/*/batch", null), "id").toString());
+    }
+
+    public void testNamespaces() throws Exception {
+        Map<String, String> ns = new HashMap<String, String>();
+        ns.put("x", "urn:trades");
+        assertEquals("[1, x, 2, 3]", attrs(iterator("//x:trade", ns), "no").toString());
+        ns.put("x", "urn:other");
+        assertEquals("[]", attrs(iterator("//x:trade", ns), "no").toString());
+        assertEquals("[1, 2, 3]", attrs(iterator("/root/t:batch/t:trade", null), "no").toString());
+        assertEquals("urn:trades", iterator("//trade", null).getRootNamespaces().get("t"));
+    }
+
+    public void testBadPath() throws Exception {
+        for (String path: new String[] {"/root//trade", "//trade[1]", "//@no", "/root/..", "/"}) {
+            assertFalse(path, XmlRecordIterator.isSupportedPath(path));
+            try {
+                iterator(path, null);
+                fail("Path '" + path + "' accepted");
+            } catch (CourierException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testSaxSourceUnsupportedPath() throws Exception {
+        assertTrue(XmlRecordIterator.isSupportedPath("//trade"));
+        File file = File.createTempFile("sax-source", ".xml");
+        try {
+            OutputStream os = new FileOutputStream(file);
+            try {
+                os.write(c_xml.getBytes("windows-1251"));
+            } finally {
+                os.close();
+            }
+            List<SaxSource.ColumnSelectInfo> cols = new LinkedList<SaxSource.ColumnSelectInfo>();
+            cols.add(new SaxSource.ColumnSelectInfo("no", "@no"));
+            for (String path: new String[] {"//trade", "//*[sum > 10]"}) {
+                ResultSet rs = new SaxSource(path, cols).request(file.getPath());
+                List<String> nos = new LinkedList<String>();
+                while (rs.next()) nos.add(rs.getString("no"));
+                rs.close();
+                assertEquals(path, path.indexOf('[') < 0 ? "[1, x, 2, 3]" : "[2]", nos.toString());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static List<String> read(XPathSourceBase source, String... cols) throws Exception {
+        source.setEncoding("windows-1251");
+        ResultSet rs = source.getResultSet(new ByteArrayInputStream(c_xml.getBytes("windows-1251")));
+        List<String> ret = new LinkedList<String>();
+        while (rs.next()) {
+            StringBuffer sb = new StringBuffer();
+            for (String col: cols) {
+                if (sb.length() > 0) sb.append('|');
+                sb.append(rs.getString(col));
+            }
+            ret.add(sb.toString());
+        }
+        rs.close();
+        return ret;
+    }
+
+    public void testSourceSameAsDom() throws Exception {
+        Map<String, String> ns = new HashMap<String, String>();
+        ns.put("t", "urn:trades");
+        List<XPathSource.ColumnSelectInfo> cols = new LinkedList<XPathSource.ColumnSelectInfo>();
+        cols.add(new XPathSource.ColumnSelectInfo("no", new XPathSource.FastNodeSelector("@no", ns)));
+        cols.add(new XPathSource.ColumnSelectInfo("batch", new XPathSource.FastNodeSelector("../@id", ns)));
+        cols.add(new XPathSource.ColumnSelectInfo("sum", new XPathSource.XPathNodeSelector("sum", ns)));
+        cols.add(new XPathSource.ColumnSelectInfo("note", new XPathSource.FastNodeSelector("note", ns)));
+        String path = "/root/t:batch/t:trade";
+
+        XPathSource dom = new XPathSource(new NullLogger(), path, cols, ns);
+        XPathSource streaming = new XPathSource(new NullLogger(), path, cols, ns);
+        streaming.setStreaming(true);
+        List<String> expected = read(dom, "no", "batch", "sum", "note");
+        assertEquals(3, expected.size());
+        assertEquals("1|b1|10|a&b", expected.get(0));
+        assertEquals("3|b2|\u0441\u0443\u043c\u043c\u0430|", expected.get(2));
+        assertEquals(expected, read(streaming, "no", "batch", "sum", "note"));
+
+        XPathAllDataSource allDom = new XPathAllDataSource(new NullLogger(), path, ns, null);
+        XPathAllDataSource allStreaming = new XPathAllDataSource(new NullLogger(), path, ns, null);
+        allStreaming.setStreaming(true);
+        assertEquals(read(allDom, "sum", "note"), read(allStreaming, "sum", "note"));
+    }
+}
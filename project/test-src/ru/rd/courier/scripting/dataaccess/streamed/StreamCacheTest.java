@@ -0,0 +1,136 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess.streamed;
+
+import junit.framework.TestCase;
+import ru.rd.courier.jdbc.csv.CsvLineParser;
+import ru.rd.courier.jdbc.csv.FakeFilter;
+import ru.rd.courier.jdbc.csv.ResultSetInfo;
+import ru.rd.courier.utils.StreamHelper;
+import ru.rd.test.TestCourierLogger;
+
+import java.io.File;
+import java.io.InputStream;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Properties;
+
+public class StreamCacheTest extends TestCase {
+    private File m_dir;
+
+    public StreamCacheTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        m_dir = File.createTempFile("stream-cache", ".dir");
+        m_dir.delete();
+        m_dir.mkdir();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = m_dir.listFiles();
+        if (files != null) {
+            for (File f: files) f.delete();
+        }
+        m_dir.delete();
+    }
+
+    private static byte[] data(int size) {
+        byte[] ret = new byte[size];
+        for (int i = 0; i < size; i++) ret[i] = (byte)(i % 251);
+        return ret;
+    }
+
+    private static void write(StreamCache cache, byte[] data) throws Exception {
+        for (int i = 0; i < data.length; i += 1000) {
+            cache.write(data, i, Math.min(1000, data.length - i));
+        }
+    }
+
+    public void testMemory() throws Exception {
+        byte[] data = data(10000);
+        StreamCache cache = new StreamCache(10000, m_dir);
+        write(cache, data);
+        InputStream is = cache.getInputStream();
+        assertFalse(cache.isSpilled());
+        assertEquals(0, m_dir.listFiles().length);
+        assertTrue(Arrays.equals(data, StreamHelper.streamToBytes(is, true)));
+    }
+
+    public void testSpill() throws Exception {
+        byte[] data = data(10001);
+        StreamCache cache = new StreamCache(10000, m_dir);
+        write(cache, data);
+        assertTrue(cache.isSpilled());
+        assertEquals(1, m_dir.listFiles().length);
+        InputStream is = cache.getInputStream();
+        cache.discard();
+        assertEquals(1, m_dir.listFiles().length);
+        assertTrue(Arrays.equals(data, StreamHelper.streamToBytes(is, true)));
+        assertEquals(0, m_dir.listFiles().length);
+        assertEquals(10001, cache.getSize());
+    }
+
+    public void testDiscard() throws Exception {
+        StreamCache cache = new StreamCache(100, m_dir);
+        write(cache, data(1000));
+        assertEquals(1, m_dir.listFiles().length);
+        cache.discard();
+        assertEquals(0, m_dir.listFiles().length);
+    }
+
+    public void testSource() throws Exception {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 1000; i++) sb.append(i).append(",v").append(i).append('\n');
+        ResultSetInfo rsi = new ResultSetInfo(
+            "LineNumber", new String[] {"Id", "Value"}, -1, null,
+            new CsvLineParser('\'', false, ',', false, null), 1,
+            false, new FakeFilter(), new Properties()
+        );
+        TestCourierLogger logger = new TestCourierLogger(false);
+        StreamSource source = new StreamSource(
+            logger, null, new ConstStreamConnector(sb.toString()),
+            new CsvParser(logger, "UTF-16", 0, null, rsi), true
+        );
+        source.setCacheOptions(1024, m_dir);
+        ResultSet rs = source.innerRequest("");
+        assertEquals(1, m_dir.listFiles().length);
+        int count = 0;
+        while (rs.next()) {
+            assertEquals("v" + count, rs.getString("Value"));
+            count++;
+        }
+        assertEquals(1000, count);
+        rs.close();
+        assertEquals(0, m_dir.listFiles().length);
+    }
+}
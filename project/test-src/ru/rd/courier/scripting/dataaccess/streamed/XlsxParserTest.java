@@ -0,0 +1,193 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.dataaccess.streamed;
+
+import junit.framework.TestCase;
+import ru.rd.courier.utils.DomHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class XlsxParserTest extends TestCase {
+    private static final String c_ns =
+        "xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\""
+        + " xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"";
+    private static final String c_relNs =
+        "xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\"";
+    private static final String c_relType =
+        "http://schemas.openxmlformats.org/officeDocument/2006/relationships/";
+
+    public XlsxParserTest(String name) {
+        super(name);
+    }
+
+    private static void entry(ZipOutputStream zos, String name, String data) throws IOException {
+        zos.putNextEntry(new ZipEntry(name));
+        zos.write(data.getBytes("UTF-8"));
+        zos.closeEntry();
+    }
+
+    private static byte[] workbook(boolean dimension) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(bos);
+        entry(zos, "_rels/.rels",
+            "<Relationships " + c_relNs + ">"
+            + "<Relationship Id=\"rId1\" Type=\"" + c_relType + "officeDocument\" Target=\"xl/workbook.xml\"/>"
+            + "</Relationships>"
+        );
+        entry(zos, "xl/workbook.xml",
+            "<workbook " + c_ns + "><sheets>"
+            + "<sheet name=\"Info\" sheetId=\"1\" r:id=\"rId2\"/>"
+            + "<sheet name=\"Data\" sheetId=\"2\" r:id=\"rId1\"/>"
+            + "</sheets></workbook>"
+        );
+        entry(zos, "xl/_rels/workbook.xml.rels",
+            "<Relationships " + c_relNs + ">"
+            + "<Relationship Id=\"rId1\" Type=\"" + c_relType + "worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+            + "<Relationship Id=\"rId2\" Type=\"" + c_relType + "worksheet\" Target=\"/xl/worksheets/sheet2.xml\"/>"
+            + "<Relationship Id=\"rId3\" Type=\"" + c_relType + "sharedStrings\" Target=\"strings.xml\"/>"
+            + "<Relationship Id=\"rId4\" Type=\"" + c_relType + "styles\" Target=\"styles.xml\"/>"
+            + "</Relationships>"
+        );
+        entry(zos, "xl/worksheets/sheet1.xml",
+            "<worksheet " + c_ns + ">"
+            + (dimension ? "<dimension ref=\"A1:D5\"/>" : "")
+            + "<sheetData>"
+            + "<row r=\"1\"><c r=\"A1\" t=\"s\"><v>0</v></c><c r=\"B1\" t=\"s\"><v>1</v></c>"
+            + "<c r=\"C1\" t=\"inlineStr\"><is><t>Flag</t></is></c><c r=\"D1\"><v>2024</v></c></row>"
+            + "<row r=\"2\"><c r=\"A2\"><v>1.5</v></c><c r=\"B2\" s=\"1\"><v>45292</v></c>"
+            + "<c r=\"C2\" t=\"b\"><v>1</v></c><c r=\"D2\" t=\"s\"><v>2</v></c></row>"
+            + "<row r=\"4\"><c r=\"B4\" s=\"2\"><v>45292.5</v></c><c r=\"D4\" t=\"str\"><f>A1</f><v>x</v></c></row>"
+            + "<row r=\"5\"><c r=\"A5\"><v>3</v></c></row>"
+            + "</sheetData></worksheet>"
+        );
+        entry(zos, "xl/worksheets/sheet2.xml",
+            "<worksheet " + c_ns + "><sheetData>"
+            + "<row r=\"2\"><c r=\"C2\" t=\"inlineStr\"><is><r><t>Report </t></r><r><t>date</t></r></is></c></row>"
+            + "</sheetData></worksheet>"
+        );
+        entry(zos, "xl/strings.xml",
+            "<sst " + c_ns + ">"
+            + "<si><t>Amount</t></si><si><r><t>Da</t></r><r><t>te</t></r><rPh><t>x</t></rPh></si>"
+            + "<si><t xml:space=\"preserve\"> text </t></si>"
+            + "</sst>"
+        );
+        entry(zos, "xl/styles.xml",
+            "<styleSheet " + c_ns + ">"
+            + "<numFmts><numFmt numFmtId=\"164\" formatCode=\"dd/mm/yyyy\\ hh:mm\"/>"
+            + "<numFmt numFmtId=\"165\" formatCode=\"&quot;day&quot;0.00\"/></numFmts>"
+            + "<cellStyleXfs><xf numFmtId=\"14\"/></cellStyleXfs>"
+            + "<cellXfs><xf numFmtId=\"0\"/><xf numFmtId=\"14\"/><xf numFmtId=\"164\"/><xf numFmtId=\"165\"/></cellXfs>"
+            + "</styleSheet>"
+        );
+        zos.close();
+        return bos.toByteArray();
+    }
+
+    private static ResultSet parse(String conf, byte[] data) throws Exception {
+        StreamParser p = new ExcelParserFactory(DomHelper.parseString(conf).getDocumentElement(), true).createParser();
+        assertTrue(p instanceof XlsxParser);
+        return p.parse(new ByteArrayInputStream(data));
+    }
+
+    public void testCaptions() throws Exception {
+        ResultSet rs = parse(
+            "<parser type=\"xlsx\" sheet-name=\"Data\" caption-row=\"1\" date-format=\"yyyyMMdd HH:mm\">"
+            + "<const-fields><field name=\"Title\" sheet-name=\"Info\" column=\"1\" row=\"1\""
+            + " finish-row=\"unlimited\" pattern=\"\\S.*\"/></const-fields>"
+            + "</parser>",
+            workbook(true)
+        );
+        assertEquals(5, rs.getMetaData().getColumnCount());
+        assertEquals("Amount", rs.getMetaData().getColumnName(1));
+        assertEquals("Date", rs.getMetaData().getColumnName(2));
+        assertEquals("Flag", rs.getMetaData().getColumnName(3));
+        assertEquals("2024", rs.getMetaData().getColumnName(4));
+
+        assertTrue(rs.next());
+        assertEquals("1.5", rs.getString("Amount"));
+        assertEquals("20240101 00:00", rs.getString("Date"));
+        assertEquals("true", rs.getString("Flag"));
+        assertEquals("text", rs.getString("2024"));
+        assertEquals("Report date", rs.getString("Title"));
+        assertTrue(rs.next());
+        assertEquals("", rs.getString("Amount"));
+        assertEquals("", rs.getString("Date"));
+        assertTrue(rs.next());
+        assertEquals("20240101 12:00", rs.getString("Date"));
+        assertEquals("x", rs.getString("2024"));
+        assertTrue(rs.next());
+        assertEquals("3.0", rs.getString("Amount"));
+        assertFalse(rs.next());
+        rs.close();
+    }
+
+    public void testNoCaptions() throws Exception {
+        ResultSet rs = parse(
+            "<parser type=\"xlsx\" sheet-name=\"Data\" data-row=\"2\" left-column=\"2\""
+            + " right-column-letters=\"C\" number-format=\"#.00\" need-to-trim=\"no\"/>",
+            workbook(false)
+        );
+        assertEquals(2, rs.getMetaData().getColumnCount());
+        assertEquals("ColumnB", rs.getMetaData().getColumnName(1));
+        assertEquals("ColumnC", rs.getMetaData().getColumnName(2));
+        assertTrue(rs.next());
+        assertEquals("2024-01-01", rs.getString(1));
+        assertTrue(rs.next());
+        assertTrue(rs.next());
+        assertEquals("2024-01-01 12:00:00", rs.getString(1));
+        assertTrue(rs.next());
+        assertFalse(rs.next());
+        rs.close();
+
+        rs = parse(
+            "<parser type=\"xlsx\" sheet-name=\"Data\" data-row=\"1\" number-format=\"#.00\"/>",
+            workbook(false)
+        );
+        assertEquals(4, rs.getMetaData().getColumnCount());
+        assertTrue(rs.next());
+        assertTrue(rs.next());
+        assertEquals("1.50", rs.getString(1));
+        rs.close();
+    }
+
+    public void testDateFormats() {
+        assertTrue(XlsxWorkbook.isDateFormat("dd/mm/yyyy\\ hh:mm"));
+        assertTrue(XlsxWorkbook.isDateFormat("[$-409]h:mm AM/PM"));
+        assertFalse(XlsxWorkbook.isDateFormat("\"day\"0.00"));
+        assertFalse(XlsxWorkbook.isDateFormat("[Red]#,##0.00"));
+        assertFalse(XlsxWorkbook.isDateFormat("General"));
+    }
+}
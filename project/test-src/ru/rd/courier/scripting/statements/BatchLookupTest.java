@@ -0,0 +1,249 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.courier.scripting.statements;
+
+import junit.framework.TestCase;
+import ru.rd.courier.jdbc.databuffer.DataBuffer;
+import ru.rd.courier.jdbc.databuffer.StringColumnInfo;
+import ru.rd.courier.logging.ConsoleCourierLogger;
+import ru.rd.courier.scripting.Context;
+import ru.rd.courier.scripting.DataSource;
+import ru.rd.courier.scripting.LinkWarning;
+import ru.rd.courier.scripting.ScriptExpression;
+import ru.rd.courier.scripting.ScriptStatement;
+import ru.rd.courier.scripting.XmlStatementFactory;
+import ru.rd.courier.scripting.expressions.string.Const;
+import ru.rd.courier.scripting.test.TestContext;
+import ru.rd.courier.utils.DomHelper;
+import ru.rd.pool.PoolObjectFactory;
+import ru.rd.pool.PooledObjectHolder;
+
+import java.sql.ResultSet;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+public class BatchLookupTest extends TestCase {
+    private static final String[] c_instruments = {"1", "2", null, "1", "7", "300", "2", "3", "4"};
+
+    private String[] m_instruments = c_instruments;
+    private TestContext m_ctx;
+    private final List<String> m_requests = new LinkedList<String>();
+    private final List<String> m_records = new LinkedList<String>();
+
+    public BatchLookupTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        m_ctx = new TestContext(
+            new ConsoleCourierLogger("test"), new SimpleDateFormat("yyyyMMdd HH:mm:ss")
+        );
+        setSource("deals", new TestSource() {
+            public ResultSet request(String query) {
+                try {
+                    DataBuffer rs = new DataBuffer();
+                    rs.addColumn(new StringColumnInfo("id", 10));
+                    rs.addColumn(new StringColumnInfo("instr_id", true, 10));
+                    for (int i = 0; i < m_instruments.length; i++) {
+                        rs.addRecord();
+                        rs.updateString(1, Integer.toString(i));
+                        if (m_instruments[i] == null) rs.updateNull(2);
+                        else rs.updateString(2, m_instruments[i]);
+                    }
+                    rs.beforeFirst();
+                    return rs;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        // answers "in (...)" queries by instruments with ids < 100
+        setSource("dict", new TestSource() {
+            public ResultSet request(String query) {
+                m_requests.add(query);
+                try {
+                    DataBuffer rs = new DataBuffer();
+                    rs.addColumn(new StringColumnInfo("id", 10));
+                    rs.addColumn(new StringColumnInfo("name", 20));
+                    String list = query.substring(query.indexOf('(') + 1, query.lastIndexOf(')'));
+                    for (String key: list.split(",")) {
+                        if (key.equals("NULL")) continue;
+                        key = key.substring(1, key.length() - 1);
+                        if (Integer.parseInt(key) >= 100) continue;
+                        rs.addRecord();
+                        rs.updateString(1, key);
+                        rs.updateString(2, "instr-" + key);
+                    }
+                    rs.beforeFirst();
+                    return rs;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    private abstract static class TestSource implements DataSource {
+        public List<LinkWarning> process(Object operation) { return null; }
+        public List<LinkWarning> flush() { return null; }
+        public void setTimeout(int timeout) {}
+        public void cancel() {}
+        public void close() {}
+    }
+
+    private void setSource(String name, final DataSource ds) {
+        m_ctx.setPooledObject(name, new PooledObjectHolder() {
+            public PoolObjectFactory getFactory() { return null; }
+            public Object getObject() { return ds; }
+            public boolean hasObject() { return true; }
+            public void release() {}
+            public void markStale() {}
+        });
+    }
+
+    private class RecordStatement implements ScriptStatement {
+        public void start(Context ctx) {}
+        public void finish(Context ctx) {}
+
+        public void exec(Context ctx) {
+            m_records.add(
+                ctx.getVar("id") + ":" + ctx.getVar("i_name") + ":" + ctx.getVar("$last")
+            );
+        }
+    }
+
+    private List<String> expectedRecords() {
+        List<String> ret = new LinkedList<String>();
+        for (int i = 0; i < m_instruments.length; i++) {
+            String instr = m_instruments[i];
+            String name = instr == null || Integer.parseInt(instr) >= 100 ? null : "instr-" + instr;
+            ret.add(i + ":" + name + ":" + (i == m_instruments.length - 1 ? "1" : "0"));
+        }
+        return ret;
+    }
+
+    private static BatchLookup lookup(int maxKeys) {
+        return new BatchLookup(
+            new Const("dict"), new ScriptExpression() {
+                public String calculate(Context ctx) {
+                    return "select id, name from Instr where id in (" + ctx.getVar("$keys") + ")";
+                }
+            },
+            new ScriptExpression() {
+                public String calculate(Context ctx) {
+                    return ctx.getVar("instr_id");
+                }
+            },
+            new Const("i_"), "$keys", maxKeys, true
+        );
+    }
+
+    private void execLoop(ScriptStatement loop) {
+        m_ctx.exec(loop);
+    }
+
+    public void testBatched() throws Exception {
+        CtxResultSetLoop loop = new CtxResultSetLoop(
+            new Const("deals"), "rs", new Const("select"), new RecordStatement(),
+            null, "$count", "$last", false, null, null, null, false, false,
+            4, Arrays.asList(lookup(3))
+        );
+        execLoop(loop);
+        assertEquals(expectedRecords(), m_records);
+        // windows: {1, 2, 1} {7, 300, 2, 3} {4} -> 1 + 2 + 1 requests
+        assertEquals(4, m_requests.size());
+        assertEquals("select id, name from Instr where id in ('1','2')", m_requests.get(0));
+        assertEquals(Integer.toString(c_instruments.length), m_ctx.getVar("$count"));
+    }
+
+    public void testNullKeysWindow() throws Exception {
+        m_instruments = new String[] {null, null, "1", null};
+        CtxResultSetLoop loop = new CtxResultSetLoop(
+            new Const("deals"), "rs", new Const("select"), new RecordStatement(),
+            null, "$count", "$last", false, null, null, null, false, false,
+            2, Arrays.asList(lookup(3))
+        );
+        execLoop(loop);
+        assertEquals(expectedRecords(), m_records);
+        // the first window requests variable names only
+        assertEquals(2, m_requests.size());
+        assertEquals("select id, name from Instr where id in (NULL)", m_requests.get(0));
+    }
+
+    public void testBreak() throws Exception {
+        CtxResultSetLoop loop = new CtxResultSetLoop(
+            new Const("deals"), null, new Const("select"), new RecordStatement() {
+                public void exec(Context ctx) {
+                    super.exec(ctx);
+                    if (m_records.size() == 5) ctx.setBreak("loop");
+                }
+            },
+            "loop", "$count", "$last", false, null, null, null, false, false,
+            4, Arrays.asList(lookup(10))
+        );
+        execLoop(loop);
+        assertEquals(expectedRecords().subList(0, 5), m_records);
+        assertEquals(2, m_requests.size());
+    }
+
+    public void testFactory() throws Exception {
+        XmlStatementFactory sf = new XmlStatementFactory(
+            DomHelper.parseStream(
+                getClass().getResourceAsStream("/ru/rd/courier/resources/StatementFactoryConf.xml")
+            ), null
+        );
+        ScriptStatement loop = sf.getStatement(DomHelper.parseString(
+            "<rs-loop>" +
+            "<template><string>deals</string></template><string>rs</string>" +
+            "<template><string>select</string></template>" +
+            "<var-query>" +
+            "<template><template><string>dict</string></template></template>" +
+            "<template><string>select id, name from Instr where id in ('[%instr_id]')</string></template>" +
+            "<template><string>v_</string></template>" +
+            "<lookup-cache><node cache-size='10'/><template><string>[%instr_id]</string></template></lookup-cache>" +
+            "</var-query>" +
+            "<string/><string>$count</string><string>$last</string><boolean>false</boolean>" +
+            "<null-string/><string null='yes'/><string null='yes'/><boolean>false</boolean>" +
+            "<boolean>false</boolean><int>4</int>" +
+            "<list><batch-lookup>" +
+            "<template><template><string>dict</string></template></template>" +
+            "<template><string>select id, name from Instr where id in ([%$lookup-keys])</string></template>" +
+            "<template><string>[%instr_id]</string></template>" +
+            "<template><string>i_</string></template>" +
+            "<string>$lookup-keys</string><int>50</int><boolean>true</boolean>" +
+            "</batch-lookup></list>" +
+            "</rs-loop>"
+        ).getDocumentElement(), null);
+        assertTrue(loop instanceof CtxResultSetLoop);
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.pool2;
+
+import junit.framework.TestCase;
+import ru.rd.pool.PoolException;
+import ru.rd.pool.TestObject;
+import ru.rd.pool.TestObjectFactory;
+import ru.rd.scheduling.TimingWheel;
+import ru.rd.test.TestCourierLogger;
+import ru.rd.thread.WorkExecutor;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+public class BlockingObjectPoolTest extends TestCase {
+    private TestCourierLogger m_logger;
+    private TestObjectFactory m_factory;
+    private BlockingObjectPool m_pool;
+
+    public BlockingObjectPoolTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        m_logger = new TestCourierLogger(false);
+        m_factory = new TestObjectFactory(0, 0, -1);
+        m_pool = new BlockingObjectPool(m_logger, "test", m_factory);
+    }
+
+    protected void tearDown() throws Exception {
+        m_pool.close();
+        assertEquals(0, m_logger.getErrors().size());
+    }
+
+    private Thread startWaiter(final List<Object> got, final long holdTime) throws InterruptedException {
+        final int waiting = m_pool.waitingCount();
+        Thread t = new Thread() {
+            public void run() {
+                Object o = m_pool.getObject(10000);
+                got.add(o);
+                try {
+                    Thread.sleep(holdTime);
+                } catch (InterruptedException e) {
+                    // finish
+                }
+                m_pool.releaseObject(o);
+            }
+        };
+        t.start();
+        while (m_pool.waitingCount() == waiting) Thread.sleep(1);
+        return t;
+    }
+
+    public void testReuse() {
+        m_pool.setCapacityPars(0, -1, -1);
+        m_pool.start();
+        Object o = m_pool.getObject();
+        m_pool.releaseObject(o);
+        for (int i = 0; i < 100; i++) {
+            Object o1 = m_pool.getObject();
+            assertSame(o, o1);
+            m_pool.releaseObject(o1);
+        }
+        assertEquals(1, m_pool.size());
+        assertEquals(1, m_pool.freeCount());
+        assertEquals(1, m_pool.getAllocateCount());
+    }
+
+    public void testInitialCapacity() {
+        m_pool.setCapacityPars(3, -1, 2);
+        m_pool.start();
+        assertEquals(2, m_pool.size());
+        assertEquals(2, m_pool.freeCount());
+    }
+
+    public void testWaitTimeout() {
+        m_pool.setCapacityPars(0, -1, 1);
+        m_pool.start();
+        Object o = m_pool.getObject();
+        try {
+            m_pool.getObject(50);
+            fail("Timeout expected");
+        } catch (RuntimeException e) {
+            // OK
+        }
+        assertEquals(1, m_pool.getTimeoutCount());
+        assertEquals(0, m_pool.waitingCount());
+        m_pool.releaseObject(o);
+        assertSame(o, m_pool.getObject(50));
+        m_pool.releaseObject(o);
+    }
+
+    public void testWaitInterrupted() throws Exception {
+        m_pool.setCapacityPars(0, -1, 1);
+        m_pool.start();
+        Object o = m_pool.getObject();
+        final List<Exception> errors = Collections.synchronizedList(new LinkedList<Exception>());
+        final boolean[] interrupted = new boolean[1];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    m_pool.getObject(10000);
+                } catch (Exception e) {
+                    errors.add(e);
+                }
+                interrupted[0] = isInterrupted();
+            }
+        };
+        t.start();
+        while (m_pool.waitingCount() == 0) Thread.sleep(1);
+        t.interrupt();
+        t.join();
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof PoolException);
+        assertTrue(errors.get(0).getCause() instanceof InterruptedException);
+        assertTrue(interrupted[0]);
+        assertEquals(0, m_pool.getTimeoutCount());
+        assertEquals(0, m_pool.waitingCount());
+        m_pool.releaseObject(o);
+    }
+
+    public void testFifoWaiters() throws Exception {
+        m_pool.setCapacityPars(0, -1, 1);
+        m_pool.start();
+        Object o = m_pool.getObject();
+        List<Object> got = Collections.synchronizedList(new LinkedList<Object>());
+        List<Thread> threads = new LinkedList<Thread>();
+        for (int i = 0; i < 5; i++) threads.add(startWaiter(got, 0));
+        assertEquals(5, m_pool.waitingCount());
+        // a new caller must not overtake waiting ones
+        try {
+            m_pool.getObject(20);
+            fail("Timeout expected");
+        } catch (RuntimeException e) {
+            // OK
+        }
+        m_pool.releaseObject(o);
+        for (Thread t: threads) t.join();
+        assertEquals(5, got.size());
+        for (Object o1: got) assertSame(o, o1);
+        assertEquals(1, m_pool.getAllocateCount());
+    }
+
+    public void testRemoveLetsWaiterAllocate() throws Exception {
+        m_pool.setCapacityPars(0, -1, 1);
+        m_pool.start();
+        Object o = m_pool.getObject();
+        List<Object> got = Collections.synchronizedList(new LinkedList<Object>());
+        Thread t = startWaiter(got, 0);
+        m_pool.releaseAndRemoveObject(o);
+        t.join();
+        assertEquals(1, got.size());
+        assertNotSame(o, got.get(0));
+        assertEquals(1, ((TestObject)o).getCloseCount());
+        assertEquals(2, m_pool.getAllocateCount());
+        assertEquals(1, m_pool.size());
+    }
+
+    public void testCheck() {
+        m_pool.setCapacityPars(0, -1, -1);
+        m_pool.start();
+        TestObject valid = (TestObject)m_pool.getObject();
+        TestObject invalid = (TestObject)m_pool.getObject();
+        valid.setValidCheckCount(100);
+        m_pool.releaseObject(valid);
+        m_pool.releaseObject(invalid);
+        m_pool.check();
+        assertEquals(1, m_pool.size());
+        assertEquals(1, invalid.getCloseCount());
+        assertEquals(0, valid.getCloseCount());
+        assertSame(valid, m_pool.getObject());
+        m_pool.releaseObject(valid);
+    }
+
+    public void testExpire() throws Exception {
+        m_pool.setCapacityPars(0, -1, -1);
+        m_pool.setExpirePars(10);
+        m_pool.start();
+        TestObject o = (TestObject)m_pool.getObject();
+        m_pool.releaseObject(o);
+        Thread.sleep(20);
+        TestObject o1 = (TestObject)m_pool.getObject();
+        assertNotSame(o, o1);
+        assertEquals(1, o.getCloseCount());
+        m_pool.releaseObject(o1);
+    }
+
+    public void testShrink() throws Exception {
+        m_pool.setCapacityPars(0, 1, -1);
+        m_pool.setShrinkPars(-1, -1, 10);
+        m_pool.start();
+        Object o1 = m_pool.getObject();
+        Object o2 = m_pool.getObject();
+        Object o3 = m_pool.getObject();
+        m_pool.releaseObject(o1);
+        m_pool.releaseObject(o2);
+        m_pool.releaseObject(o3);
+        Thread.sleep(20);
+        m_pool.shrink();
+        assertEquals(1, m_pool.size());
+    }
+
+    public void testMaintenanceOnTimingWheel() throws Exception {
+        WorkExecutor executor = new WorkExecutor(m_logger, "scheduler", 2, 100, 60*1000);
+        TimingWheel wheel = new TimingWheel(m_logger, "test", 1, executor);
+        try {
+            m_pool.setTimer(wheel);
+            m_pool.setCapacityPars(0, 1, -1);
+            m_pool.setShrinkPars(10, -1, 10);
+            m_pool.start();
+            assertEquals(1, wheel.size());
+            Object o1 = m_pool.getObject();
+            Object o2 = m_pool.getObject();
+            m_pool.releaseObject(o1);
+            m_pool.releaseObject(o2);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (m_pool.size() > 1) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+            m_pool.close();
+            assertEquals(0, wheel.size());
+        } finally {
+            wheel.cancel();
+            executor.close(5000);
+        }
+    }
+
+    public void testCloseWakesWaiters() throws Exception {
+        m_pool.setCapacityPars(0, -1, 1);
+        m_pool.start();
+        Object o = m_pool.getObject();
+        final List<Exception> errors = Collections.synchronizedList(new LinkedList<Exception>());
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    m_pool.getObject(10000);
+                } catch (Exception e) {
+                    errors.add(e);
+                }
+            }
+        };
+        t.start();
+        while (m_pool.waitingCount() == 0) Thread.sleep(1);
+        m_pool.close();
+        t.join();
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof IllegalStateException);
+        m_pool.releaseObject(o);
+        assertEquals(1, ((TestObject)o).getCloseCount());
+    }
+}
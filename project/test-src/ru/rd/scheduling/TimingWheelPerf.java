@@ -0,0 +1,102 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.scheduling;
+
+import ru.rd.courier.logging.ConsoleCourierLogger;
+import ru.rd.courier.logging.CourierLogger;
+import ru.rd.scheduling.leveled.launchers.PeriodicLauncher;
+import ru.rd.thread.WorkExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+
+/**
+ * Compares lateness of many periodic launchers sharing one timer with
+ * one slow launcher among them: plain java.util.Timer against timing wheel.
+ */
+public class TimingWheelPerf {
+    private static final int c_launcherCount = 5000;
+    private static final long c_interval = 100;
+    private static final long c_runTime = 5000;
+
+    public static void main(String[] args) throws Exception {
+        CourierLogger logger = new ConsoleCourierLogger("");
+
+        Timer timer = new Timer("PlainTimer", true);
+        report("java.util.Timer", run(timer));
+        timer.cancel();
+
+        WorkExecutor executor = new WorkExecutor(logger, "scheduler", 8, 100000, 60*1000);
+        TimingWheel wheel = new TimingWheel(logger, "Wheel", 10, executor);
+        report("TimingWheel", run(wheel));
+        System.out.println(wheel.getStateDesc());
+        wheel.cancel();
+        executor.close(2000);
+    }
+
+    private static List<PeriodicLauncher> run(Timer timer) throws Exception {
+        List<PeriodicLauncher> launchers = new ArrayList<PeriodicLauncher>(c_launcherCount);
+        launchers.add(new PeriodicLauncher(null, 1000, new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        }, timer));
+        Runnable work = new Runnable() {
+            public void run() {}
+        };
+        for (int i = 1; i < c_launcherCount; i++) {
+            launchers.add(new PeriodicLauncher(null, c_interval, work, timer));
+        }
+        for (PeriodicLauncher l: launchers) l.start(null);
+        Thread.sleep(c_runTime);
+        for (PeriodicLauncher l: launchers) l.stop();
+        return launchers;
+    }
+
+    private static void report(String desc, List<PeriodicLauncher> launchers) {
+        long count = 0, max = 0, total = 0;
+        for (PeriodicLauncher l: launchers) {
+            LatenessStat st = l.getLateness();
+            count += st.getCount();
+            total += st.getAverage() * st.getCount();
+            max = Math.max(max, st.getMax());
+        }
+        System.out.println(
+            desc + ": launches = " + count + " of " + (c_launcherCount * c_runTime / c_interval) +
+            "; avg lateness = " + (count > 0 ? total / count : 0) + " ms; max lateness = " + max + " ms"
+        );
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.scheduling;
+
+import junit.framework.TestCase;
+import ru.rd.scheduling.leveled.launchers.PeriodicLauncher;
+import ru.rd.test.TestCourierLogger;
+import ru.rd.thread.WorkExecutor;
+
+import java.util.Date;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TimingWheelTest extends TestCase {
+    private TestCourierLogger m_logger;
+    private WorkExecutor m_executor;
+    private TimingWheel m_wheel;
+
+    public TimingWheelTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        m_logger = new TestCourierLogger(false);
+        m_executor = new WorkExecutor(m_logger, "scheduler", 4, 100, 60*1000);
+        m_wheel = new TimingWheel(m_logger, "test", 1, m_executor);
+    }
+
+    protected void tearDown() throws Exception {
+        m_wheel.cancel();
+        m_executor.close(5000);
+        assertEquals(0, m_logger.getErrors().size());
+    }
+
+    private static class LatchTask extends WheelTask {
+        private final CountDownLatch m_latch;
+        private final AtomicLong m_runTime = new AtomicLong();
+
+        public LatchTask(int count) {
+            super(new LatenessStat());
+            m_latch = new CountDownLatch(count);
+        }
+
+        protected void execute() {
+            m_runTime.set(System.currentTimeMillis());
+            m_latch.countDown();
+        }
+
+        public boolean await(long timeout) throws InterruptedException {
+            return m_latch.await(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        public long getCount() {
+            return m_latch.getCount();
+        }
+    }
+
+    public void testOneShot() throws Exception {
+        LatchTask task = new LatchTask(1);
+        long start = System.currentTimeMillis();
+        m_wheel.schedule(task, 50);
+        assertEquals(1, m_wheel.size());
+        assertTrue(task.await(3000));
+        assertTrue(task.m_runTime.get() - start >= 45);
+        assertEquals(0, m_wheel.size());
+    }
+
+    public void testCascade() throws Exception {
+        // 700 ticks is beyond the first level
+        LatchTask task = new LatchTask(1);
+        long start = System.currentTimeMillis();
+        m_wheel.schedule(task, new Date(start + 700));
+        assertFalse(task.await(500));
+        assertTrue(task.await(3000));
+        assertTrue(task.m_runTime.get() - start >= 695);
+    }
+
+    public void testPeriodic() throws Exception {
+        LatchTask task = new LatchTask(5);
+        m_wheel.schedule(task, 0, 20);
+        assertTrue(task.await(3000));
+        task.cancel();
+        assertEquals(0, m_wheel.size());
+    }
+
+    public void testFixedRate() throws Exception {
+        LatchTask task = new LatchTask(5);
+        m_wheel.scheduleAtFixedRate(task, 0, 20);
+        assertTrue(task.await(3000));
+        task.cancel();
+    }
+
+    public void testCancel() throws Exception {
+        LatchTask task1 = new LatchTask(1);
+        LatchTask task2 = new LatchTask(1);
+        LatchTask task3 = new LatchTask(1);
+        m_wheel.schedule(task1, 100);
+        m_wheel.schedule(task2, 100);
+        m_wheel.schedule(task3, 100);
+        assertEquals(3, m_wheel.size());
+        assertTrue(task2.cancel());
+        assertFalse(task2.cancel());
+        assertEquals(2, m_wheel.size());
+        assertTrue(task3.cancel());
+        assertTrue(task1.await(3000));
+        assertFalse(task2.await(100));
+        assertEquals(1, task3.getCount());
+    }
+
+    public void testCancelAfterDispatch() throws Exception {
+        m_wheel.cancel();
+        m_executor.close(5000);
+        m_executor = new WorkExecutor(m_logger, "scheduler", 1, 100, 60*1000);
+        m_wheel = new TimingWheel(m_logger, "test", 1, m_executor);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        m_executor.launchWork(new Runnable() {
+            public void run() {
+                try {
+                    release.await(5000, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        });
+        LatchTask task = new LatchTask(1);
+        m_wheel.schedule(task, 0);
+        long deadline = System.currentTimeMillis() + 3000;
+        while (m_wheel.size() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        // the task waits in the executor queue
+        assertTrue(task.cancel());
+        release.countDown();
+        assertFalse(task.await(200));
+    }
+
+    public void testFarDeadline() throws Exception {
+        LatchTask task1 = new LatchTask(1);
+        LatchTask task2 = new LatchTask(1);
+        m_wheel.schedule(task1, new Date(Long.MAX_VALUE));
+        m_wheel.schedule(task2, 10L*24*60*60*1000);
+        assertEquals(2, m_wheel.size());
+        assertFalse(task1.await(50));
+        assertTrue(task1.cancel());
+        assertTrue(task2.cancel());
+        assertEquals(0, m_wheel.size());
+    }
+
+    public void testScheduledTwice() throws Exception {
+        LatchTask task = new LatchTask(1);
+        m_wheel.schedule(task, 1000);
+        try {
+            m_wheel.schedule(task, 1000);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        task.cancel();
+    }
+
+    public void testPlainTimerTask() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_wheel.schedule(new TimerTask() {
+            public void run() {
+                latch.countDown();
+            }
+        }, 10);
+        assertEquals(0, m_wheel.size());
+        assertTrue(latch.await(3000, TimeUnit.MILLISECONDS));
+    }
+
+    public void testSlowTaskDoesNotDelayOthers() throws Exception {
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch slowRelease = new CountDownLatch(1);
+        m_wheel.schedule(new WheelTask() {
+            protected void execute() {
+                slowStarted.countDown();
+                try {
+                    slowRelease.await(5000, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        }, 0);
+        assertTrue(slowStarted.await(3000, TimeUnit.MILLISECONDS));
+        LatchTask task = new LatchTask(5);
+        m_wheel.schedule(task, 0, 10);
+        try {
+            assertTrue(task.await(2000));
+        } finally {
+            slowRelease.countDown();
+            task.cancel();
+        }
+    }
+
+    public void testPeriodicLauncher() throws Exception {
+        final AtomicInteger count = new AtomicInteger(0);
+        PeriodicLauncher launcher = new PeriodicLauncher(null, 10, new Runnable() {
+            public void run() {
+                count.incrementAndGet();
+            }
+        }, m_wheel);
+        launcher.start(null);
+        long deadline = System.currentTimeMillis() + 3000;
+        while (count.get() < 5) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        launcher.stop();
+        assertEquals(0, m_wheel.size());
+        assertTrue(launcher.getLateness().getCount() >= 5);
+        assertTrue(m_wheel.getLateness().getCount() >= 5);
+        assertTrue(LatenessStat.getNamedStatsDesc().indexOf("periodic launcher '") >= 0);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2005-2017 Courier AUTHORS: please see AUTHORS file.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ *    copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ *    copyright notice, this list of conditions and the following
+ *    disclaimer in the documentation and/or other materials
+ *    provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AUTHORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF
+ * THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ */
+package ru.rd.thread;
+
+import junit.framework.TestCase;
+import ru.rd.test.TestCourierLogger;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class WorkExecutorTest extends TestCase {
+    private TestCourierLogger m_logger;
+    private WorkExecutor m_executor;
+    private Collection<WaitRunnable> m_waitWorks = new LinkedList<WaitRunnable>();
+
+    public WorkExecutorTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        m_logger = new TestCourierLogger(false);
+        m_executor = new WorkExecutor(m_logger, "test", 2, 10, 60*1000);
+    }
+
+    protected void tearDown() throws Exception {
+        for (WaitRunnable wr: m_waitWorks) wr.stop();
+        m_executor.close(5000);
+        m_executor = null;
+        assertEquals(0, m_logger.getErrors().size());
+    }
+
+    private WaitRunnable launchWaitWork(long workTimeout) {
+        WaitRunnable wr = new WaitRunnable(workTimeout);
+        m_waitWorks.add(wr);
+        m_executor.launchWork(wr);
+        return wr;
+    }
+
+    private void waitActive(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (m_executor.getActiveCount() != count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    public void testQueueBeyondMaxThreads() throws Exception {
+        final List<Integer> done = Collections.synchronizedList(new LinkedList<Integer>());
+        launchWaitWork(3000);
+        launchWaitWork(3000);
+        waitActive(2);
+        for (int i = 0; i < 3; i++) {
+            final int n = i;
+            m_executor.launchWork(new Runnable() {
+                public void run() { done.add(n); }
+            });
+        }
+        assertEquals(2, m_executor.getThreadCount());
+        assertEquals(3, m_executor.getQueueSize());
+        assertTrue(done.isEmpty());
+
+        m_waitWorks.iterator().next().stop();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (done.size() < 3) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        assertEquals(3, done.size());
+        assertTrue(done.indexOf(0) < done.indexOf(1));
+        assertTrue(done.indexOf(1) < done.indexOf(2));
+        assertEquals(2, m_executor.getThreadCount());
+    }
+
+    public void testFreeListener() throws Exception {
+        final List<Runnable> freed = Collections.synchronizedList(new LinkedList<Runnable>());
+        Runnable work = new Runnable() { public void run() {} };
+        m_executor.launchWork(work, new FreeListener() {
+            public void free(Runnable w) { freed.add(w); }
+        });
+        long deadline = System.currentTimeMillis() + 5000;
+        while (freed.isEmpty()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        assertSame(work, freed.get(0));
+        assertEquals(1, m_executor.getCompletedCount());
+    }
+
+    public void testWaitTimeoutAbandons() throws Exception {
+        assertTrue(m_executor.launchWorkAndWait(new Runnable() { public void run() {} }, 1000));
+
+        WaitRunnable wr = new WaitRunnable(3000);
+        m_waitWorks.add(wr);
+        assertFalse(m_executor.launchWorkAndWait(wr, 50));
+        waitActive(0);
+
+        // the hung work does not hold a thread of the group
+        launchWaitWork(3000);
+        launchWaitWork(3000);
+        waitActive(2);
+        assertEquals(2, m_executor.getThreadCount());
+    }
+
+    public void testAbandonWork() throws Exception {
+        WaitRunnable wr = launchWaitWork(3000);
+        waitActive(1);
+        assertTrue(m_executor.abandonWork(wr));
+        assertEquals(0, m_executor.getThreadCount());
+        assertFalse(m_executor.abandonWork(wr));
+    }
+
+    public void testTryLaunchWhenFull() throws Exception {
+        m_executor.close(1000);
+        m_executor = new WorkExecutor(m_logger, "test", 1, 1, 60*1000);
+        launchWaitWork(3000);
+        waitActive(1);
+        assertTrue(m_executor.tryLaunchWork(new Runnable() { public void run() {} }, null));
+        assertFalse(m_executor.tryLaunchWork(new Runnable() { public void run() {} }, null));
+    }
+
+    public void testTryLaunchIdleAndCancel() throws Exception {
+        launchWaitWork(3000);
+        waitActive(1);
+        // the second thread may still be started
+        WaitRunnable wr = new WaitRunnable(3000);
+        m_waitWorks.add(wr);
+        assertTrue(m_executor.tryLaunchIdleWork(wr, null));
+        waitActive(2);
+        Runnable queued = new Runnable() { public void run() {} };
+        assertFalse(m_executor.tryLaunchIdleWork(queued, null));
+
+        m_executor.launchWork(queued);
+        assertEquals(1, m_executor.getQueueSize());
+        assertFalse(m_executor.cancelWork(wr));
+        assertTrue(m_executor.cancelWork(queued));
+        assertEquals(0, m_executor.getQueueSize());
+        assertFalse(m_executor.cancelWork(queued));
+    }
+
+    public void testWorkException() throws Exception {
+        m_executor.launchWorkAndWait(new Runnable() {
+            public void run() { throw new RuntimeException("test"); }
+        }, 1000);
+        assertEquals(1, m_logger.getErrors().size());
+        m_logger.getErrors().clear();
+        assertTrue(m_executor.launchWorkAndWait(new Runnable() { public void run() {} }, 1000));
+    }
+
+    public void testClose() throws Exception {
+        final List<Integer> done = Collections.synchronizedList(new LinkedList<Integer>());
+        for (int i = 0; i < 5; i++) {
+            final int n = i;
+            m_executor.launchWork(new Runnable() {
+                public void run() { done.add(n); }
+            });
+        }
+        assertTrue(m_executor.close(5000));
+        assertEquals(5, done.size());
+        assertEquals(0, m_executor.getThreadCount());
+        try {
+            m_executor.launchWork(new Runnable() { public void run() {} });
+            fail("Closed executor accepted work");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testVirtual() throws Exception {
+        if (!VirtualThreads.isSupported()) {
+            try {
+                new WorkExecutor(m_logger, "virtual");
+                fail("Virtual executor created on JVM not supporting virtual threads");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+            return;
+        }
+        m_executor.close(1000);
+        m_executor = new WorkExecutor(m_logger, "virtual");
+        assertTrue(m_executor.isVirtual());
+        for (int i = 0; i < 1000; i++) launchWaitWork(3000);
+        waitActive(1000);
+        assertEquals(0, m_executor.getQueueSize());
+
+        WaitRunnable wr = new WaitRunnable(3000);
+        m_waitWorks.add(wr);
+        assertFalse(m_executor.launchWorkAndWait(wr, 50));
+        waitActive(1000);
+
+        for (WaitRunnable w: m_waitWorks) w.stop();
+        m_waitWorks.clear();
+        assertTrue(m_executor.close(5000));
+        assertTrue(m_executor.getCompletedCount() >= 1000);
+    }
+
+    public void testWorkTakenByIdleWorker() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            m_executor.close(1000);
+            m_executor = new WorkExecutor(m_logger, "test", 2, 10, 60*1000);
+            assertTrue(m_executor.launchWorkAndWait(new Runnable() { public void run() {} }, 1000));
+            // the only worker is idle; the first work waits for the second one
+            final CountDownLatch latch = new CountDownLatch(1);
+            final boolean[] res = new boolean[1];
+            m_executor.launchWork(new Runnable() {
+                public void run() {
+                    try {
+                        res[0] = latch.await(5000, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        res[0] = false;
+                    }
+                }
+            });
+            m_executor.launchWork(new Runnable() {
+                public void run() { latch.countDown(); }
+            });
+            assertTrue(latch.await(5000, TimeUnit.MILLISECONDS));
+            assertTrue(m_executor.close(5000));
+            assertTrue(res[0]);
+        }
+    }
+
+    public void testKeepAlive() throws Exception {
+        m_executor.close(1000);
+        m_executor = new WorkExecutor(m_logger, "test", 2, 10, 20);
+        assertTrue(m_executor.launchWorkAndWait(new Runnable() { public void run() {} }, 1000));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (m_executor.getThreadCount() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}